@@ -3,9 +3,8 @@ package com.arextest.config.utils;
 import com.arextest.config.model.dao.BaseEntity;
 import com.mongodb.client.model.Updates;
 import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
 import org.bson.conversions.Bson;
@@ -14,6 +13,17 @@ import org.springframework.data.mongodb.core.query.Update;
 @Slf4j
 public class MongoHelper {
 
+  /**
+   * the accessible fields of a class and its super classes, walked once per class
+   */
+  private static final ClassValue<Map<String, Field>> FIELDS =
+      new ClassValue<Map<String, Field>>() {
+        @Override
+        protected Map<String, Field> computeValue(Class<?> type) {
+          return getAllField(type);
+        }
+      };
+
   public static Bson getUpdate() {
     return Updates.combine(
         Updates.set(BaseEntity.Fields.dataChangeUpdateTime, System.currentTimeMillis()),
@@ -26,35 +36,41 @@ public class MongoHelper {
   }
 
   public static Update getFullTemplateUpdates(Object obj) {
-    Map<String, Field> allFields = getAllField(obj);
-    return getMongoTemplateUpdates(obj, allFields.keySet().toArray(new String[0]));
+    Update update = new Update();
+    for (Field field : FIELDS.get(obj.getClass()).values()) {
+      setIfNotNull(update, obj, field);
+    }
+    return update;
   }
 
   public static Update getMongoTemplateUpdates(Object obj, String... fieldNames) {
     Update update = new Update();
-    Map<String, Field> allField = getAllField(obj);
+    Map<String, Field> allField = FIELDS.get(obj.getClass());
     for (String fieldName : fieldNames) {
-      try {
-        if (allField.containsKey(fieldName)) {
-          Field declaredField = allField.get(fieldName);
-          declaredField.setAccessible(true);
-          Object targetObj = declaredField.get(obj);
-          if (targetObj != null) {
-            update.set(fieldName, targetObj);
-          }
-        }
-      } catch (IllegalAccessException e) {
-        LOGGER.error(String.format("Class:[%s]. failed to get field %s", obj.getClass().getName(),
-                fieldName),
-            e);
+      Field field = allField.get(fieldName);
+      if (field != null) {
+        setIfNotNull(update, obj, field);
       }
     }
     return update;
   }
 
-  private static Map<String, Field> getAllField(Object bean) {
-    Class<?> clazz = bean.getClass();
-    Map<String, Field> fieldMap = new HashMap<>();
+  private static void setIfNotNull(Update update, Object obj, Field field) {
+    try {
+      Object targetObj = field.get(obj);
+      if (targetObj != null) {
+        update.set(field.getName(), targetObj);
+      }
+    } catch (IllegalAccessException e) {
+      LOGGER.error(String.format("Class:[%s]. failed to get field %s", obj.getClass().getName(),
+              field.getName()),
+          e);
+    }
+  }
+
+  private static Map<String, Field> getAllField(Class<?> beanClass) {
+    Class<?> clazz = beanClass;
+    Map<String, Field> fieldMap = new LinkedHashMap<>();
     while (clazz != null) {
       for (Field field : clazz.getDeclaredFields()) {
         // ignore static and synthetic field such as $jacocoData
@@ -62,11 +78,12 @@ public class MongoHelper {
           continue;
         }
         if (!fieldMap.containsKey(field.getName())) {
+          field.setAccessible(true);
           fieldMap.put(field.getName(), field);
         }
       }
       clazz = clazz.getSuperclass();
     }
-    return fieldMap;
+    return Collections.unmodifiableMap(fieldMap);
   }
 }
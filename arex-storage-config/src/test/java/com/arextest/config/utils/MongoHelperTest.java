@@ -0,0 +1,78 @@
+package com.arextest.config.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.arextest.config.model.dao.BaseEntity;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Update;
+
+class MongoHelperTest {
+
+  @Test
+  void setNonNullFieldsOfClassHierarchy() {
+    Document set = setOf(MongoHelper.getFullTemplateUpdates(entity()));
+
+    assertEquals("app", set.get("appId"));
+    assertEquals(1L, set.get(BaseEntity.Fields.dataChangeCreateTime));
+    assertFalse(set.containsKey("status"));
+    assertFalse(set.containsKey(BaseEntity.Fields.id));
+  }
+
+  @Test
+  void setOnlyNamedFields() {
+    Document set = setOf(MongoHelper.getMongoTemplateUpdates(entity(), "appId", "status",
+        "unknown"));
+
+    assertEquals(1, set.size());
+    assertEquals("app", set.get("appId"));
+  }
+
+  @Test
+  void keepFieldOfSubclassOverShadowedOne() {
+    ShadowingEntity entity = new ShadowingEntity();
+    entity.setName("super");
+    entity.name = "sub";
+
+    assertEquals("sub", setOf(MongoHelper.getFullTemplateUpdates(entity)).get("name"));
+    // the accessors are cached per class, a second call reads the same fields
+    assertEquals("sub", setOf(MongoHelper.getMongoTemplateUpdates(entity, "name")).get("name"));
+  }
+
+  private static TestEntity entity() {
+    TestEntity entity = new TestEntity();
+    entity.setAppId("app");
+    entity.setDataChangeCreateTime(1L);
+    return entity;
+  }
+
+  private static Document setOf(Update update) {
+    Document set = (Document) update.getUpdateObject().get("$set");
+    return set == null ? new Document() : set;
+  }
+
+  private static class TestEntity extends BaseEntity {
+
+    private String appId;
+    private Integer status;
+
+    void setAppId(String appId) {
+      this.appId = appId;
+    }
+  }
+
+  private static class NamedEntity {
+
+    private String name;
+
+    void setName(String name) {
+      this.name = name;
+    }
+  }
+
+  private static class ShadowingEntity extends NamedEntity {
+
+    private String name;
+  }
+}
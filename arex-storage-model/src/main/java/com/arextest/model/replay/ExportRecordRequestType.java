@@ -0,0 +1,20 @@
+package com.arextest.model.replay;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Stream the entry points of a range, the page index is ignored and a positive page size limits
+ * the whole export.
+ */
+@Getter
+@Setter
+@ToString(callSuper = true)
+public class ExportRecordRequestType extends PagedRequestType {
+
+  /**
+   * write the dependency mockers of each entry point right after it
+   */
+  private boolean includeDependencies;
+}
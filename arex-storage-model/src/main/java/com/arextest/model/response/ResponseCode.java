@@ -24,7 +24,11 @@ public enum ResponseCode {
   /**
    * means complete the request required resources not found.
    */
-  REQUESTED_RESOURCE_NOT_FOUND(3);
+  REQUESTED_RESOURCE_NOT_FOUND(3),
+  /**
+   * means the request is shed under overload, retry after the Retry-After header.
+   */
+  REQUESTED_TOO_MANY(4);
   @Getter
   private final int codeValue;
 
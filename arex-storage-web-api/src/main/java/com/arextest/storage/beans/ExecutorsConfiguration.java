@@ -2,6 +2,7 @@ package com.arextest.storage.beans;
 
 import com.alibaba.ttl.threadpool.TtlExecutors;
 import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.storage.service.spool.MockerSpool;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -24,6 +25,10 @@ public class ExecutorsConfiguration implements Thread.UncaughtExceptionHandler {
   private static final int CORE_POOL_SIZE = 400;
   private static final long KEEP_ALIVE_TIME = 60L;
   private static final String COVERAGE_HANDLER_EXECUTOR_CORE_POOL_SIZE = "coverage.handler.executor.core.pool.size";
+  private static final String FAN_OUT_EXECUTOR_CORE_POOL_SIZE = "fan.out.executor.core.pool.size";
+  private static final String CACHE_PRELOAD_EXECUTOR_CORE_POOL_SIZE = "cache.preload.executor.core.pool.size";
+  private static final String AGENT_IO_EXECUTOR_CORE_POOL_SIZE = "agent.io.executor.core.pool.size";
+  private static final String MOCK_QUERY_STAGE_EXECUTOR_CORE_POOL_SIZE = "mock.query.stage.executor.core.pool.size";
   private static final int DEFAULT_CORE_POOL_SIZE = Runtime.getRuntime().availableProcessors();
   @Resource
   private DefaultApplicationConfig defaultApplicationConfig;
@@ -74,6 +79,113 @@ public class ExecutorsConfiguration implements Thread.UncaughtExceptionHandler {
     return TtlExecutors.getTtlExecutorService(executorService);
   }
 
+  /**
+   * Runs the per category sub queries of one record level operation in parallel, when the pool is
+   * saturated the caller runs the sub query itself, which degrades to the sequential behavior.
+   */
+  @Bean
+  public ExecutorService categoryFanOutExecutor() {
+    int corePoolSize = defaultApplicationConfig.getConfigAsInt(FAN_OUT_EXECUTOR_CORE_POOL_SIZE,
+        4 * DEFAULT_CORE_POOL_SIZE);
+    ExecutorService executorService = new ThreadPoolExecutor(corePoolSize, corePoolSize,
+        KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(1000),
+        createThreadFac("categoryFanOut-executor-%d"),
+        new CallerRunsPolicy());
+    return TtlExecutors.getTtlExecutorService(executorService);
+  }
+
+  /**
+   * Preloads the records of the batch cache loads and prefetches, its size bounds the preloads in
+   * flight. A full pool rejects, the batch load then preloads in the caller and the prefetch is
+   * skipped.
+   */
+  @Bean
+  public ExecutorService cachePreloadExecutor() {
+    int corePoolSize = defaultApplicationConfig.getConfigAsInt(
+        CACHE_PRELOAD_EXECUTOR_CORE_POOL_SIZE, 2 * DEFAULT_CORE_POOL_SIZE);
+    ExecutorService executorService = new ThreadPoolExecutor(corePoolSize, corePoolSize,
+        KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(1000),
+        createThreadFac("cachePreload-executor-%d"),
+        new ThreadPoolExecutor.AbortPolicy());
+    return TtlExecutors.getTtlExecutorService(executorService);
+  }
+
+  /**
+   * Handles the agent queries and saves, which mostly wait on redis and mongo, off the request
+   * threads. When the pool is saturated the request thread handles the request itself, which
+   * degrades to the synchronous behavior.
+   */
+  @Bean
+  public ExecutorService agentIoExecutor() {
+    int corePoolSize = defaultApplicationConfig.getConfigAsInt(AGENT_IO_EXECUTOR_CORE_POOL_SIZE,
+        CORE_POOL_SIZE);
+    ExecutorService executorService = new ThreadPoolExecutor(corePoolSize, corePoolSize,
+        KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(2000),
+        createThreadFac("agentIo-executor-%d"),
+        new CallerRunsPolicy());
+    return TtlExecutors.getTtlExecutorService(executorService);
+  }
+
+  /**
+   * Answers the agent requests still queued on the agent io executor at their deadline.
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  public ScheduledExecutorService agentDeadlineScheduler() {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+        createThreadFac("agentDeadline-scheduler-%d"), new DiscardPolicy());
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  /**
+   * Runs the bounded stages of the agent mock queries, e.g. the preload fallback and its hedge,
+   * while the query waits until their deadline. A full pool rejects, the query then runs the stage
+   * itself unbounded, and a hedge is not started.
+   */
+  @Bean
+  public ExecutorService mockQueryStageExecutor() {
+    int corePoolSize = defaultApplicationConfig.getConfigAsInt(
+        MOCK_QUERY_STAGE_EXECUTOR_CORE_POOL_SIZE, 4 * DEFAULT_CORE_POOL_SIZE);
+    ExecutorService executorService = new ThreadPoolExecutor(corePoolSize, corePoolSize,
+        KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(1000),
+        createThreadFac("mockQueryStage-executor-%d"),
+        new ThreadPoolExecutor.AbortPolicy());
+    return TtlExecutors.getTtlExecutorService(executorService);
+  }
+
+  /**
+   * Saves the mockers drained from the spool, the spool never has more saves in flight than the
+   * threads of the pool.
+   */
+  @Bean
+  public ExecutorService spoolDrainExecutor() {
+    int corePoolSize = defaultApplicationConfig.getConfigAsInt(
+        MockerSpool.SPOOL_DRAIN_CONCURRENCY, MockerSpool.DEFAULT_DRAIN_CONCURRENCY);
+    ExecutorService executorService = new ThreadPoolExecutor(corePoolSize, corePoolSize,
+        KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        createThreadFac("spoolDrain-executor-%d"));
+    return TtlExecutors.getTtlExecutorService(executorService);
+  }
+
+  /**
+   * Runs the maintenance of the preloaded record ledger and removes the redis keys of the records
+   * it evicts, off the common pool. Unbounded, the caller of a rejected task would be a preload
+   * holding the lock of a record the eviction waits for.
+   */
+  @Bean
+  public ExecutorService recordEvictionExecutor() {
+    ExecutorService executorService = new ThreadPoolExecutor(1, 1,
+        KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        createThreadFac("recordEviction-executor-%d"));
+    return TtlExecutors.getTtlExecutorService(executorService);
+  }
+
   private ThreadFactory createThreadFac(String namePattern) {
     return new ThreadFactoryBuilder().setNameFormat(namePattern)
         .setDaemon(true)
@@ -3,7 +3,6 @@ package com.arextest.storage.beans;
 import com.arextest.common.cache.CacheProvider;
 import com.arextest.common.cache.LockWrapper;
 import com.arextest.model.mock.AREXMocker;
-import com.arextest.model.mock.AbstractMocker;
 import com.arextest.model.mock.MockCategoryType;
 import com.arextest.storage.cache.CacheKeyUtils;
 import com.arextest.storage.enums.MongoCollectionIndexConfigEnum;
@@ -15,7 +14,6 @@ import com.mongodb.client.ListIndexesIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.IndexOptions;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -44,7 +42,7 @@ public class IndexesSettingConfiguration {
   private static final String REDIS_KEY_VERSION = "storage_version";
 
   // increment this version when you want to recreate indexes
-  private static final int INDEX_VERSION = 2;
+  private static final int INDEX_VERSION = 5;
 
   @Resource
   private CacheProvider cacheProvider;
@@ -52,6 +50,9 @@ public class IndexesSettingConfiguration {
   @Resource(name = "custom-fork-join-executor")
   private ExecutorService customForkJoinExecutor;
 
+  @Resource
+  private MockerIndexManager mockerIndexManager;
+
   public void setIndexes(MongoDatabase mongoDatabase) {
     Runnable runnable = () -> {
       LockWrapper lock = cacheProvider.getLock("setIndexes");
@@ -94,40 +95,10 @@ public class IndexesSettingConfiguration {
 
   private void ensureMockerQueryIndex(MongoDatabase database) {
     for (MockCategoryType category : MockCategoryType.DEFAULTS) {
-        for (Field field : ProviderNames.class.getDeclaredFields()) {
-          String providerName = null;
-          try {
-            providerName = (String) field.get(ProviderNames.class);
-          } catch (IllegalAccessException e) {
-            LOGGER.error("get provider name failed", e);
-            continue;
-          }
-
-          MongoCollection<AREXMocker> collection =
-              database.getCollection(getCollectionName(category, providerName),
-                  AREXMocker.class);
-          try {
-            Document index = new Document();
-            index.append(AbstractMocker.Fields.recordId, 1);
-            collection.createIndex(index);
-          } catch (MongoCommandException e) {
-            LOGGER.info("create index failed for {}", category.getName(), e);
-          }
-
-          try {
-            Document index = new Document();
-            index.append(AbstractMocker.Fields.appId, 1);
-            index.append(AbstractMocker.Fields.operationName, 1);
-            collection.createIndex(index);
-          } catch (MongoCommandException e) {
-            LOGGER.info("create index failed for {}", category.getName(), e);
-          }
-
-          if (providerName.equals(ProviderNames.DEFAULT)) {
-            setTTLIndexInMockerCollection(category, database);
-          }
-        }
+      setTTLIndexInMockerCollection(category, database);
     }
+    // the indexes of the query shapes are rolled out in the background
+    mockerIndexManager.buildIndexes(database);
   }
 
   private void setTTLIndexInMockerCollection(MockCategoryType category,
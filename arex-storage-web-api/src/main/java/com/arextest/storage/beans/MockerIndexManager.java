@@ -0,0 +1,255 @@
+package com.arextest.storage.beans;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.enums.MockerQueryShapeEnum;
+import com.arextest.storage.metric.MetricListener;
+import com.arextest.storage.repository.ProviderNames;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the query shapes of the mocker collections covered by their indexes.
+ * <p>
+ * The missing indexes are built one at a time, on the collections of every provider and category,
+ * with a pause between two builds, so a new shape is rolled out without loading the database with
+ * concurrent index builds. Once built, the shapes are explained and those still served by a
+ * collection scan are reported, e.g. when a query no longer matches its declared shape.
+ */
+@Slf4j
+@Component
+public class MockerIndexManager {
+
+  private static final String BUILD_INTERVAL_MILLIS = "mock.index.build.interval.millis";
+  private static final String EXPLAIN_ENABLED = "mock.index.explain.enabled";
+  private static final long DEFAULT_BUILD_INTERVAL_MILLIS = 5_000L;
+  private static final String COLLECTION_SCAN_METRIC = "mock.index.collection.scan";
+  private static final String COLLECTION_SUFFIX = "Mocker";
+  private static final String KEY = "key";
+  private static final String SHAPE = "shape";
+  private static final String STAGE = "stage";
+  private static final String QUERY_PLANNER = "queryPlanner";
+  private static final String REJECTED_PLANS = "rejectedPlans";
+  private static final String COLLECTION_SCAN_STAGE = "COLLSCAN";
+
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  private final List<MetricListener> metricListeners;
+
+  public MockerIndexManager(DefaultApplicationConfig defaultApplicationConfig,
+      List<MetricListener> metricListeners) {
+    this.defaultApplicationConfig = defaultApplicationConfig;
+    this.metricListeners = metricListeners;
+  }
+
+  /**
+   * Build the missing indexes in the background, one per build interval.
+   */
+  public void buildIndexes(MongoDatabase database) {
+    Queue<IndexTask> tasks = new ArrayDeque<>(missingIndexes(database));
+    if (tasks.isEmpty()) {
+      reportCollectionScans(database);
+      return;
+    }
+    long intervalMillis = defaultApplicationConfig.getConfigAsLong(BUILD_INTERVAL_MILLIS,
+        DEFAULT_BUILD_INTERVAL_MILLIS);
+    LOGGER.info("build {} missing mocker indexes, one per {} ms", tasks.size(), intervalMillis);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("mocker-index-builder-%d").setDaemon(true)
+            .build());
+    scheduler.scheduleWithFixedDelay(() -> {
+      IndexTask task = tasks.poll();
+      if (task == null) {
+        scheduler.shutdown();
+        reportCollectionScans(database);
+        return;
+      }
+      createIndex(database, task);
+    }, 0L, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the indexes of the declared shapes not existing yet
+   */
+  List<IndexTask> missingIndexes(MongoDatabase database) {
+    List<IndexTask> tasks = new ArrayList<>();
+    for (Map.Entry<String, MockCategoryType> collection : mockerCollections().entrySet()) {
+      List<Document> existing = new ArrayList<>();
+      try {
+        for (Document index : database.getCollection(collection.getKey()).listIndexes()) {
+          existing.add(index.get(KEY, Document.class));
+        }
+      } catch (MongoCommandException e) {
+        LOGGER.warn("list indexes failed for {}", collection.getKey(), e);
+        continue;
+      }
+      for (MockerQueryShapeEnum shape : MockerQueryShapeEnum.shapesOf(collection.getValue())) {
+        Document keys = shape.indexKeys();
+        if (existing.stream().noneMatch(index -> sameKeys(index, keys))) {
+          tasks.add(new IndexTask(collection.getKey(), shape));
+        }
+      }
+    }
+    return tasks;
+  }
+
+  void createIndex(MongoDatabase database, IndexTask task) {
+    long start = System.currentTimeMillis();
+    try {
+      database.getCollection(task.getCollectionName())
+          .createIndex(task.getShape().indexKeys(), new IndexOptions().background(true));
+      LOGGER.info("created index of {} on {}, cost: {} ms", task.getShape(),
+          task.getCollectionName(), System.currentTimeMillis() - start);
+    } catch (MongoCommandException e) {
+      LOGGER.warn("create index of {} failed on {}", task.getShape(), task.getCollectionName(), e);
+    }
+  }
+
+  /**
+   * Explain the sample query of every shape on its collections.
+   *
+   * @return the collection and shape of the queries served by a collection scan
+   */
+  public List<String> findCollectionScans(MongoDatabase database) {
+    List<String> scans = new ArrayList<>();
+    Date now = new Date();
+    for (Map.Entry<String, MockCategoryType> collection : mockerCollections().entrySet()) {
+      MongoCollection<Document> mongoCollection = database.getCollection(collection.getKey());
+      for (MockerQueryShapeEnum shape : MockerQueryShapeEnum.shapesOf(collection.getValue())) {
+        try {
+          FindIterable<Document> query = mongoCollection.find(shape.sampleFilter(now));
+          Bson sort = shape.sampleSort();
+          if (sort != null) {
+            query.sort(sort);
+          }
+          Document plan = query.explain().get(QUERY_PLANNER, Document.class);
+          if (hasStage(plan, COLLECTION_SCAN_STAGE)) {
+            scans.add(collection.getKey() + "." + shape);
+          }
+        } catch (MongoCommandException e) {
+          LOGGER.warn("explain {} failed on {}", shape, collection.getKey(), e);
+        }
+      }
+    }
+    return scans;
+  }
+
+  private void reportCollectionScans(MongoDatabase database) {
+    if (!defaultApplicationConfig.getConfigAsBoolean(EXPLAIN_ENABLED, false)) {
+      return;
+    }
+    List<String> scans = findCollectionScans(database);
+    for (String scan : scans) {
+      LOGGER.warn("mocker query shape served by a collection scan: {}", scan);
+      if (CollectionUtils.isEmpty(metricListeners)) {
+        continue;
+      }
+      Map<String, String> tags = new HashMap<>(2);
+      tags.put(SHAPE, scan);
+      for (MetricListener metricListener : metricListeners) {
+        metricListener.recordSize(COLLECTION_SCAN_METRIC, tags, 1);
+      }
+    }
+    LOGGER.info("explained mocker query shapes, collection scans: {}", scans.size());
+  }
+
+  /**
+   * the plans of a sharded cluster nest the plans of the shards, the stages are searched anywhere
+   * but in the rejected plans
+   */
+  @SuppressWarnings("unchecked")
+  static boolean hasStage(Object plan, String stage) {
+    if (plan instanceof Document) {
+      Document document = (Document) plan;
+      if (stage.equals(document.get(STAGE))) {
+        return true;
+      }
+      for (Map.Entry<String, Object> entry : document.entrySet()) {
+        if (!REJECTED_PLANS.equals(entry.getKey()) && hasStage(entry.getValue(), stage)) {
+          return true;
+        }
+      }
+    } else if (plan instanceof List) {
+      for (Object value : (List<Object>) plan) {
+        if (hasStage(value, stage)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * the same fields in the same order and directions, a document equals ignoring the order
+   */
+  static boolean sameKeys(Document existing, Document keys) {
+    if (existing == null || existing.size() != keys.size()) {
+      return false;
+    }
+    Iterator<Map.Entry<String, Object>> existingKeys = existing.entrySet().iterator();
+    for (Map.Entry<String, Object> key : keys.entrySet()) {
+      Map.Entry<String, Object> existingKey = existingKeys.next();
+      if (!existingKey.getKey().equals(key.getKey())
+          || !(existingKey.getValue() instanceof Number)
+          || Math.signum(((Number) existingKey.getValue()).doubleValue())
+          != Math.signum(((Number) key.getValue()).doubleValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return collection name -> its category, of every provider
+   */
+  private static Map<String, MockCategoryType> mockerCollections() {
+    Map<String, MockCategoryType> collections = new HashMap<>();
+    for (Field field : ProviderNames.class.getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers()) || field.getType() != String.class) {
+        continue;
+      }
+      String providerName;
+      try {
+        providerName = (String) field.get(null);
+      } catch (IllegalAccessException e) {
+        LOGGER.error("get provider name failed", e);
+        continue;
+      }
+      for (MockCategoryType category : MockCategoryType.DEFAULTS) {
+        collections.put(providerName + category.getName() + COLLECTION_SUFFIX, category);
+      }
+    }
+    return collections;
+  }
+
+  @Getter
+  @AllArgsConstructor
+  static final class IndexTask {
+
+    private final String collectionName;
+    private final MockerQueryShapeEnum shape;
+  }
+}
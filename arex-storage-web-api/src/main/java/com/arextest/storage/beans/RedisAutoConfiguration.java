@@ -4,6 +4,8 @@ import com.arextest.common.cache.CacheProvider;
 import com.arextest.common.cache.DefaultRedisCacheProvider;
 import com.arextest.common.cache.SentinelRedisCacheProvider;
 import com.arextest.common.cache.redistemplate.RedisTemplateCacheProvider;
+import com.arextest.storage.cache.CacheKeyUtils;
+import javax.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.redisson.api.RedissonClient;
@@ -31,6 +33,18 @@ public class RedisAutoConfiguration {
   @Value("${arex.redis.sentinelUrl:}")
   private String sentinelUrl;
 
+  /**
+   * wrap the record id of the record scoped keys in a hash tag, for redis cluster deployments
+   */
+  @Value("${arex.storage.cache.hashTag.enabled:false}")
+  private boolean hashTagEnabled;
+
+  @PostConstruct
+  public void initCacheKeyLayout() {
+    CacheKeyUtils.setRecordHashTagEnabled(hashTagEnabled);
+    LOGGER.info("record hash tagged cache keys enabled: {}", hashTagEnabled);
+  }
+
 
   @Bean
   @ConditionalOnMissingBean(CacheProvider.class)
@@ -30,13 +30,20 @@ import com.arextest.storage.repository.RepositoryProviderFactory;
 import com.arextest.storage.repository.impl.mongo.AREXMockerMongoRepositoryProvider;
 import com.arextest.storage.repository.impl.mongo.AREXQueryMockerMongoRepositoryProvider;
 import com.arextest.storage.repository.impl.mongo.DesensitizationLoader;
+import com.arextest.storage.repository.impl.mongo.MockerPartitions;
 import com.arextest.storage.repository.impl.mongo.converters.ArexEigenCompressionConverter;
 import com.arextest.storage.repository.impl.mongo.converters.ArexMockerCompressionConverter;
 import com.arextest.storage.serialization.ZstdJacksonSerializer;
 import com.arextest.storage.service.AgentWorkingService;
+import com.arextest.storage.service.CachePreloadService;
+import com.arextest.storage.service.EigenEnrichmentService;
+import com.arextest.storage.service.FanOutService;
 import com.arextest.storage.service.InvalidRecordService;
+import com.arextest.storage.service.MockQueryStageGuard;
 import com.arextest.storage.service.MockSourceEditionService;
 import com.arextest.storage.service.PrepareMockResultService;
+import com.arextest.storage.service.RecordExportService;
+import com.arextest.storage.service.RecordManifestService;
 import com.arextest.storage.service.QueryConfigService;
 import com.arextest.storage.service.ScenePoolService;
 import com.arextest.storage.service.ScheduleReplayingService;
@@ -46,6 +53,7 @@ import com.arextest.storage.service.listener.AgentWorkingListener;
 import com.arextest.storage.service.listener.AutoDiscoveryEntryPointListener;
 import com.arextest.storage.web.controller.MockSourceEditionController;
 import com.arextest.storage.web.controller.ScheduleReplayQueryController;
+import com.mongodb.ReadPreference;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
@@ -55,10 +63,12 @@ import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.bson.conversions.Bson;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -132,6 +142,26 @@ public class StorageAutoConfiguration {
     return new MongoTemplate(factory, converter);
   }
 
+  /**
+   * The template of the bulk and range reads, e.g. the range queries, the counts and the export, so
+   * they do not compete with the recording writes on the primary when served by the secondaries.
+   * The reads of a single record, which may just have been saved, stay on the primary. Not a
+   * candidate of the injections by type, the repositories ask for it by name.
+   */
+  @Bean(name = "replayReadMongoTemplate", autowireCandidate = false)
+  MongoTemplate replayReadMongoTemplate(MongoDatabaseFactory factory, MongoConverter converter) {
+    MongoTemplate template = new MongoTemplate(factory, converter);
+    if (properties.isReplayReadSecondaryPreferred()) {
+      long maxStalenessSeconds = Math.max(properties.getReplayReadMaxStalenessSeconds(),
+          StorageConfigurationProperties.MIN_MAX_STALENESS_SECONDS);
+      template.setReadPreference(
+          ReadPreference.secondaryPreferred(maxStalenessSeconds, TimeUnit.SECONDS));
+      LOGGER.info("replay reads from secondary preferred, max staleness: {} s",
+          maxStalenessSeconds);
+    }
+    return template;
+  }
+
   @Bean
   @ConditionalOnMissingBean(MongoCustomConversions.class)
   public MongoCustomConversions customConversions() {
@@ -218,7 +248,10 @@ public class StorageAutoConfiguration {
       List<AgentWorkingListener> agentWorkingListeners,
       InvalidRecordService invalidRecordService,
       ScheduleReplayingService scheduleReplayingService,
-      MockerResultConverter mockerResultConverter) {
+      MockerResultConverter mockerResultConverter,
+      RecordManifestService recordManifestService,
+      EigenEnrichmentService eigenEnrichmentService,
+      MockQueryStageGuard mockQueryStageGuard) {
     AgentWorkingService workingService = new AgentWorkingService(
         mockResultProvider,
         repositoryProviderFactory,
@@ -230,6 +263,9 @@ public class StorageAutoConfiguration {
     workingService.setPrepareMockResultService(prepareMockResultService);
     workingService.setZstdJacksonSerializer(zstdJacksonSerializer);
     workingService.setRecordEnvType(properties.getRecordEnv());
+    workingService.setRecordManifestService(recordManifestService);
+    workingService.setEigenEnrichmentService(eigenEnrichmentService);
+    workingService.setMockQueryStageGuard(mockQueryStageGuard);
     return workingService;
   }
 
@@ -255,9 +291,12 @@ public class StorageAutoConfiguration {
       InvalidRecordService invalidRecordService,
       HandleReplayResultService handleReplayResultService,
       CacheProvider redisCacheProvider,
-      DefaultApplicationConfig applicationDefaultConfig) {
+      DefaultApplicationConfig applicationDefaultConfig,
+      CachePreloadService cachePreloadService,
+      RecordExportService recordExportService) {
     return new ScheduleReplayQueryController(scheduleReplayingService, prepareMockResultService,
-        invalidRecordService, handleReplayResultService, redisCacheProvider, applicationDefaultConfig);
+        invalidRecordService, handleReplayResultService, redisCacheProvider, applicationDefaultConfig,
+        cachePreloadService, recordExportService);
   }
 
   @Bean
@@ -265,9 +304,10 @@ public class StorageAutoConfiguration {
   public ScheduleReplayingService scheduleReplayingService(MockResultProvider mockResultProvider,
       RepositoryProviderFactory repositoryProviderFactory,
       ApplicationOperationConfigurationRepositoryImpl serviceOperationRepository,
-      ScenePoolService scenePoolService) {
+      ScenePoolService scenePoolService, FanOutService fanOutService,
+      RecordManifestService recordManifestService) {
     return new ScheduleReplayingService(mockResultProvider, repositoryProviderFactory,
-        serviceOperationRepository, scenePoolService);
+        serviceOperationRepository, scenePoolService, fanOutService, recordManifestService);
   }
 
   @Bean
@@ -328,20 +368,39 @@ public class StorageAutoConfiguration {
         entryPointTypes, defaultApplicationConfig);
   }
 
+  /**
+   * The per day partitions of the rolling mockers, instead of one collection per category expired
+   * by a TTL index.
+   */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(prefix = "arex.storage", name = "rolling-partitioned", havingValue = "true")
+  public MockerPartitions mockerPartitions(MongoTemplate mongoTemplate) {
+    MockerPartitions partitions = new MockerPartitions(mongoTemplate,
+        properties.getRollingPartitionRetentionDays());
+    partitions.scheduleExpiry();
+    return partitions;
+  }
+
   @Bean
   @Order(1)
   public RepositoryProvider<AREXMocker> defaultMockerProvider(MongoTemplate mongoTemplate,
-      Set<MockCategoryType> entryPointTypes, DefaultApplicationConfig defaultApplicationConfig) {
-    return new AREXMockerMongoRepositoryProvider(mongoTemplate, properties, entryPointTypes,
-        defaultApplicationConfig);
+      Set<MockCategoryType> entryPointTypes, DefaultApplicationConfig defaultApplicationConfig,
+      ObjectProvider<MockerPartitions> mockerPartitions) {
+    AREXMockerMongoRepositoryProvider provider = new AREXMockerMongoRepositoryProvider(
+        mongoTemplate, properties, entryPointTypes, defaultApplicationConfig);
+    mockerPartitions.ifAvailable(provider::setPartitions);
+    return provider;
   }
 
   @Bean
   @Order(4)
   public RepositoryProvider<AREXQueryMocker> defaultQueryMockerProvider(MongoTemplate mongoTemplate,
-      Set<MockCategoryType> entryPointTypes, DefaultApplicationConfig defaultApplicationConfig) {
-    return new AREXQueryMockerMongoRepositoryProvider(mongoTemplate, properties, entryPointTypes,
-        defaultApplicationConfig);
+      Set<MockCategoryType> entryPointTypes, DefaultApplicationConfig defaultApplicationConfig,
+      ObjectProvider<MockerPartitions> mockerPartitions) {
+    AREXQueryMockerMongoRepositoryProvider provider = new AREXQueryMockerMongoRepositoryProvider(
+        mongoTemplate, properties, entryPointTypes, defaultApplicationConfig);
+    mockerPartitions.ifAvailable(provider::setPartitions);
+    return provider;
   }
 
   @Bean
@@ -16,6 +16,11 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @Setter
 public class StorageConfigurationProperties {
 
+  /**
+   * the least max staleness accepted by the mongo driver
+   */
+  public static final long MIN_MAX_STALENESS_SECONDS = 90L;
+
   private String mongodbUri;
   private Set<MockCategoryType> categoryTypes;
   // @Value("${arex.storage.enable-auto-discovery-entry-point:true}")
@@ -25,5 +30,15 @@ public class StorageConfigurationProperties {
   private Map<String, Long> expirationDurationMap;
   private Long defaultExpirationDuration;
   private int allowReRunDays;
+  /**
+   * serve the bulk and range reads from the secondaries, not staler than the max staleness
+   */
+  private boolean replayReadSecondaryPreferred;
+  private long replayReadMaxStalenessSeconds = MIN_MAX_STALENESS_SECONDS;
+  /**
+   * partition the rolling mockers per day, the partitions past the retention days are dropped
+   */
+  private boolean rollingPartitioned;
+  private int rollingPartitionRetentionDays = 14;
 
 }
\ No newline at end of file
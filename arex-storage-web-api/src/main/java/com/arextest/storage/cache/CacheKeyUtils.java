@@ -16,11 +16,43 @@ public final class CacheKeyUtils {
 
 
   public static final byte[] EMPTY_BYTE = new byte[]{};
+  private static final byte HASH_TAG_START = '{';
+  private static final byte HASH_TAG_END = '}';
+
+  /**
+   * When enabled, the record id leading the record scoped keys is wrapped in a redis cluster hash
+   * tag, so all the keys of a record (including the consume keys of its replays) hash to the same
+   * slot and can be pipelined, scripted or read together on a cluster. Switching the layout
+   * orphans the keys already cached, they are preloaded again on the next miss.
+   */
+  private static volatile boolean recordHashTagEnabled = false;
 
   private CacheKeyUtils() {
 
   }
 
+  public static void setRecordHashTagEnabled(boolean enabled) {
+    recordHashTagEnabled = enabled;
+  }
+
+  public static boolean isRecordHashTagEnabled() {
+    return recordHashTagEnabled;
+  }
+
+  /**
+   * The record id as it leads the record scoped keys.
+   */
+  private static byte[] recordScope(byte[] recordIdBytes) {
+    if (!recordHashTagEnabled) {
+      return recordIdBytes;
+    }
+    return ByteBuffer.allocate(recordIdBytes.length + 2)
+        .put(HASH_TAG_START)
+        .put(recordIdBytes)
+        .put(HASH_TAG_END)
+        .array();
+  }
+
   public static byte[] toUtf8Bytes(String value) {
     return value == null ? EMPTY_BYTE : value.getBytes(StandardCharsets.UTF_8);
   }
@@ -38,15 +70,35 @@ public final class CacheKeyUtils {
   }
 
   public static byte[] buildRecordKey(MockCategoryType category, String recordId) {
-    return buildSourceKey(MockResultType.RECORD_RESULT, category, toUtf8Bytes(recordId));
+    return buildRecordKey(category, toUtf8Bytes(recordId));
   }
 
   public static byte[] buildRecordKey(MockCategoryType category, byte[] recordIdBytes) {
-    return buildSourceKey(MockResultType.RECORD_RESULT, category, recordIdBytes);
+    return buildSourceKey(MockResultType.RECORD_RESULT, category, recordScope(recordIdBytes));
+  }
+
+  public static byte[] buildRecordBundleKey(MockCategoryType category, String recordId) {
+    return buildSourceKey(MockResultType.RECORD_BUNDLE, category,
+        recordScope(toUtf8Bytes(recordId)));
+  }
+
+  public static byte[] buildRecordBundleGenerationKey(MockCategoryType category,
+      String recordId) {
+    return buildSourceKey(MockResultType.RECORD_BUNDLE_GENERATION, category,
+        recordScope(toUtf8Bytes(recordId)));
+  }
+
+  public static byte[] buildRecordKeyIndexKey(MockCategoryType category, String recordId) {
+    return buildSourceKey(MockResultType.RECORD_KEY_INDEX, category,
+        recordScope(toUtf8Bytes(recordId)));
   }
 
   public static byte[] buildRecordOperationKey(MockCategoryType category, String recordId,
       byte[] operationByte) {
+    if (recordHashTagEnabled) {
+      return buildSourceKey(MockResultType.RECORD_WITH_OPERATION, category,
+          recordScope(toUtf8Bytes(recordId)), operationByte);
+    }
     return buildSourceKey(MockResultType.RECORD_WITH_OPERATION, category,
         operationByte, toUtf8Bytes(recordId));
   }
@@ -54,6 +106,7 @@ public final class CacheKeyUtils {
   public static byte[] buildConsumeKey(MockCategoryType category, byte[] recordIdBytes,
       byte[] replayIdBytes,
       byte[] mockKeyBytes) {
+    recordIdBytes = recordScope(recordIdBytes);
     byte[] value = categoryBytes(MockResultType.CONSUME_RESULT, category);
     int capacity = recordIdBytes.length + mockKeyBytes.length + value.length + replayIdBytes.length;
     return ByteBuffer.allocate(capacity)
@@ -66,7 +119,7 @@ public final class CacheKeyUtils {
 
   public static byte[] buildRecordKey(MockCategoryType category, byte[] recordIdBytes,
       byte[] mockKeyBytes) {
-    return buildSourceKey(MockResultType.RECORD_RESULT, category, recordIdBytes,
+    return buildSourceKey(MockResultType.RECORD_RESULT, category, recordScope(recordIdBytes),
         mockKeyBytes);
   }
 
@@ -93,6 +146,7 @@ public final class CacheKeyUtils {
 
   public static byte[] buildMatchedRecordInstanceIdsKey(MockCategoryType category,
       byte[] recordIdBytes, byte[] replayIdBytes, byte[] mockResultId) {
+    recordIdBytes = recordScope(recordIdBytes);
     byte[] value = categoryBytes(MockResultType.RECORD_INSTANCE_ID_HAS_BEEN_MATCHED, category);
     int capacity =
         recordIdBytes.length + mockResultId.length + value.length + replayIdBytes.length;
@@ -104,6 +158,22 @@ public final class CacheKeyUtils {
         .array();
   }
 
+  /**
+   * The key of the index-th mock key of a record instance. The record id only takes part in the
+   * hash tagged layout, the plain layout stays keyed by the instance id alone.
+   */
+  public static byte[] buildInstanceMockKey(byte[] recordIdBytes, byte[] instanceIdBytes,
+      int index) {
+    if (!recordHashTagEnabled) {
+      return merge(instanceIdBytes, index);
+    }
+    byte[] scope = recordScope(recordIdBytes);
+    return merge(ByteBuffer.allocate(scope.length + instanceIdBytes.length)
+        .put(scope)
+        .put(instanceIdBytes)
+        .array(), index);
+  }
+
   public static byte[] buildAgentVersionKey(String replayId) {
     return (AGENT_VERSION_REDIS_KEY + replayId).getBytes(StandardCharsets.UTF_8);
   }
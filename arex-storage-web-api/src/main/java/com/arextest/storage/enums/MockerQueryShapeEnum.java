@@ -0,0 +1,128 @@
+package com.arextest.storage.enums;
+
+import com.arextest.model.mock.AbstractMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.enums.MongoCollectionIndexConfigEnum.FieldConfig;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import lombok.Getter;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * The shapes of the built-in queries on the mocker collections, each with the index covering it.
+ * <p>
+ * The indexes follow equality, sort, range: the equality fields first, then the creation time the
+ * range queries sort and filter on. The sample filter of a shape has the predicates of its query,
+ * it is explained to find the shapes served by a collection scan. Update the shape with its query.
+ *
+ * @see com.arextest.storage.repository.impl.mongo.AREXMockerMongoRepositoryProvider
+ */
+@Getter
+public enum MockerQueryShapeEnum {
+
+  /**
+   * queryRecordList and removeBy of the dependencies, the entry points are found by their id
+   */
+  BY_RECORD_ID(false,
+      Collections.singletonList(FieldConfig.build(AbstractMocker.Fields.recordId, true))) {
+    @Override
+    public Bson sampleFilter(Date now) {
+      return Filters.eq(AbstractMocker.Fields.recordId, SAMPLE_VALUE);
+    }
+  },
+
+  /**
+   * removeByAppId and removeByOperationNameAndAppId
+   */
+  BY_APP_OPERATION(false,
+      Arrays.asList(FieldConfig.build(AbstractMocker.Fields.appId, true),
+          FieldConfig.build(AbstractMocker.Fields.operationName, true))) {
+    @Override
+    public Bson sampleFilter(Date now) {
+      return Filters.and(Filters.eq(AbstractMocker.Fields.appId, SAMPLE_VALUE),
+          Filters.eq(AbstractMocker.Fields.operationName, SAMPLE_VALUE));
+    }
+  },
+
+  /**
+   * queryEntryPointByRange, countByRange and countByOperationName of an app, and the lookup of its
+   * last record version
+   */
+  RANGE_BY_APP(true,
+      Arrays.asList(FieldConfig.build(AbstractMocker.Fields.appId, true),
+          FieldConfig.build(AbstractMocker.Fields.creationTime, true))) {
+    @Override
+    public Bson sampleFilter(Date now) {
+      return Filters.and(Filters.eq(AbstractMocker.Fields.appId, SAMPLE_VALUE),
+          Filters.gte(AbstractMocker.Fields.creationTime, new Date(now.getTime() - ONE_DAY)),
+          Filters.lt(AbstractMocker.Fields.creationTime, now));
+    }
+  },
+
+  /**
+   * queryEntryPointByRange and countByRange of an operation
+   */
+  RANGE_BY_OPERATION(true,
+      Arrays.asList(FieldConfig.build(AbstractMocker.Fields.appId, true),
+          FieldConfig.build(AbstractMocker.Fields.operationName, true),
+          FieldConfig.build(AbstractMocker.Fields.creationTime, true))) {
+    @Override
+    public Bson sampleFilter(Date now) {
+      return Filters.and(Filters.eq(AbstractMocker.Fields.appId, SAMPLE_VALUE),
+          Filters.eq(AbstractMocker.Fields.operationName, SAMPLE_VALUE),
+          Filters.gte(AbstractMocker.Fields.creationTime, new Date(now.getTime() - ONE_DAY)),
+          Filters.lt(AbstractMocker.Fields.creationTime, now));
+    }
+  },
+  ;
+
+  private static final String SAMPLE_VALUE = "";
+  private static final long ONE_DAY = 24 * 60 * 60 * 1000L;
+
+  /**
+   * only the collections of the entry points are queried by range
+   */
+  private final boolean entryPointOnly;
+  private final List<FieldConfig> fieldConfigs;
+
+  MockerQueryShapeEnum(boolean entryPointOnly, List<FieldConfig> fieldConfigs) {
+    this.entryPointOnly = entryPointOnly;
+    this.fieldConfigs = fieldConfigs;
+  }
+
+  /**
+   * @return the shapes queried on the collections of the category
+   */
+  public static List<MockerQueryShapeEnum> shapesOf(MockCategoryType category) {
+    List<MockerQueryShapeEnum> shapes = new ArrayList<>();
+    for (MockerQueryShapeEnum shape : values()) {
+      if (!shape.isEntryPointOnly() || category.isEntryPoint()) {
+        shapes.add(shape);
+      }
+    }
+    return shapes;
+  }
+
+  /**
+   * a filter with the predicates of the query, the values are irrelevant to its plan
+   */
+  public abstract Bson sampleFilter(Date now);
+
+  public Bson sampleSort() {
+    return entryPointOnly ? Sorts.ascending(AbstractMocker.Fields.creationTime) : null;
+  }
+
+  public Document indexKeys() {
+    Document keys = new Document();
+    for (FieldConfig fieldConfig : fieldConfigs) {
+      keys.append(fieldConfig.getFieldName(), fieldConfig.getAscending() != Boolean.FALSE ? 1 : -1);
+    }
+    return keys;
+  }
+}
@@ -60,6 +60,21 @@ public enum MongoCollectionIndexConfigEnum {
               .unique(false)
               .ttlIndexConfig(new TtlIndexConfig(66L, TimeUnit.SECONDS))
               .build())),
+
+  RECORD_MANIFEST_INDEX("RecordManifest",
+      Collections.singletonList(
+          IndexConfig.builder()
+              .fieldConfigs(Collections.singletonList(FieldConfig.build("expirationTime", true)))
+              .unique(false)
+              .ttlIndexConfig(new TtlIndexConfig(0L, TimeUnit.SECONDS))
+              .build())),
+  MOCKER_PAYLOAD_INDEX("MockerPayload",
+      Collections.singletonList(
+          IndexConfig.builder()
+              .fieldConfigs(Collections.singletonList(FieldConfig.build("expirationTime", true)))
+              .unique(false)
+              .ttlIndexConfig(new TtlIndexConfig(0L, TimeUnit.SECONDS))
+              .build())),
   // endregion
 
   // region report index config
@@ -3,6 +3,7 @@ package com.arextest.storage.metric;
 import com.arextest.model.mock.AREXMocker;
 import com.arextest.model.mock.Mocker;
 import com.arextest.storage.mock.MockResultContext;
+import com.arextest.storage.mock.MockResultMatchStrategy;
 import com.arextest.storage.model.InvalidIncompleteRecordRequest;
 import com.arextest.storage.service.AgentWorkingService;
 import java.util.HashMap;
@@ -22,6 +23,7 @@ import org.apache.commons.lang3.StringUtils;
 public class AgentWorkingMetricService {
 
   private static final String QUERY_MOCK_METHOD_NAME = "query";
+  private static final String BATCH_QUERY_MOCK_METHOD_NAME = "batchQuery";
   private static final String SAVE_MOCK_METHOD_NAME = "save";
   private static final String METRIC_NAME = "service.entry.request";
   private static final String CLIENT_APP_ID = "clientAppId";
@@ -59,6 +61,19 @@ public class AgentWorkingMetricService {
     return saveResult;
   }
 
+  public <T extends Mocker> boolean saveSpooledRecord(@NotNull T item) {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return agentWorkingService.saveSpooledRecord(item);
+    }
+
+    long startTimeNanos = System.nanoTime();
+    boolean saveResult = agentWorkingService.saveSpooledRecord(item);
+    long totalTimeNanos = System.nanoTime() - startTimeNanos;
+
+    recordEntryTime(SAVE_MOCK_METHOD_NAME, (AREXMocker) item, nanosToMillis(totalTimeNanos));
+    return saveResult;
+  }
+
   public <T extends Mocker> byte[] queryMockResult(@NotNull T recordItem,
       MockResultContext context) {
     if (CollectionUtils.isEmpty(metricListeners)) {
@@ -72,6 +87,27 @@ public class AgentWorkingMetricService {
     recordEntryTime(QUERY_MOCK_METHOD_NAME, (AREXMocker) recordItem, nanosToMillis(totalTimeNanos));
     return queryMockResult;
   }
+
+  public List<byte[]> batchQueryMockResult(@NotNull List<AREXMocker> recordItems,
+      MockResultMatchStrategy mockStrategy) {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return agentWorkingService.batchQueryMockResult(recordItems, mockStrategy);
+    }
+
+    long startTimeNanos = System.nanoTime();
+    List<byte[]> queryMockResults = agentWorkingService.batchQueryMockResult(recordItems,
+        mockStrategy);
+    long totalTimeNanos = System.nanoTime() - startTimeNanos;
+
+    long timeMillis = nanosToMillis(totalTimeNanos / Math.max(1, recordItems.size()));
+    for (AREXMocker recordItem : recordItems) {
+      if (recordItem.getCategoryType() != null) {
+        recordEntryTime(BATCH_QUERY_MOCK_METHOD_NAME, recordItem, timeMillis);
+      }
+    }
+    return queryMockResults;
+  }
+
   public void invalidIncompleteRecord(InvalidIncompleteRecordRequest requestType) {
     // do invalid
     agentWorkingService.invalidIncompleteRecord(requestType);
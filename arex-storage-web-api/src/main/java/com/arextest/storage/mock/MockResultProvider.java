@@ -29,6 +29,14 @@ public interface MockResultProvider {
   <T extends Mocker> boolean removeRecordResult(MockCategoryType category, String recordId,
       Iterable<T> values);
 
+  /**
+   * Remove the record category by the keys indexed when it was preloaded, without its mockers.
+   *
+   * @return false if the record category has no key index, e.g. its index expired or it was
+   * preloaded by an earlier version, the caller removes it by its mockers instead
+   */
+  boolean removeIndexedRecordResult(MockCategoryType category, String recordId);
+
   /**
    * Calculate the eigen values of the request body.
    */
@@ -20,9 +20,11 @@ import com.arextest.storage.mock.MockerResultConverter;
 import com.arextest.storage.mock.internal.matchkey.impl.DubboConsumerMatchKeyBuilderImpl;
 import com.arextest.storage.model.ByteHashKey;
 import com.arextest.storage.model.MockResultType;
+import com.arextest.storage.model.RecordBundle;
 import com.arextest.storage.serialization.ZstdJacksonSerializer;
 import com.arextest.storage.service.QueryConfigService;
 import com.arextest.storage.service.DatabaseParseService;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import java.util.ArrayList;
@@ -34,6 +36,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 import javax.annotation.Resource;
 import javax.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
@@ -53,11 +56,14 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
   private static final int EMPTY_SIZE = 0;
   private static final String CALL_REPLAY_MAX = "callReplayMax";
   private static final String DUBBO_PREFIX = "Dubbo";
-  private static final String STRICT_MATCH = "strictMatch";
-  private static final String MULTI_OPERATION_WITH_STRICT_MATCH = "multiOperationStrictMatch";
-  private static final String FUZZY_MATCH = "fuzzyMatch";
-  private static final String EIGEN_MATCH = "eigenMatch";
+  static final String STRICT_MATCH = "strictMatch";
+  static final String MULTI_OPERATION_WITH_STRICT_MATCH = "multiOperationStrictMatch";
+  static final String FUZZY_MATCH = "fuzzyMatch";
+  static final String EIGEN_MATCH = "eigenMatch";
   private static final String COMMA_STRING = ",";
+  private static final TypeReference<List<byte[]>> KEY_INDEX_TYPE =
+      new TypeReference<List<byte[]>>() {
+      };
   /**
    * default 2h expired
    */
@@ -81,6 +87,10 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
   private MockerResultConverter mockerResultConverter;
   @Resource
   private DatabaseParseService databaseParseService;
+  @Resource
+  private RecordBundleProvider recordBundleProvider;
+  @Resource
+  private PreloadedRecordLedger preloadedRecordLedger;
 
   /**
    * <p>1. Store recorded data and matching keys in redis<></p>
@@ -90,7 +100,17 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
   @Override
   public <T extends Mocker> boolean putRecordResult(MockCategoryType category, String recordId,
       Iterable<T> values) {
+    // an eviction of an earlier preload of the record waits until the keys are accounted
+    Lock preloadLock = preloadedRecordLedger.lockPreload(recordId);
+    try {
+      return putRecordResultLocked(category, recordId, values);
+    } finally {
+      preloadLock.unlock();
+    }
+  }
 
+  private <T extends Mocker> boolean putRecordResultLocked(MockCategoryType category,
+      String recordId, Iterable<T> values) {
     boolean shouldRecordCallReplayMax = shouldRecordCallReplayMax(category);
     // key: Redis keys that need to be counted. value: The number of redis keys
     Map<ByteHashKey, Integer> mockSequenceKeyMaps = Maps.newHashMap();
@@ -110,6 +130,13 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
 
     mockList.sort(Comparator.comparing(Mocker::getCreationTime));
     HashMap<ByteHashKey, Integer> callReplayMaxMap = Maps.newHashMap(mockSequenceKeyMaps);
+    PreloadedRecordLedger.Journal journal = new PreloadedRecordLedger.Journal();
+    if (recordBundleProvider.isEnabled() && putRecordBundle(category, recordId, mockList,
+        shouldRecordCallReplayMax, callReplayMaxMap, journal)) {
+      putRecordKeyIndex(category, recordId, journal);
+      preloadedRecordLedger.account(category, recordId, journal);
+      return !mockList.isEmpty();
+    }
 
     final byte[] recordIdBytes = CacheKeyUtils.toUtf8Bytes(recordId);
     byte[] recordKey = CacheKeyUtils.buildRecordKey(category, recordIdBytes);
@@ -119,17 +146,45 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
       T value = mockList.get(sequence - 1);
       addCallReplayMax(shouldRecordCallReplayMax, category, recordId, value, callReplayMaxMap);
       size = sequencePutRecordData(category, recordIdBytes, size, recordKey, value, sequence,
-          mockSequenceKeyMaps);
+          mockSequenceKeyMaps, journal);
     }
     LOGGER.info("update record cache, count: {}, recordId: {}, category: {}", mockListSize,
         recordId, category);
 
-    putRedisValue(recordKey, mockListSize);
+    putRedisValue(recordKey, mockListSize, journal);
+    putRecordKeyIndex(category, recordId, journal);
+    preloadedRecordLedger.account(category, recordId, journal);
     LOGGER.info("put record result to cache size:{} for category:{},record id:{}", size, category,
         recordId);
     return size > EMPTY_SIZE;
   }
 
+  /**
+   * Put the whole record category as one bundle, with the match keys and eigen computed up front.
+   *
+   * @return false if the record is not bundled and should be put with the per mocker layout
+   */
+  private <T extends Mocker> boolean putRecordBundle(MockCategoryType category, String recordId,
+      List<T> mockList, boolean shouldRecordCallReplayMax,
+      Map<ByteHashKey, Integer> callReplayMaxMap, PreloadedRecordLedger.Journal journal) {
+    List<RecordBundle.Entry> entries = new ArrayList<>(mockList.size());
+    for (T value : mockList) {
+      addCallReplayMax(shouldRecordCallReplayMax, category, recordId, value, callReplayMaxMap);
+      if (MapUtils.isEmpty(value.getEigenMap())) {
+        calculateEigen(value, true);
+      }
+      RecordBundle.Entry entry = new RecordBundle.Entry();
+      entry.setId(value.getId());
+      entry.setMockKeys(matchKeyFactory.build(value));
+      entry.setEigenMap(value.getEigenMap());
+      entry.setValue(serializer.serialize(value));
+      entries.add(entry);
+    }
+    RecordBundle bundle = new RecordBundle();
+    bundle.setEntries(entries);
+    return recordBundleProvider.put(category, recordId, bundle, journal);
+  }
+
   // Place the maximum number of playback times corresponding to the operations into the recorded data
   private void calcCallReplayMax(boolean shouldRecordCallReplayMax, MockCategoryType category,
       String recordId, Mocker value,
@@ -158,20 +213,48 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
     }
   }
 
-  private void putRedisValue(byte[] recordOperationKey, int count) {
-    redisCacheProvider.put(recordOperationKey, cacheExpiredSeconds, CacheKeyUtils.toUtf8Bytes(
-        String.valueOf(count)));
+  private void putRedisValue(byte[] recordOperationKey, int count,
+      PreloadedRecordLedger.Journal journal) {
+    putRecordValue(recordOperationKey, CacheKeyUtils.toUtf8Bytes(String.valueOf(count)), journal);
+  }
+
+  /**
+   * Put a key of the preloaded record, accounted to the record.
+   */
+  private boolean putRecordValue(byte[] key, byte[] value, PreloadedRecordLedger.Journal journal) {
+    boolean success = redisCacheProvider.put(key, cacheExpiredSeconds, value);
+    if (success) {
+      journal.add(key, value);
+    }
+    return success;
+  }
+
+  /**
+   * Index the keys written by the preload, to remove them without rebuilding them from the mockers.
+   */
+  private void putRecordKeyIndex(MockCategoryType category, String recordId,
+      PreloadedRecordLedger.Journal journal) {
+    List<byte[]> keys = journal.keys();
+    if (keys.isEmpty()) {
+      return;
+    }
+    byte[] indexKey = CacheKeyUtils.buildRecordKeyIndexKey(category, recordId);
+    byte[] value = serializer.serialize(keys);
+    if (value == null || !putRecordValue(indexKey, value, journal)) {
+      // a stale index would remove keys the current preload does not have, or miss some
+      redisCacheProvider.remove(indexKey);
+    }
   }
 
   private <T extends Mocker> int sequencePutRecordData(MockCategoryType category,
       byte[] recordIdBytes, int size, byte[] recordKey, T value, int sequence,
-      Map<ByteHashKey, Integer> mockSequenceKeyMaps) {
+      Map<ByteHashKey, Integer> mockSequenceKeyMaps, PreloadedRecordLedger.Journal journal) {
     if (MapUtils.isEmpty(value.getEigenMap())) {
       calculateEigen(value, true);
     }
     List<byte[]> mockKeyList = matchKeyFactory.build(value);
     final byte[] zstdValue = serializer.serialize(value);
-    byte[] valueRefKey = sequencePut(recordKey, zstdValue, sequence);
+    byte[] valueRefKey = sequencePut(recordKey, zstdValue, sequence, journal);
     LOGGER.info("update record sequence cache, count: {}", sequence);
     if (valueRefKey == null) {
       return size;
@@ -182,16 +265,16 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
       int count = updateMapsAndGetCount(mockSequenceKeyMaps, key);
       LOGGER.info("update record mock key cache, count: {}, mock index: {}, operation: {}",
           count, i, value.getOperationName());
-      putRedisValue(key, count);
-      byte[] sequenceKey = sequencePut(key, valueRefKey, count);
+      putRedisValue(key, count, journal);
+      byte[] sequenceKey = sequencePut(key, valueRefKey, count, journal);
       if (sequenceKey != null) {
         size++;
       }
     }
     // if category type is the type to be compared.associate the mock instance id with the related mock key.
     if (shouldUseIdOfInstanceToMockResult(category)) {
-      putRecordInstanceId(valueRefKey, value.getId());
-      putMockKeyListWithInstanceId(value.getId(), mockKeyList);
+      putRecordInstanceId(valueRefKey, value.getId(), journal);
+      putMockKeyListWithInstanceId(recordIdBytes, value.getId(), mockKeyList, journal);
     }
     return size;
   }
@@ -238,9 +321,41 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
       }
     }
 
-    LOGGER.info("remove record result size:{} for category:{},record id:{}", removed, category,
-        recordId);
-    return removed > EMPTY_SIZE;
+    boolean bundleRemoved = recordBundleProvider.isEnabled()
+        && recordBundleProvider.remove(category, recordId);
+    redisCacheProvider.remove(CacheKeyUtils.buildRecordKeyIndexKey(category, recordId));
+    preloadedRecordLedger.release(category, recordId);
+    LOGGER.info("remove record result size:{}, bundle:{} for category:{},record id:{}", removed,
+        bundleRemoved, category, recordId);
+    return removed > EMPTY_SIZE || bundleRemoved;
+  }
+
+  @Override
+  public boolean removeIndexedRecordResult(MockCategoryType category, String recordId) {
+    byte[] indexKey = CacheKeyUtils.buildRecordKeyIndexKey(category, recordId);
+    byte[] indexValue = redisCacheProvider.get(indexKey);
+    if (indexValue == null) {
+      return false;
+    }
+    List<byte[]> keys = serializer.deserialize(indexValue, KEY_INDEX_TYPE);
+    if (keys == null) {
+      return false;
+    }
+    int removed = EMPTY_SIZE;
+    for (byte[] key : keys) {
+      if (redisCacheProvider.remove(key)) {
+        removed++;
+      }
+    }
+    // the bundle kept locally by this instance
+    if (recordBundleProvider.isEnabled()) {
+      recordBundleProvider.remove(category, recordId);
+    }
+    redisCacheProvider.remove(indexKey);
+    preloadedRecordLedger.release(category, recordId);
+    LOGGER.info("remove indexed record result size:{} for category:{},record id:{}", removed,
+        category, recordId);
+    return true;
   }
 
   @Override
@@ -336,10 +451,11 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
     return null;
   }
 
-  private byte[] sequencePut(final byte[] key, final byte[] zstdValue, int sequence) {
+  private byte[] sequencePut(final byte[] key, final byte[] zstdValue, int sequence,
+      PreloadedRecordLedger.Journal journal) {
     try {
       final byte[] sequenceKey = createSequenceKey(key, sequence);
-      boolean retResult = redisCacheProvider.put(sequenceKey, cacheExpiredSeconds, zstdValue);
+      boolean retResult = putRecordValue(sequenceKey, zstdValue, journal);
       if (retResult) {
         return sequenceKey;
       }
@@ -376,6 +492,13 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
             recordId, replayId);
         return null;
       }
+      preloadedRecordLedger.touch(recordId);
+      if (recordBundleProvider.isEnabled()) {
+        RecordBundleProvider.LoadedBundle bundle = recordBundleProvider.get(category, recordId);
+        if (bundle != null) {
+          return recordBundleProvider.match(bundle, mockItem, mockKeyList, context);
+        }
+      }
       final byte[] recordIdBytes = CacheKeyUtils.toUtf8Bytes(recordId);
       final byte[] replayIdBytes = CacheKeyUtils.toUtf8Bytes(replayId);
 
@@ -485,14 +608,14 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
       if (mockResultIndex == i) {
         continue;
       }
-      byte[] mockKeyWithInstanceId = getMockKeyListWithInstanceId(mockResultId, i);
+      byte[] mockKeyWithInstanceId = getMockKeyListWithInstanceId(recordIdBytes, mockResultId, i);
       byte[] consumeSource = CacheKeyUtils.buildConsumeKey(category, recordIdBytes, replayIdBytes,
           mockKeyWithInstanceId);
       nextSequence(consumeSource);
     }
   }
 
-  private int coincidePath(Map<Integer, Long> replayEigenMap, Map<Integer, Long> recordEigenMap) {
+  static int coincidePath(Map<Integer, Long> replayEigenMap, Map<Integer, Long> recordEigenMap) {
     int row = 0;
     if (MapUtils.isEmpty(replayEigenMap) || MapUtils.isEmpty(recordEigenMap)) {
       return row;
@@ -716,6 +839,12 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
 
   @Override
   public List<byte[]> getRecordResultList(MockCategoryType category, String recordId) {
+    if (recordBundleProvider.isEnabled()) {
+      RecordBundleProvider.LoadedBundle bundle = recordBundleProvider.get(category, recordId);
+      if (bundle != null) {
+        return recordBundleProvider.values(bundle);
+      }
+    }
     byte[] recordCountKey = CacheKeyUtils.buildRecordKey(category, recordId);
     return getResultList(recordCountKey);
   }
@@ -749,6 +878,12 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
 
   @Override
   public int recordResultCount(MockCategoryType category, String recordId) {
+    if (recordBundleProvider.isEnabled()) {
+      RecordBundleProvider.LoadedBundle bundle = recordBundleProvider.get(category, recordId);
+      if (bundle != null) {
+        return bundle.size();
+      }
+    }
     return resultCount(CacheKeyUtils.buildRecordKey(category, recordId));
   }
 
@@ -765,24 +900,28 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
     return CacheKeyUtils.merge(src, sequence);
   }
 
-  private void putRecordInstanceId(byte[] valueRefKey, String id) {
+  private void putRecordInstanceId(byte[] valueRefKey, String id,
+      PreloadedRecordLedger.Journal journal) {
     final byte[] recordInstanceIdKey = createRecordInstanceIdKey(valueRefKey);
-    redisCacheProvider.put(recordInstanceIdKey, cacheExpiredSeconds, CacheKeyUtils.toUtf8Bytes(id));
+    putRecordValue(recordInstanceIdKey, CacheKeyUtils.toUtf8Bytes(id), journal);
   }
 
   /**
    * associate the mock instance id with the related mock key.
    */
-  private void putMockKeyListWithInstanceId(String id, List<byte[]> mockKeyList) {
+  private void putMockKeyListWithInstanceId(byte[] recordIdBytes, String id,
+      List<byte[]> mockKeyList, PreloadedRecordLedger.Journal journal) {
     for (int i = 0; i < mockKeyList.size(); i++) {
-      byte[] mockKeyWithInstanceIdKey = createMockKeyWithInstanceIdKey(
+      byte[] mockKeyWithInstanceIdKey = createMockKeyWithInstanceIdKey(recordIdBytes,
           CacheKeyUtils.toUtf8Bytes(id), i);
-      redisCacheProvider.put(mockKeyWithInstanceIdKey, cacheExpiredSeconds, mockKeyList.get(i));
+      putRecordValue(mockKeyWithInstanceIdKey, mockKeyList.get(i), journal);
     }
   }
 
-  private byte[] getMockKeyListWithInstanceId(byte[] mockResultId, int index) {
-    byte[] mockKeyWithInstanceIdKey = createMockKeyWithInstanceIdKey(mockResultId, index);
+  private byte[] getMockKeyListWithInstanceId(byte[] recordIdBytes, byte[] mockResultId,
+      int index) {
+    byte[] mockKeyWithInstanceIdKey = createMockKeyWithInstanceIdKey(recordIdBytes, mockResultId,
+        index);
     return redisCacheProvider.get(mockKeyWithInstanceIdKey);
   }
 
@@ -795,7 +934,7 @@ final class DefaultMockResultProviderImpl implements MockResultProvider {
     return CacheKeyUtils.merge(src, MockResultType.RECORD_INSTANCE_ID.getCodeValue());
   }
 
-  private byte[] createMockKeyWithInstanceIdKey(byte[] src, int index) {
-    return CacheKeyUtils.merge(src, index);
+  private byte[] createMockKeyWithInstanceIdKey(byte[] recordIdBytes, byte[] src, int index) {
+    return CacheKeyUtils.buildInstanceMockKey(recordIdBytes, src, index);
   }
 }
@@ -0,0 +1,234 @@
+package com.arextest.storage.mock.impl;
+
+import com.arextest.common.cache.CacheProvider;
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.metric.MetricListener;
+import com.arextest.storage.model.ByteHashKey;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.common.util.concurrent.Striped;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Accounts the redis bytes written by the preloads of this instance, per record, and keeps them
+ * under the configured budget.
+ * <p>
+ * Past the budget the records least worth keeping, as ranked by the recency and frequency of their
+ * queries, are evicted whole: all their keys are removed together, so a query finds either the
+ * complete record or nothing, and never the half loaded record left by the random eviction of a
+ * redis reaching its max memory. No budget configured keeps the previous behavior, the keys only
+ * expire.
+ * <p>
+ * The keys of an evicted record are removed on a dedicated executor, under the write lock of the
+ * record, while a preload writes and accounts its keys under the read lock. The keys rewritten by a
+ * preload of the record accounted after the eviction are left in place.
+ */
+@Slf4j
+@Component
+final class PreloadedRecordLedger {
+
+  private static final String BUDGET_BYTES = "mock.record.cache.budget.bytes";
+  private static final String EVICTED_METRIC = "mock.record.cache.evicted";
+  private static final int LOCK_STRIPES = 64;
+
+  private final CacheProvider redisCacheProvider;
+  private final List<MetricListener> metricListeners;
+  /**
+   * record id -> the keys and bytes of its preloaded categories, null without a budget
+   */
+  private final Cache<String, RecordAccount> accounts;
+  private final Striped<ReadWriteLock> recordLocks = Striped.readWriteLock(LOCK_STRIPES);
+
+  PreloadedRecordLedger(CacheProvider redisCacheProvider,
+      DefaultApplicationConfig defaultApplicationConfig, List<MetricListener> metricListeners,
+      @Value("${arex.storage.cache.expired.seconds:7200}") long cacheExpiredSeconds,
+      @Qualifier("recordEvictionExecutor") ExecutorService recordEvictionExecutor) {
+    this.redisCacheProvider = redisCacheProvider;
+    this.metricListeners = metricListeners;
+    long budget = defaultApplicationConfig.getConfigAsLong(BUDGET_BYTES, 0L);
+    if (budget <= 0) {
+      this.accounts = null;
+      return;
+    }
+    this.accounts = Caffeine.newBuilder()
+        .maximumWeight(budget)
+        .weigher((String recordId, RecordAccount account) -> account.weight())
+        // the keys expire with the same time to live
+        .expireAfterWrite(cacheExpiredSeconds, TimeUnit.SECONDS)
+        .executor(recordEvictionExecutor)
+        .removalListener(this::onRemoval)
+        .build();
+    LOGGER.info("preloaded record cache budget: {} bytes", budget);
+  }
+
+  boolean isEnabled() {
+    return accounts != null;
+  }
+
+  /**
+   * Lock the record while a preload writes and accounts its keys, the caller unlocks it.
+   */
+  Lock lockPreload(String recordId) {
+    Lock lock = recordLocks.get(recordId).readLock();
+    lock.lock();
+    return lock;
+  }
+
+  /**
+   * Account the keys written by a preload of the record category, replacing the keys of its
+   * previous preload.
+   */
+  void account(MockCategoryType category, String recordId, Journal journal) {
+    if (accounts == null || journal.keys.isEmpty()) {
+      return;
+    }
+    accounts.asMap().compute(recordId, (key, current) -> {
+      RecordAccount account = current == null ? new RecordAccount() : current.copy();
+      account.categories.put(category.getName(), journal);
+      return account;
+    });
+  }
+
+  /**
+   * Count a query of the record, the records queried recently and frequently are evicted last.
+   */
+  void touch(String recordId) {
+    if (accounts != null && recordId != null) {
+      accounts.getIfPresent(recordId);
+    }
+  }
+
+  /**
+   * Forget the record category removed by the caller.
+   */
+  void release(MockCategoryType category, String recordId) {
+    if (accounts == null) {
+      return;
+    }
+    accounts.asMap().computeIfPresent(recordId, (key, current) -> {
+      if (!current.categories.containsKey(category.getName())) {
+        return current;
+      }
+      RecordAccount account = current.copy();
+      account.categories.remove(category.getName());
+      return account.categories.isEmpty() ? null : account;
+    });
+  }
+
+  private void onRemoval(String recordId, RecordAccount account, RemovalCause cause) {
+    if (cause != RemovalCause.SIZE || account == null) {
+      return;
+    }
+    int removed = evict(recordId, account.categories);
+    LOGGER.info("evict preloaded record:{}, categories:{}, keys:{}, bytes:{}", recordId,
+        account.categories.keySet(), removed, account.bytes());
+    recordEviction();
+  }
+
+  /**
+   * Remove the keys of the evicted preloads of the record, except the keys rewritten by a preload
+   * accounted since.
+   *
+   * @param categories category name -> the keys of its evicted preload
+   * @return the count of keys removed
+   */
+  int evict(String recordId, Map<String, Journal> categories) {
+    Lock lock = recordLocks.get(recordId).writeLock();
+    lock.lock();
+    try {
+      RecordAccount current = accounts == null ? null : accounts.asMap().get(recordId);
+      int removed = 0;
+      for (Map.Entry<String, Journal> category : categories.entrySet()) {
+        Journal newer = current == null ? null : current.categories.get(category.getKey());
+        for (Map.Entry<ByteHashKey, byte[]> key : category.getValue().keys.entrySet()) {
+          if (newer != null && newer.keys.containsKey(key.getKey())) {
+            continue;
+          }
+          if (redisCacheProvider.remove(key.getValue())) {
+            removed++;
+          }
+        }
+      }
+      return removed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void recordEviction() {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return;
+    }
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordSize(EVICTED_METRIC, Collections.emptyMap(), 1);
+    }
+  }
+
+  /**
+   * The keys and bytes written by one preload of a record category.
+   */
+  static final class Journal {
+
+    private final Map<ByteHashKey, byte[]> keys = new LinkedHashMap<>();
+    private long bytes;
+
+    void add(byte[] key, byte[] value) {
+      if (keys.put(new ByteHashKey(key), key) == null) {
+        bytes += key.length;
+      }
+      bytes += value == null ? 0 : value.length;
+    }
+
+    List<byte[]> keys() {
+      return new ArrayList<>(keys.values());
+    }
+  }
+
+  private static final class RecordAccount {
+
+    /**
+     * category name -> the keys of its last preload
+     */
+    private final Map<String, Journal> categories;
+
+    private RecordAccount() {
+      this.categories = new HashMap<>();
+    }
+
+    private RecordAccount(Map<String, Journal> categories) {
+      this.categories = new HashMap<>(categories);
+    }
+
+    private RecordAccount copy() {
+      return new RecordAccount(categories);
+    }
+
+    private long bytes() {
+      long bytes = 0;
+      for (Journal journal : categories.values()) {
+        bytes += journal.bytes;
+      }
+      return bytes;
+    }
+
+    private int weight() {
+      return (int) Math.min(bytes(), Integer.MAX_VALUE);
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package com.arextest.storage.mock.impl;
+
+import com.arextest.common.cache.CacheProvider;
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.model.mock.Mocker;
+import com.arextest.storage.cache.CacheKeyUtils;
+import com.arextest.storage.metric.MatchStrategyMetricService;
+import com.arextest.storage.mock.MockResultContext;
+import com.arextest.storage.mock.MockResultMatchStrategy;
+import com.arextest.storage.model.ByteHashKey;
+import com.arextest.storage.model.RecordBundle;
+import com.arextest.storage.model.RecordBundle.Entry;
+import com.arextest.storage.serialization.ZstdJacksonSerializer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * The bundle layout of a preloaded record: all the mockers of a record category are cached as one
+ * value holding the serialized mockers with their match keys and eigen, and matched in process.
+ * <p>
+ * A bundle is kept locally after its first fetch, keyed by the generation of the bundle in redis,
+ * so a query only costs reading the generation and the redis counter claiming the matched mocker
+ * for the replay. A put or remove on any instance bumps the generation, the other instances fetch
+ * the bundle again on their next query. A record without a bundle is kept locally as well. The
+ * mockers already claimed are remembered locally, to skip them without asking redis again. Records
+ * larger than the configured size keep the per mocker layout.
+ */
+@Slf4j
+@Component
+final class RecordBundleProvider {
+
+  private static final String BUNDLE_ENABLED = "mock.record.bundle.enabled";
+  private static final String BUNDLE_MAX_BYTES = "mock.record.bundle.max.bytes";
+  private static final String LOCAL_MAX_BYTES = "mock.record.bundle.local.max.bytes";
+  private static final String LOCAL_EXPIRE_SECONDS = "mock.record.bundle.local.expire.seconds";
+  private static final long DEFAULT_BUNDLE_MAX_BYTES = 4L * 1024 * 1024;
+  private static final long DEFAULT_LOCAL_MAX_BYTES = 256L * 1024 * 1024;
+  private static final long DEFAULT_LOCAL_EXPIRE_SECONDS = 60L;
+  private static final long MAX_CLAIMED_HINTS = 100_000L;
+  private static final int MISSING_WEIGHT = 1;
+  /**
+   * the local value of a record without a bundle, a null load would not be cached
+   */
+  private static final LoadedBundle MISSING = new LoadedBundle(Collections.emptyList(),
+      MISSING_WEIGHT);
+
+  @Value("${arex.storage.cache.expired.seconds:7200}")
+  private long cacheExpiredSeconds;
+  private final CacheProvider redisCacheProvider;
+  private final ZstdJacksonSerializer serializer;
+  private final MatchStrategyMetricService matchStrategyMetricService;
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  private final Cache<ByteHashKey, LoadedBundle> localBundles;
+  /**
+   * category, record and replay -> ids of the mockers claimed
+   */
+  private final Cache<ByteHashKey, Set<String>> claimedHints;
+
+  RecordBundleProvider(CacheProvider redisCacheProvider, ZstdJacksonSerializer serializer,
+      MatchStrategyMetricService matchStrategyMetricService,
+      DefaultApplicationConfig defaultApplicationConfig) {
+    this.redisCacheProvider = redisCacheProvider;
+    this.serializer = serializer;
+    this.matchStrategyMetricService = matchStrategyMetricService;
+    this.defaultApplicationConfig = defaultApplicationConfig;
+    this.localBundles = Caffeine.newBuilder()
+        .maximumWeight(defaultApplicationConfig.getConfigAsLong(LOCAL_MAX_BYTES,
+            DEFAULT_LOCAL_MAX_BYTES))
+        .weigher((ByteHashKey key, LoadedBundle value) -> value.weight)
+        .expireAfterWrite(defaultApplicationConfig.getConfigAsLong(LOCAL_EXPIRE_SECONDS,
+            DEFAULT_LOCAL_EXPIRE_SECONDS), TimeUnit.SECONDS)
+        .build();
+    this.claimedHints = Caffeine.newBuilder()
+        .maximumSize(MAX_CLAIMED_HINTS)
+        .expireAfterAccess(10, TimeUnit.MINUTES)
+        .build();
+  }
+
+  boolean isEnabled() {
+    return defaultApplicationConfig.getConfigAsBoolean(BUNDLE_ENABLED, false);
+  }
+
+  /**
+   * @return false if the bundle is not stored, e.g. the record is too large to be bundled, the
+   * caller keeps the per mocker layout
+   */
+  boolean put(MockCategoryType category, String recordId, RecordBundle bundle,
+      PreloadedRecordLedger.Journal journal) {
+    byte[] key = CacheKeyUtils.buildRecordBundleKey(category, recordId);
+    byte[] value = serializer.serialize(bundle);
+    if (value == null || value.length > defaultApplicationConfig.getConfigAsLong(BUNDLE_MAX_BYTES,
+        DEFAULT_BUNDLE_MAX_BYTES)) {
+      // a bundle left by an earlier preload would shadow the per mocker layout
+      redisCacheProvider.remove(key);
+      nextGeneration(category, recordId);
+      return false;
+    }
+    boolean success = redisCacheProvider.put(key, cacheExpiredSeconds, value);
+    nextGeneration(category, recordId);
+    if (success) {
+      journal.add(key, value);
+    }
+    LOGGER.info("put record bundle:{}, bytes:{}, size:{} for category:{}, record id:{}", success,
+        value.length, bundle.getEntries().size(), category, recordId);
+    return success;
+  }
+
+  boolean remove(MockCategoryType category, String recordId) {
+    byte[] key = CacheKeyUtils.buildRecordBundleKey(category, recordId);
+    boolean removed = redisCacheProvider.remove(key);
+    nextGeneration(category, recordId);
+    return removed;
+  }
+
+  /**
+   * @return the bundle of the record, or null if the record is not bundled
+   */
+  LoadedBundle get(MockCategoryType category, String recordId) {
+    byte[] key = CacheKeyUtils.buildRecordBundleKey(category, recordId);
+    long generation = currentGeneration(category, recordId);
+    LoadedBundle loaded = localBundles.get(new ByteHashKey(generationScope(key, generation)),
+        ignored -> {
+          byte[] value = redisCacheProvider.get(key);
+          if (value == null) {
+            return MISSING;
+          }
+          RecordBundle bundle = serializer.deserialize(value, RecordBundle.class);
+          return bundle == null || bundle.getEntries() == null ? MISSING
+              : new LoadedBundle(bundle.getEntries(), value.length);
+        });
+    return loaded == MISSING ? null : loaded;
+  }
+
+  /**
+   * Bumped after the bundle is written or removed, a reader seeing the new generation always reads
+   * the new bundle.
+   */
+  private void nextGeneration(MockCategoryType category, String recordId) {
+    byte[] generationKey = CacheKeyUtils.buildRecordBundleGenerationKey(category, recordId);
+    redisCacheProvider.incrValue(generationKey);
+    redisCacheProvider.expire(generationKey, cacheExpiredSeconds);
+  }
+
+  /**
+   * @return 0 if the record has never been bundled, or not for a while
+   */
+  private long currentGeneration(MockCategoryType category, String recordId) {
+    byte[] value = redisCacheProvider.get(
+        CacheKeyUtils.buildRecordBundleGenerationKey(category, recordId));
+    if (value == null) {
+      return 0L;
+    }
+    try {
+      return Long.parseLong(new String(value, StandardCharsets.UTF_8));
+    } catch (NumberFormatException e) {
+      LOGGER.warn("invalid record bundle generation of category:{}, record id:{}", category,
+          recordId);
+      return 0L;
+    }
+  }
+
+  private static byte[] generationScope(byte[] key, long generation) {
+    return ByteBuffer.allocate(key.length + Long.BYTES).put(key).putLong(generation).array();
+  }
+
+  /**
+   * The same strategies as the per mocker layout: the mock keys are tried in order with sequence
+   * matching, otherwise the exact key is tried first and the fuzzy candidates are ranked by eigen.
+   */
+  byte[] match(LoadedBundle bundle, Mocker mockItem, List<byte[]> mockKeyList,
+      MockResultContext context) {
+    MockCategoryType category = mockItem.getCategoryType();
+    byte[] recordIdBytes = CacheKeyUtils.toUtf8Bytes(mockItem.getRecordId());
+    byte[] replayIdBytes = CacheKeyUtils.toUtf8Bytes(mockItem.getReplayId());
+    Set<String> claimed = claimedHints.get(new ByteHashKey(CacheKeyUtils.buildConsumeKey(category,
+        recordIdBytes, replayIdBytes, CacheKeyUtils.EMPTY_BYTE)),
+        key -> ConcurrentHashMap.newKeySet());
+    boolean tryFindLastValue =
+        MockResultMatchStrategy.TRY_FIND_LAST_VALUE == context.getMockStrategy();
+    boolean strictMatch = MockResultMatchStrategy.STRICT_MATCH == context.getMockStrategy();
+    List<Entry> fuzzyCandidates = bundle.candidates(mockKeyList.get(mockKeyList.size() - 1));
+
+    if (category.isSkipComparison() || strictMatch || fuzzyCandidates.size() <= 1) {
+      for (int i = 0; i < mockKeyList.size(); i++) {
+        List<Entry> candidates = bundle.candidates(mockKeyList.get(i));
+        Entry matched = claimFirst(candidates, category, recordIdBytes, replayIdBytes, claimed);
+        boolean exhausted = matched == null && !candidates.isEmpty();
+        context.setLastOfResult(exhausted);
+        if (exhausted && tryFindLastValue) {
+          matched = candidates.get(candidates.size() - 1);
+        }
+        if (matched != null) {
+          return matchedResult(mockItem, matched,
+              i == 0 ? DefaultMockResultProviderImpl.STRICT_MATCH
+                  : DefaultMockResultProviderImpl.FUZZY_MATCH);
+        }
+        if (strictMatch) {
+          return null;
+        }
+      }
+      return null;
+    }
+
+    Entry matched = claimFirst(bundle.candidates(mockKeyList.get(0)), category, recordIdBytes,
+        replayIdBytes, claimed);
+    if (matched != null) {
+      return matchedResult(mockItem, matched,
+          DefaultMockResultProviderImpl.MULTI_OPERATION_WITH_STRICT_MATCH);
+    }
+    List<Entry> ranked = new ArrayList<>(fuzzyCandidates.size());
+    for (Entry candidate : fuzzyCandidates) {
+      if (!claimed.contains(candidate.getId())) {
+        ranked.add(candidate);
+      }
+    }
+    // stable, the earlier mocker wins a tie
+    ranked.sort(Comparator.comparingInt((Entry candidate) -> -DefaultMockResultProviderImpl
+        .coincidePath(mockItem.getEigenMap(), candidate.getEigenMap())));
+    matched = claimFirst(ranked, category, recordIdBytes, replayIdBytes, claimed);
+    if (matched != null) {
+      return matchedResult(mockItem, matched, DefaultMockResultProviderImpl.EIGEN_MATCH);
+    }
+    context.setLastOfResult(true);
+    if (tryFindLastValue) {
+      LOGGER.info("[[title=eigenMatch]]bundle try find last value, operation: {}",
+          mockItem.getOperationName());
+      return fuzzyCandidates.get(fuzzyCandidates.size() - 1).getValue();
+    }
+    return null;
+  }
+
+  List<byte[]> values(LoadedBundle bundle) {
+    List<byte[]> values = new ArrayList<>(bundle.entries.size());
+    for (Entry entry : bundle.entries) {
+      values.add(entry.getValue());
+    }
+    return values;
+  }
+
+  private byte[] matchedResult(Mocker mockItem, Entry matched, String matchStrategy) {
+    if (!mockItem.getCategoryType().isEntryPoint()) {
+      mockItem.setId(matched.getId());
+    }
+    matchStrategyMetricService.recordMatchingCount(matchStrategy, (AREXMocker) mockItem);
+    LOGGER.info("get record result from bundle, instance id: {}, operation: {}, strategy: {}",
+        matched.getId(), mockItem.getOperationName(), matchStrategy);
+    return matched.getValue();
+  }
+
+  /**
+   * Claim the first candidate not claimed yet by the replay. The redis counter arbitrates between
+   * concurrent queries and storage instances, the local hints skip the candidates known claimed.
+   */
+  private Entry claimFirst(List<Entry> candidates, MockCategoryType category,
+      byte[] recordIdBytes, byte[] replayIdBytes, Set<String> claimed) {
+    for (Entry candidate : candidates) {
+      String id = candidate.getId();
+      if (id == null || claimed.contains(id)) {
+        continue;
+      }
+      byte[] claimKey = CacheKeyUtils.buildMatchedRecordInstanceIdsKey(category, recordIdBytes,
+          replayIdBytes, CacheKeyUtils.toUtf8Bytes(id));
+      long count = redisCacheProvider.incrValue(claimKey);
+      claimed.add(id);
+      if (count == 1L) {
+        redisCacheProvider.expire(claimKey, cacheExpiredSeconds);
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  static final class LoadedBundle {
+
+    private final List<Entry> entries;
+    private final int weight;
+    /**
+     * mock key -> the mockers having it, in the order of creation time
+     */
+    private final Map<ByteHashKey, List<Entry>> index;
+
+    private LoadedBundle(List<Entry> entries, int weight) {
+      this.entries = entries;
+      this.weight = weight;
+      this.index = new HashMap<>();
+      for (Entry entry : entries) {
+        if (CollectionUtils.isEmpty(entry.getMockKeys())) {
+          continue;
+        }
+        for (byte[] mockKey : entry.getMockKeys()) {
+          List<Entry> keyed = index.computeIfAbsent(new ByteHashKey(mockKey),
+              key -> new ArrayList<>());
+          // one mocker may build the same key twice
+          if (keyed.isEmpty() || keyed.get(keyed.size() - 1) != entry) {
+            keyed.add(entry);
+          }
+        }
+      }
+    }
+
+    int size() {
+      return entries.size();
+    }
+
+    private List<Entry> candidates(byte[] mockKey) {
+      return index.getOrDefault(new ByteHashKey(mockKey), Collections.emptyList());
+    }
+  }
+}
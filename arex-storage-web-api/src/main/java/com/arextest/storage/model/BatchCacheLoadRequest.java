@@ -0,0 +1,22 @@
+package com.arextest.storage.model;
+
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Preload the cache of many records at once, and warm the next ones of the plan ahead.
+ */
+@Data
+public class BatchCacheLoadRequest {
+
+  private String sourceProvider;
+  /**
+   * the records to preload before responding
+   */
+  private List<String> recordIds;
+  /**
+   * the records expected next, preloaded in the background, typically the next cases of the plan
+   * in their replay order
+   */
+  private List<String> prefetchRecordIds;
+}
@@ -4,15 +4,21 @@ import com.google.common.base.Preconditions;
 import java.util.Arrays;
 
 /**
- * reference:com.google.common.hash.HashCode.BytesHashCode
+ * A byte array as a hash map key.
+ * <p>
+ * The hash covers all the bytes and is computed once: the cache keys of a record share their
+ * leading bytes, e.g. the category and the record id, and only differ at their end. Keys of
+ * different hashes are told apart without comparing their bytes.
  */
 public class ByteHashKey {
 
   final byte[] bytes;
+  private final int hash;
 
   public ByteHashKey(byte[] bytes) {
     Preconditions.checkNotNull(bytes);
     this.bytes = bytes;
+    this.hash = Arrays.hashCode(bytes);
   }
 
 
@@ -33,16 +39,7 @@ public class ByteHashKey {
 
   @Override
   public int hashCode() {
-    if (bits() >= 32) {
-      return asInt();
-    }
-    // If we have less than 4 bytes, use them all.
-    byte[] internalBytes = getBytesInternal();
-    int val = (internalBytes[0] & 0xFF);
-    for (int i = 1; i < internalBytes.length; i++) {
-      val |= ((internalBytes[i] & 0xFF) << (i * 8));
-    }
-    return val;
+    return hash;
   }
 
   @Override
@@ -53,7 +50,7 @@ public class ByteHashKey {
 
     if (object instanceof ByteHashKey) {
       ByteHashKey that = (ByteHashKey) object;
-      return bits() == that.bits() && equalsSameBits(that);
+      return hash == that.hash && equalsSameBits(that);
     }
     return false;
   }
@@ -64,6 +61,7 @@ public class ByteHashKey {
 
 
   public boolean equalsSameBits(ByteHashKey other) {
+    // intrinsified, compared a vector at a time by the recent jvms
     return Arrays.equals(bytes, other.bytes);
   }
-}
\ No newline at end of file
+}
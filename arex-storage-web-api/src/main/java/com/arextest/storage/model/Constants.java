@@ -39,6 +39,18 @@ public interface Constants{
   int SQL_PARSE_DURATION_THRESHOLD_DEFAULT = 200;
   String SQL_PARSE_FAIL_OUTPUT_SWITCH = "sql.parse.fail.output.switch";
   String AGENT_VERSION = "agentVersion";
+  // maintain the record manifest on write and use it to skip empty collections on read, opt-in
+  // once every node runs a version maintaining it
+  String RECORD_MANIFEST_ENABLED = "record.manifest.enabled";
+  boolean RECORD_MANIFEST_ENABLED_DEFAULT = false;
+  // the manifests created before are not trusted, e.g. written while the nodes were rolled out
+  String RECORD_MANIFEST_TRUSTED_SINCE_MILLIS = "record.manifest.trusted.since.millis";
+  long RECORD_MANIFEST_TRUSTED_SINCE_MILLIS_DEFAULT = 0L;
+  // store identical large target responses once and reference them from the mockers
+  String MOCKER_PAYLOAD_DEDUP_ENABLED = "mocker.payload.dedup.enabled";
+  boolean MOCKER_PAYLOAD_DEDUP_ENABLED_DEFAULT = false;
+  String MOCKER_PAYLOAD_DEDUP_MIN_LENGTH = "mocker.payload.dedup.min.length";
+  int MOCKER_PAYLOAD_DEDUP_MIN_LENGTH_DEFAULT = 512;
   String CLAZZ_NAME_AREX_MOCKER = AREXMocker.class.getSimpleName();
   String CLAZZ_NAME_AREX_QUERY_MOCKER = AREXQueryMocker.class.getSimpleName();
 
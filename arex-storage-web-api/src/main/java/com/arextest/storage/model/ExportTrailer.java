@@ -0,0 +1,18 @@
+package com.arextest.storage.model;
+
+import lombok.Data;
+
+/**
+ * The last item of a record export, an export ending without it is truncated.
+ */
+@Data
+public class ExportTrailer {
+
+  private boolean complete;
+  private long entryPoints;
+  private long mockers;
+  /**
+   * the reason the export stopped early, null if it is complete
+   */
+  private String error;
+}
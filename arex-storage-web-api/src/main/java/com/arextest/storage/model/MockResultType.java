@@ -38,6 +38,18 @@ public enum MockResultType {
    * record instance id that has been matched
    */
   RECORD_INSTANCE_ID_HAS_BEEN_MATCHED(6),
+  /**
+   * all the record data of a category bundled in one value
+   */
+  RECORD_BUNDLE(7),
+  /**
+   * the generation of the record bundle, bumped by each put or remove of the bundle
+   */
+  RECORD_BUNDLE_GENERATION(8),
+  /**
+   * the keys written by the preload of a record category
+   */
+  RECORD_KEY_INDEX(9),
   ;
 
 
@@ -0,0 +1,124 @@
+package com.arextest.storage.model;
+
+import com.arextest.model.mock.Mocker.Target;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.Data;
+import lombok.experimental.FieldNameConstants;
+import org.apache.commons.collections4.MapUtils;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A target payload shared by identical mockers, keyed by the hash of its content.
+ * <p>
+ * The mockers referencing it carry a placeholder target holding the hash only. The payload lives
+ * as long as the longest living mocker referencing it, the reference count lets explicit removals
+ * drop it before its expiration.
+ */
+@Data
+@FieldNameConstants
+@Document(collection = MockerPayload.DOCUMENT_NAME)
+public class MockerPayload {
+
+  public static final String DOCUMENT_NAME = "MockerPayload";
+  /**
+   * the attribute of the placeholder target holding the payload hash
+   */
+  public static final String REFERENCE_ATTRIBUTE = "arexPayloadRef";
+  private static final byte NULL_MARKER = 0;
+  private static final byte VALUE_MARKER = 1;
+  private static final byte MAP_MARKER = 2;
+  private static final byte COLLECTION_MARKER = 3;
+
+  /**
+   * the sha-256 of the payload
+   */
+  private String id;
+  private Target payload;
+  private long refCount;
+  private Date expirationTime;
+  private Date updateTime;
+
+  /**
+   * The content hash of the target, equal targets always hash equal. The content is encoded
+   * unambiguously: a null is marked apart from any string, the strings are prefixed by their
+   * length and the attribute values by their type, e.g. 1 and "1" hash apart.
+   */
+  public static String hash(Target target) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    putString(hasher, target.getType());
+    putString(hasher, target.getBody());
+    putValue(hasher, MapUtils.isEmpty(target.getAttributes()) ? null : target.getAttributes());
+    return hasher.hash().toString();
+  }
+
+  private static void putString(Hasher hasher, String value) {
+    if (value == null) {
+      hasher.putByte(NULL_MARKER);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    hasher.putByte(VALUE_MARKER).putInt(bytes.length).putBytes(bytes);
+  }
+
+  private static void putValue(Hasher hasher, Object value) {
+    if (value == null) {
+      hasher.putByte(NULL_MARKER);
+    } else if (value instanceof Map) {
+      Map<String, Object> sorted = new TreeMap<>();
+      ((Map<?, ?>) value).forEach((key, item) -> sorted.put(String.valueOf(key), item));
+      hasher.putByte(MAP_MARKER).putInt(sorted.size());
+      sorted.forEach((key, item) -> {
+        putString(hasher, key);
+        putValue(hasher, item);
+      });
+    } else if (value instanceof Collection) {
+      hasher.putByte(COLLECTION_MARKER).putInt(((Collection<?>) value).size());
+      for (Object item : (Collection<?>) value) {
+        putValue(hasher, item);
+      }
+    } else {
+      putString(hasher, value.getClass().getName());
+      putString(hasher, String.valueOf(value));
+    }
+  }
+
+  public static Target toReference(String id) {
+    Target reference = new Target();
+    reference.setAttribute(REFERENCE_ATTRIBUTE, id);
+    return reference;
+  }
+
+  public static Target copyOf(Target payload) {
+    if (payload == null) {
+      return null;
+    }
+    Target copy = new Target();
+    copy.setBody(payload.getBody());
+    copy.setType(payload.getType());
+    if (payload.getAttributes() != null) {
+      copy.setAttributes(new HashMap<>(payload.getAttributes()));
+    }
+    return copy;
+  }
+
+  /**
+   * @return the payload hash if the target is a placeholder, otherwise null
+   */
+  public static String referenceOf(Target target) {
+    if (target == null || target.getBody() != null) {
+      return null;
+    }
+    Map<String, Object> attributes = target.getAttributes();
+    if (attributes == null || attributes.size() != 1) {
+      return null;
+    }
+    return target.attributeAsString(REFERENCE_ATTRIBUTE);
+  }
+}
@@ -0,0 +1,32 @@
+package com.arextest.storage.model;
+
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * All the preloaded mockers of a record category, cached as one value.
+ */
+@Data
+public class RecordBundle {
+
+  /**
+   * in the order of creation time
+   */
+  private List<Entry> entries;
+
+  @Data
+  public static class Entry {
+
+    private String id;
+    /**
+     * the match keys of the mocker, from the most accurate to the fuzziest
+     */
+    private List<byte[]> mockKeys;
+    private Map<Integer, Long> eigenMap;
+    /**
+     * the mocker serialized as returned to the agent
+     */
+    private byte[] value;
+  }
+}
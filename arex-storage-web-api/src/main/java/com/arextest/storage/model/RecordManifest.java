@@ -0,0 +1,69 @@
+package com.arextest.storage.model;
+
+import java.util.Date;
+import java.util.Map;
+import lombok.Data;
+import lombok.experimental.FieldNameConstants;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * The categories a record holds mockers in, per provider, so the record can be read from the
+ * collections that actually hold data instead of querying every category of every provider.
+ * <p>
+ * The document is keyed by the record id and maintained by the mocker repository providers on
+ * save, copy, removal and expiration extension. It is complete once the entry point is saved, as
+ * the entry point is saved after the dependencies of its record, provided every mocker of the
+ * record was saved by a node maintaining the manifest.
+ */
+@Data
+@FieldNameConstants
+@Document(collection = RecordManifest.DOCUMENT_NAME)
+public class RecordManifest {
+
+  public static final String DOCUMENT_NAME = "RecordManifest";
+  private static final String DOT_OP = ".";
+  private static final String ESCAPED_DOT = "_";
+  private static final String DOLLAR = "$";
+
+  /**
+   * the record id
+   */
+  private String id;
+  /**
+   * provider name -> category key -> mocker count
+   */
+  private Map<String, Map<String, Long>> providers;
+  /**
+   * the time of the first save tracked
+   */
+  private Date creationTime;
+  /**
+   * true once an entry point of the record is saved
+   */
+  private Boolean complete;
+  /**
+   * true once an update of the manifest failed, it may miss categories from then on and is never
+   * trusted again, the later saves do not clear it
+   */
+  private Boolean untrusted;
+  /**
+   * the latest day (UTC, in days since the epoch) the record has mockers created in, locating the
+   * partitions of the record, null if the mockers are not partitioned
+   */
+  private Long recordDay;
+  private Date expirationTime;
+  private Date updateTime;
+
+  /**
+   * The category name escaped to a valid mongo field name.
+   */
+  public static String toCategoryKey(String categoryName) {
+    String key = StringUtils.replace(categoryName, DOT_OP, ESCAPED_DOT);
+    return StringUtils.startsWith(key, DOLLAR) ? ESCAPED_DOT + key : key;
+  }
+
+  public static String toCountField(String providerName, String categoryName) {
+    return Fields.providers + DOT_OP + providerName + DOT_OP + toCategoryKey(categoryName);
+  }
+}
@@ -1,6 +1,7 @@
 package com.arextest.storage.repository;
 
 import com.arextest.config.model.dto.application.AppContract;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -9,4 +10,11 @@ import java.util.List;
  */
 public interface AppContractRepository {
   List<AppContract> queryAppContracts(String appId);
+
+  /**
+   * Query the operation of the contracts, without their contract body.
+   *
+   * @return the contracts found, with their id, operation type and operation name only
+   */
+  List<AppContract> queryContractOperations(String appId, Collection<String> ids);
 }
@@ -0,0 +1,34 @@
+package com.arextest.storage.repository;
+
+import com.arextest.model.mock.Mocker.Target;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+public interface MockerPayloadRepository {
+
+  /**
+   * Add the references to the payloads, storing the payloads not stored yet.
+   *
+   * @param payloads payload hash -> payload
+   * @param counts   payload hash -> count of the new references
+   */
+  void reference(Map<String, Target> payloads, Map<String, Long> counts, Date expirationTime);
+
+  /**
+   * Add references to payloads already stored, used when the referencing mockers are copied.
+   */
+  void increase(Map<String, Long> counts, Date expirationTime);
+
+  /**
+   * Remove the references, the payloads no longer referenced are removed.
+   */
+  void release(Map<String, Long> counts);
+
+  void extendExpirationTo(Collection<String> ids, Date expirationTime);
+
+  /**
+   * @return payload hash -> payload, the hashes not found are absent
+   */
+  Map<String, Target> queryPayloads(Collection<String> ids);
+}
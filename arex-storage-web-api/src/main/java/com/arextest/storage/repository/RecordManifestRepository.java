@@ -0,0 +1,41 @@
+package com.arextest.storage.repository;
+
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.model.RecordManifest;
+import java.util.Date;
+
+public interface RecordManifestRepository {
+
+  /**
+   * Add the saved mockers to the count of the category, creating the manifest if absent.
+   *
+   * @param recordDay the day the mockers are partitioned by, raising the day of the record, null
+   *                  if they are not partitioned
+   */
+  void increase(String providerName, MockCategoryType category, String recordId, long count,
+      Date expirationTime, Long recordDay);
+
+  /**
+   * Set the count of the category, used when the mockers of the category are rewritten as a whole.
+   */
+  void reset(String providerName, MockCategoryType category, String recordId, long count,
+      Date expirationTime);
+
+  void removeCategory(String providerName, MockCategoryType category, String recordId);
+
+  void removeByRecordId(String recordId);
+
+  /**
+   * Mark the manifest as not to be trusted by the readers, creating it if absent.
+   */
+  void markUntrusted(String recordId);
+
+  void extendExpirationTo(String recordId, Date expirationTime);
+
+  RecordManifest queryByRecordId(String recordId);
+
+  /**
+   * @return the latest day the record has mockers partitioned in, null if not known
+   */
+  Long queryRecordDay(String recordId);
+}
@@ -4,6 +4,7 @@ import com.arextest.model.mock.MockCategoryType;
 import com.arextest.model.mock.Mocker;
 import com.arextest.model.replay.PagedRequestType;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * @author jmo
@@ -15,12 +16,34 @@ public interface RepositoryReader<T extends Mocker> {
 
   Iterable<T> queryRecordList(MockCategoryType categoryType, String recordId, String[] fieldNames);
 
+  /**
+   * Read the mockers of the record without renewing their expiration as the replay reads do, e.g.
+   * for an export.
+   */
+  Iterable<T> queryRecordListWithoutRenewal(MockCategoryType categoryType, String recordId);
+
+  /**
+   * Read the mockers of the record from the primary, e.g. for an edition writing them back or
+   * removing them, the replay reads may lag behind on a secondary.
+   */
+  Iterable<T> queryRecordListForEdition(MockCategoryType categoryType, String recordId);
+
   T queryRecord(Mocker requestType);
 
   T queryById(MockCategoryType categoryType, String id);
 
   Iterable<T> queryEntryPointByRange(PagedRequestType rangeRequestType);
 
+  /**
+   * Stream the entry points of the range from a cursor, the caller closes the stream.
+   * <p>
+   * The page index is ignored and a positive page size limits the whole stream.
+   *
+   * @param fullMockers true to read every field of the entry points, e.g. for an export of the
+   *                    full records, false for the summary fields of the range reads
+   */
+  Stream<T> streamEntryPointByRange(PagedRequestType rangeRequestType, boolean fullMockers);
+
   long countByRange(PagedRequestType rangeRequestType);
 
   Map<String, Long> countByOperationName(PagedRequestType rangeRequestType);
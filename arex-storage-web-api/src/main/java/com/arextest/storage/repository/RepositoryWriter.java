@@ -15,6 +15,14 @@ public interface RepositoryWriter<T extends Mocker> {
 
   boolean saveList(List<T> valueList);
 
+  /**
+   * To save a mocker whose save is retried by the caller until it succeeds, e.g. one drained from
+   * the spool. A failed save leaves the other mockers of its record as they are.
+   * @param value the mocker to be saved
+   * @return false if it failed to be saved
+   */
+  boolean saveRetried(T value);
+
   long removeBy(MockCategoryType categoryType, String recordId);
 
   /**
@@ -22,12 +30,34 @@ public interface RepositoryWriter<T extends Mocker> {
    * @param categoryType the category type of the mockers to be extended
    * @param recordId the record id of the mockers to be extended
    * @param expireTime the expiration time to be extended to
-   * @return document count of the mockers extended
+   * @return document count of the mockers extended, 0 if their expiration cannot be extended, e.g.
+   * they expire with their partition
    */
   long extendExpirationTo(MockCategoryType categoryType, String recordId, Date expireTime);
 
+  /**
+   * To copy all mockers of the given category type and record id to the target writer inside the
+   * repository, without loading them into the storage.
+   * @param categoryType the category type of the mockers to be copied
+   * @param srcRecordId the record id of the mockers to be copied
+   * @param target the writer the mockers are copied to
+   * @param targetRecordId the record id of the copied mockers
+   * @return document count of the mockers copied, or -1 if the copy could not be done inside the
+   * repository and the caller should fall back to read and save
+   */
+  long copyTo(MockCategoryType categoryType, String srcRecordId, RepositoryWriter<T> target,
+      String targetRecordId);
+
   boolean update(T value);
 
+  /**
+   * To write back the eigenMap of the given persisted mockers, matched by their id.
+   * @param categoryType the category type of the mockers
+   * @param valueList the mockers carrying the computed eigenMap
+   * @return document count of the mockers updated
+   */
+  long updateEigenMap(MockCategoryType categoryType, List<T> valueList);
+
   long removeByAppId(MockCategoryType categoryType, String appId);
 
   long removeByOperationNameAndAppId(MockCategoryType categoryType, String operationName,
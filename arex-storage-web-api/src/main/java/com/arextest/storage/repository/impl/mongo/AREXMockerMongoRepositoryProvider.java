@@ -5,45 +5,77 @@ import com.arextest.model.mock.AREXMocker;
 import com.arextest.model.mock.AbstractMocker;
 import com.arextest.model.mock.MockCategoryType;
 import com.arextest.model.mock.Mocker;
+import com.arextest.model.mock.Mocker.Target;
 import com.arextest.model.replay.PagedRequestType;
 import com.arextest.model.replay.SortingOption;
 import com.arextest.model.replay.SortingTypeEnum;
 import com.arextest.model.util.MongoCounter;
 import com.arextest.storage.beans.StorageConfigurationProperties;
 import com.arextest.storage.model.Constants;
+import com.arextest.storage.model.MockerPayload;
+import com.arextest.storage.repository.MockerPayloadRepository;
 import com.arextest.storage.repository.ProviderNames;
+import com.arextest.storage.repository.RecordManifestRepository;
 import com.arextest.storage.repository.RepositoryProvider;
+import com.arextest.storage.repository.RepositoryWriter;
+import com.arextest.storage.repository.impl.mongo.converters.LazyTarget;
 import com.arextest.storage.utils.TimeUtils;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoServerException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCursor;
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.annotation.Resource;
 import javax.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
 import org.bson.codecs.pojo.IdGenerators;
+import org.bson.types.ObjectId;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
 
 /**
  * The rolling provider used by default, which means auto deleted the records after TTL index
- * created on creationTime of collection
+ * created on creationTime of collection, or with the collections dropped per day when partitioned
+ *
+ * @see MockerPartitions
  */
 @Slf4j
 @EnableConfigurationProperties({StorageConfigurationProperties.class})
@@ -62,9 +94,35 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
   private static final String AGENT_RECORD_VERSION_COLUMN_NAME = "recordVersion";
   private static final String TARGET_RESPONSE_COLUMN_NAME = "targetResponse";
   private static final String TAGS_COLUMN_NAME = "tags";
+  private static final String PAYLOAD_REF_COLUMN_NAME = "payloadRef";
+  private static final String COPIED_ID_SEPARATOR = "_";
+  private static final int MAX_PAYLOAD_REFERENCE_ENCODED_LENGTH = 1024;
 
   // region: the options of mongodb
   private static final String DOT_OP = ".";
+  private static final String MATCH_STAGE = "$match";
+  private static final String ADD_FIELDS_STAGE = "$addFields";
+  private static final String MERGE_STAGE = "$merge";
+  private static final String MERGE_INTO = "into";
+  private static final String MERGE_ON = "on";
+  private static final String MERGE_WHEN_MATCHED = "whenMatched";
+  private static final String MERGE_WHEN_NOT_MATCHED = "whenNotMatched";
+  private static final String MERGE_REPLACE = "replace";
+  private static final String MERGE_INSERT = "insert";
+  private static final String GROUP_STAGE = "$group";
+  private static final String SUM_OP = "$sum";
+  private static final String EXISTS_OP = "$exists";
+  private static final String FIELD_REF = "$";
+  private static final String COUNT_FIELD = "count";
+  private static final String CONCAT_OP = "$concat";
+  private static final String TO_STRING_OP = "$toString";
+  private static final String SORT_STAGE = "$sort";
+  private static final String SKIP_STAGE = "$skip";
+  private static final String LIMIT_STAGE = "$limit";
+  private static final String PROJECT_STAGE = "$project";
+  private static final String UNION_WITH_STAGE = "$unionWith";
+  private static final String UNION_WITH_COLLECTION = "coll";
+  private static final String UNION_WITH_PIPELINE = "pipeline";
   // endregion
 
   private static final String EIGEN_MAP_COLUMN_NAME = "eigenMap";
@@ -72,6 +130,10 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
   private final static Sort CREATE_TIME_DESCENDING_SORT = Sort.by(Direction.DESC, CREATE_TIME_COLUMN_NAME);
   private static final int DEFAULT_MIN_LIMIT_SIZE = 1;
   private static final int DEFAULT_MAX_LIMIT_SIZE = 1000;
+  /**
+   * the documents fetched per round trip of a streamed cursor
+   */
+  private static final int STREAM_BATCH_SIZE = 500;
   private static final String AUTO_PINNED_MOCKER_EXPIRATION_MILLIS = "AutoPinned.mocker.expiration.millis";
   private static final long FOURTEEN_DAYS_MILLIS = TimeUnit.DAYS.toMillis(14L);
   protected final MongoTemplate mongoTemplate;
@@ -80,6 +142,19 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
   private final Set<MockCategoryType> entryPointTypes;
   private final DefaultApplicationConfig defaultApplicationConfig;
   private final String mockerType;
+  @Resource
+  private RecordManifestRepository recordManifestRepository;
+  @Resource
+  private MockerPayloadRepository mockerPayloadRepository;
+  /**
+   * bulk and range reads, they may be served by a secondary
+   */
+  @Resource(name = "replayReadMongoTemplate")
+  private MongoTemplate replayReadTemplate;
+  /**
+   * the per day partitions of the rolling mockers, null if they are kept in one collection
+   */
+  private MockerPartitions partitions;
 
   private static final String[] DEFAULT_INCLUDE_FIELDS =
       new String[]{AbstractMocker.Fields.id, AREXMocker.Fields.categoryType, AbstractMocker.Fields.recordId,
@@ -107,20 +182,119 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
     this.mockerType = Constants.CLAZZ_NAME_AREX_MOCKER;
   }
 
+  /**
+   * The template of the bulk and range reads, which tolerate the lag of a secondary: the range
+   * queries, the counts and the export. The writes, and the reads of a record which may just have
+   * been saved, such as the preloads and viewRecord, stay on the primary.
+   */
+  private MongoTemplate replayReadTemplate() {
+    return replayReadTemplate == null ? mongoTemplate : replayReadTemplate;
+  }
+
+  public void setPartitions(MockerPartitions partitions) {
+    this.partitions = partitions;
+  }
+
   private String getCollectionName(MockCategoryType category) {
     return this.getProviderName() + category.getName() + COLLECTION_SUFFIX;
   }
 
+  /**
+   * @return the collections the mockers of the record may be in, the newest first
+   */
+  private List<String> getRecordCollectionNames(MockCategoryType category, String recordId) {
+    if (partitions == null) {
+      return Collections.singletonList(getCollectionName(category));
+    }
+    return partitions.recordPartitions(getCollectionName(category), recordDayOf(recordId));
+  }
+
+  /**
+   * The day of the record kept by the manifest, so a record is read from its partitions on any
+   * node instead of every retained partition. The manifests are tracked whenever the mockers are
+   * partitioned, the manifest switch only decides whether their categories are trusted.
+   *
+   * @return the latest day the record has mockers in, null if not known
+   */
+  private Long recordDayOf(String recordId) {
+    if (recordManifestRepository == null || StringUtils.isEmpty(recordId)) {
+      return null;
+    }
+    try {
+      return recordManifestRepository.queryRecordDay(recordId);
+    } catch (Throwable ex) {
+      LOGGER.warn("query record day error:{}, recordId:{}", ex.getMessage(), recordId, ex);
+      return null;
+    }
+  }
+
+  /**
+   * @return the collections overlapping the range of creation time, the oldest first
+   */
+  private List<String> getRangeCollectionNames(MockCategoryType category, long beginTime,
+      long endTime) {
+    if (partitions == null) {
+      return Collections.singletonList(getCollectionName(category));
+    }
+    return partitions.rangePartitions(getCollectionName(category), beginTime, endTime);
+  }
+
+  /**
+   * @return the collections any mocker of the category may be in
+   */
+  private List<String> getAllCollectionNames(MockCategoryType category) {
+    if (partitions == null) {
+      return Collections.singletonList(getCollectionName(category));
+    }
+    return partitions.retainedPartitions(getCollectionName(category));
+  }
+
+  /**
+   * The id of an entry point is its record id, the id of a dependency is an object id generated at
+   * its save, not before its creation.
+   */
+  private List<String> getIdCollectionNames(MockCategoryType category, String id) {
+    if (category.isEntryPoint()) {
+      return getRecordCollectionNames(category, id);
+    }
+    if (partitions == null || !ObjectId.isValid(id)) {
+      return getAllCollectionNames(category);
+    }
+    return partitions.partitionsAround(getCollectionName(category),
+        new ObjectId(id).getDate().getTime());
+  }
+
   public Iterable<AREXMocker> queryRecordList(MockCategoryType category, String recordId) {
     return queryRecordList(category, recordId, null);
   }
 
   @Override
   public Iterable<AREXMocker> queryRecordList(MockCategoryType category, String recordId, String[] fieldNames) {
+    return queryRecordList(category, recordId, fieldNames, true, mongoTemplate);
+  }
+
+  @Override
+  public Iterable<AREXMocker> queryRecordListWithoutRenewal(MockCategoryType category,
+      String recordId) {
+    return queryRecordList(category, recordId, null, false, replayReadTemplate());
+  }
+
+  @Override
+  public Iterable<AREXMocker> queryRecordListForEdition(MockCategoryType category,
+      String recordId) {
+    return queryRecordList(category, recordId, null, true, mongoTemplate);
+  }
+
+  private Iterable<AREXMocker> queryRecordList(MockCategoryType category, String recordId,
+      String[] fieldNames, boolean renew, MongoTemplate template) {
     Criteria criteria = buildRecordIdFilter(category, recordId);
 
-    if (Objects.equals(this.providerName, ProviderNames.DEFAULT)) {
-      updateExpirationTime(criteria, getCollectionName(category));
+    // a partition expires as a whole, the mockers read are not renewed
+    if (renew && partitions == null && Objects.equals(this.providerName, ProviderNames.DEFAULT)) {
+      Date renewed = updateExpirationTime(criteria, getCollectionName(category));
+      if (renewed != null && !category.isEntryPoint()) {
+        extendPayloadExpiration(getCollectionName(category), criteria, renewed);
+      }
     }
 
     Query query = new Query(criteria);
@@ -128,8 +302,12 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
       query.fields().include(fieldNames);
     }
 
-    Iterable<AREXMocker> iterable = mongoTemplate.find(query,
-        AREXMocker.class, getCollectionName(category));
+    List<AREXMocker> iterable = partitions == null
+        ? template.find(query, AREXMocker.class, getCollectionName(category))
+        : partitions.findRecord(getCollectionName(category), recordDayOf(recordId),
+            category.isEntryPoint(),
+            partition -> template.find(query, AREXMocker.class, partition));
+    resolvePayloads(iterable);
     iterable.forEach(this::addUseMocker);
     return new AttachmentCategoryIterable(category, iterable);
   }
@@ -141,37 +319,61 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
         .with(CREATE_TIME_DESCENDING_SORT)
         .limit(DEFAULT_MIN_LIMIT_SIZE);
 
-    AREXMocker item = mongoTemplate.findOne(query, AREXMocker.class, getCollectionName(categoryType));
+    AREXMocker item = MockerPartitions.findFirst(
+        getRecordCollectionNames(categoryType, requestType.getRecordId()),
+        collection -> mongoTemplate.findOne(query, AREXMocker.class, collection));
+    if (item != null) {
+      resolvePayloads(Collections.singletonList(item));
+    }
     addUseMocker(item);
     return AttachmentCategoryIterable.attach(categoryType, item);
   }
 
   @Override
   public AREXMocker queryById(MockCategoryType categoryType, String id) {
-    String collection = getCollectionName(categoryType);
     Query query = new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).is(id));
-    return mongoTemplate.findOne(query, AREXMocker.class, collection);
+    AREXMocker item = MockerPartitions.findFirst(getIdCollectionNames(categoryType, id),
+        collection -> mongoTemplate.findOne(query, AREXMocker.class, collection));
+    if (item != null) {
+      resolvePayloads(Collections.singletonList(item));
+    }
+    return item;
   }
 
   @Override
   public Iterable<AREXMocker> queryEntryPointByRange(PagedRequestType pagedRequestType) {
     MockCategoryType categoryType = pagedRequestType.getCategory();
-    String collection = getCollectionName(categoryType);
+    List<String> collections = getRangeCollectionNames(categoryType,
+        pagedRequestType.getBeginTime(), pagedRequestType.getEndTime());
+    if (collections.isEmpty()) {
+      return Collections.emptyList();
+    }
 
     Integer pageIndex = pagedRequestType.getPageIndex();
 
-    AREXMocker item = getLastRecordVersionMocker(pagedRequestType, collection);
+    AREXMocker item = getLastRecordVersionMocker(pagedRequestType, collections);
     String recordVersion = item == null ? null : item.getRecordVersion();
 
     Criteria criteria = withRecordVersionFilters(pagedRequestType, recordVersion);
-    if (Objects.equals(this.providerName, ProviderNames.DEFAULT)) {
-      updateExpirationTime(criteria, collection);
+    if (partitions == null && Objects.equals(this.providerName, ProviderNames.DEFAULT)) {
+      updateExpirationTime(criteria, collections.get(0));
+    }
+
+    int skip = pageIndex == null ? 0 : pagedRequestType.getPageSize() * (pageIndex - 1);
+    int limit = Math.min(pagedRequestType.getPageSize(), DEFAULT_MAX_LIMIT_SIZE);
+    if (collections.size() > 1) {
+      List<Document> pipeline = buildUnionPipeline(collections, criteria, pagedRequestType);
+      appendPage(pipeline, skip, limit);
+      pipeline.add(new Document(PROJECT_STAGE, buildRangeProjection(pagedRequestType)));
+      List<AREXMocker> items = new ArrayList<>();
+      unionCursor(collections, pipeline).forEachRemaining(items::add);
+      return new AttachmentCategoryIterable(categoryType, items);
     }
 
     Query query = new Query(criteria)
         .with(toSupportSortingOptions(pagedRequestType.getSortingOptions()))
-        .skip(pageIndex == null ? 0 : pagedRequestType.getPageSize() * (pageIndex - 1))
-        .limit(Math.min(pagedRequestType.getPageSize(), DEFAULT_MAX_LIMIT_SIZE));
+        .skip(skip)
+        .limit(limit);
 
     // By default, targetResponse is not output. When includeExtendFields is included, it is output.
     query.fields().include(DEFAULT_INCLUDE_FIELDS);
@@ -179,10 +381,112 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
         query.fields().include(pagedRequestType.getIncludeExtendFields());
     }
 
-    Iterable<AREXMocker> iterable = mongoTemplate.find(query, AREXMocker.class, collection);
+    Iterable<AREXMocker> iterable = replayReadTemplate().find(query, AREXMocker.class,
+        collections.get(0));
     return new AttachmentCategoryIterable(categoryType, iterable);
   }
 
+  @Override
+  public Stream<AREXMocker> streamEntryPointByRange(PagedRequestType pagedRequestType,
+      boolean fullMockers) {
+    MockCategoryType categoryType = pagedRequestType.getCategory();
+    List<String> collections = getRangeCollectionNames(categoryType,
+        pagedRequestType.getBeginTime(), pagedRequestType.getEndTime());
+    if (collections.isEmpty()) {
+      return Stream.empty();
+    }
+
+    AREXMocker item = getLastRecordVersionMocker(pagedRequestType, collections);
+    String recordVersion = item == null ? null : item.getRecordVersion();
+
+    Criteria criteria = withRecordVersionFilters(pagedRequestType, recordVersion);
+    Iterator<AREXMocker> cursor;
+    Runnable closer;
+    if (collections.size() > 1) {
+      List<Document> pipeline = buildUnionPipeline(collections, criteria, pagedRequestType);
+      appendPage(pipeline, 0, pagedRequestType.getPageSize());
+      if (!fullMockers) {
+        pipeline.add(new Document(PROJECT_STAGE, buildRangeProjection(pagedRequestType)));
+      }
+      UnionCursor unionCursor = unionCursor(collections, pipeline);
+      cursor = unionCursor;
+      closer = unionCursor::close;
+    } else {
+      Query query = new Query(criteria)
+          .with(toSupportSortingOptions(pagedRequestType.getSortingOptions()))
+          .cursorBatchSize(STREAM_BATCH_SIZE);
+      if (pagedRequestType.getPageSize() > 0) {
+        query.limit(pagedRequestType.getPageSize());
+      }
+      if (!fullMockers) {
+        query.fields().include(DEFAULT_INCLUDE_FIELDS);
+        if (ArrayUtils.isNotEmpty(pagedRequestType.getIncludeExtendFields())) {
+          query.fields().include(pagedRequestType.getIncludeExtendFields());
+        }
+      }
+      CloseableIterator<AREXMocker> queryCursor = replayReadTemplate().stream(query,
+          AREXMocker.class, collections.get(0));
+      cursor = queryCursor;
+      closer = queryCursor::close;
+    }
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED),
+            false)
+        .onClose(closer)
+        .map(mocker -> AttachmentCategoryIterable.attach(categoryType, mocker));
+  }
+
+  /**
+   * Read a range over several partitions in one pipeline: the matches of the partitions are unioned
+   * before being sorted and paged, so a page is the same as read from a single collection.
+   */
+  private List<Document> buildUnionPipeline(List<String> collections, Criteria criteria,
+      PagedRequestType pagedRequestType) {
+    Document match = new Document(MATCH_STAGE, criteria.getCriteriaObject());
+    List<Document> pipeline = new ArrayList<>(collections.size() + 4);
+    pipeline.add(match);
+    for (String collection : collections.subList(1, collections.size())) {
+      pipeline.add(new Document(UNION_WITH_STAGE, new Document(UNION_WITH_COLLECTION, collection)
+          .append(UNION_WITH_PIPELINE, Collections.singletonList(match))));
+    }
+    Document sort = new Document();
+    for (Order order : toSupportSortingOptions(pagedRequestType.getSortingOptions())) {
+      sort.append(order.getProperty(), order.isAscending() ? 1 : -1);
+    }
+    pipeline.add(new Document(SORT_STAGE, sort));
+    return pipeline;
+  }
+
+  private static void appendPage(List<Document> pipeline, int skip, int limit) {
+    if (skip > 0) {
+      pipeline.add(new Document(SKIP_STAGE, skip));
+    }
+    if (limit > 0) {
+      pipeline.add(new Document(LIMIT_STAGE, limit));
+    }
+  }
+
+  private static Document buildRangeProjection(PagedRequestType pagedRequestType) {
+    Document projection = new Document();
+    String[] extendFields = pagedRequestType.getIncludeExtendFields();
+    for (String field : ArrayUtils.addAll(DEFAULT_INCLUDE_FIELDS, extendFields)) {
+      // the primary key is always output
+      if (!AbstractMocker.Fields.id.equals(field)) {
+        projection.append(field, 1);
+      }
+    }
+    return projection;
+  }
+
+  private UnionCursor unionCursor(List<String> collections, List<Document> pipeline) {
+    MongoTemplate template = replayReadTemplate();
+    MongoCursor<Document> cursor = template.getCollection(collections.get(0))
+        .aggregate(pipeline)
+        .allowDiskUse(true)
+        .batchSize(STREAM_BATCH_SIZE)
+        .cursor();
+    return new UnionCursor(cursor, template.getConverter());
+  }
+
   private Sort toSupportSortingOptions(List<SortingOption> sortingOptions) {
     if (CollectionUtils.isEmpty(sortingOptions)) {
       return CREATE_TIME_ASCENDING_SORT;
@@ -198,7 +502,10 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
     return Sort.by(orders);
   }
 
-  private void updateExpirationTime(Criteria criteria, String collectionName) {
+  /**
+   * @return the latest expiration time set, or null if no mocker was renewed
+   */
+  private Date updateExpirationTime(Criteria criteria, String collectionName) {
     long currentTimeMillis = System.currentTimeMillis();
     long allowedLastMills = TimeUtils.getTodayFirstMills() +
         properties.getAllowReRunDays() * TimeUtils.ONE_DAY;
@@ -216,31 +523,45 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
     update.set(EXPIRATION_TIME_COLUMN_NAME,
         new Date(allowedLastMills + currentTimeMillis % TimeUtils.ONE_HOUR));
     update.set(UPDATE_TIME_COLUMN_NAME, new Date(currentTimeMillis));
-    mongoTemplate.updateMulti(new Query(finalCriteria), update, collectionName);
+    long modifiedCount = mongoTemplate.updateMulti(new Query(finalCriteria), update,
+        collectionName).getModifiedCount();
+    return modifiedCount > 0 ? new Date(allowedLastMills + TimeUtils.ONE_HOUR) : null;
   }
 
 
+  /**
+   * @param collectionNames the collections of the range, the oldest first
+   */
   private AREXMocker getLastRecordVersionMocker(PagedRequestType pagedRequestType,
-      String collectionName) {
+      List<String> collectionNames) {
     Query query = new Query(buildReadRangeFilters(pagedRequestType))
         .with(CREATE_TIME_DESCENDING_SORT)
         .limit(DEFAULT_MIN_LIMIT_SIZE);
-    return mongoTemplate.findOne(query, AREXMocker.class, collectionName);
+    List<String> newestFirst = new ArrayList<>(collectionNames);
+    Collections.reverse(newestFirst);
+    return MockerPartitions.findFirst(newestFirst,
+        collection -> replayReadTemplate().findOne(query, AREXMocker.class, collection));
   }
 
   @Override
   public long countByRange(PagedRequestType request) {
-    String collectionName = getCollectionName(request.getCategory());
-    AREXMocker item = getLastRecordVersionMocker(request, collectionName);
+    List<String> collectionNames = getRangeCollectionNames(request.getCategory(),
+        request.getBeginTime(), request.getEndTime());
+    AREXMocker item = getLastRecordVersionMocker(request, collectionNames);
     String recordVersion = item == null ? null : item.getRecordVersion();
-    return mongoTemplate.count(new Query(withRecordVersionFilters(request, recordVersion)),
-        AREXMocker.class, collectionName);
+    Query query = new Query(withRecordVersionFilters(request, recordVersion));
+    long count = 0L;
+    for (String collectionName : collectionNames) {
+      count += replayReadTemplate().count(query, AREXMocker.class, collectionName);
+    }
+    return count;
   }
 
   @Override
   public Map<String, Long> countByOperationName(PagedRequestType rangeRequestType) {
-    String collectionName = getCollectionName(rangeRequestType.getCategory());
-    AREXMocker item = getLastRecordVersionMocker(rangeRequestType, collectionName);
+    List<String> collectionNames = getRangeCollectionNames(rangeRequestType.getCategory(),
+        rangeRequestType.getBeginTime(), rangeRequestType.getEndTime());
+    AREXMocker item = getLastRecordVersionMocker(rangeRequestType, collectionNames);
     String recordVersion = item == null ? null : item.getRecordVersion();
 
     Criteria filters = withRecordVersionFilters(rangeRequestType, recordVersion);
@@ -250,12 +571,14 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
     );
 
     Map<String, Long> resultMap = new HashMap<>();
-    mongoTemplate.aggregate(agg, collectionName, MongoCounter.class).forEach(doc -> {
-      String operationName = doc.getId();
-      if (operationName != null) {
-        resultMap.put(operationName, doc.getCount());
-      }
-    });
+    for (String collectionName : collectionNames) {
+      replayReadTemplate().aggregate(agg, collectionName, MongoCounter.class).forEach(doc -> {
+        String operationName = doc.getId();
+        if (operationName != null) {
+          resultMap.merge(operationName, doc.getCount(), Long::sum);
+        }
+      });
+    }
 
     return resultMap;
   }
@@ -270,36 +593,90 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
 
   @Override
   public boolean saveList(List<AREXMocker> valueList) {
+    return saveList(valueList, true);
+  }
+
+  @Override
+  public boolean saveRetried(AREXMocker value) {
+    if (value == null) {
+      return false;
+    }
+    return saveList(Collections.singletonList(value), false);
+  }
+
+  /**
+   * @param purgeOnFailure true to remove the entry points of the record if the save fails, so a
+   *                       record missing mockers is not replayed, false if the save is retried
+   */
+  private boolean saveList(List<AREXMocker> valueList, boolean purgeOnFailure) {
     if (CollectionUtils.isEmpty(valueList)) {
       return false;
     }
     try {
       MockCategoryType category = valueList.get(0).getCategoryType();
-      Long expiration;
-      if (StringUtils.equalsIgnoreCase(ProviderNames.AUTO_PINNED, this.providerName)) {
-        expiration = defaultApplicationConfig.getConfigAsLong(AUTO_PINNED_MOCKER_EXPIRATION_MILLIS,
-            FOURTEEN_DAYS_MILLIS);
-      } else {
-        expiration = properties.getExpirationDurationMap()
-            .getOrDefault(category.getName(), properties.getDefaultExpirationDuration());
-      }
-      String collection = getCollectionName(category);
-
-      long expirationTime = System.currentTimeMillis() + expiration;
+      long currentTimeMillis = System.currentTimeMillis();
+      Map<String, List<AREXMocker>> collections = groupByCollection(category, valueList,
+          currentTimeMillis);
+
+      long expirationTime = partitions == null
+          ? currentTimeMillis + getExpirationDuration(category)
+          : partitions.expirationTimeOf(MockerPartitions.dayOf(valueList.stream()
+              .mapToLong(AREXMocker::getCreationTime).max().orElse(currentTimeMillis)));
+      Map<String, Long> recordCounts = valueList.stream()
+          .filter(item -> item.getRecordId() != null)
+          .collect(Collectors.groupingBy(AREXMocker::getRecordId, Collectors.counting()));
+      Map<String, Long> recordDays = partitions == null ? Collections.emptyMap()
+          : valueList.stream()
+              .filter(item -> item.getRecordId() != null)
+              .collect(Collectors.toMap(AREXMocker::getRecordId,
+                  item -> MockerPartitions.dayOf(item.getCreationTime()), Math::max));
       valueList.forEach(item -> {
         item.setExpirationTime(expirationTime);
 
         if (category.isEntryPoint()) {
           item.setId(item.getRecordId());
           item.setRecordId(null);
-        } else {
+        } else if (item.getId() == null) {
+          // a given id is kept, e.g. the one a spooled mocker is saved with on every drain
           item.setId(IdGenerators.STRING_ID_GENERATOR.generate());
         }
       });
-      mongoTemplate.insert(valueList, collection);
+      // listed before the insert, a listed category without mockers only costs an empty query
+      recordCounts.forEach((recordId, count) -> trackManifest(recordId,
+          manifest -> manifest.increase(providerName, category, recordId, count,
+              new Date(expirationTime), recordDays.get(recordId))));
+      Map<AREXMocker, Target> originalPayloads = shouldDedupPayload(category)
+          ? dedupPayloads(valueList, new Date(expirationTime)) : Collections.emptyMap();
+      try {
+        for (Map.Entry<String, List<AREXMocker>> collection : collections.entrySet()) {
+          if (originalPayloads.isEmpty()) {
+            mongoTemplate.insert(collection.getValue(), collection.getKey());
+          } else {
+            insertWithPayloadRefs(collection.getValue(), collection.getKey());
+          }
+        }
+      } catch (RuntimeException ex) {
+        boolean duplicate = valueList.size() == 1 && isDuplicateKey(ex);
+        // a duplicate was not written by this save, else the persisted mockers keep their payloads
+        releasePayloads(duplicate ? countPayloadReferences(originalPayloads.keySet())
+            : unpersistedPayloadReferences(collections, originalPayloads.keySet()));
+        // the category stays listed, only its count is rolled back
+        recordCounts.forEach((recordId, count) -> trackManifest(recordId,
+            manifest -> manifest.increase(providerName, category, recordId, -count,
+                new Date(expirationTime), null)));
+        if (duplicate) {
+          // saved before under the same id, e.g. drained again from the spool after a restart
+          LOGGER.info("mocker already saved, id:{}", valueList.get(0).getId());
+          return true;
+        }
+        throw ex;
+      } finally {
+        // the callers keep working with the mockers as they were saved
+        originalPayloads.forEach(AREXMocker::setTargetResponse);
+      }
     } catch (Throwable ex) {
       // rolling mocker save failed remove all entry point data
-      if (Objects.equals(this.providerName, ProviderNames.DEFAULT)) {
+      if (purgeOnFailure && Objects.equals(this.providerName, ProviderNames.DEFAULT)) {
         String recordId = valueList.get(0).getRecordId();
         for (MockCategoryType categoryType : entryPointTypes) {
           removeBy(categoryType, recordId);
@@ -311,50 +688,500 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
     return true;
   }
 
+  private static boolean isDuplicateKey(RuntimeException ex) {
+    if (ex instanceof DuplicateKeyException) {
+      return true;
+    }
+    if (ex instanceof MongoBulkWriteException) {
+      List<BulkWriteError> errors = ((MongoBulkWriteException) ex).getWriteErrors();
+      return !errors.isEmpty() && errors.stream().allMatch(
+          error -> ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY);
+    }
+    return ex instanceof MongoServerException
+        && ErrorCategory.fromErrorCode(((MongoServerException) ex).getCode())
+        == ErrorCategory.DUPLICATE_KEY;
+  }
+
+  /**
+   * A mocker without a creation time is created now, it is set on the mocker so its partition is
+   * found again by its updates.
+   *
+   * @return collection name -> the mockers saved to it, the partitions of their creation days
+   */
+  private Map<String, List<AREXMocker>> groupByCollection(MockCategoryType category,
+      List<AREXMocker> valueList, long currentTimeMillis) {
+    if (partitions == null) {
+      return Collections.singletonMap(getCollectionName(category), valueList);
+    }
+    String collection = getCollectionName(category);
+    Map<String, List<AREXMocker>> collections = new HashMap<>();
+    for (AREXMocker item : valueList) {
+      if (item.getCreationTime() <= 0) {
+        item.setCreationTime(currentTimeMillis);
+      }
+      long day = MockerPartitions.dayOf(item.getCreationTime());
+      collections.computeIfAbsent(partitions.writePartition(collection, category, day),
+          key -> new ArrayList<>()).add(item);
+    }
+    return collections;
+  }
+
+  private long getExpirationDuration(MockCategoryType category) {
+    if (StringUtils.equalsIgnoreCase(ProviderNames.AUTO_PINNED, this.providerName)) {
+      return defaultApplicationConfig.getConfigAsLong(AUTO_PINNED_MOCKER_EXPIRATION_MILLIS,
+          FOURTEEN_DAYS_MILLIS);
+    }
+    return properties.getExpirationDurationMap()
+        .getOrDefault(category.getName(), properties.getDefaultExpirationDuration());
+  }
+
+  /**
+   * Copy the mockers with a $merge pipeline, so the documents never leave mongo. A dependency
+   * copied gets the id of its source prefixed by the target record id: the copies of one source to
+   * several records do not replace each other, and a retried copy replaces the documents it already
+   * wrote instead of duplicating them. If the pipeline fails, the documents this copy added are
+   * removed from the target, the mockers the target held before are kept.
+   */
+  @Override
+  public long copyTo(MockCategoryType categoryType, String srcRecordId,
+      RepositoryWriter<AREXMocker> target, String targetRecordId) {
+    if (!(target instanceof AREXMockerMongoRepositoryProvider)) {
+      return -1;
+    }
+    AREXMockerMongoRepositoryProvider targetProvider = (AREXMockerMongoRepositoryProvider) target;
+    // a record may span partitions, it is copied by reading and saving it
+    if (this.partitions != null || targetProvider.partitions != null) {
+      return -1;
+    }
+    String srcCollection = getCollectionName(categoryType);
+    String targetCollection = targetProvider.getCollectionName(categoryType);
+    // the entry point keeps the record id as its id, it would collide inside the same collection
+    if (targetProvider.mongoTemplate != this.mongoTemplate
+        || StringUtils.equals(srcCollection, targetCollection)) {
+      return -1;
+    }
+
+    long currentTimeMillis = System.currentTimeMillis();
+    Date expirationTime = new Date(
+        currentTimeMillis + targetProvider.getExpirationDuration(categoryType));
+    Document renewed = new Document()
+        .append(UPDATE_TIME_COLUMN_NAME, new Date(currentTimeMillis))
+        .append(EXPIRATION_TIME_COLUMN_NAME, expirationTime);
+    List<String> targetIds = new ArrayList<>();
+    if (categoryType.isEntryPoint()) {
+      renewed.append(PRIMARY_KEY_COLUMN_NAME, targetRecordId);
+      targetIds.add(targetRecordId);
+    } else {
+      String idPrefix = targetRecordId + COPIED_ID_SEPARATOR;
+      renewed.append(RECORD_ID_COLUMN_NAME, targetRecordId)
+          .append(PRIMARY_KEY_COLUMN_NAME, new Document(CONCAT_OP, Arrays.asList(idPrefix,
+              new Document(TO_STRING_OP, FIELD_REF + PRIMARY_KEY_COLUMN_NAME))));
+      for (Object srcId : mongoTemplate.findDistinct(
+          new Query(buildRecordIdFilter(categoryType, srcRecordId)), PRIMARY_KEY_COLUMN_NAME,
+          srcCollection, Object.class)) {
+        targetIds.add(idPrefix + srcId);
+      }
+    }
+    if (targetIds.isEmpty()) {
+      return 0;
+    }
+    List<Document> pipeline = Arrays.asList(
+        new Document(MATCH_STAGE, buildRecordIdDocument(categoryType, srcRecordId)),
+        new Document(ADD_FIELDS_STAGE, renewed),
+        new Document(MERGE_STAGE, new Document(MERGE_INTO, targetCollection)
+            .append(MERGE_ON, PRIMARY_KEY_COLUMN_NAME)
+            .append(MERGE_WHEN_MATCHED, MERGE_REPLACE)
+            .append(MERGE_WHEN_NOT_MATCHED, MERGE_INSERT)));
+    Criteria copiedFilter = Criteria.where(PRIMARY_KEY_COLUMN_NAME).in(targetIds);
+    List<Object> existingIds = mongoTemplate.findDistinct(new Query(copiedFilter),
+        PRIMARY_KEY_COLUMN_NAME, targetCollection, Object.class);
+    // the payloads of the replaced documents are referenced already
+    List<String> addedIds = new ArrayList<>(targetIds);
+    addedIds.removeIf(id -> existingIds.contains(id));
+    boolean payloadsIncreased = false;
+    try {
+      // list the category before the copy and settle the count after it
+      targetProvider.trackManifest(targetRecordId,
+          manifest -> manifest.increase(targetProvider.providerName, categoryType, targetRecordId,
+              0L, expirationTime, null));
+      mongoTemplate.getCollection(srcCollection).aggregate(pipeline).toCollection();
+      if (!categoryType.isEntryPoint() && !addedIds.isEmpty()) {
+        increasePayloads(targetCollection,
+            Criteria.where(PRIMARY_KEY_COLUMN_NAME).in(addedIds).getCriteriaObject(),
+            expirationTime);
+        payloadsIncreased = true;
+      }
+      long count = mongoTemplate.count(new Query(copiedFilter), targetCollection);
+      targetProvider.settleManifest(categoryType, targetRecordId, targetCollection,
+          expirationTime);
+      return count;
+    } catch (Throwable ex) {
+      LOGGER.error("copy by pipeline error:{}, from {} to {}, recordId:{}", ex.getMessage(),
+          srcCollection, targetCollection, srcRecordId, ex);
+      try {
+        Criteria addedFilter = Criteria.where(PRIMARY_KEY_COLUMN_NAME).in(addedIds);
+        if (payloadsIncreased) {
+          removeWithPayloads(categoryType, targetCollection, addedFilter);
+        } else {
+          mongoTemplate.remove(new Query(addedFilter), targetCollection);
+        }
+        targetProvider.settleManifest(categoryType, targetRecordId, targetCollection,
+            expirationTime);
+      } catch (Throwable cleanupEx) {
+        LOGGER.error("clean up partial copy error:{}, collection:{}, recordId:{}",
+            cleanupEx.getMessage(), targetCollection, targetRecordId, cleanupEx);
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Set the count of the category in the manifest to the mockers the record holds.
+   */
+  private void settleManifest(MockCategoryType categoryType, String recordId, String collection,
+      Date expirationTime) {
+    long count = mongoTemplate.getCollection(collection)
+        .countDocuments(buildRecordIdDocument(categoryType, recordId));
+    trackManifest(recordId, manifest -> {
+      if (count > 0) {
+        manifest.reset(providerName, categoryType, recordId, count, expirationTime);
+      } else {
+        manifest.removeCategory(providerName, categoryType, recordId);
+      }
+    });
+  }
+
   @Override
   public long removeBy(MockCategoryType categoryType, String recordId) {
-    String collectionName = getCollectionName(categoryType);
-    return mongoTemplate.remove(new Query(buildRecordIdFilter(categoryType, recordId)),
-            AREXMocker.class, collectionName).getDeletedCount();
+    long deletedCount = removeWithPayloads(categoryType,
+        getRecordCollectionNames(categoryType, recordId),
+        buildRecordIdFilter(categoryType, recordId));
+    if (deletedCount > 0) {
+      trackManifest(recordId,
+          manifest -> manifest.removeCategory(providerName, categoryType, recordId));
+    }
+    return deletedCount;
   }
 
   @Override
   public long extendExpirationTo(MockCategoryType categoryType, String recordId, Date expireTime) {
-    String collectionName = getCollectionName(categoryType);
+    if (partitions != null) {
+      // a partitioned mocker is dropped with its partition, its expiration cannot be extended
+      return 0L;
+    }
     Query query = new Query(buildRecordIdFilter(categoryType, recordId));
     Update update = Update.update(EXPIRATION_TIME_COLUMN_NAME, expireTime);
-    return mongoTemplate.updateMulti(query, update, AREXMocker.class, collectionName).getModifiedCount();
+    long modifiedCount = 0L;
+    for (String collectionName : getRecordCollectionNames(categoryType, recordId)) {
+      long modified = mongoTemplate.updateMulti(query, update, AREXMocker.class, collectionName)
+          .getModifiedCount();
+      if (modified > 0) {
+        extendPayloadExpiration(collectionName, buildRecordIdFilter(categoryType, recordId),
+            expireTime);
+      }
+      modifiedCount += modified;
+    }
+    if (modifiedCount > 0) {
+      trackManifest(recordId, manifest -> manifest.extendExpirationTo(recordId, expireTime));
+    }
+    return modifiedCount;
+  }
+
+  /**
+   * Keep the record manifest in line with the mockers. A manifest missing a category would hide
+   * its mockers from the readers, so if it cannot be updated it is marked untrusted for good, and
+   * the readers fall back to querying every category of the record. It is not dropped, the next
+   * save would create it again listing only the categories saved from then on.
+   */
+  private void trackManifest(String recordId, Consumer<RecordManifestRepository> action) {
+    if (recordManifestRepository == null || StringUtils.isEmpty(recordId)) {
+      return;
+    }
+    // the partitioned reads need the day of the record kept by the manifest
+    if (partitions == null && !defaultApplicationConfig.getConfigAsBoolean(
+        Constants.RECORD_MANIFEST_ENABLED, Constants.RECORD_MANIFEST_ENABLED_DEFAULT)) {
+      return;
+    }
+    try {
+      action.accept(recordManifestRepository);
+    } catch (Throwable ex) {
+      LOGGER.error("update record manifest error:{}, recordId:{}", ex.getMessage(), recordId, ex);
+      try {
+        recordManifestRepository.markUntrusted(recordId);
+      } catch (Throwable markEx) {
+        LOGGER.error("mark record manifest untrusted error:{}, recordId:{}", markEx.getMessage(),
+            recordId, markEx);
+      }
+    }
+  }
+
+  private boolean shouldDedupPayload(MockCategoryType category) {
+    return mockerPayloadRepository != null && !category.isEntryPoint()
+        && defaultApplicationConfig.getConfigAsBoolean(Constants.MOCKER_PAYLOAD_DEDUP_ENABLED,
+        Constants.MOCKER_PAYLOAD_DEDUP_ENABLED_DEFAULT);
+  }
+
+  /**
+   * Store the large target responses once per distinct content in the payload store, and replace
+   * them on the mockers by a placeholder holding the content hash. The payloads are stored before
+   * the mockers, so a reader never meets a reference to a payload not stored yet.
+   *
+   * @return the original target responses of the replaced mockers, empty if none was replaced
+   */
+  private Map<AREXMocker, Target> dedupPayloads(List<AREXMocker> valueList, Date expirationTime) {
+    int minLength = defaultApplicationConfig.getConfigAsInt(
+        Constants.MOCKER_PAYLOAD_DEDUP_MIN_LENGTH, Constants.MOCKER_PAYLOAD_DEDUP_MIN_LENGTH_DEFAULT);
+    Map<AREXMocker, String> references = new IdentityHashMap<>();
+    Map<String, Target> payloads = new HashMap<>();
+    Map<String, Long> counts = new HashMap<>();
+    for (AREXMocker item : valueList) {
+      Target target = item.getTargetResponse();
+      if (target == null || StringUtils.length(target.getBody()) < minLength) {
+        continue;
+      }
+      String reference = MockerPayload.hash(target);
+      references.put(item, reference);
+      payloads.putIfAbsent(reference, target);
+      counts.merge(reference, 1L, Long::sum);
+    }
+    if (references.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    try {
+      mockerPayloadRepository.reference(payloads, counts, expirationTime);
+    } catch (Throwable ex) {
+      // saved inline instead
+      LOGGER.error("store mocker payloads error:{}, size:{}", ex.getMessage(), payloads.size(), ex);
+      return Collections.emptyMap();
+    }
+    Map<AREXMocker, Target> originals = new IdentityHashMap<>(references.size());
+    references.forEach((item, reference) -> {
+      originals.put(item, item.getTargetResponse());
+      item.setTargetResponse(MockerPayload.toReference(reference));
+    });
+    return originals;
+  }
+
+  /**
+   * The payload reference is also written as a top level field, so the references of a record can
+   * be listed without reading its mockers.
+   */
+  private void insertWithPayloadRefs(List<AREXMocker> valueList, String collection) {
+    List<Document> documents = new ArrayList<>(valueList.size());
+    for (AREXMocker item : valueList) {
+      Document document = new Document();
+      mongoTemplate.getConverter().write(item, document);
+      String reference = MockerPayload.referenceOf(item.getTargetResponse());
+      if (reference != null) {
+        document.put(PAYLOAD_REF_COLUMN_NAME, reference);
+      }
+      documents.add(document);
+    }
+    mongoTemplate.getCollection(collection).insertMany(documents);
+  }
+
+  /**
+   * Replace the placeholders by their payloads, all payloads of the items are read in one query.
+   * Each item gets its own copy, the targets are modified per mocker later on.
+   */
+  private void resolvePayloads(List<AREXMocker> items) {
+    if (mockerPayloadRepository == null || CollectionUtils.isEmpty(items)) {
+      return;
+    }
+    Map<String, List<AREXMocker>> referencing = new HashMap<>();
+    for (AREXMocker item : items) {
+      if (!mayBePayloadReference(item.getTargetResponse())) {
+        continue;
+      }
+      String reference = MockerPayload.referenceOf(item.getTargetResponse());
+      if (reference != null) {
+        referencing.computeIfAbsent(reference, key -> new ArrayList<>()).add(item);
+      }
+    }
+    if (referencing.isEmpty()) {
+      return;
+    }
+    Map<String, Target> payloads = mockerPayloadRepository.queryPayloads(referencing.keySet());
+    referencing.forEach((reference, referencingItems) -> {
+      Target payload = payloads.get(reference);
+      if (payload == null) {
+        LOGGER.warn("mocker payload not found, ref:{}, size:{}", reference,
+            referencingItems.size());
+      }
+      for (AREXMocker item : referencingItems) {
+        item.setTargetResponse(MockerPayload.copyOf(payload));
+      }
+    });
+  }
+
+  /**
+   * A placeholder is tiny in its stored form, larger targets are left undecoded.
+   */
+  private static boolean mayBePayloadReference(Target target) {
+    return !(target instanceof LazyTarget)
+        || ((LazyTarget) target).encodedLength() <= MAX_PAYLOAD_REFERENCE_ENCODED_LENGTH;
+  }
+
+  private static Map<String, Long> countPayloadReferences(Collection<AREXMocker> items) {
+    Map<String, Long> counts = new HashMap<>();
+    for (AREXMocker item : items) {
+      String reference = MockerPayload.referenceOf(item.getTargetResponse());
+      if (reference != null) {
+        counts.merge(reference, 1L, Long::sum);
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * The references of the mockers a failed insert did not persist. An ordered insert keeps the
+   * mockers before the failing one, and the partitions inserted before the failing one keep all of
+   * theirs. Nothing is released if they cannot be listed, the payloads then expire with their
+   * mockers.
+   */
+  private Map<String, Long> unpersistedPayloadReferences(
+      Map<String, List<AREXMocker>> collections, Set<AREXMocker> referencing) {
+    if (referencing.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    List<AREXMocker> unpersisted = new ArrayList<>();
+    try {
+      for (Map.Entry<String, List<AREXMocker>> collection : collections.entrySet()) {
+        List<AREXMocker> items = collection.getValue().stream()
+            .filter(referencing::contains)
+            .collect(Collectors.toList());
+        if (items.isEmpty()) {
+          continue;
+        }
+        Query query = new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME)
+            .in(items.stream().map(AREXMocker::getId).collect(Collectors.toList()))
+            .and(PAYLOAD_REF_COLUMN_NAME).exists(true));
+        Set<Object> persisted = new HashSet<>(mongoTemplate.findDistinct(query,
+            PRIMARY_KEY_COLUMN_NAME, collection.getKey(), Object.class));
+        items.stream().filter(item -> !persisted.contains(item.getId()))
+            .forEach(unpersisted::add);
+      }
+    } catch (Throwable ex) {
+      LOGGER.error("list persisted mockers error:{}, size:{}", ex.getMessage(),
+          referencing.size(), ex);
+      return Collections.emptyMap();
+    }
+    return countPayloadReferences(unpersisted);
+  }
+
+  private Map<String, Long> countPayloadReferences(String collection, Document filter) {
+    Document match = new Document(filter)
+        .append(PAYLOAD_REF_COLUMN_NAME, new Document(EXISTS_OP, true));
+    List<Document> pipeline = Arrays.asList(
+        new Document(MATCH_STAGE, match),
+        new Document(GROUP_STAGE, new Document(PRIMARY_KEY_COLUMN_NAME,
+            FIELD_REF + PAYLOAD_REF_COLUMN_NAME).append(COUNT_FIELD, new Document(SUM_OP, 1))));
+    Map<String, Long> counts = new HashMap<>();
+    for (Document group : mongoTemplate.getCollection(collection).aggregate(pipeline)) {
+      counts.put(group.getString(PRIMARY_KEY_COLUMN_NAME),
+          ((Number) group.get(COUNT_FIELD)).longValue());
+    }
+    return counts;
+  }
+
+  private long removeWithPayloads(MockCategoryType categoryType, List<String> collectionNames,
+      Criteria criteria) {
+    long deletedCount = 0L;
+    for (String collectionName : collectionNames) {
+      deletedCount += removeWithPayloads(categoryType, collectionName, criteria);
+    }
+    return deletedCount;
+  }
+
+  private long removeWithPayloads(MockCategoryType categoryType, String collectionName,
+      Criteria criteria) {
+    Map<String, Long> references = Collections.emptyMap();
+    if (mockerPayloadRepository != null && !categoryType.isEntryPoint()) {
+      try {
+        references = countPayloadReferences(collectionName, criteria.getCriteriaObject());
+      } catch (Throwable ex) {
+        // the payloads are left to their expiration
+        LOGGER.error("count mocker payload references error:{}, collection:{}", ex.getMessage(),
+            collectionName, ex);
+      }
+    }
+    long deletedCount = mongoTemplate.remove(new Query(criteria), AREXMocker.class, collectionName)
+        .getDeletedCount();
+    if (deletedCount > 0) {
+      releasePayloads(references);
+    }
+    return deletedCount;
+  }
+
+  private void releasePayloads(Map<String, Long> references) {
+    if (MapUtils.isEmpty(references)) {
+      return;
+    }
+    try {
+      mockerPayloadRepository.release(references);
+    } catch (Throwable ex) {
+      LOGGER.error("release mocker payloads error:{}, size:{}", ex.getMessage(),
+          references.size(), ex);
+    }
+  }
+
+  private void increasePayloads(String collection, Document filter, Date expirationTime) {
+    if (mockerPayloadRepository == null) {
+      return;
+    }
+    try {
+      mockerPayloadRepository.increase(countPayloadReferences(collection, filter), expirationTime);
+    } catch (Throwable ex) {
+      LOGGER.error("increase mocker payloads error:{}, collection:{}", ex.getMessage(), collection,
+          ex);
+    }
+  }
+
+  /**
+   * A payload must not expire before the mockers referencing it.
+   */
+  private void extendPayloadExpiration(String collection, Criteria criteria, Date expirationTime) {
+    if (mockerPayloadRepository == null) {
+      return;
+    }
+    try {
+      List<String> references = mongoTemplate.findDistinct(new Query(criteria),
+          PAYLOAD_REF_COLUMN_NAME, collection, String.class);
+      mockerPayloadRepository.extendExpirationTo(references, expirationTime);
+    } catch (Throwable ex) {
+      LOGGER.error("extend mocker payloads error:{}, collection:{}", ex.getMessage(), collection,
+          ex);
+    }
   }
 
   @Override
   public long removeByAppId(MockCategoryType categoryType, String appId) {
-    String collectionName = getCollectionName(categoryType);
-    Query query = new Query(Criteria.where(APP_ID_COLUMN_NAME).is(appId));
-    return mongoTemplate.remove(query, AREXMocker.class, collectionName).getDeletedCount();
+    return removeWithPayloads(categoryType, getAllCollectionNames(categoryType),
+        Criteria.where(APP_ID_COLUMN_NAME).is(appId));
   }
 
   @Override
   public long removeByOperationNameAndAppId(MockCategoryType categoryType, String operationName,
       String appId) {
-    String collectionName = getCollectionName(categoryType);
-    Query query = new Query(Criteria
+    return removeWithPayloads(categoryType, getAllCollectionNames(categoryType), Criteria
         .where(OPERATION_COLUMN_NAME).is(operationName == null ? "" : operationName)
         .and(APP_ID_COLUMN_NAME).is(appId));
-
-    return mongoTemplate.remove(query, AREXMocker.class, collectionName).getDeletedCount();
   }
 
   @Override
   public long removeById(MockCategoryType categoryType, String id) {
-    String collectionName = getCollectionName(categoryType);
-    Query query = new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).is(id));
-    return mongoTemplate.remove(query, AREXMocker.class, collectionName).getDeletedCount();
+    return removeWithPayloads(categoryType, getIdCollectionNames(categoryType, id),
+        Criteria.where(PRIMARY_KEY_COLUMN_NAME).is(id));
   }
 
   @Override
   public boolean update(AREXMocker value) {
     try {
       String collection = getCollectionName(value.getCategoryType());
+      if (partitions != null) {
+        collection = MockerPartitions.partitionName(collection,
+            MockerPartitions.dayOf(value.getCreationTime()));
+      }
       mongoTemplate.findAndReplace(new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).is(value.getId())), value, collection);
       return true;
     } catch (Exception e) {
@@ -363,6 +1190,37 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
     }
   }
 
+  @Override
+  public long updateEigenMap(MockCategoryType categoryType, List<AREXMocker> valueList) {
+    if (CollectionUtils.isEmpty(valueList)) {
+      return 0L;
+    }
+    Map<String, List<AREXMocker>> collections = partitions == null
+        ? Collections.singletonMap(getCollectionName(categoryType), valueList)
+        : valueList.stream().collect(Collectors.groupingBy(value -> MockerPartitions.partitionName(
+            getCollectionName(categoryType), MockerPartitions.dayOf(value.getCreationTime()))));
+    long modifiedCount = 0L;
+    for (Map.Entry<String, List<AREXMocker>> collection : collections.entrySet()) {
+      modifiedCount += updateEigenMap(collection.getKey(), collection.getValue());
+    }
+    return modifiedCount;
+  }
+
+  private long updateEigenMap(String collection, List<AREXMocker> valueList) {
+    BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, collection);
+    for (AREXMocker value : valueList) {
+      bulkOperations.updateOne(new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).is(value.getId())),
+          Update.update(EIGEN_MAP_COLUMN_NAME, value.getEigenMap()));
+    }
+    try {
+      return bulkOperations.execute().getModifiedCount();
+    } catch (Exception e) {
+      LOGGER.error("update eigen map error:{}, collection:{}, size:{}", e.getMessage(), collection,
+          valueList.size(), e);
+      return 0L;
+    }
+  }
+
   @Override
   public String getProviderName() {
     return this.providerName;
@@ -388,6 +1246,13 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
     return Criteria.where(RECORD_ID_COLUMN_NAME).is(value);
   }
 
+  private Document buildRecordIdDocument(MockCategoryType categoryType, String value) {
+    if (categoryType.isEntryPoint()) {
+      return new Document(PRIMARY_KEY_COLUMN_NAME, value);
+    }
+    return new Document(RECORD_ID_COLUMN_NAME, value);
+  }
+
   private Criteria buildRecordFilters(MockCategoryType categoryType, @NotNull Mocker mocker) {
     Criteria criteria = this.buildAppIdWithOperationFilters(mocker.getAppId(), mocker.getOperationName());
     criteria.andOperator(buildRecordIdFilter(categoryType, mocker.getRecordId()));
@@ -435,6 +1300,35 @@ public class AREXMockerMongoRepositoryProvider implements RepositoryProvider<ARE
     }
   }
 
+  /**
+   * The mockers read by an aggregation, converted as the queries of the template convert them.
+   */
+  private static final class UnionCursor implements Iterator<AREXMocker>, Closeable {
+
+    private final MongoCursor<Document> cursor;
+    private final MongoConverter converter;
+
+    private UnionCursor(MongoCursor<Document> cursor, MongoConverter converter) {
+      this.cursor = cursor;
+      this.converter = converter;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return cursor.hasNext();
+    }
+
+    @Override
+    public AREXMocker next() {
+      return converter.read(AREXMocker.class, cursor.next());
+    }
+
+    @Override
+    public void close() {
+      cursor.close();
+    }
+  }
+
   private static final class AttachmentCategoryIterable implements Iterable<AREXMocker>,
       Iterator<AREXMocker> {
 
@@ -6,12 +6,18 @@ import com.arextest.model.mock.AREXQueryMocker.Fields;
 import com.arextest.model.mock.AbstractMocker;
 import com.arextest.model.mock.MockCategoryType;
 import com.arextest.model.mock.Mocker;
+import com.arextest.model.mock.Mocker.Target;
 import com.arextest.model.replay.PagedRequestType;
 import com.arextest.storage.beans.StorageConfigurationProperties;
 import com.arextest.storage.model.Constants;
+import com.arextest.storage.repository.MockerPayloadRepository;
 import com.arextest.storage.repository.ProviderNames;
+import com.arextest.storage.repository.RecordManifestRepository;
 import com.arextest.storage.repository.RepositoryProvider;
+import com.arextest.storage.repository.RepositoryWriter;
+import com.arextest.storage.repository.impl.mongo.converters.ArexMockerCompressionConverter;
 import com.arextest.storage.utils.TimeUtils;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -20,9 +26,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Stream;
+import javax.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
@@ -37,12 +47,23 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
   private static final String COLLECTION_SUFFIX = "Mocker";
   private static final String TARGET_RESPONSE_COLUMN_NAME = "targetResponse";
   private static final String TARGET_REQUEST_COLUMN_NAME = "targetRequest";
+  private static final String PAYLOAD_REF_COLUMN_NAME = "payloadRef";
+  private static final ArexMockerCompressionConverter.Write TARGET_WRITER =
+      new ArexMockerCompressionConverter.Write();
   protected final MongoTemplate mongoTemplate;
   private final String providerName;
   private final StorageConfigurationProperties properties;
   private final Set<MockCategoryType> entryPointTypes;
   private final DefaultApplicationConfig defaultApplicationConfig;
   private final String name;
+  @Resource
+  private MockerPayloadRepository mockerPayloadRepository;
+  @Resource
+  private RecordManifestRepository recordManifestRepository;
+  /**
+   * the per day partitions of the rolling mockers, null if they are kept in one collection
+   */
+  private MockerPartitions partitions;
   // fieldMapping for queryRecordList
   private static final Map<String, String> FIELD_MAPPING = new HashMap<>();
   static {
@@ -70,6 +91,26 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
     this.name = Constants.CLAZZ_NAME_AREX_QUERY_MOCKER;
   }
 
+  public void setPartitions(MockerPartitions partitions) {
+    this.partitions = partitions;
+  }
+
+  /**
+   * @return the latest day the record has mockers in kept by its manifest, tracked whenever the
+   * mockers are partitioned, null if not known
+   */
+  private Long recordDayOf(String recordId) {
+    if (recordManifestRepository == null || StringUtils.isEmpty(recordId)) {
+      return null;
+    }
+    try {
+      return recordManifestRepository.queryRecordDay(recordId);
+    } catch (Throwable ex) {
+      LOGGER.warn("query record day error:{}, recordId:{}", ex.getMessage(), recordId, ex);
+      return null;
+    }
+  }
+
   private String getCollectionName(MockCategoryType category) {
     return this.getProviderName() + category.getName() + COLLECTION_SUFFIX;
   }
@@ -83,7 +124,8 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
   public Iterable<AREXQueryMocker> queryRecordList(MockCategoryType category, String recordId, String[] fieldNames) {
     Criteria criteria = buildRecordIdFilter(category, recordId);
 
-    if (Objects.equals(this.providerName, ProviderNames.DEFAULT)) {
+    // a partition expires as a whole, the mockers read are not renewed
+    if (partitions == null && Objects.equals(this.providerName, ProviderNames.DEFAULT)) {
       updateExpirationTime(criteria, getCollectionName(category));
     }
 
@@ -93,10 +135,19 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
           .map(fieldName -> FIELD_MAPPING.getOrDefault(fieldName, fieldName))
           .toArray(String[]::new);
       query.fields().include(mappedFieldNames);
+      if (ArrayUtils.contains(mappedFieldNames, TARGET_RESPONSE_COLUMN_NAME)) {
+        query.fields().include(PAYLOAD_REF_COLUMN_NAME);
+      }
     }
 
-    Iterable<AREXQueryMocker> iterable = mongoTemplate.find(query,
-        AREXQueryMocker.class, getCollectionName(category));
+    // a record just saved must be found, the record reads stay on the primary
+    List<ReferencingQueryMocker> found = partitions == null
+        ? mongoTemplate.find(query, ReferencingQueryMocker.class, getCollectionName(category))
+        : partitions.findRecord(getCollectionName(category), recordDayOf(recordId),
+            category.isEntryPoint(),
+            partition -> mongoTemplate.find(query, ReferencingQueryMocker.class, partition));
+    resolvePayloads(found);
+    List<AREXQueryMocker> iterable = new ArrayList<>(found);
     iterable.forEach(this::addUseMocker);
     return new AttachmentCategoryIterable(category, iterable);
   }
@@ -129,6 +180,37 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
     return Criteria.where(AbstractMocker.Fields.recordId).is(value);
   }
 
+  /**
+   * Replace the placeholder responses of the deduplicated mockers by their payloads, in the stored
+   * form the response of this mocker type is read in. All payloads are read in one query.
+   */
+  private void resolvePayloads(List<ReferencingQueryMocker> items) {
+    if (mockerPayloadRepository == null) {
+      return;
+    }
+    Map<String, List<ReferencingQueryMocker>> referencing = new HashMap<>();
+    for (ReferencingQueryMocker item : items) {
+      if (item.payloadRef != null) {
+        referencing.computeIfAbsent(item.payloadRef, key -> new ArrayList<>()).add(item);
+      }
+    }
+    if (referencing.isEmpty()) {
+      return;
+    }
+    Map<String, Target> payloads = mockerPayloadRepository.queryPayloads(referencing.keySet());
+    referencing.forEach((reference, referencingItems) -> {
+      Target payload = payloads.get(reference);
+      if (payload == null) {
+        LOGGER.warn("mocker payload not found, ref:{}, size:{}", reference,
+            referencingItems.size());
+      }
+      String response = payload == null ? null : TARGET_WRITER.convert(payload);
+      for (ReferencingQueryMocker item : referencingItems) {
+        item.setResponse(response);
+      }
+    });
+  }
+
   private void addUseMocker(AREXQueryMocker item) {
     if (item != null && item.getUseMock() == null && item.getCategoryType() != null
         && !item.getCategoryType().isEntryPoint()) {
@@ -136,6 +218,18 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
     }
   }
 
+  @Override
+  public Iterable<AREXQueryMocker> queryRecordListWithoutRenewal(MockCategoryType categoryType,
+      String recordId) {
+    throw new UnsupportedOperationException("Not supported.");
+  }
+
+  @Override
+  public Iterable<AREXQueryMocker> queryRecordListForEdition(MockCategoryType categoryType,
+      String recordId) {
+    throw new UnsupportedOperationException("Not supported.");
+  }
+
   @Override
   public AREXQueryMocker queryRecord(Mocker requestType) {
     throw new UnsupportedOperationException("Not supported.");
@@ -151,6 +245,12 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
     throw new UnsupportedOperationException("Not supported.");
   }
 
+  @Override
+  public Stream<AREXQueryMocker> streamEntryPointByRange(PagedRequestType pagedRequestType,
+      boolean fullMockers) {
+    throw new UnsupportedOperationException("Not supported.");
+  }
+
   @Override
   public long countByRange(PagedRequestType request) {
     throw new UnsupportedOperationException("Not supported.");
@@ -171,6 +271,11 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
     throw new UnsupportedOperationException("Not supported.");
   }
 
+  @Override
+  public boolean saveRetried(AREXQueryMocker value) {
+    throw new UnsupportedOperationException("Not supported.");
+  }
+
   @Override
   public long removeBy(MockCategoryType categoryType, String recordId) {
     throw new UnsupportedOperationException("Not supported.");
@@ -181,11 +286,22 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
     throw new UnsupportedOperationException("Not supported.");
   }
 
+  @Override
+  public long copyTo(MockCategoryType categoryType, String srcRecordId,
+      RepositoryWriter<AREXQueryMocker> target, String targetRecordId) {
+    throw new UnsupportedOperationException("Not supported.");
+  }
+
   @Override
   public boolean update(AREXQueryMocker value) {
     throw new UnsupportedOperationException("Not supported.");
   }
 
+  @Override
+  public long updateEigenMap(MockCategoryType categoryType, List<AREXQueryMocker> valueList) {
+    throw new UnsupportedOperationException("Not supported.");
+  }
+
   @Override
   public long removeByAppId(MockCategoryType categoryType, String appId) {
     throw new UnsupportedOperationException("Not supported.");
@@ -212,6 +328,16 @@ public class AREXQueryMockerMongoRepositoryProvider implements RepositoryProvide
   }
 
 
+  /**
+   * The query mocker with the payload reference the deduplicated mockers are saved with, the
+   * reference is not exposed past the provider.
+   */
+  static class ReferencingQueryMocker extends AREXQueryMocker {
+
+    @Field(PAYLOAD_REF_COLUMN_NAME)
+    private String payloadRef;
+  }
+
   private static final class AttachmentCategoryIterable implements Iterable<AREXQueryMocker>,
       Iterator<AREXQueryMocker> {
 
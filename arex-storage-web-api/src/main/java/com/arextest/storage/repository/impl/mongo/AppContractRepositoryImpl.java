@@ -4,9 +4,12 @@ import com.arextest.config.model.dto.application.AppContract;
 import com.arextest.storage.mapper.AppContractMapper;
 import com.arextest.storage.model.AppContractCollection;
 import com.arextest.storage.repository.AppContractRepository;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
+import org.apache.commons.collections4.CollectionUtils;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
@@ -19,6 +22,7 @@ import org.springframework.stereotype.Repository;
 @RequiredArgsConstructor
 @Repository
 public class AppContractRepositoryImpl implements AppContractRepository {
+  private static final String PRIMARY_KEY_COLUMN_NAME = "_id";
   private final MongoTemplate mongoTemplate;
 
   @Override
@@ -27,4 +31,17 @@ public class AppContractRepositoryImpl implements AppContractRepository {
     List<AppContractCollection> daos = mongoTemplate.find(query, AppContractCollection.class);
     return daos.stream().map(AppContractMapper.INSTANCE::dtoFromDao).collect(Collectors.toList());
   }
+
+  @Override
+  public List<AppContract> queryContractOperations(String appId, Collection<String> ids) {
+    if (CollectionUtils.isEmpty(ids)) {
+      return Collections.emptyList();
+    }
+    Query query = Query.query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).in(ids)
+        .and(AppContractCollection.Fields.appId).is(appId));
+    query.fields().include(AppContractCollection.Fields.operationType)
+        .include(AppContractCollection.Fields.operationName);
+    List<AppContractCollection> daos = mongoTemplate.find(query, AppContractCollection.class);
+    return daos.stream().map(AppContractMapper.INSTANCE::dtoFromDao).collect(Collectors.toList());
+  }
 }
@@ -0,0 +1,285 @@
+package com.arextest.storage.repository.impl.mongo;
+
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.enums.MockerQueryShapeEnum;
+import com.arextest.storage.repository.ProviderNames;
+import com.arextest.storage.utils.TimeUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * The per day partitions of the rolling mocker collections, e.g. RollingServletMocker_20240101
+ * holds the servlet entry points created that day (UTC).
+ * <p>
+ * A mocker is written to the partition of its creation time, the range reads only read the
+ * partitions overlapping their range, and the partitions past the retention are dropped as a whole
+ * instead of deleting their mockers one by one by a TTL index. The record manifest, tracked whenever
+ * the mockers are partitioned, keeps the latest day of a record. The records without one, e.g. whose
+ * manifest could not be written, are looked for in the retained partitions, the newest first. The
+ * expiration of a partitioned mocker cannot be extended, it is dropped with its partition.
+ */
+@Slf4j
+public class MockerPartitions {
+
+  private static final String SEPARATOR = "_";
+  private static final String COLLECTION_SUFFIX = "Mocker";
+  private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+  private static final int DAY_LENGTH = 8;
+  private static final long EXPIRY_INTERVAL_MINUTES = 60L;
+
+  private final MongoTemplate mongoTemplate;
+  private final int retentionDays;
+  private final Set<String> indexedPartitions = ConcurrentHashMap.newKeySet();
+  private ScheduledExecutorService expiryScheduler;
+
+  public MockerPartitions(MongoTemplate mongoTemplate, int retentionDays) {
+    this.mongoTemplate = mongoTemplate;
+    this.retentionDays = Math.max(retentionDays, 1);
+  }
+
+  /**
+   * Drop the expired partitions once an hour, each instance may drop them, dropping a partition
+   * already dropped does nothing.
+   */
+  public void scheduleExpiry() {
+    expiryScheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("mocker-partition-expiry-%d").setDaemon(true)
+            .build());
+    expiryScheduler.scheduleWithFixedDelay(this::dropExpired, 0L, EXPIRY_INTERVAL_MINUTES,
+        TimeUnit.MINUTES);
+    LOGGER.info("rolling mockers partitioned per day, retained for {} days", retentionDays);
+  }
+
+  public void close() {
+    if (expiryScheduler != null) {
+      expiryScheduler.shutdownNow();
+    }
+  }
+
+  static long dayOf(long millis) {
+    return Math.floorDiv(millis, TimeUtils.ONE_DAY);
+  }
+
+  static String partitionName(String collection, long day) {
+    return collection + SEPARATOR + LocalDate.ofEpochDay(day).format(DAY_FORMATTER);
+  }
+
+  /**
+   * @return the day of the partition, null if the collection is not a partition
+   */
+  static Long partitionDayOf(String collectionName) {
+    int separatorIndex = StringUtils.lastIndexOf(collectionName, SEPARATOR);
+    if (separatorIndex < 0 || collectionName.length() - separatorIndex - 1 != DAY_LENGTH
+        || !collectionName.startsWith(ProviderNames.DEFAULT)
+        || !collectionName.substring(0, separatorIndex).endsWith(COLLECTION_SUFFIX)) {
+      return null;
+    }
+    try {
+      return LocalDate.parse(collectionName.substring(separatorIndex + 1), DAY_FORMATTER)
+          .toEpochDay();
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The partition a mocker is saved to, its indexes are created on the first save of the instance.
+   */
+  String writePartition(String collection, MockCategoryType category, long day) {
+    String partition = partitionName(collection, day);
+    if (indexedPartitions.add(partition)) {
+      try {
+        createIndexes(partition, category);
+      } catch (RuntimeException e) {
+        indexedPartitions.remove(partition);
+        LOGGER.error("create indexes of partition:{} error:{}", partition, e.getMessage(), e);
+      }
+    }
+    return partition;
+  }
+
+  /**
+   * The mockers live as long as their partition, the payloads and manifests expire with them.
+   */
+  long expirationTimeOf(long day) {
+    return (day + retentionDays + 1) * TimeUtils.ONE_DAY;
+  }
+
+  /**
+   * @return the retained partitions overlapping the range [beginTime, endTime), the oldest first
+   */
+  List<String> rangePartitions(String collection, long beginTime, long endTime) {
+    long firstDay = Math.max(dayOf(beginTime), oldestRetainedDay());
+    // a creation time a little ahead of the clock of the storage is still found
+    long lastDay = Math.min(dayOf(endTime - 1), today() + 1);
+    List<String> partitions = new ArrayList<>();
+    for (long day = firstDay; day <= lastDay; day++) {
+      partitions.add(partitionName(collection, day));
+    }
+    return partitions;
+  }
+
+  /**
+   * @return the retained partitions, the newest first
+   */
+  List<String> retainedPartitions(String collection) {
+    List<String> partitions = new ArrayList<>();
+    for (long day : retainedDays()) {
+      partitions.add(partitionName(collection, day));
+    }
+    return partitions;
+  }
+
+  /**
+   * @return the partitions of the day, and of the day before, the newest first
+   */
+  List<String> partitionsAround(String collection, long millis) {
+    long day = dayOf(millis);
+    if (day < oldestRetainedDay()) {
+      return Collections.emptyList();
+    }
+    List<String> partitions = new ArrayList<>(2);
+    partitions.add(partitionName(collection, day));
+    if (day > oldestRetainedDay()) {
+      partitions.add(partitionName(collection, day - 1));
+    }
+    return partitions;
+  }
+
+  /**
+   * @param recordDay the latest day of the record, null if not known
+   * @return the partitions of the record, the newest first
+   */
+  List<String> recordPartitions(String collection, Long recordDay) {
+    List<String> partitions = new ArrayList<>();
+    for (long day : recordDays(recordDay)) {
+      partitions.add(partitionName(collection, day));
+    }
+    return partitions;
+  }
+
+  /**
+   * Find the mockers of a record, the partitions are read the newest first. An entry point is in
+   * one partition. The dependencies of a record span two days at most, once found in a partition
+   * the day before is read as well, the older mockers are listed first.
+   *
+   * @param recordDay the latest day of the record, null if not known
+   */
+  <T> List<T> findRecord(String collection, Long recordDay, boolean entryPoint,
+      Function<String, List<T>> finder) {
+    for (long day : recordDays(recordDay)) {
+      List<T> found = finder.apply(partitionName(collection, day));
+      if (found.isEmpty()) {
+        continue;
+      }
+      if (entryPoint || day <= oldestRetainedDay()) {
+        return found;
+      }
+      List<T> earlier = finder.apply(partitionName(collection, day - 1));
+      if (earlier.isEmpty()) {
+        return found;
+      }
+      List<T> all = new ArrayList<>(earlier.size() + found.size());
+      all.addAll(earlier);
+      all.addAll(found);
+      return all;
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * @return the first one found, reading the partitions in their order
+   */
+  static <T> T findFirst(List<String> partitions, Function<String, T> finder) {
+    for (String partition : partitions) {
+      T found = finder.apply(partition);
+      if (found != null) {
+        return found;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the count of the partitions dropped
+   */
+  int dropExpired() {
+    int dropped = 0;
+    try {
+      long oldestRetainedDay = oldestRetainedDay();
+      for (String collectionName : mongoTemplate.getCollectionNames()) {
+        Long day = partitionDayOf(collectionName);
+        if (day == null || day >= oldestRetainedDay) {
+          continue;
+        }
+        mongoTemplate.dropCollection(collectionName);
+        indexedPartitions.remove(collectionName);
+        dropped++;
+        LOGGER.info("dropped expired mocker partition:{}", collectionName);
+      }
+    } catch (Throwable ex) {
+      LOGGER.error("drop expired mocker partitions error:{}", ex.getMessage(), ex);
+    }
+    return dropped;
+  }
+
+  private List<Long> recordDays(Long recordDay) {
+    if (recordDay == null) {
+      return retainedDays();
+    }
+    List<Long> days = new ArrayList<>(2);
+    if (recordDay >= oldestRetainedDay()) {
+      days.add(recordDay);
+    }
+    if (recordDay - 1 >= oldestRetainedDay()) {
+      days.add(recordDay - 1);
+    }
+    return days;
+  }
+
+  private List<Long> retainedDays() {
+    long oldestRetainedDay = oldestRetainedDay();
+    List<Long> days = new ArrayList<>(retentionDays + 2);
+    for (long day = today() + 1; day >= oldestRetainedDay; day--) {
+      days.add(day);
+    }
+    return days;
+  }
+
+  private void createIndexes(String partition, MockCategoryType category) {
+    MongoCollection<Document> collection = mongoTemplate.getCollection(partition);
+    for (MockerQueryShapeEnum shape : MockerQueryShapeEnum.shapesOf(category)) {
+      try {
+        collection.createIndex(shape.indexKeys(), new IndexOptions().background(true));
+      } catch (MongoCommandException e) {
+        LOGGER.warn("create index of {} failed on {}", shape, partition, e);
+      }
+    }
+  }
+
+  private long oldestRetainedDay() {
+    return today() - retentionDays;
+  }
+
+  private static long today() {
+    return dayOf(System.currentTimeMillis());
+  }
+}
@@ -0,0 +1,115 @@
+package com.arextest.storage.repository.impl.mongo;
+
+import com.arextest.model.mock.Mocker.Target;
+import com.arextest.storage.model.MockerPayload;
+import com.arextest.storage.repository.MockerPayloadRepository;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.MapUtils;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@RequiredArgsConstructor
+@Repository
+public class MockerPayloadRepositoryImpl implements MockerPayloadRepository {
+
+  private static final String PRIMARY_KEY_COLUMN_NAME = "_id";
+  private final MongoTemplate mongoTemplate;
+
+  @Override
+  public void reference(Map<String, Target> payloads, Map<String, Long> counts,
+      Date expirationTime) {
+    if (MapUtils.isEmpty(payloads)) {
+      return;
+    }
+    BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED,
+        MockerPayload.class);
+    for (Map.Entry<String, Target> entry : payloads.entrySet()) {
+      Update update = buildUpdate(expirationTime)
+          .inc(MockerPayload.Fields.refCount, counts.getOrDefault(entry.getKey(), 1L))
+          .setOnInsert(MockerPayload.Fields.payload, entry.getValue());
+      bulkOperations.upsert(buildIdQuery(entry.getKey()), update);
+    }
+    bulkOperations.execute();
+  }
+
+  @Override
+  public void increase(Map<String, Long> counts, Date expirationTime) {
+    if (MapUtils.isEmpty(counts)) {
+      return;
+    }
+    BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED,
+        MockerPayload.class);
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      bulkOperations.updateOne(buildIdQuery(entry.getKey()),
+          buildUpdate(expirationTime).inc(MockerPayload.Fields.refCount, entry.getValue()));
+    }
+    bulkOperations.execute();
+  }
+
+  @Override
+  public void release(Map<String, Long> counts) {
+    if (MapUtils.isEmpty(counts)) {
+      return;
+    }
+    BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED,
+        MockerPayload.class);
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      bulkOperations.updateOne(buildIdQuery(entry.getKey()),
+          new Update().inc(MockerPayload.Fields.refCount, -entry.getValue())
+              .set(MockerPayload.Fields.updateTime, new Date()));
+    }
+    bulkOperations.execute();
+    // a reference added in between raises the count again and keeps the payload
+    mongoTemplate.remove(new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).in(counts.keySet())
+        .and(MockerPayload.Fields.refCount).lte(0L)), MockerPayload.class);
+  }
+
+  @Override
+  public void extendExpirationTo(Collection<String> ids, Date expirationTime) {
+    if (CollectionUtils.isEmpty(ids)) {
+      return;
+    }
+    mongoTemplate.updateMulti(new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).in(ids)),
+        buildUpdate(expirationTime), MockerPayload.class);
+  }
+
+  @Override
+  public Map<String, Target> queryPayloads(Collection<String> ids) {
+    if (CollectionUtils.isEmpty(ids)) {
+      return Collections.emptyMap();
+    }
+    Query query = new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).in(ids));
+    query.fields().include(MockerPayload.Fields.payload);
+    List<MockerPayload> payloads = mongoTemplate.find(query, MockerPayload.class);
+    Map<String, Target> result = new HashMap<>(payloads.size());
+    for (MockerPayload payload : payloads) {
+      result.put(payload.getId(), payload.getPayload());
+    }
+    return result;
+  }
+
+  private static Query buildIdQuery(String id) {
+    return new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).is(id));
+  }
+
+  /**
+   * The payload lives as long as the longest living mocker referencing it.
+   */
+  private static Update buildUpdate(Date expirationTime) {
+    return new Update()
+        .max(MockerPayload.Fields.expirationTime, expirationTime)
+        .set(MockerPayload.Fields.updateTime, new Date());
+  }
+}
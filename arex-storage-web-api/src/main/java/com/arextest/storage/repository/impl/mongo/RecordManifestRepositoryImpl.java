@@ -0,0 +1,102 @@
+package com.arextest.storage.repository.impl.mongo;
+
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.model.RecordManifest;
+import com.arextest.storage.repository.RecordManifestRepository;
+import java.util.Date;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@RequiredArgsConstructor
+@Repository
+public class RecordManifestRepositoryImpl implements RecordManifestRepository {
+
+  private static final String PRIMARY_KEY_COLUMN_NAME = "_id";
+  private final MongoTemplate mongoTemplate;
+
+  @Override
+  public void increase(String providerName, MockCategoryType category, String recordId,
+      long count, Date expirationTime, Long recordDay) {
+    Update update = buildSaveUpdate(category, expirationTime)
+        .inc(RecordManifest.toCountField(providerName, category.getName()), count);
+    if (recordDay != null) {
+      update.max(RecordManifest.Fields.recordDay, recordDay);
+    }
+    mongoTemplate.upsert(buildRecordIdQuery(recordId), update, RecordManifest.class);
+  }
+
+  @Override
+  public void reset(String providerName, MockCategoryType category, String recordId, long count,
+      Date expirationTime) {
+    Update update = buildSaveUpdate(category, expirationTime)
+        .set(RecordManifest.toCountField(providerName, category.getName()), count);
+    mongoTemplate.upsert(buildRecordIdQuery(recordId), update, RecordManifest.class);
+  }
+
+  @Override
+  public void removeCategory(String providerName, MockCategoryType category, String recordId) {
+    Update update = new Update()
+        .unset(RecordManifest.toCountField(providerName, category.getName()))
+        .set(RecordManifest.Fields.updateTime, new Date());
+    mongoTemplate.updateFirst(buildRecordIdQuery(recordId), update, RecordManifest.class);
+  }
+
+  @Override
+  public void removeByRecordId(String recordId) {
+    mongoTemplate.remove(buildRecordIdQuery(recordId), RecordManifest.class);
+  }
+
+  @Override
+  public void markUntrusted(String recordId) {
+    Update update = new Update()
+        .set(RecordManifest.Fields.untrusted, true)
+        .setOnInsert(RecordManifest.Fields.creationTime, new Date())
+        .set(RecordManifest.Fields.updateTime, new Date());
+    mongoTemplate.upsert(buildRecordIdQuery(recordId), update, RecordManifest.class);
+  }
+
+  @Override
+  public void extendExpirationTo(String recordId, Date expirationTime) {
+    mongoTemplate.updateFirst(buildRecordIdQuery(recordId), buildUpdate(expirationTime),
+        RecordManifest.class);
+  }
+
+  @Override
+  public RecordManifest queryByRecordId(String recordId) {
+    return mongoTemplate.findOne(buildRecordIdQuery(recordId), RecordManifest.class);
+  }
+
+  @Override
+  public Long queryRecordDay(String recordId) {
+    Query query = buildRecordIdQuery(recordId);
+    query.fields().include(RecordManifest.Fields.recordDay);
+    RecordManifest manifest = mongoTemplate.findOne(query, RecordManifest.class);
+    return manifest == null ? null : manifest.getRecordDay();
+  }
+
+  private static Query buildRecordIdQuery(String recordId) {
+    return new Query(Criteria.where(PRIMARY_KEY_COLUMN_NAME).is(recordId));
+  }
+
+  private static Update buildSaveUpdate(MockCategoryType category, Date expirationTime) {
+    Update update = buildUpdate(expirationTime)
+        .setOnInsert(RecordManifest.Fields.creationTime, new Date());
+    if (category.isEntryPoint()) {
+      update.set(RecordManifest.Fields.complete, true);
+    }
+    return update;
+  }
+
+  /**
+   * The manifest lives as long as the longest living mockers of the record.
+   */
+  private static Update buildUpdate(Date expirationTime) {
+    return new Update()
+        .max(RecordManifest.Fields.expirationTime, expirationTime)
+        .set(RecordManifest.Fields.updateTime, new Date());
+  }
+}
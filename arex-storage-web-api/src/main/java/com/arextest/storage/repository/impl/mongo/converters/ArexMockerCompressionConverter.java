@@ -11,7 +11,10 @@ import org.springframework.data.convert.WritingConverter;
 
 @Slf4j
 public class ArexMockerCompressionConverter {
-  private static Target read(String source)  {
+  /**
+   * Decode the stored form of a target, called by {@link LazyTarget} on its first access.
+   */
+  static Target decode(String source)  {
     String encodeWithDecryptString = null;
     try {
       encodeWithDecryptString = DesensitizationLoader.DESENSITIZATION_SERVICE.decrypt(source);
@@ -22,6 +25,12 @@ public class ArexMockerCompressionConverter {
   }
 
   private static String write(Target source) {
+    if (source instanceof LazyTarget) {
+      String encoded = ((LazyTarget) source).encodedIfUntouched();
+      if (encoded != null) {
+        return encoded;
+      }
+    }
     String base64Result = SerializationUtils.useZstdSerializeToBase64(source);
     try {
       base64Result = DesensitizationLoader.DESENSITIZATION_SERVICE.encrypt(base64Result);
@@ -37,7 +46,7 @@ public class ArexMockerCompressionConverter {
 
     @Override
     public Target convert(@NonNull String source) {
-      return read(source);
+      return new LazyTarget(source);
     }
   }
   @WritingConverter
@@ -0,0 +1,111 @@
+package com.arextest.storage.repository.impl.mongo.converters;
+
+import com.arextest.model.mock.Mocker.Target;
+import java.util.Map;
+
+/**
+ * A target read from mongo, kept in its stored form (encrypted, base64 encoded, zstd compressed
+ * json) until any of its accessors is first called.
+ * <p>
+ * Reads that only need the metadata of the mockers, or only one of the targets, skip decoding the
+ * other payloads, and a target written back untouched reuses its stored form.
+ */
+public class LazyTarget extends Target {
+
+  /**
+   * the stored form, null once decoded
+   */
+  private volatile String encoded;
+
+  LazyTarget(String encoded) {
+    this.encoded = encoded;
+  }
+
+  /**
+   * @return the length of the stored form, or -1 if already decoded
+   */
+  public int encodedLength() {
+    String source = encoded;
+    return source == null ? -1 : source.length();
+  }
+
+  /**
+   * @return the stored form if the target was never accessed, otherwise null
+   */
+  String encodedIfUntouched() {
+    return encoded;
+  }
+
+  private void decode() {
+    if (encoded == null) {
+      return;
+    }
+    synchronized (this) {
+      String source = encoded;
+      if (source == null) {
+        return;
+      }
+      Target decoded = ArexMockerCompressionConverter.decode(source);
+      if (decoded != null) {
+        super.setBody(decoded.getBody());
+        super.setAttributes(decoded.getAttributes());
+        super.setType(decoded.getType());
+      }
+      encoded = null;
+    }
+  }
+
+  @Override
+  public String getBody() {
+    decode();
+    return super.getBody();
+  }
+
+  @Override
+  public void setBody(String body) {
+    decode();
+    super.setBody(body);
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    decode();
+    return super.getAttributes();
+  }
+
+  @Override
+  public void setAttributes(Map<String, Object> attributes) {
+    decode();
+    super.setAttributes(attributes);
+  }
+
+  @Override
+  public String getType() {
+    decode();
+    return super.getType();
+  }
+
+  @Override
+  public void setType(String type) {
+    decode();
+    super.setType(type);
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    decode();
+    return super.getAttribute(name);
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    decode();
+    super.setAttribute(name, value);
+  }
+
+  @Override
+  public String attributeAsString(String name) {
+    decode();
+    return super.attributeAsString(name);
+  }
+}
@@ -8,11 +8,17 @@ import org.springframework.data.mongodb.core.MongoTemplate;
 public abstract class AbstractScenePoolProvider implements ScenePoolProvider {
   @Resource
   private MongoTemplate mongoTemplate;
+  @Resource
+  private SceneKeyFilter sceneKeyFilter;
 
   MongoTemplate getTemplate() {
     return mongoTemplate;
   }
 
+  SceneKeyFilter getSceneKeyFilter() {
+    return sceneKeyFilter;
+  }
+
   void setMongoDataBase(MongoTemplate mongoDatabase) {
     this.mongoTemplate = mongoDatabase;
   }
@@ -0,0 +1,105 @@
+package com.arextest.storage.repository.scenepool;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-application bloom filter of the scene keys known to a scene pool.
+ * <p>
+ * A negative answer is definite for the scene keys this node loaded or put, it lets the caller skip
+ * the mongo existence query and go straight to an insert-only upsert, whose result confirms the
+ * scene is new since the filter misses the scenes inserted by the other storage nodes until its next
+ * rebuild. A positive answer may be false and is always confirmed by the existence query. Filters
+ * are loaded lazily from the pool the first time an app is checked and rebuilt periodically, so
+ * scenes inserted by other storage nodes or expired by the TTL index are picked up.
+ */
+@Slf4j
+@Component
+public class SceneKeyFilter {
+
+  private static final String FILTER_ENABLED = "scene.pool.filter.enabled";
+  private static final String FILTER_EXPECTED_INSERTIONS = "scene.pool.filter.expected.insertions";
+  private static final String FILTER_FPP = "scene.pool.filter.fpp";
+  private static final String FILTER_REBUILD_MINUTES = "scene.pool.filter.rebuild.minutes";
+  private static final String FILTER_MAX_APPS = "scene.pool.filter.max.apps";
+  private static final long DEFAULT_EXPECTED_INSERTIONS = 100_000L;
+  private static final double DEFAULT_FPP = 0.001D;
+  private static final long DEFAULT_REBUILD_MINUTES = 10L;
+  private static final long DEFAULT_MAX_APPS = 2000L;
+  private static final String KEY_SEPARATOR = "_";
+
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  private final Cache<String, BloomFilter<CharSequence>> filters;
+
+  public SceneKeyFilter(DefaultApplicationConfig defaultApplicationConfig) {
+    this.defaultApplicationConfig = defaultApplicationConfig;
+    this.filters = Caffeine.newBuilder()
+        .maximumSize(defaultApplicationConfig.getConfigAsLong(FILTER_MAX_APPS, DEFAULT_MAX_APPS))
+        .expireAfterWrite(defaultApplicationConfig.getConfigAsLong(FILTER_REBUILD_MINUTES,
+            DEFAULT_REBUILD_MINUTES), TimeUnit.MINUTES)
+        .build();
+  }
+
+  public boolean isEnabled() {
+    return defaultApplicationConfig.getConfigAsBoolean(FILTER_ENABLED, true);
+  }
+
+  /**
+   * @param poolName the scene pool the key belongs to
+   * @param appId    the app id of the scene
+   * @param sceneKey the scene key to check
+   * @param loader   fills a freshly created filter with all scene keys of the app, called when the
+   *                 filter of the app is absent or expired
+   * @return true if the scene key may be in the pool, false if this node never loaded or put it
+   */
+  public boolean mightContain(String poolName, String appId, String sceneKey,
+      Consumer<BloomFilter<CharSequence>> loader) {
+    BloomFilter<CharSequence> filter = filters.get(buildKey(poolName, appId), key -> {
+      long start = System.currentTimeMillis();
+      BloomFilter<CharSequence> created = create();
+      loader.accept(created);
+      LOGGER.info("rebuild scene key filter for {}, cost: {} ms", key,
+          System.currentTimeMillis() - start);
+      return created;
+    });
+    // guava 20 bloom filters are not thread-safe
+    synchronized (filter) {
+      return filter.mightContain(sceneKey);
+    }
+  }
+
+  public void put(String poolName, String appId, String sceneKey) {
+    BloomFilter<CharSequence> filter = filters.getIfPresent(buildKey(poolName, appId));
+    if (filter == null) {
+      // not loaded yet, the next check will load it from the pool which contains this key
+      return;
+    }
+    synchronized (filter) {
+      filter.put(sceneKey);
+    }
+  }
+
+  public void invalidate(String poolName, String appId) {
+    filters.invalidate(buildKey(poolName, appId));
+  }
+
+  private BloomFilter<CharSequence> create() {
+    return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+        defaultApplicationConfig.getConfigAsLong(FILTER_EXPECTED_INSERTIONS,
+            DEFAULT_EXPECTED_INSERTIONS),
+        Double.parseDouble(defaultApplicationConfig.getConfigAsString(FILTER_FPP,
+            String.valueOf(DEFAULT_FPP))));
+  }
+
+  private static String buildKey(String poolName, String appId) {
+    return poolName + KEY_SEPARATOR + appId;
+  }
+}
@@ -6,12 +6,23 @@ import java.util.List;
 public interface ScenePoolProvider {
   String getProviderName();
 
+  /**
+   * @return true if the scene key is in the pool, false when it is not or when it was answered
+   * without a query, to be confirmed by {@link #insertIfAbsent(Scene)}
+   */
   boolean checkSceneExist(String appId, String sceneKey);
 
   Scene findAndUpdate(Scene scene);
 
   void upsertOne(Scene scene);
 
+  /**
+   * Inserts the scene unless its scene key is in the pool, an existing scene is left unchanged.
+   *
+   * @return true if the scene was inserted, false if the scene key was already in the pool
+   */
+  boolean insertIfAbsent(Scene scene);
+
   long clearSceneByAppid(String appid);
 
   Scene findByRecordId(String recordId);
@@ -2,12 +2,14 @@ package com.arextest.storage.repository.scenepool;
 
 import com.arextest.model.scenepool.Scene;
 import com.arextest.model.scenepool.Scene.Fields;
+import com.google.common.hash.BloomFilter;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
 import lombok.AllArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -16,6 +18,7 @@ import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
 
 @AllArgsConstructor
 public class ScenePoolProviderImpl extends AbstractScenePoolProvider {
@@ -29,10 +32,42 @@ public class ScenePoolProviderImpl extends AbstractScenePoolProvider {
 
   @Override
   public boolean checkSceneExist(String appId, String sceneKey) {
+    // a negative of the filter skips the query, the caller confirms it by insertIfAbsent since the
+    // filter of this node misses the scenes inserted by the others since its load
+    SceneKeyFilter sceneKeyFilter = getSceneKeyFilter();
+    if (sceneKeyFilter != null && sceneKeyFilter.isEnabled()
+        && !sceneKeyFilter.mightContain(providerName, appId, sceneKey,
+        filter -> loadSceneKeys(appId, filter))) {
+      return false;
+    }
+
+    // bounded existence query instead of counting all matched documents
     Query filter = new Query();
     filter.addCriteria(Criteria.where(Scene.Fields.appId).is(appId)
         .and(Scene.Fields.sceneKey).is(sceneKey));
-    return getTemplate().count(filter, Scene.class, getCollectionName()) > 0;
+    filter.fields().include(Fields.id);
+    filter.limit(1);
+    return getTemplate().findOne(filter, Scene.class, getCollectionName()) != null;
+  }
+
+  private void loadSceneKeys(String appId, BloomFilter<CharSequence> sceneKeys) {
+    Query filter = Query.query(Criteria.where(Fields.appId).is(appId));
+    filter.fields().include(Fields.sceneKey);
+    try (CloseableIterator<Scene> scenes = getTemplate().stream(filter, Scene.class,
+        getCollectionName())) {
+      scenes.forEachRemaining(scene -> {
+        if (scene.getSceneKey() != null) {
+          sceneKeys.put(scene.getSceneKey());
+        }
+      });
+    }
+  }
+
+  private void markSceneExist(Scene scene) {
+    SceneKeyFilter sceneKeyFilter = getSceneKeyFilter();
+    if (sceneKeyFilter != null) {
+      sceneKeyFilter.put(providerName, scene.getAppId(), scene.getSceneKey());
+    }
   }
 
   @Override
@@ -44,7 +79,10 @@ public class ScenePoolProviderImpl extends AbstractScenePoolProvider {
     Update update = getUpdate(newScene);
     FindAndModifyOptions opt = new FindAndModifyOptions().upsert(true);
     opt.returnNew(false);
-    return getTemplate().findAndModify(filter, update, opt, Scene.class, getCollectionName());
+    Scene oldScene = getTemplate().findAndModify(filter, update, opt, Scene.class,
+        getCollectionName());
+    markSceneExist(newScene);
+    return oldScene;
   }
 
   public void upsertOne(Scene scene) {
@@ -54,10 +92,41 @@ public class ScenePoolProviderImpl extends AbstractScenePoolProvider {
 
     Update update = getUpdate(scene);
     getTemplate().findAndModify(filter, update, new FindAndModifyOptions().upsert(true), Scene.class, getCollectionName());
+    markSceneExist(scene);
+  }
+
+  @Override
+  public boolean insertIfAbsent(Scene scene) {
+    Query filter = new Query();
+    filter.addCriteria(Criteria.where(Scene.Fields.appId).is(scene.getAppId())
+        .and(Scene.Fields.sceneKey).is(scene.getSceneKey()));
+
+    Date now = new Date();
+    Update update = new Update().setOnInsert(Scene.Fields.appId, scene.getAppId())
+        .setOnInsert(Scene.Fields.sceneKey, scene.getSceneKey())
+        .setOnInsert(Scene.Fields.recordId, scene.getRecordId())
+        .setOnInsert(Scene.Fields.executionPath, scene.getExecutionPath())
+        .setOnInsert(Scene.Fields.creationTime, now)
+        .setOnInsert(Scene.Fields.updateTime, now)
+        .setOnInsert(Scene.Fields.expirationTime, getExpirationTime());
+    boolean inserted;
+    try {
+      inserted = getTemplate().upsert(filter, update, Scene.class, getCollectionName())
+          .getUpsertedId() != null;
+    } catch (DuplicateKeyException e) {
+      // a concurrent upsert of the same scene key won
+      inserted = false;
+    }
+    markSceneExist(scene);
+    return inserted;
+  }
+
+  private static Date getExpirationTime() {
+    return Date.from(LocalDateTime.now().plusDays(EXPIRATION_DAYS).atZone(ZoneId.systemDefault()).toInstant());
   }
 
   private Update getUpdate(Scene scene) {
-    Date expire = Date.from(LocalDateTime.now().plusDays(EXPIRATION_DAYS).atZone(ZoneId.systemDefault()).toInstant());
+    Date expire = getExpirationTime();
     Date now = new Date();
     return Update.update(Scene.Fields.appId, scene.getAppId())
         .set(Scene.Fields.sceneKey, scene.getSceneKey())
@@ -71,7 +140,13 @@ public class ScenePoolProviderImpl extends AbstractScenePoolProvider {
   @Override
   public long clearSceneByAppid(String appid) {
     Query filter = Query.query(Criteria.where(Fields.appId).is(appid));
-    return getTemplate().remove(filter, Scene.class, getCollectionName()).getDeletedCount();
+    long deletedCount = getTemplate().remove(filter, Scene.class, getCollectionName())
+        .getDeletedCount();
+    SceneKeyFilter sceneKeyFilter = getSceneKeyFilter();
+    if (sceneKeyFilter != null) {
+      sceneKeyFilter.invalidate(providerName, appid);
+    }
+    return deletedCount;
   }
 
   @Override
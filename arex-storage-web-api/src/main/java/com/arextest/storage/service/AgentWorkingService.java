@@ -8,12 +8,16 @@ import com.arextest.storage.mock.MockResultMatchStrategy;
 import com.arextest.storage.mock.MockResultProvider;
 import com.arextest.storage.mock.MockerResultConverter;
 import com.arextest.storage.model.InvalidIncompleteRecordRequest;
+import com.arextest.storage.model.RecordManifest;
 import com.arextest.storage.model.RecordEnvType;
 import com.arextest.storage.repository.RepositoryProvider;
 import com.arextest.storage.repository.RepositoryProviderFactory;
 import com.arextest.storage.repository.RepositoryReader;
 import com.arextest.storage.serialization.ZstdJacksonSerializer;
+import com.arextest.storage.service.MockQueryStageGuard.Stage;
 import com.arextest.storage.service.listener.AgentWorkingListener;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import javax.validation.constraints.NotNull;
@@ -34,6 +38,7 @@ import org.apache.commons.lang3.StringUtils;
 @RequiredArgsConstructor
 public class AgentWorkingService {
 
+  private static final char RELOADED_KEY_SEPARATOR = '_';
   private final MockResultProvider mockResultProvider;
   private final RepositoryProviderFactory repositoryProviderFactory;
   private final List<AgentWorkingListener> agentWorkingListeners;
@@ -47,6 +52,12 @@ public class AgentWorkingService {
   private PrepareMockResultService prepareMockResultService;
   @Setter
   private RecordEnvType recordEnvType;
+  @Setter
+  private RecordManifestService recordManifestService;
+  @Setter
+  private EigenEnrichmentService eigenEnrichmentService;
+  @Setter
+  private MockQueryStageGuard mockQueryStageGuard;
 
   /**
    * requested from AREX's agent hits to recording, we direct save to repository for next replay
@@ -57,16 +68,46 @@ public class AgentWorkingService {
    * @return true means success,else save failure
    */
   public <T extends Mocker> boolean saveRecord(@NotNull T item) {
+    return saveRecord(item, false);
+  }
+
+  /**
+   * save a mocker drained from the spool, which retries it until it is saved.
+   *
+   * @param item the instance of T
+   * @param <T>  class type
+   * @return false only if the repository failed to save it, a mocker taken over by a listener is
+   * done with
+   */
+  public <T extends Mocker> boolean saveSpooledRecord(@NotNull T item) {
+    return saveRecord(item, true);
+  }
+
+  private <T extends Mocker> boolean saveRecord(T item, boolean spooled) {
     if (shouldMarkRecordEnv(item.getCategoryType())) {
       item.setRecordEnvironment(recordEnvType.getCodeValue());
     }
     if (!this.dispatchRecordSavingEvent(item)) {
-      return false;
+      return spooled;
     }
 
-    mockResultProvider.calculateEigen(item, true);
+    // the eigen is only used at replay, the deferred mode computes it after the mocker is saved
+    boolean deferEigen = eigenEnrichmentService != null && eigenEnrichmentService.isDeferred();
+    if (!deferEigen) {
+      mockResultProvider.calculateEigen(item, true);
+    }
     RepositoryProvider<T> repositoryWriter = repositoryProviderFactory.defaultProvider();
-    return repositoryWriter != null && repositoryWriter.save(item);
+    if (repositoryWriter == null) {
+      return false;
+    }
+    // a spooled save is retried, the record it belongs to is kept meanwhile
+    if (!(spooled ? repositoryWriter.saveRetried(item) : repositoryWriter.save(item))) {
+      return false;
+    }
+    if (deferEigen) {
+      eigenEnrichmentService.submit(item);
+    }
+    return true;
   }
 
   private boolean dispatchRecordSavingEvent(Mocker instance) {
@@ -110,6 +151,54 @@ public class AgentWorkingService {
    */
   public <T extends Mocker> byte[] queryMockResult(@NotNull T recordItem,
       MockResultContext context) {
+    return queryMockResult(recordItem, context, null);
+  }
+
+  /**
+   * requested from AREX's agent replaying with the pending dependencies of one replay, resolved in
+   * their order, so the sequences are consumed as by the same queries one at a time.
+   * <p>
+   * A record category missing from the cache is preloaded once for the batch, not once per
+   * dependency of it.
+   *
+   * @return compress bytes with zstd of each dependency, at its position
+   */
+  public List<byte[]> batchQueryMockResult(@NotNull List<AREXMocker> recordItems,
+      MockResultMatchStrategy mockStrategy) {
+    List<byte[]> results = new ArrayList<>(recordItems.size());
+    Set<String> reloadedCategories = new HashSet<>();
+    for (AREXMocker recordItem : recordItems) {
+      byte[] result = batchQueryMockResult(recordItem, mockStrategy, reloadedCategories);
+      results.add(result == null ? ZstdJacksonSerializer.EMPTY_INSTANCE : result);
+    }
+    return results;
+  }
+
+  private byte[] batchQueryMockResult(AREXMocker recordItem, MockResultMatchStrategy mockStrategy,
+      Set<String> reloadedCategories) {
+    MockCategoryType category = recordItem.getCategoryType();
+    try {
+      if (category == null) {
+        LOGGER.warn("agent batch query category not found");
+        return ZstdJacksonSerializer.EMPTY_INSTANCE;
+      }
+      if (category.equals(MockCategoryType.CONFIG_FILE)) {
+        return queryConfigFile(recordItem);
+      }
+      return queryMockResult(recordItem, new MockResultContext(mockStrategy), reloadedCategories);
+    } catch (Throwable throwable) {
+      LOGGER.error("batch query error:{} from category:{}", throwable.getMessage(), category,
+          throwable);
+    }
+    return ZstdJacksonSerializer.EMPTY_INSTANCE;
+  }
+
+  /**
+   * @param reloadedCategories the record categories preloaded by the batch of the query, null
+   *                           preloads the missing category every time
+   */
+  private <T extends Mocker> byte[] queryMockResult(T recordItem, MockResultContext context,
+      Set<String> reloadedCategories) {
     if (!this.dispatchMockResultEnterEvent(recordItem, context)) {
       LOGGER.warn("dispatch record mock event failed, skip query record data");
       return ZstdJacksonSerializer.EMPTY_INSTANCE;
@@ -122,11 +211,18 @@ public class AgentWorkingService {
       LOGGER.info("skip main entry mock response,record id:{},replay id:{}", recordId, replayId);
       return zstdJacksonSerializer.serialize(recordItem);
     }
+    long startTime = System.currentTimeMillis();
     byte[] result = mockResultProvider.getRecordResult(recordItem, context);
     if (result == null) {
       LOGGER.info("fetch replay mock record empty from cache,record id:{},replay id:{}", recordId,
           replayId);
-      boolean reloadResult = prepareMockResultService.preload(category, recordId);
+      // a slow cache read leaves no time to the preload fallback, the miss is answered at once
+      boolean reloadResult = mockQueryStageGuard.withinDeadline(Stage.CACHE_READ,
+          System.currentTimeMillis() - startTime)
+          && (reloadedCategories == null
+          || reloadedCategories.add(recordId + RELOADED_KEY_SEPARATOR + category.getName()))
+          && mockQueryStageGuard.callHedged(Stage.PRELOAD,
+          () -> prepareMockResultService.preload(category, recordId));
       if (reloadResult) {
         result = mockResultProvider.getRecordResult(recordItem, context);
       }
@@ -154,17 +250,40 @@ public class AgentWorkingService {
     Set<MockCategoryType> categoryTypes = repositoryProviderFactory.getCategoryTypesByName(
         categoryList);
 
+    RecordManifest manifest = recordManifestService == null ? null
+        : recordManifestService.find(recordId);
+    List<AREXMocker> mockers = queryMockers(recordId, fieldNames, categoryTypes,
+        repositoryProviderList, manifest);
+    // the manifest misses mockers saved before it was maintained
+    if (CollectionUtils.isEmpty(mockers) && manifest != null) {
+      mockers = queryMockers(recordId, fieldNames, categoryTypes, repositoryProviderList, null);
+    }
+    if (CollectionUtils.isNotEmpty(mockers)) {
+      convertMockers(mockers);
+      return zstdJacksonSerializer.serialize(mockers);
+    }
+
+    return ZstdJacksonSerializer.EMPTY_INSTANCE_LIST;
+  }
+
+  private List<AREXMocker> queryMockers(String recordId, String[] fieldNames,
+      Set<MockCategoryType> categoryTypes,
+      List<RepositoryProvider<? extends Mocker>> repositoryProviderList, RecordManifest manifest) {
     // find data in the order of rolling -> pinned -> auto pinned
     for (RepositoryProvider<? extends Mocker> repositoryReader : repositoryProviderList) {
+      Set<MockCategoryType> presentTypes = manifest == null ? categoryTypes
+          : recordManifestService.filterCategories(manifest, repositoryReader.getProviderName(),
+              categoryTypes);
+      if (presentTypes.isEmpty()) {
+        continue;
+      }
       List<AREXMocker> mockers = scheduleReplayingService.queryRecordsByRepositoryReader(recordId,
-          categoryTypes, repositoryReader, fieldNames);
+          presentTypes, repositoryReader, fieldNames);
       if (CollectionUtils.isNotEmpty(mockers)) {
-        convertMockers(mockers);
-        return zstdJacksonSerializer.serialize(mockers);
+        return mockers;
       }
     }
-
-    return ZstdJacksonSerializer.EMPTY_INSTANCE_LIST;
+    return null;
   }
 
   public byte[] queryConfigFile(AREXMocker requestType) {
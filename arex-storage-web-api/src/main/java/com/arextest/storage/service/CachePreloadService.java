@@ -0,0 +1,202 @@
+package com.arextest.storage.service;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.storage.trace.MDCTracer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Preloads the records of a replay plan with bounded parallelism, on the cache preload executor.
+ * <p>
+ * The batch loads and the prefetches of a record still being preloaded wait for that preload
+ * instead of starting another one, so a plan prefetching the next cases while its agents replay the
+ * current ones does not load them twice. A single load always preloads the record again, the cache
+ * may have been removed on another instance since. Removing the cache of a record forgets its
+ * preload in flight: a forgotten preload not started yet is skipped, one already writing removes
+ * the cache it wrote once done, so the record is not written back after its removal.
+ */
+@Slf4j
+@Service
+public class CachePreloadService {
+
+  private static final String BATCH_TIMEOUT_MILLIS = "cache.preload.batch.timeout.millis";
+  private static final long DEFAULT_BATCH_TIMEOUT_MILLIS = 60_000L;
+
+  private final PrepareMockResultService prepareMockResultService;
+  private final ExecutorService cachePreloadExecutor;
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  /**
+   * source provider and record id -> the preload in flight
+   */
+  private final Map<String, PreloadFuture> inFlightPreloads = new ConcurrentHashMap<>();
+
+  public CachePreloadService(PrepareMockResultService prepareMockResultService,
+      @Qualifier("cachePreloadExecutor") ExecutorService cachePreloadExecutor,
+      DefaultApplicationConfig defaultApplicationConfig) {
+    this.prepareMockResultService = prepareMockResultService;
+    this.cachePreloadExecutor = cachePreloadExecutor;
+    this.defaultApplicationConfig = defaultApplicationConfig;
+  }
+
+  /**
+   * Preload the record in the calling thread, the batch loads and prefetches of the record started
+   * meanwhile wait for it.
+   */
+  public boolean preload(String sourceProvider, String recordId) {
+    PreloadFuture started = new PreloadFuture();
+    inFlightPreloads.put(toKey(sourceProvider, recordId), started);
+    run(started, sourceProvider, recordId);
+    return !started.isCompletedExceptionally() && Boolean.TRUE.equals(started.getNow(false));
+  }
+
+  /**
+   * Preload the records in parallel and wait for all of them.
+   *
+   * @return record id -> whether anything of the record is preloaded, in the order of the ids
+   */
+  public Map<String, Boolean> preloadAll(String sourceProvider, Collection<String> recordIds) {
+    Map<String, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+    for (String recordId : recordIds) {
+      if (StringUtils.isNotEmpty(recordId) && !futures.containsKey(recordId)) {
+        futures.put(recordId, submit(sourceProvider, recordId, true));
+      }
+    }
+    long timeoutMillis = defaultApplicationConfig.getConfigAsLong(BATCH_TIMEOUT_MILLIS,
+        DEFAULT_BATCH_TIMEOUT_MILLIS);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    Map<String, Boolean> results = new LinkedHashMap<>(futures.size());
+    for (Map.Entry<String, CompletableFuture<Boolean>> entry : futures.entrySet()) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      results.put(entry.getKey(), await(entry.getValue(), entry.getKey(), remainingMillis));
+    }
+    return results;
+  }
+
+  /**
+   * Preload the records in the background, skipped when the preload executor is saturated.
+   *
+   * @return the count of the records still being preloaded
+   */
+  public int prefetch(String sourceProvider, Collection<String> recordIds) {
+    if (CollectionUtils.isEmpty(recordIds)) {
+      return 0;
+    }
+    int prefetching = 0;
+    for (String recordId : recordIds) {
+      if (StringUtils.isEmpty(recordId)) {
+        continue;
+      }
+      CompletableFuture<Boolean> future = submit(sourceProvider, recordId, false);
+      if (!future.isDone()) {
+        prefetching++;
+      }
+    }
+    return prefetching;
+  }
+
+  /**
+   * Forget the preload of the record in flight before its cache is removed, the preload removes
+   * what it writes afterwards and the next load preloads the record again.
+   */
+  public void forget(String sourceProvider, String recordId) {
+    PreloadFuture forgotten = inFlightPreloads.remove(toKey(sourceProvider, recordId));
+    if (forgotten != null) {
+      forgotten.forgotten = true;
+    }
+  }
+
+  private CompletableFuture<Boolean> submit(String sourceProvider, String recordId,
+      boolean required) {
+    PreloadFuture started = new PreloadFuture();
+    CompletableFuture<Boolean> future = claim(sourceProvider, recordId, started);
+    if (future != started) {
+      return future;
+    }
+    try {
+      cachePreloadExecutor.execute(() -> run(started, sourceProvider, recordId));
+    } catch (RejectedExecutionException e) {
+      if (required) {
+        run(started, sourceProvider, recordId);
+      } else {
+        inFlightPreloads.remove(toKey(sourceProvider, recordId), started);
+        started.complete(false);
+      }
+    }
+    return started;
+  }
+
+  /**
+   * @return the given future if the caller has to run the preload, otherwise the preload to wait
+   * for
+   */
+  private CompletableFuture<Boolean> claim(String sourceProvider, String recordId,
+      PreloadFuture started) {
+    return inFlightPreloads.compute(toKey(sourceProvider, recordId),
+        (key, current) -> current == null || current.isDone() ? started : current);
+  }
+
+  private void run(PreloadFuture future, String sourceProvider, String recordId) {
+    MDCTracer.addRecordId(recordId);
+    try {
+      if (future.forgotten) {
+        future.complete(false);
+        return;
+      }
+      boolean preloaded = prepareMockResultService.preloadAll(sourceProvider, recordId);
+      if (future.forgotten) {
+        // the cache was removed while the preload was writing it
+        LOGGER.info("remove the cache preloaded after its removal, record id:{}", recordId);
+        prepareMockResultService.removeAllRecordCache(recordId, sourceProvider);
+        preloaded = false;
+      }
+      future.complete(preloaded);
+    } catch (Throwable throwable) {
+      LOGGER.error("preload cache error:{}, record id:{}", throwable.getMessage(), recordId,
+          throwable);
+      future.completeExceptionally(throwable);
+    } finally {
+      inFlightPreloads.remove(toKey(sourceProvider, recordId), future);
+      MDCTracer.clear();
+    }
+  }
+
+  private static boolean await(CompletableFuture<Boolean> future, String recordId,
+      long timeoutMillis) {
+    try {
+      return Boolean.TRUE.equals(future.get(Math.max(0L, timeoutMillis), TimeUnit.MILLISECONDS));
+    } catch (TimeoutException e) {
+      LOGGER.warn("preload cache timeout after {} ms, record id:{}", timeoutMillis, recordId);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      return false;
+    }
+  }
+
+  private static String toKey(String sourceProvider, String recordId) {
+    return sourceProvider + '_' + recordId;
+  }
+
+  /**
+   * A preload in flight, forgotten when the cache of its record is removed meanwhile.
+   */
+  private static final class PreloadFuture extends CompletableFuture<Boolean> {
+
+    private volatile boolean forgotten;
+  }
+}
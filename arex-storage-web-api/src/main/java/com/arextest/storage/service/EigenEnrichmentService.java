@@ -0,0 +1,222 @@
+package com.arextest.storage.service;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.model.mock.Mocker;
+import com.arextest.storage.metric.MetricListener;
+import com.arextest.storage.mock.MockResultProvider;
+import com.arextest.storage.repository.RepositoryProvider;
+import com.arextest.storage.repository.RepositoryProviderFactory;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.MapUtils;
+import org.springframework.stereotype.Service;
+
+/**
+ * Compute the eigen of the recorded mockers off the request thread.
+ * <p>
+ * When the deferred mode is enabled the mockers are persisted without eigen and queued here, a
+ * worker computes the eigen in batches and writes the eigenMap back with one bulk update per
+ * category. The eigen is only used at replay time, a mocker still pending (or dropped because the
+ * queue was full) when its record is preloaded gets the eigen computed lazily by the preload.
+ * <p>
+ * Stopping lets the worker finish its batch and drain the queue, within
+ * record.eigen.deferred.stop.timeout.millis, the mockers submitted after the stop are left to the
+ * preload.
+ */
+@Slf4j
+@Service
+public class EigenEnrichmentService {
+
+  private static final String DEFERRED_ENABLED = "record.eigen.deferred.enabled";
+  private static final String QUEUE_CAPACITY = "record.eigen.deferred.queue.capacity";
+  private static final String BATCH_SIZE = "record.eigen.deferred.batch.size";
+  private static final String FLUSH_INTERVAL_MILLIS = "record.eigen.deferred.flush.interval.millis";
+  private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+  private static final int DEFAULT_BATCH_SIZE = 200;
+  private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 500L;
+  private static final String STOP_TIMEOUT_MILLIS = "record.eigen.deferred.stop.timeout.millis";
+  private static final long DEFAULT_STOP_TIMEOUT_MILLIS = 30_000L;
+  private static final String PENDING_METRIC = "record.eigen.deferred.pending";
+  private static final String DROPPED_METRIC = "record.eigen.deferred.dropped";
+  private static final String ENRICH_METRIC = "record.eigen.deferred.enrich";
+
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  private final MockResultProvider mockResultProvider;
+  private final RepositoryProviderFactory repositoryProviderFactory;
+  private final List<MetricListener> metricListeners;
+  private final BlockingQueue<Mocker> pending;
+  private volatile boolean running;
+  private volatile boolean stopped;
+  private Thread workerThread;
+
+  public EigenEnrichmentService(DefaultApplicationConfig defaultApplicationConfig,
+      MockResultProvider mockResultProvider,
+      RepositoryProviderFactory repositoryProviderFactory,
+      List<MetricListener> metricListeners) {
+    this.defaultApplicationConfig = defaultApplicationConfig;
+    this.mockResultProvider = mockResultProvider;
+    this.repositoryProviderFactory = repositoryProviderFactory;
+    this.metricListeners = metricListeners;
+    this.pending = new LinkedBlockingQueue<>(
+        defaultApplicationConfig.getConfigAsInt(QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY));
+  }
+
+  public boolean isDeferred() {
+    return defaultApplicationConfig.getConfigAsBoolean(DEFERRED_ENABLED, false);
+  }
+
+  /**
+   * Queue a persisted mocker for the eigen enrichment, the mocker must carry the id it was saved
+   * with.
+   *
+   * @return false if the mocker is not queued, its eigen will be computed at preload
+   */
+  public boolean submit(Mocker item) {
+    if (item == null || item.getCategoryType() == null || item.getCategoryType().isEntryPoint()
+        || item.getId() == null || MapUtils.isNotEmpty(item.getEigenMap())) {
+      return false;
+    }
+    if (!ensureStarted()) {
+      return false;
+    }
+    if (pending.offer(item)) {
+      return true;
+    }
+    recordCount(DROPPED_METRIC, 1);
+    LOGGER.warn("eigen enrichment queue is full, recordId:{}, id:{}", item.getRecordId(),
+        item.getId());
+    return false;
+  }
+
+  @PreDestroy
+  public void stop() {
+    synchronized (this) {
+      stopped = true;
+      if (!running) {
+        return;
+      }
+      running = false;
+    }
+    // not interrupted, the worker sees the flag within the flush interval and its mongo updates of
+    // the final drain must not fail on the interrupt
+    try {
+      workerThread.join(defaultApplicationConfig.getConfigAsLong(STOP_TIMEOUT_MILLIS,
+          DEFAULT_STOP_TIMEOUT_MILLIS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!pending.isEmpty()) {
+      LOGGER.info("eigen enrichment stopped with {} pending mockers", pending.size());
+    }
+  }
+
+  /**
+   * @return false if stopped
+   */
+  private boolean ensureStarted() {
+    if (running) {
+      return true;
+    }
+    synchronized (this) {
+      if (stopped) {
+        return false;
+      }
+      if (running) {
+        return true;
+      }
+      running = true;
+      workerThread = new ThreadFactoryBuilder().setNameFormat("eigenEnrichment-worker")
+          .setDaemon(true)
+          .build()
+          .newThread(this::enrichLoop);
+      workerThread.start();
+      return true;
+    }
+  }
+
+  private void enrichLoop() {
+    int batchSize = defaultApplicationConfig.getConfigAsInt(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+    long flushIntervalMillis = defaultApplicationConfig.getConfigAsLong(FLUSH_INTERVAL_MILLIS,
+        DEFAULT_FLUSH_INTERVAL_MILLIS);
+    List<Mocker> batch = new ArrayList<>(batchSize);
+    while (running) {
+      try {
+        Mocker first = pending.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        pending.drainTo(batch, batchSize - 1);
+        enrich(batch);
+      } catch (InterruptedException e) {
+        // the loop ends by the running flag, an interrupt only ends the poll
+        LOGGER.warn("eigen enrichment worker interrupted");
+      } catch (Throwable e) {
+        LOGGER.error("eigen enrichment failed, size:{}", batch.size(), e);
+      } finally {
+        batch.clear();
+      }
+    }
+    // drain what is left, so a graceful shutdown does not leave the eigen to the preload
+    while (!pending.isEmpty()) {
+      pending.drainTo(batch, batchSize);
+      try {
+        enrich(batch);
+      } catch (Throwable e) {
+        LOGGER.error("eigen enrichment failed on stop, size:{}", batch.size(), e);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void enrich(List<Mocker> batch) {
+    long start = System.currentTimeMillis();
+    Map<MockCategoryType, List<Mocker>> enriched = new LinkedHashMap<>();
+    for (Mocker item : batch) {
+      mockResultProvider.calculateEigen(item, true);
+      if (MapUtils.isNotEmpty(item.getEigenMap())) {
+        enriched.computeIfAbsent(item.getCategoryType(), key -> new ArrayList<>()).add(item);
+      }
+    }
+    RepositoryProvider<Mocker> repositoryWriter = repositoryProviderFactory.defaultProvider();
+    long updated = 0L;
+    if (repositoryWriter != null) {
+      for (Map.Entry<MockCategoryType, List<Mocker>> entry : enriched.entrySet()) {
+        updated += repositoryWriter.updateEigenMap(entry.getKey(), entry.getValue());
+      }
+    }
+    recordTime(System.currentTimeMillis() - start);
+    recordCount(PENDING_METRIC, pending.size());
+    LOGGER.info("eigen enrichment done, size:{}, updated:{}", batch.size(), updated);
+  }
+
+  private void recordTime(long timeMillis) {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return;
+    }
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordTime(ENRICH_METRIC, Collections.emptyMap(), timeMillis);
+    }
+  }
+
+  private void recordCount(String metricName, int count) {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return;
+    }
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordSize(metricName, Collections.emptyMap(), count);
+    }
+  }
+}
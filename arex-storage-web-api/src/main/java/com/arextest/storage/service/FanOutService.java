@@ -0,0 +1,135 @@
+package com.arextest.storage.service;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Fan out the sub operations of one record level operation, typically one per category, to the
+ * category fan-out executor, so the operation costs the slowest round trip instead of the sum of
+ * all of them.
+ * <p>
+ * The results are returned in the iteration order of the keys, whatever order the sub operations
+ * complete in. The MDC of the caller is copied to the worker threads, the transmittable thread
+ * locals are carried by the ttl wrapped executor.
+ */
+@Slf4j
+@Service
+public class FanOutService {
+
+  private static final String FAN_OUT_ENABLED = "fan.out.enabled";
+  private static final String FAN_OUT_TIMEOUT_MILLIS = "fan.out.timeout.millis";
+  private static final long DEFAULT_TIMEOUT_MILLIS = 10_000L;
+
+  private final ExecutorService categoryFanOutExecutor;
+  private final DefaultApplicationConfig defaultApplicationConfig;
+
+  public FanOutService(@Qualifier("categoryFanOutExecutor") ExecutorService categoryFanOutExecutor,
+      DefaultApplicationConfig defaultApplicationConfig) {
+    this.categoryFanOutExecutor = categoryFanOutExecutor;
+    this.defaultApplicationConfig = defaultApplicationConfig;
+  }
+
+  public <K, R> List<R> invokeAll(Collection<K> keys, Function<K, R> task) {
+    return invokeAll(keys, task,
+        defaultApplicationConfig.getConfigAsLong(FAN_OUT_TIMEOUT_MILLIS, DEFAULT_TIMEOUT_MILLIS));
+  }
+
+  /**
+   * @param keys          the keys of the sub operations, e.g. the categories
+   * @param task          the sub operation
+   * @param timeoutMillis the deadline of the whole call
+   * @return the result of each key, in the iteration order of the keys
+   * @throws IllegalStateException if the deadline is exceeded, the pending sub operations are
+   *                               cancelled
+   */
+  public <K, R> List<R> invokeAll(Collection<K> keys, Function<K, R> task, long timeoutMillis) {
+    List<R> results = new ArrayList<>(keys.size());
+    if (keys.size() <= 1 || !defaultApplicationConfig.getConfigAsBoolean(FAN_OUT_ENABLED, true)) {
+      for (K key : keys) {
+        results.add(task.apply(key));
+      }
+      return results;
+    }
+
+    Map<String, String> contextMap = MDC.getCopyOfContextMap();
+    List<CompletableFuture<R>> futures = new ArrayList<>(keys.size());
+    for (K key : keys) {
+      futures.add(CompletableFuture.supplyAsync(() -> callWithContext(contextMap, task, key),
+          categoryFanOutExecutor));
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      for (CompletableFuture<R> future : futures) {
+        results.add(future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+      }
+      return results;
+    } catch (TimeoutException e) {
+      cancelAll(futures);
+      LOGGER.warn("fan out timeout after {} ms, keys: {}", timeoutMillis, keys);
+      throw new IllegalStateException("fan out timeout after " + timeoutMillis + " ms", e);
+    } catch (InterruptedException e) {
+      cancelAll(futures);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("fan out interrupted", e);
+    } catch (ExecutionException e) {
+      cancelAll(futures);
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Sum the counts returned by the sub operations, e.g. removed or updated documents.
+   */
+  public <K> long sum(Collection<K> keys, Function<K, Long> task) {
+    long total = 0L;
+    for (Long count : invokeAll(keys, task)) {
+      if (count != null) {
+        total += count;
+      }
+    }
+    return total;
+  }
+
+  private static <K, R> R callWithContext(Map<String, String> contextMap, Function<K, R> task,
+      K key) {
+    Map<String, String> previous = MDC.getCopyOfContextMap();
+    setContextMap(contextMap);
+    try {
+      return task.apply(key);
+    } finally {
+      setContextMap(previous);
+    }
+  }
+
+  private static void setContextMap(Map<String, String> contextMap) {
+    if (contextMap == null) {
+      MDC.clear();
+    } else {
+      MDC.setContextMap(contextMap);
+    }
+  }
+
+  private static void cancelAll(List<? extends CompletableFuture<?>> futures) {
+    for (CompletableFuture<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+}
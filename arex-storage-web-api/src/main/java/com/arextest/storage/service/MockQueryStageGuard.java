@@ -0,0 +1,169 @@
+package com.arextest.storage.service;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.storage.metric.MetricListener;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Bounds the stages of an agent mock query by their deadlines, so one slow redis read or mongo
+ * fallback answers a miss in time instead of exceeding the timeout of the agent.
+ * <p>
+ * The cache read consumes the sequences of the record, it is not abandoned: past its deadline the
+ * query skips the preload fallback. The preload fallback is idempotent, it runs on the stage
+ * executor and is waited for until its deadline, optionally hedged by a second preload when the
+ * first one is slow. A preload past its deadline goes on in the background and warms the cache for
+ * the next query. A deadline of 0, the default, leaves its stage unbounded.
+ */
+@Slf4j
+@Service
+public class MockQueryStageGuard {
+
+  private static final String TIMEOUT_METRIC = "mock.query.stage.timeout";
+  private static final String HEDGE_METRIC = "mock.query.stage.hedge";
+  private static final String STAGE = "stage";
+  private static final String PRELOAD_HEDGE_DELAY_MILLIS = "mock.query.preload.hedge.delay.millis";
+
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  private final ExecutorService mockQueryStageExecutor;
+  private final List<MetricListener> metricListeners;
+
+  public MockQueryStageGuard(DefaultApplicationConfig defaultApplicationConfig,
+      @Qualifier("mockQueryStageExecutor") ExecutorService mockQueryStageExecutor,
+      List<MetricListener> metricListeners) {
+    this.defaultApplicationConfig = defaultApplicationConfig;
+    this.mockQueryStageExecutor = mockQueryStageExecutor;
+    this.metricListeners = metricListeners;
+  }
+
+  /**
+   * @return false if the stage took longer than its deadline, counted as a timeout of the stage
+   */
+  public boolean withinDeadline(Stage stage, long elapsedMillis) {
+    long deadlineMillis = deadlineMillis(stage);
+    if (deadlineMillis <= 0 || elapsedMillis <= deadlineMillis) {
+      return true;
+    }
+    LOGGER.warn("mock query stage:{} took {} ms, over its deadline {} ms", stage.getName(),
+        elapsedMillis, deadlineMillis);
+    record(TIMEOUT_METRIC, stage);
+    return false;
+  }
+
+  /**
+   * Run the idempotent call within the deadline of the stage.
+   *
+   * @return the result of the first call succeeding, false if both failed or past the deadline
+   */
+  public boolean callHedged(Stage stage, Supplier<Boolean> call) {
+    long deadlineMillis = deadlineMillis(stage);
+    if (deadlineMillis <= 0) {
+      return Boolean.TRUE.equals(call.get());
+    }
+    CompletableFuture<Boolean> first;
+    try {
+      first = CompletableFuture.supplyAsync(call, mockQueryStageExecutor);
+    } catch (RejectedExecutionException e) {
+      return Boolean.TRUE.equals(call.get());
+    }
+    long startNanos = System.nanoTime();
+    long hedgeDelayMillis = defaultApplicationConfig.getConfigAsLong(PRELOAD_HEDGE_DELAY_MILLIS,
+        0L);
+    try {
+      if (hedgeDelayMillis <= 0 || hedgeDelayMillis >= deadlineMillis) {
+        return Boolean.TRUE.equals(first.get(deadlineMillis, TimeUnit.MILLISECONDS));
+      }
+      try {
+        return Boolean.TRUE.equals(first.get(hedgeDelayMillis, TimeUnit.MILLISECONDS));
+      } catch (TimeoutException e) {
+        record(HEDGE_METRIC, stage);
+      }
+      CompletableFuture<Boolean> firstDone = firstSuccess(first, hedge(call, first));
+      long remainingMillis = deadlineMillis - TimeUnit.NANOSECONDS.toMillis(
+          System.nanoTime() - startNanos);
+      return Boolean.TRUE.equals(firstDone.get(Math.max(0L, remainingMillis),
+          TimeUnit.MILLISECONDS));
+    } catch (TimeoutException e) {
+      LOGGER.warn("mock query stage:{} over its deadline {} ms", stage.getName(), deadlineMillis);
+      record(TIMEOUT_METRIC, stage);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOGGER.error("mock query stage:{} error:{}", stage.getName(), e.getMessage(), e.getCause());
+    }
+    return false;
+  }
+
+  /**
+   * @return completed by the first call succeeding, or by the failure of the last one
+   */
+  private static CompletableFuture<Boolean> firstSuccess(CompletableFuture<Boolean> first,
+      CompletableFuture<Boolean> hedge) {
+    if (hedge == first) {
+      return first;
+    }
+    CompletableFuture<Boolean> firstSuccess = new CompletableFuture<>();
+    BiConsumer<Boolean, Throwable> onDone = (result, throwable) -> {
+      if (throwable == null) {
+        firstSuccess.complete(result);
+      } else if (first.isCompletedExceptionally() && hedge.isCompletedExceptionally()) {
+        firstSuccess.completeExceptionally(throwable);
+      }
+    };
+    first.whenComplete(onDone);
+    hedge.whenComplete(onDone);
+    return firstSuccess;
+  }
+
+  private CompletableFuture<Boolean> hedge(Supplier<Boolean> call,
+      CompletableFuture<Boolean> first) {
+    try {
+      return CompletableFuture.supplyAsync(call, mockQueryStageExecutor);
+    } catch (RejectedExecutionException e) {
+      // no thread left to hedge with, wait for the first call only
+      return first;
+    }
+  }
+
+  private long deadlineMillis(Stage stage) {
+    return defaultApplicationConfig.getConfigAsLong(stage.getDeadlineConfig(), 0L);
+  }
+
+  private void record(String metricName, Stage stage) {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return;
+    }
+    Map<String, String> tags = Collections.singletonMap(STAGE, stage.getName());
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordSize(metricName, tags, 1);
+    }
+  }
+
+  @Getter
+  public enum Stage {
+    CACHE_READ("cacheRead", "mock.query.cache.read.deadline.millis"),
+    PRELOAD("preload", "mock.query.preload.deadline.millis");
+
+    private final String name;
+    private final String deadlineConfig;
+
+    Stage(String name, String deadlineConfig) {
+      this.name = name;
+      this.deadlineConfig = deadlineConfig;
+    }
+  }
+}
@@ -28,17 +28,21 @@ public class MockSourceEditionService {
 
   private final RepositoryProviderFactory providerFactory;
   private final ScheduleReplayingService scheduleReplayingService;
+  private final FanOutService fanOutService;
   private static final String LOG_TITLE_OPERATE_MOCKER = "[[title=operateMocker]]";
 
   public MockSourceEditionService(RepositoryProviderFactory providerFactory,
       ScheduleReplayingService scheduleReplayingService,
-      Set<MockCategoryType> entryPointTypes) {
+      Set<MockCategoryType> entryPointTypes, FanOutService fanOutService) {
     this.providerFactory = providerFactory;
     this.scheduleReplayingService = scheduleReplayingService;
+    this.fanOutService = fanOutService;
   }
 
   public <T extends Mocker> boolean add(String providerName, T item) {
     RepositoryProvider<T> repositoryWriter = providerFactory.findProvider(providerName);
+    // an added mocker is a new one, the save would keep the id it is given
+    item.setId(null);
     return repositoryWriter != null && repositoryWriter.save(item);
   }
 
@@ -87,11 +91,12 @@ public class MockSourceEditionService {
       LOGGER.warn("Could not found provider for {}", providerName);
       return false;
     }
-    Set<MockCategoryType> categoryTypes = providerFactory.getCategoryTypes();
+    List<MockCategoryType> categoryTypes = new ArrayList<>(providerFactory.getCategoryTypes());
+    List<Long> removeCounts = fanOutService.invokeAll(categoryTypes,
+        categoryType -> repositoryWriter.removeBy(categoryType, recordId));
     Map<String, Boolean> removeResults = new HashMap<>(categoryTypes.size());
-    for (MockCategoryType categoryType : categoryTypes) {
-      long removeResult = repositoryWriter.removeBy(categoryType, recordId);
-      removeResults.put(categoryType.getName(), removeResult > 0);
+    for (int i = 0; i < categoryTypes.size(); i++) {
+      removeResults.put(categoryTypes.get(i).getName(), removeCounts.get(i) > 0);
     }
     LOGGER.info("remove all record result:{} for recordId:{}", removeResults, recordId);
     return true;
@@ -175,30 +180,62 @@ public class MockSourceEditionService {
       LOGGER.warn("could not found provider for {} or {}", srcProvider, targetProvider);
       return count;
     }
-    List<AREXMocker> srcMockers;
     Set<MockCategoryType> categoryTypes = providerFactory.getCategoryTypes();
     for (MockCategoryType categoryType : categoryTypes) {
-      srcMockers = scheduleReplayingService.queryRecordList(srcProvider, categoryType, srcRecordId);
-      if (CollectionUtils.isEmpty(srcMockers)) {
-        continue;
-      }
-      List<Mocker> targetList = createTargetList(srcMockers, targetRecordId);
-      if (CollectionUtils.isNotEmpty(targetList)) {
-        if (targetProvider.saveList(targetList)) {
-          count += targetList.size();
-        }
-      }
+      count += copyCategory(srcProvider, categoryType, srcRecordId, targetProvider, targetRecordId);
     }
     return count;
   }
 
+  /**
+   * Copy the mockers of one category, inside the repository when the provider supports it, else
+   * by reading them back and saving them to the target provider.
+   */
+  private int copyCategory(RepositoryProvider<Mocker> srcProvider, MockCategoryType categoryType,
+      String srcRecordId, RepositoryProvider<Mocker> targetProvider, String targetRecordId) {
+    long copied = srcProvider.copyTo(categoryType, srcRecordId, targetProvider, targetRecordId);
+    if (copied >= 0) {
+      return (int) copied;
+    }
+    List<AREXMocker> srcMockers = scheduleReplayingService.queryRecordListForEdition(
+        srcProvider, categoryType, srcRecordId);
+    if (CollectionUtils.isEmpty(srcMockers)) {
+      return 0;
+    }
+    List<Mocker> targetList = createTargetList(srcMockers, targetRecordId);
+    if (CollectionUtils.isNotEmpty(targetList) && targetProvider.saveList(targetList)) {
+      return targetList.size();
+    }
+    return 0;
+  }
+
+  /**
+   * Move the mockers category by category, the source of a category is removed only after it has
+   * been copied to the target completely.
+   */
   public int moveTo(String srcProviderName, String srcRecordId, String targetProviderName) {
-    int movedCount = copyTo(srcProviderName, srcRecordId, targetProviderName, srcRecordId);
-    LOGGER.info("{}copy recordId {}, from {} to {}, movedCount: {}",
-        LOG_TITLE_OPERATE_MOCKER, srcRecordId, srcProviderName, targetProviderName, movedCount);
-    if (movedCount != 0) {
-      removeByRecordId(srcProviderName, srcRecordId);
+    int movedCount = 0;
+    if (StringUtils.equals(srcProviderName, targetProviderName)) {
+      return movedCount;
+    }
+    RepositoryProvider<Mocker> srcProvider = providerFactory.findProvider(srcProviderName);
+    RepositoryProvider<Mocker> targetProvider = providerFactory.findProvider(targetProviderName);
+    if (srcProvider == null || targetProvider == null) {
+      LOGGER.warn("could not found provider for {} or {}", srcProvider, targetProvider);
+      return movedCount;
+    }
+    long deleteCount = 0;
+    for (MockCategoryType categoryType : providerFactory.getCategoryTypes()) {
+      int copied = copyCategory(srcProvider, categoryType, srcRecordId, targetProvider,
+          srcRecordId);
+      if (copied > 0) {
+        movedCount += copied;
+        deleteCount += srcProvider.removeBy(categoryType, srcRecordId);
+      }
     }
+    LOGGER.info("{}move recordId {}, from {} to {}, movedCount: {}, deleteCount: {}",
+        LOG_TITLE_OPERATE_MOCKER, srcRecordId, srcProviderName, targetProviderName, movedCount,
+        deleteCount);
     return movedCount;
   }
 
@@ -223,14 +260,11 @@ public class MockSourceEditionService {
       LOGGER.warn("Could not found provider for {}", providerName);
       return false;
     }
-    long updateCount = 0;
     Date expireDate = Date.from(LocalDateTime.now().plusDays(extensionDays).atZone(
         ZoneId.systemDefault()).toInstant());
 
-    for (MockCategoryType categoryType : providerFactory.getCategoryTypes()) {
-      updateCount += repositoryWriter.extendExpirationTo(categoryType, recordId,
-          expireDate);
-    }
+    long updateCount = fanOutService.sum(providerFactory.getCategoryTypes(),
+        categoryType -> repositoryWriter.extendExpirationTo(categoryType, recordId, expireDate));
     LOGGER.info("extendMockerExpirationByRecordId updated {} mockers for recordId: {}",
         updateCount, recordId);
     return updateCount > 0;
@@ -3,9 +3,12 @@ package com.arextest.storage.service;
 import com.arextest.model.mock.MockCategoryType;
 import com.arextest.model.mock.Mocker;
 import com.arextest.storage.mock.MockResultProvider;
+import com.arextest.storage.model.RecordManifest;
 import com.arextest.storage.repository.RepositoryProvider;
 import com.arextest.storage.repository.RepositoryProviderFactory;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -19,11 +22,13 @@ public final class PrepareMockResultService {
 
   private final RepositoryProviderFactory providerFactory;
   private final MockResultProvider mockResultProvider;
+  private final RecordManifestService recordManifestService;
 
   public PrepareMockResultService(RepositoryProviderFactory providerFactory,
-      MockResultProvider mockResultProvider) {
+      MockResultProvider mockResultProvider, RecordManifestService recordManifestService) {
     this.providerFactory = providerFactory;
     this.mockResultProvider = mockResultProvider;
+    this.recordManifestService = recordManifestService;
   }
 
   /**
@@ -38,8 +43,20 @@ public final class PrepareMockResultService {
     if (repositoryProvider == null) {
       return false;
     }
+    RecordManifest manifest = recordManifestService.find(recordId);
+    boolean result = preloadAll(repositoryProvider, recordId, manifest);
+    // the manifest misses mockers saved before it was maintained
+    if (!result && manifest != null) {
+      result = preloadAll(repositoryProvider, recordId, null);
+    }
+    return result;
+  }
+
+  private boolean preloadAll(RepositoryProvider<? extends Mocker> repositoryProvider,
+      String recordId, RecordManifest manifest) {
     boolean result = false;
-    for (MockCategoryType categoryType : providerFactory.getCategoryTypes()) {
+    for (MockCategoryType categoryType : recordManifestService.filterCategories(manifest,
+        repositoryProvider.getProviderName(), providerFactory.getCategoryTypes())) {
       boolean curResult = preload(repositoryProvider, categoryType, recordId);
       result = curResult || result;
       LOGGER.info("preload cache result:{},category:{},record id:{}", curResult, categoryType,
@@ -58,7 +75,14 @@ public final class PrepareMockResultService {
   public boolean preload(MockCategoryType category, String recordId) {
     // try again load by defaultProvider and pinnedProvider
     List<RepositoryProvider<? extends Mocker>> repositoryReaderList = providerFactory.getRepositoryProviderList();
+    RecordManifest manifest = recordManifestService.find(recordId);
+    Set<MockCategoryType> requested = Collections.singleton(category);
     for (RepositoryProvider<? extends Mocker> repositoryReader : repositoryReaderList) {
+      // skip the providers the manifest does not list the category for
+      if (recordManifestService.filterCategories(manifest, repositoryReader.getProviderName(),
+          requested).isEmpty()) {
+        continue;
+      }
       if (this.preload(repositoryReader, category, recordId)) {
         return true;
       }
@@ -105,6 +129,9 @@ public final class PrepareMockResultService {
       LOGGER.warn("skip remove cache for category:{},record id:{}", category, recordId);
       return true;
     }
+    if (mockResultProvider.removeIndexedRecordResult(category, recordId)) {
+      return true;
+    }
     Iterable<? extends Mocker> iterable;
     iterable = repositoryReader.queryRecordList(category, recordId);
     if (iterable == null) {
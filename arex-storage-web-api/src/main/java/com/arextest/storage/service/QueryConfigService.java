@@ -19,6 +19,8 @@ import com.arextest.model.mock.Mocker;
 import com.arextest.storage.cache.CacheKeyUtils;
 import com.arextest.storage.client.HttpWebServiceApiClient;
 import com.arextest.storage.repository.AppContractRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,6 +29,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Resource;
@@ -46,6 +49,7 @@ public class QueryConfigService {
   private static final String CONFIG_PREFIX = "config_";
   private static final int COMPARE_CONFIG_TYPE = 0;
   private static final int SOFT_TIME_EXPIRED = 1;
+  private static final long MAX_CONTRACT_OPERATIONS = 100_000L;
 
   @Value("${arex.query.config.url}")
   private String queryConfigOfCategoryUrl;
@@ -74,6 +78,14 @@ public class QueryConfigService {
   @Resource
   private AppContractRepository appContractRepository;
 
+  /**
+   * app id and contract id -> the operation of the contract, a contract id keeps its operation
+   */
+  private final Cache<String, AppContract> contractOperations = Caffeine.newBuilder()
+      .maximumSize(MAX_CONTRACT_OPERATIONS)
+      .expireAfterWrite(10, TimeUnit.MINUTES)
+      .build();
+
   public QueryConfigOfCategory queryConfigOfCategory(Mocker mocker) {
     if (mocker.getCategoryType().isSkipComparison()) {
       return null;
@@ -213,12 +225,9 @@ public class QueryConfigService {
 
   private void fillDependencyInfo(List<ComparisonExclusionsConfiguration> dependencyConfigs,
       String appId) {
-    Map<String, AppContract> contractMap = new HashMap<>();
-    List<AppContract> contracts = appContractRepository.queryAppContracts(appId);
-    if (CollectionUtils.isNotEmpty(contracts)) {
-      contractMap.putAll(
-          contracts.stream().collect(Collectors.toMap(AppContract::getId, contract -> contract)));
-    }
+    Map<String, AppContract> contractMap = queryContractOperations(appId,
+        dependencyConfigs.stream().map(ComparisonExclusionsConfiguration::getDependencyId)
+            .collect(Collectors.toSet()));
     for (ComparisonExclusionsConfiguration config : dependencyConfigs) {
       AppContract contract = contractMap.get(config.getDependencyId());
       if (contract != null) {
@@ -228,6 +237,34 @@ public class QueryConfigService {
     }
   }
 
+  /**
+   * @return contract id -> the operation of the contract, for the contracts found
+   */
+  private Map<String, AppContract> queryContractOperations(String appId, Set<String> ids) {
+    Map<String, AppContract> contractMap = new HashMap<>(ids.size());
+    List<String> missingIds = new ArrayList<>();
+    for (String id : ids) {
+      AppContract contract = contractOperations.getIfPresent(toContractKey(appId, id));
+      if (contract == null) {
+        missingIds.add(id);
+      } else {
+        contractMap.put(id, contract);
+      }
+    }
+    if (missingIds.isEmpty()) {
+      return contractMap;
+    }
+    for (AppContract contract : appContractRepository.queryContractOperations(appId, missingIds)) {
+      contractOperations.put(toContractKey(appId, contract.getId()), contract);
+      contractMap.put(contract.getId(), contract);
+    }
+    return contractMap;
+  }
+
+  private static String toContractKey(String appId, String contractId) {
+    return appId + '_' + contractId;
+  }
+
   private List<ComparisonExclusionsConfiguration> fillInterfaceInfo(
       List<ComparisonExclusionsConfiguration> interfaceConfigs, String appId) {
     List<ComparisonExclusionsConfiguration> newConfigs = new ArrayList<>();
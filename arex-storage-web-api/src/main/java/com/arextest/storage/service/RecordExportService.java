@@ -0,0 +1,213 @@
+package com.arextest.storage.service;
+
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.model.replay.ExportRecordRequestType;
+import com.arextest.model.response.Response;
+import com.arextest.storage.model.ExportTrailer;
+import com.arextest.storage.model.RecordManifest;
+import com.arextest.storage.repository.RepositoryProvider;
+import com.arextest.storage.repository.RepositoryProviderFactory;
+import com.arextest.storage.serialization.ZstdJacksonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Exports the entry points of a range, optionally with their dependencies, as one stream read from
+ * a mongo cursor, so a bulk consumer needs neither the paged queries nor a view per record.
+ * <p>
+ * Two formats are written: newline delimited json, one mocker per line, or zstd frames, each a
+ * big endian int length followed by a zstd compressed json array of mockers. The dependencies of
+ * an entry point follow it, the memory held is one record at most.
+ * <p>
+ * The export ends with an {@link ExportTrailer} holding the counts written, or the error the export
+ * stopped on: a last line {"exportTrailer":{...}}, or a frame of negative length whose bytes are
+ * the zstd json of the trailer. An export without the trailer is truncated.
+ */
+@Slf4j
+@Service
+public class RecordExportService {
+
+  private static final int FRAME_SIZE = 200;
+  private static final byte LINE_SEPARATOR = '\n';
+  private static final String TRAILER_FIELD = "exportTrailer";
+
+  private final RepositoryProviderFactory repositoryProviderFactory;
+  private final RecordManifestService recordManifestService;
+  private final ScheduleReplayingService scheduleReplayingService;
+  private final ObjectMapper objectMapper;
+  private final ZstdJacksonSerializer serializer;
+
+  public RecordExportService(RepositoryProviderFactory repositoryProviderFactory,
+      RecordManifestService recordManifestService,
+      ScheduleReplayingService scheduleReplayingService, ObjectMapper objectMapper,
+      ZstdJacksonSerializer serializer) {
+    this.repositoryProviderFactory = repositoryProviderFactory;
+    this.recordManifestService = recordManifestService;
+    this.scheduleReplayingService = scheduleReplayingService;
+    this.objectMapper = objectMapper;
+    this.serializer = serializer;
+  }
+
+  /**
+   * @param zstdFramed write zstd frames instead of newline delimited json
+   * @return the count of the entry points exported
+   */
+  public long export(ExportRecordRequestType request, boolean zstdFramed, OutputStream out)
+      throws IOException {
+    RepositoryProvider<AREXMocker> repositoryProvider = repositoryProviderFactory.findProvider(
+        request.getSourceProvider());
+    if (repositoryProvider == null) {
+      return 0L;
+    }
+    Set<MockCategoryType> dependencyTypes = new LinkedHashSet<>();
+    if (request.isIncludeDependencies()) {
+      for (MockCategoryType categoryType : repositoryProviderFactory.getCategoryTypes()) {
+        if (!categoryType.isEntryPoint()) {
+          dependencyTypes.add(categoryType);
+        }
+      }
+    }
+
+    MockerWriter writer = zstdFramed ? new FrameWriter(out) : new LineWriter(out);
+    ExportTrailer trailer = new ExportTrailer();
+    long count = 0L;
+    long mockers = 0L;
+    // a full record export carries the whole entry points, e.g. their response and eigen
+    try (Stream<AREXMocker> entryPoints = repositoryProvider.streamEntryPointByRange(request,
+        request.isIncludeDependencies())) {
+      Iterator<AREXMocker> iterator = entryPoints.iterator();
+      while (iterator.hasNext()) {
+        AREXMocker entryPoint = iterator.next();
+        writer.write(entryPoint);
+        count++;
+        mockers++;
+        if (!dependencyTypes.isEmpty()) {
+          for (AREXMocker dependency : queryDependencies(repositoryProvider,
+              entryPoint.getRecordId(), dependencyTypes)) {
+            writer.write(dependency);
+            mockers++;
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      // the client is told the export stopped, a cut stream would look complete
+      trailer.setEntryPoints(count);
+      trailer.setMockers(mockers);
+      trailer.setError(String.valueOf(e.getMessage()));
+      writer.finish(trailer);
+      throw e;
+    }
+    trailer.setComplete(true);
+    trailer.setEntryPoints(count);
+    trailer.setMockers(mockers);
+    writer.finish(trailer);
+    LOGGER.info("export records of app:{}, category:{}, entry points:{}", request.getAppId(),
+        request.getCategory(), count);
+    return count;
+  }
+
+  /**
+   * write the json of a response instead of an export, e.g. the invalid parameters
+   */
+  public void writeResponse(Response response, OutputStream out) throws IOException {
+    objectMapper.writeValue(out, response);
+  }
+
+  private List<AREXMocker> queryDependencies(RepositoryProvider<AREXMocker> repositoryProvider,
+      String recordId, Set<MockCategoryType> dependencyTypes) {
+    RecordManifest manifest = recordManifestService.find(recordId);
+    Set<MockCategoryType> presentTypes = recordManifestService.filterCategories(manifest,
+        repositoryProvider.getProviderName(), dependencyTypes);
+    if (presentTypes.isEmpty()) {
+      return Collections.emptyList();
+    }
+    // an export reads the record as it is, it is not a replay keeping the record alive
+    return scheduleReplayingService.queryRecordsWithoutRenewal(recordId, presentTypes,
+        repositoryProvider);
+  }
+
+  private interface MockerWriter {
+
+    void write(AREXMocker mocker) throws IOException;
+
+    /**
+     * write the mockers still buffered, and the trailer
+     */
+    void finish(ExportTrailer trailer) throws IOException;
+  }
+
+  private final class LineWriter implements MockerWriter {
+
+    private final OutputStream out;
+
+    private LineWriter(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(AREXMocker mocker) throws IOException {
+      out.write(objectMapper.writeValueAsBytes(mocker));
+      out.write(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void finish(ExportTrailer trailer) throws IOException {
+      out.write(objectMapper.writeValueAsBytes(Collections.singletonMap(TRAILER_FIELD, trailer)));
+      out.write(LINE_SEPARATOR);
+      out.flush();
+    }
+  }
+
+  private final class FrameWriter implements MockerWriter {
+
+    private final DataOutputStream out;
+    private final List<AREXMocker> frame = new ArrayList<>(FRAME_SIZE);
+
+    private FrameWriter(OutputStream out) {
+      this.out = new DataOutputStream(out);
+    }
+
+    @Override
+    public void write(AREXMocker mocker) throws IOException {
+      frame.add(mocker);
+      if (frame.size() >= FRAME_SIZE) {
+        writeFrame();
+      }
+    }
+
+    @Override
+    public void finish(ExportTrailer trailer) throws IOException {
+      if (!frame.isEmpty()) {
+        writeFrame();
+      }
+      byte[] value = serializer.serialize(trailer);
+      if (value != null) {
+        out.writeInt(-value.length);
+        out.write(value);
+      }
+      out.flush();
+    }
+
+    private void writeFrame() throws IOException {
+      byte[] value = serializer.serialize(frame);
+      frame.clear();
+      if (value == null) {
+        return;
+      }
+      out.writeInt(value.length);
+      out.write(value);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package com.arextest.storage.service;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.model.Constants;
+import com.arextest.storage.model.RecordManifest;
+import com.arextest.storage.repository.RecordManifestRepository;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.MapUtils;
+import org.springframework.stereotype.Service;
+
+/**
+ * Narrow the categories to query for a record down to the ones its manifest lists.
+ * <p>
+ * A record without manifest, e.g. saved before the manifest was introduced, is unknown and all
+ * requested categories are queried as before. So is a record whose manifest may miss categories:
+ * its entry point is not saved yet, an update of it failed, or it was created before the trusted
+ * since time, e.g. while the nodes were rolled out with the manifest enabled.
+ */
+@Slf4j
+@Service
+public class RecordManifestService {
+
+  private final RecordManifestRepository recordManifestRepository;
+  private final DefaultApplicationConfig defaultApplicationConfig;
+
+  public RecordManifestService(RecordManifestRepository recordManifestRepository,
+      DefaultApplicationConfig defaultApplicationConfig) {
+    this.recordManifestRepository = recordManifestRepository;
+    this.defaultApplicationConfig = defaultApplicationConfig;
+  }
+
+  /**
+   * @return the manifest of the record, null if it is unknown, may be incomplete or the manifest is
+   * disabled
+   */
+  public RecordManifest find(String recordId) {
+    if (!defaultApplicationConfig.getConfigAsBoolean(Constants.RECORD_MANIFEST_ENABLED,
+        Constants.RECORD_MANIFEST_ENABLED_DEFAULT)) {
+      return null;
+    }
+    try {
+      RecordManifest manifest = recordManifestRepository.queryByRecordId(recordId);
+      return isComplete(manifest) ? manifest : null;
+    } catch (Throwable e) {
+      LOGGER.warn("query record manifest failed, recordId:{}", recordId, e);
+      return null;
+    }
+  }
+
+  private boolean isComplete(RecordManifest manifest) {
+    if (manifest == null || !Boolean.TRUE.equals(manifest.getComplete())
+        || Boolean.TRUE.equals(manifest.getUntrusted()) || manifest.getCreationTime() == null) {
+      return false;
+    }
+    return manifest.getCreationTime().getTime() >= defaultApplicationConfig.getConfigAsLong(
+        Constants.RECORD_MANIFEST_TRUSTED_SINCE_MILLIS,
+        Constants.RECORD_MANIFEST_TRUSTED_SINCE_MILLIS_DEFAULT);
+  }
+
+  /**
+   * @param manifest     the manifest of the record, null if unknown
+   * @param providerName the provider to query
+   * @param types        the requested categories
+   * @return the requested categories the provider holds mockers of the record in, all of them if
+   * the manifest is unknown. Empty if entry points are requested but none is listed, as a record is
+   * only read from the provider holding its entry point.
+   */
+  public Set<MockCategoryType> filterCategories(RecordManifest manifest, String providerName,
+      Collection<MockCategoryType> types) {
+    if (manifest == null) {
+      return types instanceof Set ? (Set<MockCategoryType>) types : new LinkedHashSet<>(types);
+    }
+    Map<String, Long> categoryCounts = manifest.getProviders() == null ? null
+        : manifest.getProviders().get(providerName);
+    if (MapUtils.isEmpty(categoryCounts)) {
+      return Collections.emptySet();
+    }
+    Set<MockCategoryType> present = new LinkedHashSet<>();
+    boolean entryPointRequested = false;
+    boolean entryPointListed = false;
+    for (MockCategoryType type : types) {
+      entryPointRequested = entryPointRequested || type.isEntryPoint();
+      // a listed category may have no mockers yet, e.g. its save is in flight
+      if (categoryCounts.containsKey(RecordManifest.toCategoryKey(type.getName()))) {
+        present.add(type);
+        entryPointListed = entryPointListed || type.isEntryPoint();
+      }
+    }
+    return entryPointRequested && !entryPointListed ? Collections.emptySet() : present;
+  }
+}
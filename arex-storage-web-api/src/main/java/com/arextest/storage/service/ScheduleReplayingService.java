@@ -13,6 +13,7 @@ import com.arextest.model.replay.ViewRecordRequestType;
 import com.arextest.model.replay.dto.ViewRecordDTO;
 import com.arextest.model.replay.holder.ListResultHolder;
 import com.arextest.storage.mock.MockResultProvider;
+import com.arextest.storage.model.RecordManifest;
 import com.arextest.storage.repository.ProviderNames;
 import com.arextest.storage.repository.RepositoryProvider;
 import com.arextest.storage.repository.RepositoryProviderFactory;
@@ -22,6 +23,7 @@ import com.arextest.storage.utils.JsonUtil;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -58,34 +60,42 @@ public class ScheduleReplayingService {
   private final RepositoryProviderFactory repositoryProviderFactory;
   private final ConfigRepositoryProvider<ApplicationOperationConfiguration> serviceOperationRepository;
   private final ScenePoolService scenePoolService;
+  private final FanOutService fanOutService;
+  private final RecordManifestService recordManifestService;
 
   public List<ListResultHolder> queryReplayResult(String recordId, String replayResultId) {
-    Set<MockCategoryType> categoryTypes = repositoryProviderFactory.getCategoryTypes();
+    List<MockCategoryType> categoryTypes = repositoryProviderFactory.getCategoryTypes().stream()
+        .filter(categoryType -> !categoryType.isSkipComparison())
+        .collect(Collectors.toList());
     List<ListResultHolder> resultHolderList = new ArrayList<>(categoryTypes.size());
-    ListResultHolder listResultHolder;
-    for (MockCategoryType categoryType : categoryTypes) {
-      if (categoryType.isSkipComparison()) {
-        continue;
-      }
-      MDCTracer.addCategory(categoryType);
-      List<String> recordList = encodeToBase64String(
-          mockResultProvider.getRecordResultList(categoryType, recordId));
-      List<String> replayResultList = encodeToBase64String(
-          mockResultProvider.getReplayResultList(categoryType, replayResultId));
-      if (CollectionUtils.isEmpty(recordList) && CollectionUtils.isEmpty(replayResultList)) {
-        LOGGER.info("skipped empty replay result for category:{}, recordId:{} ,replayResultId:{}",
-            categoryType, recordId, replayResultId);
-        continue;
+    for (ListResultHolder listResultHolder : fanOutService.invokeAll(categoryTypes,
+        categoryType -> queryReplayResult(categoryType, recordId, replayResultId))) {
+      if (listResultHolder != null) {
+        resultHolderList.add(listResultHolder);
       }
-      listResultHolder = new ListResultHolder();
-      listResultHolder.setCategoryType(categoryType);
-      listResultHolder.setRecord(recordList);
-      listResultHolder.setReplayResult(replayResultList);
-      resultHolderList.add(listResultHolder);
     }
     return resultHolderList;
   }
 
+  private ListResultHolder queryReplayResult(MockCategoryType categoryType, String recordId,
+      String replayResultId) {
+    MDCTracer.addCategory(categoryType);
+    List<String> recordList = encodeToBase64String(
+        mockResultProvider.getRecordResultList(categoryType, recordId));
+    List<String> replayResultList = encodeToBase64String(
+        mockResultProvider.getReplayResultList(categoryType, replayResultId));
+    if (CollectionUtils.isEmpty(recordList) && CollectionUtils.isEmpty(replayResultList)) {
+      LOGGER.info("skipped empty replay result for category:{}, recordId:{} ,replayResultId:{}",
+          categoryType, recordId, replayResultId);
+      return null;
+    }
+    ListResultHolder listResultHolder = new ListResultHolder();
+    listResultHolder.setCategoryType(categoryType);
+    listResultHolder.setRecord(recordList);
+    listResultHolder.setReplayResult(replayResultList);
+    return listResultHolder;
+  }
+
   public List<AREXMocker> queryEntryPointByRange(PagedRequestType requestType) {
     RepositoryProvider<AREXMocker> repositoryProvider = repositoryProviderFactory.findProvider(
         requestType.getSourceProvider());
@@ -101,25 +111,13 @@ public class ScheduleReplayingService {
     String recordId = request.getRecordId();
 
     ViewRecordDTO dto = new ViewRecordDTO();
-    dto.setSourceProvider(
-        StringUtils.defaultIfEmpty(request.getSourceProvider(), ProviderNames.DEFAULT));
-    // try query for requested provider
-    List<AREXMocker> recordMockers = queryRecordsByProvider(request.getSourceProvider(), recordId,
-        mockCategoryTypes);
-
-    // if no result found, try query for all providers
-    if (CollectionUtils.isEmpty(recordMockers)) {
-      for (String providerName : MOCKER_PROVIDER_NAMES) {
-        // filter out the request source provider
-        if (StringUtils.equals(providerName, request.getSourceProvider())) {
-          continue;
-        }
-        recordMockers = queryRecordsByProvider(providerName, recordId, mockCategoryTypes);
-        if (CollectionUtils.isNotEmpty(recordMockers)) {
-          dto.setSourceProvider(providerName);
-          break;
-        }
-      }
+    RecordManifest manifest = recordManifestService.find(recordId);
+    List<AREXMocker> recordMockers = queryRecordsByProviders(request.getSourceProvider(), recordId,
+        mockCategoryTypes, manifest, dto);
+    // the manifest misses mockers saved before it was maintained
+    if (CollectionUtils.isEmpty(recordMockers) && manifest != null) {
+      recordMockers = queryRecordsByProviders(request.getSourceProvider(), recordId,
+          mockCategoryTypes, null, dto);
     }
 
     if (Boolean.TRUE.equals(request.getSplitMergeRecord()) && CollectionUtils.isNotEmpty(recordMockers)) {
@@ -131,6 +129,31 @@ public class ScheduleReplayingService {
     return dto;
   }
 
+  private List<AREXMocker> queryRecordsByProviders(String sourceProvider, String recordId,
+      Set<MockCategoryType> mockCategoryTypes, RecordManifest manifest, ViewRecordDTO dto) {
+    dto.setSourceProvider(StringUtils.defaultIfEmpty(sourceProvider, ProviderNames.DEFAULT));
+    // try query for requested provider
+    List<AREXMocker> recordMockers = queryRecordsByProvider(sourceProvider, recordId,
+        mockCategoryTypes, manifest);
+    if (CollectionUtils.isNotEmpty(recordMockers)) {
+      return recordMockers;
+    }
+
+    // if no result found, try query for all providers
+    for (String providerName : MOCKER_PROVIDER_NAMES) {
+      // filter out the request source provider
+      if (StringUtils.equals(providerName, sourceProvider)) {
+        continue;
+      }
+      recordMockers = queryRecordsByProvider(providerName, recordId, mockCategoryTypes, manifest);
+      if (CollectionUtils.isNotEmpty(recordMockers)) {
+        dto.setSourceProvider(providerName);
+        return recordMockers;
+      }
+    }
+    return recordMockers;
+  }
+
   private void handleSceneTypes(Set<MockCategoryType> mockCategoryTypes, String recordId, ViewRecordDTO dto) {
     if (mockCategoryTypes.contains(MockCategoryType.RECORDING_SCENE)) {
       handleSceneType(MockCategoryType.RECORDING_SCENE, recordId, dto);
@@ -166,16 +189,22 @@ public class ScheduleReplayingService {
    * @param providerName provider name, e.g. default, pinned, auto_pinned
    * @param recordId record id
    * @param types mock category types, e.g. COVERAGE, SERVLET
+   * @param manifest the manifest of the record, null to query all types
    */
   private List<AREXMocker> queryRecordsByProvider(String providerName, String recordId,
-      Set<MockCategoryType> types) {
+      Set<MockCategoryType> types, RecordManifest manifest) {
     RepositoryProvider<Mocker> repositoryReader = repositoryProviderFactory.findProvider(
         providerName);
     if (repositoryReader == null) {
       return Collections.emptyList();
     }
+    Set<MockCategoryType> presentTypes = recordManifestService.filterCategories(manifest,
+        repositoryReader.getProviderName(), types);
+    if (presentTypes.isEmpty()) {
+      return Collections.emptyList();
+    }
 
-    return queryRecordsByRepositoryReader(recordId, types, repositoryReader);
+    return queryRecordsByRepositoryReader(recordId, presentTypes, repositoryReader);
   }
 
   public List<AREXMocker> queryRecordsByRepositoryReader(String recordId, Set<MockCategoryType> types,
@@ -198,25 +227,37 @@ public class ScheduleReplayingService {
 
     if (CollectionUtils.isNotEmpty(entryPointTypes)) {
       // try get entrypoint first
-      List<T> result = entryPointTypes.stream()
-          .flatMap(category -> queryRecordList(repositoryReader, category, recordId, fieldNames, clazz).stream())
-          .collect(Collectors.toList());
+      List<T> result = queryRecordsByCategories(repositoryReader, entryPointTypes, recordId,
+          fieldNames, clazz);
       // if entry point mockers not found, early return
       if (CollectionUtils.isEmpty(result)) {
         return Collections.emptyList();
       } else {
         // if entry point mockers found, try getting all mockers back
-        result.addAll(
-            Optional.ofNullable(partition.get(false)).orElse(Collections.emptyList()).stream()
-                .flatMap(category -> queryRecordList(repositoryReader, category, recordId, fieldNames, clazz).stream())
-                .collect(Collectors.toList()));
+        result.addAll(queryRecordsByCategories(repositoryReader,
+            Optional.ofNullable(partition.get(false)).orElse(Collections.emptyList()), recordId,
+            fieldNames, clazz));
         return result;
       }
     } else {
-      return types.stream()
-          .flatMap(category -> queryRecordList(repositoryReader, category, recordId, fieldNames, clazz).stream())
-          .collect(Collectors.toList());
+      return queryRecordsByCategories(repositoryReader, types, recordId, fieldNames, clazz);
+    }
+  }
+
+  /**
+   * Query the categories in parallel, the result keeps the iteration order of the categories.
+   */
+  private <T extends Mocker> List<T> queryRecordsByCategories(
+      RepositoryProvider<? extends Mocker> repositoryReader, Collection<MockCategoryType> types,
+      String recordId, String[] fieldNames, Class<T> clazz) {
+    List<T> result = new ArrayList<>();
+    for (List<T> categoryResult : fanOutService.invokeAll(types,
+        category -> queryRecordList(repositoryReader, category, recordId, fieldNames, clazz))) {
+      if (categoryResult != null) {
+        result.addAll(categoryResult);
+      }
     }
+    return result;
   }
 
   /**
@@ -326,7 +367,40 @@ public class ScheduleReplayingService {
 
   public <T extends Mocker> List<T> queryRecordList(RepositoryProvider<? extends Mocker> repositoryReader,
       MockCategoryType categoryType, String recordId, String[] fieldNames, Class<T> clazz) {
-    Iterable<? extends Mocker> iterable = repositoryReader.queryRecordList(categoryType, recordId, fieldNames);
+    return sortByCreationTime(repositoryReader.queryRecordList(categoryType, recordId, fieldNames),
+        clazz);
+  }
+
+  /**
+   * Query the mockers of the record from the primary, for an edition of the record.
+   */
+  public List<AREXMocker> queryRecordListForEdition(
+      RepositoryProvider<? extends Mocker> repositoryReader, MockCategoryType categoryType,
+      String recordId) {
+    return sortByCreationTime(repositoryReader.queryRecordListForEdition(categoryType, recordId),
+        AREXMocker.class);
+  }
+
+  /**
+   * Query the categories of the record in parallel without renewing the mockers read, e.g. for an
+   * export. The result keeps the iteration order of the categories.
+   */
+  public List<AREXMocker> queryRecordsWithoutRenewal(String recordId,
+      Collection<MockCategoryType> types, RepositoryProvider<? extends Mocker> repositoryReader) {
+    List<AREXMocker> result = new ArrayList<>();
+    for (List<AREXMocker> categoryResult : fanOutService.invokeAll(types,
+        category -> sortByCreationTime(
+            repositoryReader.queryRecordListWithoutRenewal(category, recordId),
+            AREXMocker.class))) {
+      if (categoryResult != null) {
+        result.addAll(categoryResult);
+      }
+    }
+    return result;
+  }
+
+  private static <T extends Mocker> List<T> sortByCreationTime(
+      Iterable<? extends Mocker> iterable, Class<T> clazz) {
     if (iterable == null) {
       return null;
     }
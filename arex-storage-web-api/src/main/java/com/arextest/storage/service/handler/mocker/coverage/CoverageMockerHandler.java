@@ -284,18 +284,17 @@ public class CoverageMockerHandler implements MockerHandler {
         LOGGER.info("{}CoverageMockerHandler start, recordId: {}, pathKey: {}",
             TITLE_RECORD_TASK, coverageMocker.getRecordId(), coverageMocker.getOperationName());
 
-        // scene exist remove Rolling mocker
-        if (scenePoolProvider.checkSceneExist(appId, sceneKey)) {
+        // scene exist remove Rolling mocker, a scene answered absent is confirmed by its insert
+        Scene scene = convert(coverageMocker);
+        if (scenePoolProvider.checkSceneExist(appId, sceneKey)
+            || !scenePoolProvider.insertIfAbsent(scene)) {
           invalidRecordService.putInvalidCaseInRedis(recordId);
           mockSourceEditionService.removeByRecordId(ProviderNames.DEFAULT, coverageMocker.getRecordId());
           LOGGER.info("{}CoverageMockerHandler received existing case, recordId: {}, pathKey: {}",
               TITLE_RECORD_TASK, coverageMocker.getRecordId(), coverageMocker.getOperationName());
         } else {
           op = NEW_SCENE_OP;
-          // new scene: extend mocker expiration and insert scene
-          Scene scene = convert(coverageMocker);
-
-          scenePoolProvider.upsertOne(scene);
+          // new scene: extend mocker expiration
           mockSourceEditionService.extendMockerExpirationByRecordId(ProviderNames.DEFAULT,
               coverageMocker.getRecordId(),
               defaultApplicationConfig.getConfigAsLong(COVERAGE_EXPIRATION_DAYS_KEY, COVERAGE_EXPIRATION_DAYS));
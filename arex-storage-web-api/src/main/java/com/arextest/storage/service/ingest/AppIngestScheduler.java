@@ -0,0 +1,307 @@
+package com.arextest.storage.service.ingest;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.storage.metric.MetricListener;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.RateLimiter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per application fairness on the agent save path, so one application recording too much cannot
+ * starve the others.
+ * <p>
+ * Each application is rate limited in mockers per second (record.app.ingest.rates, e.g.
+ * "app-a:200,app-b:50", record.app.ingest.default.rate for the others, 0 means unlimited), and
+ * gets a weighted share of the save concurrency limit among the applications saving at the moment
+ * (record.app.ingest.weights, e.g. "app-a:3", default weight 1). An application beyond its share
+ * borrows the idle slots while less than record.app.ingest.borrow.ratio of the limit is in flight,
+ * beyond that the slots left are kept for the applications within their share. An application
+ * beyond its rate, or beyond its share under contention, is shed while the others still get
+ * through.
+ */
+@Slf4j
+@Component
+public class AppIngestScheduler {
+
+  private static final String INGEST_ENABLED = "record.app.ingest.enabled";
+  private static final String INGEST_WEIGHTS = "record.app.ingest.weights";
+  private static final String INGEST_RATES = "record.app.ingest.rates";
+  private static final String INGEST_DEFAULT_RATE = "record.app.ingest.default.rate";
+  private static final String INGEST_BORROW_RATIO = "record.app.ingest.borrow.ratio";
+  private static final double DEFAULT_BORROW_RATIO = 0.8D;
+  private static final long DEFAULT_WEIGHT = 1L;
+  private static final long UNLIMITED_RATE = 0L;
+  private static final String ENTRY_SEPARATOR = ",";
+  private static final String VALUE_SEPARATOR = ":";
+  private static final String UNKNOWN_APP_ID = "unknown";
+  private static final String ACCEPTED_METRIC = "record.app.ingest.accepted";
+  private static final String REJECTED_METRIC = "record.app.ingest.rejected";
+  private static final String CLIENT_APP_ID = "clientAppId";
+  private static final String REASON = "reason";
+  private static final String REASON_RATE = "rate";
+  private static final String REASON_SHARE = "share";
+  private static final String REASON_LIMIT = "limit";
+  private static final long REJECTED_LOG_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10L);
+
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  private final SaveConcurrencyLimiter saveConcurrencyLimiter;
+  private final List<MetricListener> metricListeners;
+  private final Map<String, AppInFlight> inFlightByApp = new ConcurrentHashMap<>();
+  // the sum of the weights of the applications with saves in flight
+  private final AtomicLong activeWeight = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong lastRejectedLogTime = new AtomicLong();
+  private final AtomicLong lastLoggedRejectedCount = new AtomicLong();
+  private final Cache<String, RateLimiter> rateLimiters = Caffeine.newBuilder()
+      .expireAfterAccess(10, TimeUnit.MINUTES)
+      .build();
+  private volatile ParsedValues weights = ParsedValues.EMPTY;
+  private volatile ParsedValues rates = ParsedValues.EMPTY;
+
+  public AppIngestScheduler(DefaultApplicationConfig defaultApplicationConfig,
+      SaveConcurrencyLimiter saveConcurrencyLimiter, List<MetricListener> metricListeners) {
+    this.defaultApplicationConfig = defaultApplicationConfig;
+    this.saveConcurrencyLimiter = saveConcurrencyLimiter;
+    this.metricListeners = metricListeners;
+  }
+
+  /**
+   * @param mockers the count of mockers to save
+   * @return false if the application is beyond its rate
+   */
+  public boolean tryAcquireRate(String appId, int mockers) {
+    if (!isEnabled()) {
+      return true;
+    }
+    String app = normalize(appId);
+    long rate = getRate(app);
+    if (rate <= UNLIMITED_RATE) {
+      return true;
+    }
+    RateLimiter rateLimiter = rateLimiters.get(app, key -> RateLimiter.create(rate));
+    if (rateLimiter.getRate() != rate) {
+      rateLimiter.setRate(rate);
+    }
+    if (rateLimiter.tryAcquire(Math.max(1, mockers))) {
+      return true;
+    }
+    recordRejected(app, REASON_RATE);
+    return false;
+  }
+
+  /**
+   * Take a slot of the save concurrency limit within the share of the application.
+   *
+   * @return true if the save may start, it must be followed by one {@link #release}
+   */
+  public boolean tryAcquire(String appId) {
+    String app = normalize(appId);
+    int current;
+    long weight;
+    while (true) {
+      AppInFlight inFlight = inFlightByApp.computeIfAbsent(app, key -> new AppInFlight());
+      synchronized (inFlight) {
+        if (inFlight.removed) {
+          // released to idle and evicted meanwhile, take the entry replacing it
+          continue;
+        }
+        current = ++inFlight.count;
+        if (current == 1) {
+          inFlight.weight = getWeight(app);
+          activeWeight.addAndGet(inFlight.weight);
+        }
+        weight = inFlight.weight;
+      }
+      break;
+    }
+    int limit = saveConcurrencyLimiter.getLimit();
+    long share = Math.max(1L, limit * weight / Math.max(weight, activeWeight.get()));
+    if (isEnabled() && current > share && isContended(limit)) {
+      releaseInFlight(app);
+      recordRejected(app, REASON_SHARE);
+      return false;
+    }
+    if (!acquireLimit(app)) {
+      releaseInFlight(app);
+      return false;
+    }
+    recordAccepted(app);
+    return true;
+  }
+
+  public void release(String appId, long latencyMillis, boolean dropped) {
+    saveConcurrencyLimiter.release(latencyMillis, dropped);
+    releaseInFlight(normalize(appId));
+  }
+
+  public long getRetryAfterSeconds() {
+    return saveConcurrencyLimiter.getRetryAfterSeconds();
+  }
+
+  /**
+   * @return the count of applications with saves in flight
+   */
+  public int getActiveApps() {
+    return inFlightByApp.size();
+  }
+
+  /**
+   * @return true if too much of the limit is in flight for an application to borrow beyond its
+   * share
+   */
+  private boolean isContended(int limit) {
+    double borrowRatio = Double.parseDouble(defaultApplicationConfig.getConfigAsString(
+        INGEST_BORROW_RATIO, String.valueOf(DEFAULT_BORROW_RATIO)));
+    return saveConcurrencyLimiter.getInFlight() >= limit * borrowRatio;
+  }
+
+  private boolean acquireLimit(String app) {
+    if (saveConcurrencyLimiter.tryAcquire()) {
+      return true;
+    }
+    recordRejected(app, REASON_LIMIT);
+    return false;
+  }
+
+  /**
+   * The weight added by the first save in flight of the application is taken off by the last one,
+   * a weight changed by the config in between applies from the next first save on. The entry of an
+   * application without saves in flight is evicted.
+   */
+  private void releaseInFlight(String app) {
+    AppInFlight inFlight = inFlightByApp.get(app);
+    if (inFlight == null) {
+      return;
+    }
+    synchronized (inFlight) {
+      if (inFlight.count > 0 && --inFlight.count == 0) {
+        activeWeight.addAndGet(-inFlight.weight);
+        inFlight.removed = true;
+        inFlightByApp.remove(app, inFlight);
+      }
+    }
+  }
+
+  private boolean isEnabled() {
+    return defaultApplicationConfig.getConfigAsBoolean(INGEST_ENABLED, true);
+  }
+
+  private long getWeight(String app) {
+    ParsedValues current = weights;
+    String raw = defaultApplicationConfig.getConfigAsString(INGEST_WEIGHTS, StringUtils.EMPTY);
+    if (!StringUtils.equals(raw, current.raw)) {
+      current = ParsedValues.parse(raw);
+      weights = current;
+    }
+    Long weight = current.values.get(app);
+    return weight == null || weight <= 0 ? DEFAULT_WEIGHT : weight;
+  }
+
+  private long getRate(String app) {
+    ParsedValues current = rates;
+    String raw = defaultApplicationConfig.getConfigAsString(INGEST_RATES, StringUtils.EMPTY);
+    if (!StringUtils.equals(raw, current.raw)) {
+      current = ParsedValues.parse(raw);
+      rates = current;
+    }
+    Long rate = current.values.get(app);
+    return rate == null ? defaultApplicationConfig.getConfigAsLong(INGEST_DEFAULT_RATE,
+        UNLIMITED_RATE) : rate;
+  }
+
+  private static String normalize(String appId) {
+    return StringUtils.isEmpty(appId) ? UNKNOWN_APP_ID : appId;
+  }
+
+  private void recordAccepted(String app) {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return;
+    }
+    Map<String, String> tags = Collections.singletonMap(CLIENT_APP_ID, app);
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordMatchingCount(ACCEPTED_METRIC, tags);
+    }
+  }
+
+  private void recordRejected(String app, String reason) {
+    logRejected(app, reason);
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return;
+    }
+    Map<String, String> tags = new HashMap<>(2);
+    tags.put(CLIENT_APP_ID, app);
+    tags.put(REASON, reason);
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordMatchingCount(REJECTED_METRIC, tags);
+    }
+  }
+
+  /**
+   * The rejections are counted by the metric, the log only sums them up once per interval.
+   */
+  private void logRejected(String app, String reason) {
+    long rejected = rejectedCount.incrementAndGet();
+    long now = System.currentTimeMillis();
+    long lastLogTime = lastRejectedLogTime.get();
+    if (now - lastLogTime < REJECTED_LOG_INTERVAL_MILLIS
+        || !lastRejectedLogTime.compareAndSet(lastLogTime, now)) {
+      return;
+    }
+    long sinceLastLog = rejected - lastLoggedRejectedCount.getAndSet(rejected);
+    LOGGER.warn("app ingest rejected {} saves since last log, latest appId:{}, reason:{}",
+        sinceLastLog, app, reason);
+  }
+
+  /**
+   * The saves in flight of an application, and the weight they added to the active weight.
+   */
+  private static final class AppInFlight {
+
+    private int count;
+    private long weight;
+    private boolean removed;
+  }
+
+  /**
+   * The "app:value" entries of a config value, parsed again only when the config changes.
+   */
+  private static final class ParsedValues {
+
+    private static final ParsedValues EMPTY = new ParsedValues(StringUtils.EMPTY,
+        Collections.emptyMap());
+    private final String raw;
+    private final Map<String, Long> values;
+
+    private ParsedValues(String raw, Map<String, Long> values) {
+      this.raw = raw;
+      this.values = values;
+    }
+
+    private static ParsedValues parse(String raw) {
+      Map<String, Long> values = new HashMap<>();
+      for (String entry : StringUtils.split(StringUtils.defaultString(raw), ENTRY_SEPARATOR)) {
+        String[] pair = StringUtils.split(entry, VALUE_SEPARATOR);
+        if (pair.length != 2) {
+          continue;
+        }
+        try {
+          values.put(pair[0].trim(), Long.parseLong(pair[1].trim()));
+        } catch (NumberFormatException e) {
+          LOGGER.warn("invalid app ingest config entry:{}", entry);
+        }
+      }
+      return new ParsedValues(raw, values);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.arextest.storage.service.ingest;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.storage.metric.MetricListener;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adaptive concurrency limit in front of the agent save path (AIMD).
+ * <p>
+ * The limit grows by one for each fast save while it is at least half used, and shrinks by
+ * record.save.limit.backoff.ratio when a save is slower than record.save.limit.latency.millis or
+ * could not be scheduled. Saves beyond the limit are shed, the agent is told to retry after
+ * record.save.limit.retry.after.seconds instead of piling up blocked threads on a slow mongo.
+ */
+@Slf4j
+@Component
+public class SaveConcurrencyLimiter {
+
+  private static final String LIMIT_ENABLED = "record.save.limit.enabled";
+  private static final String LIMIT_MIN = "record.save.limit.min";
+  private static final String LIMIT_MAX = "record.save.limit.max";
+  private static final String LIMIT_INITIAL = "record.save.limit.initial";
+  private static final String LIMIT_LATENCY_MILLIS = "record.save.limit.latency.millis";
+  private static final String LIMIT_BACKOFF_RATIO = "record.save.limit.backoff.ratio";
+  private static final String LIMIT_RETRY_AFTER_SECONDS = "record.save.limit.retry.after.seconds";
+  private static final int DEFAULT_MIN = 10;
+  private static final int DEFAULT_MAX = 800;
+  private static final int DEFAULT_INITIAL = 400;
+  private static final long DEFAULT_LATENCY_MILLIS = 500L;
+  private static final double DEFAULT_BACKOFF_RATIO = 0.9D;
+  private static final long DEFAULT_RETRY_AFTER_SECONDS = 1L;
+  private static final long METRIC_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10L);
+  private static final long SHED_LOG_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10L);
+  private static final String LIMIT_METRIC = "record.save.limit";
+  private static final String IN_FLIGHT_METRIC = "record.save.inflight";
+  private static final String SHED_METRIC = "record.save.shed";
+
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  private final List<MetricListener> metricListeners;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong shedCount = new AtomicLong();
+  private final AtomicLong lastShedLogTime = new AtomicLong();
+  private final AtomicLong lastLoggedShedCount = new AtomicLong();
+  private final int minLimit;
+  private final int maxLimit;
+  private final long latencyThresholdMillis;
+  private final double backoffRatio;
+  private volatile int limit;
+  private long lastDecreaseTime;
+  private volatile long lastMetricTime;
+
+  public SaveConcurrencyLimiter(DefaultApplicationConfig defaultApplicationConfig,
+      List<MetricListener> metricListeners) {
+    this.defaultApplicationConfig = defaultApplicationConfig;
+    this.metricListeners = metricListeners;
+    this.minLimit = defaultApplicationConfig.getConfigAsInt(LIMIT_MIN, DEFAULT_MIN);
+    this.maxLimit = Math.max(minLimit,
+        defaultApplicationConfig.getConfigAsInt(LIMIT_MAX, DEFAULT_MAX));
+    this.latencyThresholdMillis = defaultApplicationConfig.getConfigAsLong(LIMIT_LATENCY_MILLIS,
+        DEFAULT_LATENCY_MILLIS);
+    this.backoffRatio = Double.parseDouble(defaultApplicationConfig.getConfigAsString(
+        LIMIT_BACKOFF_RATIO, String.valueOf(DEFAULT_BACKOFF_RATIO)));
+    this.limit = Math.min(maxLimit, Math.max(minLimit,
+        defaultApplicationConfig.getConfigAsInt(LIMIT_INITIAL, DEFAULT_INITIAL)));
+  }
+
+  /**
+   * @return true if the save may start, it must be followed by one {@link #release}
+   */
+  public boolean tryAcquire() {
+    if (!defaultApplicationConfig.getConfigAsBoolean(LIMIT_ENABLED, true)) {
+      inFlight.incrementAndGet();
+      return true;
+    }
+    while (true) {
+      int current = inFlight.get();
+      if (current >= limit) {
+        logShed(shedCount.incrementAndGet());
+        recordShed();
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @param latencyMillis the time a single mocker save took
+   * @param dropped       true if the save was not done, e.g. rejected by the executor
+   */
+  public void release(long latencyMillis, boolean dropped) {
+    int current = inFlight.getAndDecrement();
+    if (dropped || latencyMillis > latencyThresholdMillis) {
+      decrease();
+    } else if (current * 2 >= limit && limit < maxLimit) {
+      synchronized (this) {
+        limit = Math.min(maxLimit, limit + 1);
+      }
+    }
+    recordLimit();
+  }
+
+  public long getRetryAfterSeconds() {
+    return defaultApplicationConfig.getConfigAsLong(LIMIT_RETRY_AFTER_SECONDS,
+        DEFAULT_RETRY_AFTER_SECONDS);
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public long getShedCount() {
+    return shedCount.get();
+  }
+
+  private synchronized void decrease() {
+    // the saves started before the last decrease still report the latency of the old limit,
+    // shrink at most once per latency threshold so they do not collapse the limit together
+    long now = System.currentTimeMillis();
+    if (now - lastDecreaseTime < latencyThresholdMillis) {
+      return;
+    }
+    lastDecreaseTime = now;
+    int decreased = Math.max(minLimit, (int) (limit * backoffRatio));
+    if (decreased != limit) {
+      LOGGER.info("save concurrency limit decreased from {} to {}", limit, decreased);
+      limit = decreased;
+    }
+  }
+
+  /**
+   * A shed save is counted by the metric, the log only sums them up once per interval.
+   */
+  private void logShed(long shed) {
+    long now = System.currentTimeMillis();
+    long lastLogTime = lastShedLogTime.get();
+    if (now - lastLogTime < SHED_LOG_INTERVAL_MILLIS
+        || !lastShedLogTime.compareAndSet(lastLogTime, now)) {
+      return;
+    }
+    long sinceLastLog = shed - lastLoggedShedCount.getAndSet(shed);
+    LOGGER.warn("saves shed by concurrency limit:{}, since last log:{}, total shed:{}", limit,
+        sinceLastLog, shed);
+  }
+
+  private void recordShed() {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return;
+    }
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordMatchingCount(SHED_METRIC, Collections.emptyMap());
+    }
+  }
+
+  private void recordLimit() {
+    long now = System.currentTimeMillis();
+    if (CollectionUtils.isEmpty(metricListeners) || now - lastMetricTime < METRIC_INTERVAL_MILLIS) {
+      return;
+    }
+    lastMetricTime = now;
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordSize(LIMIT_METRIC, Collections.emptyMap(), limit);
+      metricListener.recordSize(IN_FLIGHT_METRIC, Collections.emptyMap(), inFlight.get());
+    }
+  }
+}
@@ -0,0 +1,707 @@
+package com.arextest.storage.service.spool;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.storage.metric.MetricListener;
+import com.arextest.storage.serialization.ZstdJacksonSerializer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.bson.codecs.pojo.IdGenerators;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Local write-ahead spool for the mockers saved by the agents.
+ * <p>
+ * A mocker accepted by the spool is appended to a segment file on the local disk and acknowledged
+ * at once, the drain threads save it to the repository in the background. A stalled mongo grows
+ * the spool instead of the queue of the save executor, up to record.spool.max.bytes, beyond which
+ * the spool refuses new mockers and the callers save them directly as before.
+ * <p>
+ * The segment files are named by the spool offset of their first byte and hold frames of [int
+ * length][int crc32][zstd json of the mocker]. The checkpoint file holds the offset below which
+ * every frame has been drained, on restart the frames after it are drained again. The writer
+ * always starts a new segment, so a frame torn by a crash is skipped and never appended to.
+ * <p>
+ * A frame is drained once its mocker is saved, a failed save is retried with a backoff and keeps
+ * the checkpoint before it. A frame still failing after record.spool.max.attempts saves is moved to
+ * the dead letter file, so it no longer holds the checkpoint. The frames of a record are saved one
+ * after the other in their spool order, the entry point is saved after the dependencies sent
+ * before it. A dependency is spooled with its id, so a frame saved again after a restart does not
+ * duplicate its mocker.
+ */
+@Slf4j
+@Component
+public class MockerSpool {
+
+  public static final String SPOOL_DRAIN_CONCURRENCY = "record.spool.drain.concurrency";
+  public static final int DEFAULT_DRAIN_CONCURRENCY = 64;
+  private static final String SPOOL_ENABLED = "record.spool.enabled";
+  private static final String SPOOL_DIR = "record.spool.dir";
+  private static final String SPOOL_SEGMENT_BYTES = "record.spool.segment.bytes";
+  private static final String SPOOL_MAX_BYTES = "record.spool.max.bytes";
+  private static final String SPOOL_FSYNC = "record.spool.fsync";
+  private static final String SPOOL_MAX_ATTEMPTS = "record.spool.max.attempts";
+  private static final String DEFAULT_DIR_NAME = "arex-storage-spool";
+  private static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+  private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+  private static final int DEFAULT_MAX_ATTEMPTS = 20;
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String CHECKPOINT_FILE = "checkpoint";
+  private static final String DEAD_LETTER_FILE = "dead-letter.log";
+  private static final int HEADER_BYTES = Integer.BYTES * 2;
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+  private static final long MIN_RETRY_BACKOFF_MILLIS = 100L;
+  private static final long MAX_RETRY_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30L);
+  private static final int RETRY_LOG_INTERVAL = 10;
+  private static final long METRIC_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10L);
+  private static final String PENDING_COUNT_METRIC = "record.spool.pending.count";
+  private static final String PENDING_BYTES_METRIC = "record.spool.pending.bytes";
+
+  private final DefaultApplicationConfig defaultApplicationConfig;
+  private final ZstdJacksonSerializer zstdJacksonSerializer;
+  private final ExecutorService spoolDrainExecutor;
+  private final List<MetricListener> metricListeners;
+
+  // base offset -> segment
+  private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  // the start offsets of the frames handed to the drain threads and not saved yet
+  private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+  // record id -> the frames of the record waiting for the one being saved
+  private final Map<String, Queue<SpooledFrame>> recordLanes = new HashMap<>();
+  private final AtomicLong pendingCount = new AtomicLong();
+  private final Object writeLock = new Object();
+
+  private volatile boolean running;
+  private volatile Segment activeSegment;
+  private volatile long readOffset;
+  private volatile long checkpoint;
+  private FileChannel checkpointChannel;
+  private Thread readerThread;
+  private Semaphore drainPermits;
+  private long segmentBytes;
+  private long maxBytes;
+  private boolean fsync;
+  private int maxAttempts;
+  private Path deadLetterPath;
+
+  public MockerSpool(DefaultApplicationConfig defaultApplicationConfig,
+      ZstdJacksonSerializer zstdJacksonSerializer,
+      @Qualifier("spoolDrainExecutor") ExecutorService spoolDrainExecutor,
+      List<MetricListener> metricListeners) {
+    this.defaultApplicationConfig = defaultApplicationConfig;
+    this.zstdJacksonSerializer = zstdJacksonSerializer;
+    this.spoolDrainExecutor = spoolDrainExecutor;
+    this.metricListeners = metricListeners;
+  }
+
+  /**
+   * Recover the spool and start draining it, the mockers left by the previous process are drained
+   * first. Does nothing unless the spool is enabled.
+   *
+   * @param handler saves a drained mocker, false if it failed to and the mocker is to be retried
+   */
+  public synchronized void start(Predicate<AREXMocker> handler) {
+    if (running || !defaultApplicationConfig.getConfigAsBoolean(SPOOL_ENABLED, false)) {
+      return;
+    }
+    this.segmentBytes = defaultApplicationConfig.getConfigAsLong(SPOOL_SEGMENT_BYTES,
+        DEFAULT_SEGMENT_BYTES);
+    this.maxBytes = defaultApplicationConfig.getConfigAsLong(SPOOL_MAX_BYTES, DEFAULT_MAX_BYTES);
+    this.fsync = defaultApplicationConfig.getConfigAsBoolean(SPOOL_FSYNC, true);
+    this.maxAttempts = Math.max(defaultApplicationConfig.getConfigAsInt(SPOOL_MAX_ATTEMPTS,
+        DEFAULT_MAX_ATTEMPTS), 1);
+    this.drainPermits = new Semaphore(defaultApplicationConfig.getConfigAsInt(
+        SPOOL_DRAIN_CONCURRENCY, DEFAULT_DRAIN_CONCURRENCY));
+    Path dir = Paths.get(defaultApplicationConfig.getConfigAsString(SPOOL_DIR,
+        System.getProperty("java.io.tmpdir") + File.separator + DEFAULT_DIR_NAME));
+    this.deadLetterPath = dir.resolve(DEAD_LETTER_FILE);
+    try {
+      Files.createDirectories(dir);
+      recover(dir);
+    } catch (IOException e) {
+      LOGGER.error("recover mocker spool failed, spool disabled, dir:{}", dir, e);
+      closeAll();
+      return;
+    }
+    running = true;
+    readerThread = new ThreadFactoryBuilder().setNameFormat("mockerSpool-reader")
+        .setDaemon(true)
+        .build()
+        .newThread(() -> drainLoop(handler));
+    readerThread.start();
+    LOGGER.info("mocker spool started, dir:{}, pending:{}, checkpoint:{}", dir, pendingCount.get(),
+        checkpoint);
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public long getPendingCount() {
+    return pendingCount.get();
+  }
+
+  public long getPendingBytes() {
+    Segment segment = activeSegment;
+    return segment == null ? 0L : segment.endOffset - checkpoint;
+  }
+
+  /**
+   * @return true if all mockers are spooled, false if the spool is not running, full or failed to
+   * write, in which case none of them is spooled and the caller should save them directly
+   */
+  public boolean append(List<AREXMocker> mockers) {
+    if (!running || CollectionUtils.isEmpty(mockers)) {
+      return false;
+    }
+    List<ByteBuffer> frames = new ArrayList<>(mockers.size() * 2);
+    long batchBytes = 0L;
+    for (AREXMocker mocker : mockers) {
+      // an entry point is saved under its record id
+      if (mocker.getId() == null && mocker.getCategoryType() != null
+          && !mocker.getCategoryType().isEntryPoint()) {
+        mocker.setId(IdGenerators.STRING_ID_GENERATOR.generate());
+      }
+      byte[] payload = zstdJacksonSerializer.serialize(mocker);
+      if (payload == null) {
+        return false;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(payload, 0, payload.length);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(payload.length).putInt((int) crc.getValue()).flip();
+      frames.add(header);
+      frames.add(ByteBuffer.wrap(payload));
+      batchBytes += HEADER_BYTES + payload.length;
+    }
+
+    synchronized (writeLock) {
+      if (!running) {
+        return false;
+      }
+      Segment segment = activeSegment;
+      if (segment.endOffset - checkpoint + batchBytes > maxBytes) {
+        LOGGER.warn("mocker spool is full, pending bytes:{}", segment.endOffset - checkpoint);
+        return false;
+      }
+      try {
+        if (segment.endOffset > segment.baseOffset
+            && segment.endOffset - segment.baseOffset + batchBytes > segmentBytes) {
+          segment = roll(segment);
+        }
+        ByteBuffer[] buffers = frames.toArray(new ByteBuffer[0]);
+        long written = 0L;
+        while (written < batchBytes) {
+          written += segment.channel.write(buffers);
+        }
+        if (fsync) {
+          segment.channel.force(false);
+        }
+      } catch (IOException e) {
+        // the frames may be partly written, continue in a new segment after them
+        LOGGER.error("append to mocker spool failed", e);
+        reopenAfterFailure(segment);
+        return false;
+      }
+      pendingCount.addAndGet(mockers.size());
+      segment.endOffset += batchBytes;
+    }
+    LockSupport.unpark(readerThread);
+    return true;
+  }
+
+  @PreDestroy
+  public void stop() {
+    synchronized (writeLock) {
+      if (!running) {
+        return;
+      }
+      running = false;
+    }
+    if (readerThread != null) {
+      readerThread.interrupt();
+    }
+    closeAll();
+  }
+
+  private void recover(Path dir) throws IOException {
+    Path checkpointPath = dir.resolve(CHECKPOINT_FILE);
+    checkpointChannel = FileChannel.open(checkpointPath, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+    long savedCheckpoint =
+        checkpointChannel.read(buffer, 0L) == Long.BYTES ? ((ByteBuffer) buffer.flip()).getLong()
+            : 0L;
+
+    File[] files = dir.toFile().listFiles(
+        (d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    List<Long> baseOffsets = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        baseOffsets.add(parseBaseOffset(file.getName()));
+      }
+    }
+    Collections.sort(baseOffsets);
+
+    long nextBase = savedCheckpoint;
+    if (!baseOffsets.isEmpty()) {
+      savedCheckpoint = Math.max(savedCheckpoint, baseOffsets.get(0));
+    }
+    for (Long baseOffset : baseOffsets) {
+      Path path = dir.resolve(segmentName(baseOffset));
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      long size = channel.size();
+      if (baseOffset + size <= savedCheckpoint) {
+        channel.close();
+        Files.deleteIfExists(path);
+        continue;
+      }
+      Segment segment = new Segment(baseOffset, path, channel);
+      segment.endOffset = scanFrames(segment, Math.max(savedCheckpoint, baseOffset), size);
+      segments.put(baseOffset, segment);
+      nextBase = Math.max(nextBase, baseOffset + size);
+    }
+
+    checkpoint = savedCheckpoint;
+    readOffset = savedCheckpoint;
+    activeSegment = openSegment(dir, nextBase);
+  }
+
+  /**
+   * Count the complete frames from the offset on, the offset after the last of them is the end of
+   * the segment for the reader.
+   */
+  private long scanFrames(Segment segment, long fromOffset, long size) throws IOException {
+    long local = fromOffset - segment.baseOffset;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    while (local + HEADER_BYTES <= size) {
+      header.clear();
+      readFully(segment.channel, header, local);
+      int length = ((ByteBuffer) header.flip()).getInt();
+      if (length < 0 || local + HEADER_BYTES + length > size) {
+        LOGGER.warn("torn frame in mocker spool segment:{}, offset:{}", segment.path,
+            segment.baseOffset + local);
+        break;
+      }
+      local += HEADER_BYTES + length;
+      pendingCount.incrementAndGet();
+    }
+    return segment.baseOffset + local;
+  }
+
+  private void drainLoop(Predicate<AREXMocker> handler) {
+    long lastMetricTime = 0L;
+    while (running) {
+      try {
+        long now = System.currentTimeMillis();
+        if (now - lastMetricTime >= METRIC_INTERVAL_MILLIS) {
+          lastMetricTime = now;
+          recordDepth();
+        }
+        if (!drainNext(handler)) {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Throwable e) {
+        LOGGER.error("drain mocker spool error", e);
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+    }
+  }
+
+  /**
+   * @return false if there is nothing to drain at the moment
+   */
+  private boolean drainNext(Predicate<AREXMocker> handler)
+      throws IOException, InterruptedException {
+    long offset = readOffset;
+    Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+    if (entry == null) {
+      Long first = segments.ceilingKey(offset);
+      if (first == null) {
+        return false;
+      }
+      readOffset = first;
+      return true;
+    }
+    Segment segment = entry.getValue();
+    long end = segment.endOffset;
+    if (offset >= end) {
+      if (segment == activeSegment) {
+        return false;
+      }
+      // the segment is complete, the bytes after its last complete frame are torn
+      Long next = segments.higherKey(segment.baseOffset);
+      if (next == null) {
+        return false;
+      }
+      readOffset = next;
+      return true;
+    }
+
+    long local = offset - segment.baseOffset;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    readFully(segment.channel, header, local);
+    header.flip();
+    int length = header.getInt();
+    int crc = header.getInt();
+    ByteBuffer payload = ByteBuffer.allocate(length);
+    readFully(segment.channel, payload, local + HEADER_BYTES);
+    long frameEnd = offset + HEADER_BYTES + length;
+
+    CRC32 actual = new CRC32();
+    actual.update(payload.array(), 0, length);
+    AREXMocker mocker = (int) actual.getValue() == crc ? deserialize(payload.array(), offset)
+        : null;
+    if (mocker == null) {
+      LOGGER.error("corrupted frame in mocker spool segment:{}, offset:{}", segment.path, offset);
+      pendingCount.decrementAndGet();
+      readOffset = frameEnd;
+      advanceCheckpoint();
+      return true;
+    }
+
+    // bounded in-flight saves, a slow repository slows the drain instead of piling up tasks
+    drainPermits.acquire();
+    inFlight.add(offset);
+    try {
+      dispatch(handler, new SpooledFrame(offset, payload.array(), crc, mocker.getRecordId()));
+    } catch (RuntimeException e) {
+      inFlight.remove(offset);
+      drainPermits.release();
+      throw e;
+    }
+    readOffset = frameEnd;
+    return true;
+  }
+
+  /**
+   * Hand the frame to a drain thread, or queue it after the frame of its record being saved.
+   * Called by the reader thread only.
+   */
+  private void dispatch(Predicate<AREXMocker> handler, SpooledFrame frame) {
+    String recordId = frame.recordId;
+    if (recordId != null) {
+      synchronized (recordLanes) {
+        Queue<SpooledFrame> lane = recordLanes.get(recordId);
+        if (lane != null) {
+          lane.add(frame);
+          return;
+        }
+        recordLanes.put(recordId, new ArrayDeque<>());
+      }
+    }
+    try {
+      spoolDrainExecutor.execute(() -> drainLane(handler, frame));
+    } catch (RuntimeException e) {
+      if (recordId != null) {
+        synchronized (recordLanes) {
+          recordLanes.remove(recordId);
+        }
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Save the frame, then the frames of its record queued meanwhile, in their order. The frames
+   * left at stop stay in flight.
+   */
+  private void drainLane(Predicate<AREXMocker> handler, SpooledFrame first) {
+    SpooledFrame frame = first;
+    while (frame != null && drainFrame(handler, frame)) {
+      if (frame.recordId == null) {
+        return;
+      }
+      synchronized (recordLanes) {
+        frame = recordLanes.get(frame.recordId).poll();
+        if (frame == null) {
+          recordLanes.remove(first.recordId);
+        }
+      }
+    }
+  }
+
+  /**
+   * Save the mocker of a frame, retrying with a backoff until it is saved or out of attempts, then
+   * it is moved to the dead letter file. The permit is held meanwhile, a failing repository stops
+   * the reader once all permits are retrying. A frame left unsaved at stop stays in flight, the
+   * checkpoint never passes it.
+   *
+   * @return true if the frame is done with
+   */
+  private boolean drainFrame(Predicate<AREXMocker> handler, SpooledFrame frame) {
+    boolean drained = false;
+    try {
+      long backoffMillis = MIN_RETRY_BACKOFF_MILLIS;
+      int attempt = 0;
+      // decoded for each attempt, a failed save may have changed the mocker
+      while (!(drained = save(handler, deserialize(frame.payload, frame.offset), frame.offset))) {
+        if (++attempt >= maxAttempts) {
+          deadLetter(frame, attempt);
+          drained = true;
+          break;
+        }
+        if (attempt % RETRY_LOG_INTERVAL == 1) {
+          LOGGER.warn("save spooled mocker failed, offset:{}, attempt:{}", frame.offset,
+              attempt);
+        }
+        if (!running) {
+          break;
+        }
+        Thread.sleep(backoffMillis);
+        backoffMillis = Math.min(backoffMillis * 2, MAX_RETRY_BACKOFF_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      drainPermits.release();
+      if (drained) {
+        inFlight.remove(frame.offset);
+        pendingCount.decrementAndGet();
+        advanceCheckpoint();
+      }
+    }
+    return drained;
+  }
+
+  /**
+   * Append the frame to the dead letter file, as it was spooled, for it to be looked into or saved
+   * again by hand.
+   */
+  private synchronized void deadLetter(SpooledFrame frame, int attempts) {
+    LOGGER.error("save spooled mocker failed {} times, moved to the dead letter file:{}, "
+        + "offset:{}, recordId:{}", attempts, deadLetterPath, frame.offset, frame.recordId);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(frame.payload.length).putInt(frame.crc).flip();
+    ByteBuffer[] buffers = {header, ByteBuffer.wrap(frame.payload)};
+    try (FileChannel channel = FileChannel.open(deadLetterPath, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      long written = 0L;
+      while (written < HEADER_BYTES + frame.payload.length) {
+        written += channel.write(buffers);
+      }
+      if (fsync) {
+        channel.force(false);
+      }
+    } catch (IOException e) {
+      LOGGER.error("write mocker spool dead letter failed, offset:{}, recordId:{}", frame.offset,
+          frame.recordId, e);
+    }
+  }
+
+  /**
+   * @return null if the frame cannot be read as a mocker, which no retry would change
+   */
+  private AREXMocker deserialize(byte[] payload, long offset) {
+    try {
+      AREXMocker mocker = zstdJacksonSerializer.deserialize(payload, AREXMocker.class);
+      if (mocker == null) {
+        LOGGER.error("empty frame in mocker spool, offset:{}", offset);
+      }
+      return mocker;
+    } catch (RuntimeException e) {
+      LOGGER.error("undecodable frame in mocker spool, offset:{}", offset, e);
+      return null;
+    }
+  }
+
+  private static boolean save(Predicate<AREXMocker> handler, AREXMocker mocker, long offset) {
+    if (mocker == null) {
+      return false;
+    }
+    try {
+      return handler.test(mocker);
+    } catch (Throwable e) {
+      LOGGER.error("save spooled mocker error, offset:{}", offset, e);
+      return false;
+    }
+  }
+
+  /**
+   * Move the checkpoint to the first frame not saved yet, and delete the segments below it.
+   */
+  private synchronized void advanceCheckpoint() {
+    // read before looking at the in-flight frames, a frame is in flight before the reader passes it
+    long read = readOffset;
+    Long firstInFlight = inFlight.ceiling(Long.MIN_VALUE);
+    long newCheckpoint = firstInFlight == null ? read : Math.min(firstInFlight, read);
+    if (newCheckpoint <= checkpoint) {
+      return;
+    }
+    checkpoint = newCheckpoint;
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+      buffer.putLong(newCheckpoint).flip();
+      checkpointChannel.write(buffer, 0L);
+    } catch (IOException e) {
+      LOGGER.error("write mocker spool checkpoint failed", e);
+    }
+    Map.Entry<Long, Segment> first;
+    while ((first = segments.firstEntry()) != null) {
+      Segment segment = first.getValue();
+      Long next = segments.higherKey(segment.baseOffset);
+      if (segment == activeSegment || next == null || next > newCheckpoint) {
+        break;
+      }
+      segments.remove(segment.baseOffset);
+      segment.delete();
+    }
+  }
+
+  private Segment roll(Segment segment) throws IOException {
+    Segment next = openSegment(segment.path.getParent(), segment.endOffset);
+    if (fsync) {
+      segment.channel.force(false);
+    }
+    return next;
+  }
+
+  private void reopenAfterFailure(Segment segment) {
+    try {
+      openSegment(segment.path.getParent(),
+          segment.baseOffset + Math.max(segment.channel.size(), segment.endOffset
+              - segment.baseOffset));
+    } catch (IOException e) {
+      LOGGER.error("reopen mocker spool segment failed, spool stopped", e);
+      running = false;
+    }
+  }
+
+  private Segment openSegment(Path dir, long baseOffset) throws IOException {
+    Path path = dir.resolve(segmentName(baseOffset));
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Segment segment = new Segment(baseOffset, path, channel);
+    segment.endOffset = baseOffset;
+    segments.put(baseOffset, segment);
+    activeSegment = segment;
+    return segment;
+  }
+
+  private void recordDepth() {
+    if (CollectionUtils.isEmpty(metricListeners)) {
+      return;
+    }
+    int count = (int) Math.min(Integer.MAX_VALUE, pendingCount.get());
+    int bytes = (int) Math.min(Integer.MAX_VALUE, getPendingBytes());
+    for (MetricListener metricListener : metricListeners) {
+      metricListener.recordSize(PENDING_COUNT_METRIC, Collections.emptyMap(), count);
+      metricListener.recordSize(PENDING_BYTES_METRIC, Collections.emptyMap(), bytes);
+    }
+  }
+
+  private void closeAll() {
+    for (Segment segment : segments.values()) {
+      segment.close();
+    }
+    segments.clear();
+    if (checkpointChannel != null) {
+      try {
+        checkpointChannel.close();
+      } catch (IOException e) {
+        LOGGER.warn("close mocker spool checkpoint failed", e);
+      }
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    long current = position;
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, current);
+      if (read < 0) {
+        throw new IOException("unexpected end of mocker spool segment");
+      }
+      current += read;
+    }
+  }
+
+  private static String segmentName(long baseOffset) {
+    return SEGMENT_PREFIX + String.format("%020d", baseOffset) + SEGMENT_SUFFIX;
+  }
+
+  private static long parseBaseOffset(String fileName) {
+    return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+        fileName.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static final class SpooledFrame {
+
+    private final long offset;
+    private final byte[] payload;
+    private final int crc;
+    private final String recordId;
+
+    private SpooledFrame(long offset, byte[] payload, int crc, String recordId) {
+      this.offset = offset;
+      this.payload = payload;
+      this.crc = crc;
+      this.recordId = recordId;
+    }
+  }
+
+  private static final class Segment {
+
+    private final long baseOffset;
+    private final Path path;
+    private final FileChannel channel;
+    // the offset after the last complete frame
+    private volatile long endOffset;
+
+    private Segment(long baseOffset, Path path, FileChannel channel) {
+      this.baseOffset = baseOffset;
+      this.path = path;
+      this.channel = channel;
+    }
+
+    private void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOGGER.warn("close mocker spool segment failed, path:{}", path, e);
+      }
+    }
+
+    private void delete() {
+      close();
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        LOGGER.warn("delete mocker spool segment failed, path:{}", path, e);
+      }
+    }
+  }
+}
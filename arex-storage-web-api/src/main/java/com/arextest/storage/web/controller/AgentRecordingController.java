@@ -4,6 +4,7 @@ import static com.arextest.model.constants.HeaderNames.AREX_AGENT_VERSION;
 import static com.arextest.model.constants.HeaderNames.AREX_MOCK_STRATEGY_CODE;
 
 import com.arextest.common.cache.CacheProvider;
+import com.arextest.common.config.DefaultApplicationConfig;
 import com.arextest.model.constants.MockAttributeNames;
 import com.arextest.model.mock.AREXMocker;
 import com.arextest.model.mock.AREXQueryMocker;
@@ -22,9 +23,14 @@ import com.arextest.storage.model.InvalidIncompleteRecordRequest;
 import com.arextest.storage.serialization.ZstdJacksonSerializer;
 import com.arextest.storage.service.AgentWorkingService;
 import com.arextest.storage.service.InvalidRecordService;
+import com.arextest.storage.service.ingest.AppIngestScheduler;
+import com.arextest.storage.service.spool.MockerSpool;
 import com.arextest.storage.service.handler.mocker.AgentWorkingHandler;
 import com.arextest.storage.trace.MDCTracer;
 import com.fasterxml.jackson.core.type.TypeReference;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
@@ -32,11 +38,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -45,6 +61,7 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  * This class defined all api list for agent recording
@@ -75,20 +92,53 @@ public class AgentRecordingController {
   private Executor customForkJoinExecutor;
   @Resource
   private Executor batchSaveExecutor;
+  @Resource
+  private Executor agentIoExecutor;
+  @Resource
+  private ScheduledExecutorService agentDeadlineScheduler;
+  @Resource
+  private DefaultApplicationConfig defaultApplicationConfig;
+  @Resource
+  private MockerSpool mockerSpool;
+  @Resource
+  private AppIngestScheduler appIngestScheduler;
   private static final long TEN_MINUTES = 10 * 60L;
+  private static final int MAX_BATCH_QUERY_SIZE = 200;
+  /**
+   * the frames of a batch query without results, a count of 0
+   */
+  private static final byte[] EMPTY_FRAMES = new byte[Integer.BYTES];
+  private static final String QUERY_TIMEOUT_MILLIS = "agent.query.timeout.millis";
+  private static final String SAVE_TIMEOUT_MILLIS = "agent.save.timeout.millis";
+  private static final long DEFAULT_TIMEOUT_MILLIS = 10_000L;
+  private static final String HANDLING_GRACE_MILLIS = "agent.handling.grace.millis";
+  private static final long DEFAULT_HANDLING_GRACE_MILLIS = 20_000L;
+  private static final int HANDLING_QUEUED = 0;
+  private static final int HANDLING_STARTED = 1;
+  private static final int HANDLING_SKIPPED = 2;
+
+  @PostConstruct
+  public void startMockerSpool() {
+    mockerSpool.start(this::saveSpooledMocker);
+  }
 
   /**
    * from agent query,means to save the request and try to find a record item as mock result for
    * return.
    *
    * @param requestType the content of request,
-   * @return the bytes compress with zstd
+   * @return the bytes compress with zstd, empty bytes past the query deadline
    */
   @PostMapping(value = "/query")
   @ResponseBody
-  public byte[] query(@RequestBody AREXMocker requestType,
+  public DeferredResult<byte[]> query(@RequestBody AREXMocker requestType,
       @RequestHeader(name = AREX_MOCK_STRATEGY_CODE,
           defaultValue = "0") int strategyCode) {
+    return supplyAsync(() -> queryInternal(requestType, strategyCode), QUERY_TIMEOUT_MILLIS,
+        () -> ZstdJacksonSerializer.EMPTY_INSTANCE);
+  }
+
+  private byte[] queryInternal(AREXMocker requestType, int strategyCode) {
     try {
       MockCategoryType category = requestType.getCategoryType();
       if (category == null) {
@@ -119,6 +169,78 @@ public class AgentRecordingController {
     return ZstdJacksonSerializer.EMPTY_INSTANCE;
   }
 
+  /**
+   * from agent query with the pending dependencies of one replay, means the same as a query of
+   * each of them in their order.
+   * <p>
+   * The results are positional: a big endian int count, then for each dependency a big endian int
+   * length followed by its bytes compressed with zstd, the length of an empty result is the one of
+   * the empty instance.
+   *
+   * @param requestTypes the dependencies of one replay id, in the order of their invocations
+   * @return the results in frames, a count of 0 if the batch is invalid, failed or past the query
+   * deadline
+   */
+  @PostMapping(value = "/batchQuery")
+  @ResponseBody
+  public DeferredResult<byte[]> batchQuery(@RequestBody List<AREXMocker> requestTypes,
+      @RequestHeader(name = AREX_MOCK_STRATEGY_CODE,
+          defaultValue = "0") int strategyCode) {
+    return supplyAsync(() -> batchQueryInternal(requestTypes, strategyCode), QUERY_TIMEOUT_MILLIS,
+        () -> EMPTY_FRAMES);
+  }
+
+  private byte[] batchQueryInternal(List<AREXMocker> requestTypes, int strategyCode) {
+    if (CollectionUtils.isEmpty(requestTypes)) {
+      LOGGER.warn("agent batch query request body is empty");
+      return EMPTY_FRAMES;
+    }
+    if (requestTypes.size() > MAX_BATCH_QUERY_SIZE) {
+      LOGGER.warn("agent batch query size:{} over {}", requestTypes.size(), MAX_BATCH_QUERY_SIZE);
+      return EMPTY_FRAMES;
+    }
+    AREXMocker first = requestTypes.get(0);
+    for (AREXMocker requestType : requestTypes) {
+      if (requestType == null || StringUtils.isEmpty(requestType.getRecordId())) {
+        LOGGER.warn("agent batch query recordId empty");
+        return EMPTY_FRAMES;
+      }
+      if (StringUtils.isEmpty(requestType.getReplayId())
+          || !requestType.getReplayId().equals(first.getReplayId())) {
+        LOGGER.warn("agent batch query replayId empty or mixed, recordId:{}",
+            requestType.getRecordId());
+        return EMPTY_FRAMES;
+      }
+    }
+    try {
+      MDCTracer.addTrace(first);
+      List<byte[]> results = agentWorkingMetricService.batchQueryMockResult(requestTypes,
+          MockResultMatchStrategy.of(strategyCode));
+      return toFrames(results);
+    } catch (Throwable throwable) {
+      LOGGER.error("batch query error:{}, recordId:{}", throwable.getMessage(),
+          first.getRecordId(), throwable);
+    } finally {
+      MDCTracer.clear();
+    }
+    return EMPTY_FRAMES;
+  }
+
+  private static byte[] toFrames(List<byte[]> results) throws IOException {
+    int size = Integer.BYTES;
+    for (byte[] result : results) {
+      size += Integer.BYTES + result.length;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(results.size());
+    for (byte[] result : results) {
+      out.writeInt(result.length);
+      out.write(result);
+    }
+    return bytes.toByteArray();
+  }
+
   @PostMapping(value = "/queryMockers")
   @ResponseBody
   @Deprecated
@@ -144,11 +266,41 @@ public class AgentRecordingController {
    * from agent recording, save the content for replay
    *
    * @param requestType the record content of request
-   * @return response for save result
+   * @return response for save result, service unavailable past the save deadline
    */
   @PostMapping(value = "/save")
   @ResponseBody
-  public Response save(@RequestBody AREXMocker requestType) {
+  public DeferredResult<ResponseEntity<Response>> save(@RequestBody AREXMocker requestType) {
+    return supplyAsync(() -> saveInternal(requestType), SAVE_TIMEOUT_MILLIS,
+        () -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .body(ResponseUtils.exceptionResponse("save timeout")));
+  }
+
+  private ResponseEntity<Response> saveInternal(AREXMocker requestType) {
+    MockCategoryType category = requestType.getCategoryType();
+    if (category == null || StringUtils.isEmpty(category.getName())) {
+      return ResponseEntity.ok(saveMocker(requestType));
+    }
+    String appId = requestType.getAppId();
+    if (!appIngestScheduler.tryAcquireRate(appId, 1)) {
+      return tooManyRequestsResponse();
+    }
+    // accepted by the spool and saved by its drain threads
+    if (mockerSpool.append(Collections.singletonList(requestType))) {
+      return ResponseEntity.ok(ResponseUtils.successResponse(true));
+    }
+    if (!appIngestScheduler.tryAcquire(appId)) {
+      return tooManyRequestsResponse();
+    }
+    long startTime = System.currentTimeMillis();
+    try {
+      return ResponseEntity.ok(saveMocker(requestType));
+    } finally {
+      appIngestScheduler.release(appId, System.currentTimeMillis() - startTime, false);
+    }
+  }
+
+  private Response saveMocker(AREXMocker requestType) {
     MockCategoryType category = requestType.getCategoryType();
     if (category == null || StringUtils.isEmpty(category.getName())) {
       LOGGER.warn("The name of category is empty from agent record save not allowed ,request:{}",
@@ -176,36 +328,140 @@ public class AgentRecordingController {
     }
   }
 
+  /**
+   * Save a mocker drained from the spool, a failed save is retried by the spool, so the record is
+   * not invalidated by it. An invalid mocker is dropped.
+   *
+   * @return false if the save failed
+   */
+  private boolean saveSpooledMocker(AREXMocker mocker) {
+    MockCategoryType category = mocker.getCategoryType();
+    if (category == null || StringUtils.isEmpty(category.getName())) {
+      LOGGER.warn("The name of category is empty from spooled mocker, dropped, recordId:{}",
+          mocker.getRecordId());
+      return true;
+    }
+    try {
+      MDCTracer.addTrace(mocker);
+      if (invalidRecordService.isInvalidCase(mocker.getRecordId())) {
+        LOGGER.warn("recordId: {} is invalid, spooled mocker dropped", mocker.getRecordId());
+        return true;
+      }
+      return agentWorkingMetricService.saveSpooledRecord(mocker);
+    } catch (Exception e) {
+      LOGGER.error("save spooled record error: {} from category: {}, recordId: {}",
+          e.getMessage(), category, mocker.getRecordId(), e);
+      return false;
+    } finally {
+      MDCTracer.clear();
+    }
+  }
+
   @PostMapping(value = "/batchSaveMockers")
   @ResponseBody
-  public Response batchSaveMockers(@RequestBody List<AREXMocker> mockers) {
+  public ResponseEntity<Response> batchSaveMockers(@RequestBody List<AREXMocker> mockers) {
     if (CollectionUtils.isEmpty(mockers)) {
-      return ResponseUtils.parameterInvalidResponse("request body is empty");
+      return ResponseEntity.ok(ResponseUtils.parameterInvalidResponse("request body is empty"));
     }
 
     try {
       if (invalidRecordService.isInvalidCase(mockers.get(0).getRecordId())) {
         LOGGER.warn("recordId: {} is invalid", mockers.get(0).getRecordId());
-        return ResponseUtils.parameterInvalidResponse("invalid mocker");
+        return ResponseEntity.ok(ResponseUtils.parameterInvalidResponse("invalid mocker"));
       }
 
+      if (!appIngestScheduler.tryAcquireRate(mockers.get(0).getAppId(), mockers.size())) {
+        return tooManyRequestsResponse();
+      }
       // Return the results directly to the agent, asynchronous processing process
-      CompletableFuture.runAsync(() -> {
-        for (AREXMocker mocker : mockers) {
-          this.save(mocker);
-        }
-      }, batchSaveExecutor);
+      if (!mockerSpool.append(mockers) && !submitBatchSave(mockers)) {
+        return tooManyRequestsResponse();
+      }
     } catch (Exception e) {
       LOGGER.error("batch save record error: {}, {}", mockers.get(0).getRecordId(), e.getMessage(), e);
       handleSaveMockerError(mockers.get(0));
-      return ResponseUtils.exceptionResponse(e.getMessage());
+      return ResponseEntity.ok(ResponseUtils.exceptionResponse(e.getMessage()));
+    }
+    return ResponseEntity.ok(ResponseUtils.successResponse(true));
+  }
+
+  /**
+   * @return false if the batch is shed by the concurrency limit or rejected by the executor
+   */
+  private boolean submitBatchSave(List<AREXMocker> mockers) {
+    String appId = mockers.get(0).getAppId();
+    if (!appIngestScheduler.tryAcquire(appId)) {
+      return false;
+    }
+    try {
+      CompletableFuture.runAsync(() -> {
+        long startTime = System.currentTimeMillis();
+        try {
+          for (AREXMocker mocker : mockers) {
+            this.saveMocker(mocker);
+          }
+        } finally {
+          appIngestScheduler.release(appId,
+              (System.currentTimeMillis() - startTime) / mockers.size(), false);
+        }
+      }, batchSaveExecutor);
+      return true;
+    } catch (RejectedExecutionException e) {
+      LOGGER.warn("batch save rejected by executor, recordId: {}", mockers.get(0).getRecordId());
+      appIngestScheduler.release(appId, 0L, true);
+      return false;
     }
-    return ResponseUtils.successResponse(true);
+  }
+
+  /**
+   * Run the handling on the agent io executor, the request thread is released while it waits on
+   * the storage. A handling still queued at its deadline is skipped and the request is answered by
+   * the timeout result. A handling already started has its effects, the request is answered by its
+   * result once it completes, unless it overruns the deadline by agent.handling.grace.millis, then
+   * by the timeout result as well.
+   */
+  private <T> DeferredResult<T> supplyAsync(Supplier<T> handling, String timeoutConfig,
+      Supplier<T> timeoutResult) {
+    long timeoutMillis = defaultApplicationConfig.getConfigAsLong(timeoutConfig,
+        DEFAULT_TIMEOUT_MILLIS);
+    long graceMillis = defaultApplicationConfig.getConfigAsLong(HANDLING_GRACE_MILLIS,
+        DEFAULT_HANDLING_GRACE_MILLIS);
+    DeferredResult<T> result = new DeferredResult<>(timeoutMillis + graceMillis, timeoutResult);
+    AtomicInteger state = new AtomicInteger(HANDLING_QUEUED);
+    ScheduledFuture<?> deadline = agentDeadlineScheduler.schedule(() -> {
+      if (state.compareAndSet(HANDLING_QUEUED, HANDLING_SKIPPED)) {
+        result.setResult(timeoutResult.get());
+      }
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+    agentIoExecutor.execute(() -> {
+      if (!state.compareAndSet(HANDLING_QUEUED, HANDLING_STARTED)) {
+        return;
+      }
+      deadline.cancel(false);
+      try {
+        result.setResult(handling.get());
+      } catch (Throwable throwable) {
+        result.setErrorResult(throwable);
+      }
+    });
+    return result;
+  }
+
+  private ResponseEntity<Response> tooManyRequestsResponse() {
+    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER,
+            String.valueOf(appIngestScheduler.getRetryAfterSeconds()))
+        .body(ResponseUtils.tooManyRequestsResponse());
   }
 
   @PostMapping(value = "/batchQueryMockers")
   @ResponseBody
-  public byte[] batchQueryMockers(@RequestBody QueryMockRequestType requestType) {
+  public DeferredResult<byte[]> batchQueryMockers(@RequestBody QueryMockRequestType requestType) {
+    return supplyAsync(() -> batchQueryMockersInternal(requestType), QUERY_TIMEOUT_MILLIS,
+        () -> ZstdJacksonSerializer.EMPTY_INSTANCE);
+  }
+
+  private byte[] batchQueryMockersInternal(QueryMockRequestType requestType) {
     if (requestType == null || StringUtils.isEmpty(requestType.getRecordId())) {
       LOGGER.warn("agent batch query recordId empty");
       return ZstdJacksonSerializer.EMPTY_INSTANCE;
@@ -240,7 +496,7 @@ public class AgentRecordingController {
   @ResponseBody
   public Response saveTest(
       @RequestParam(required = false, defaultValue = "Servlet") String category) {
-    return save(arexMocker(MockCategoryType.create(category)));
+    return saveInternal(arexMocker(MockCategoryType.create(category))).getBody();
   }
 
   @PostMapping(value = {"/invalidCase", "/invalidIncompleteRecord"}, produces = {
@@ -293,7 +549,7 @@ public class AgentRecordingController {
   Mocker queryTest(@RequestBody AREXMocker body, @RequestHeader(name = AREX_MOCK_STRATEGY_CODE,
       defaultValue = "0") int strategyCode) {
     try {
-      byte[] bytes = this.query(body, strategyCode);
+      byte[] bytes = this.queryInternal(body, strategyCode);
       return zstdJacksonSerializer.deserialize(bytes, AREXMocker.class);
     } catch (Throwable throwable) {
       LOGGER.error("queryTest error:{} ", throwable.getMessage(), throwable);
@@ -320,7 +576,7 @@ public class AgentRecordingController {
   public @ResponseBody
   List<AREXQueryMocker> batchQueryMockersTest(@RequestBody QueryMockRequestType requestType) {
     try {
-      byte[] bytes = this.batchQueryMockers(requestType);
+      byte[] bytes = this.batchQueryMockersInternal(requestType);
       return zstdJacksonSerializer.deserialize(bytes,
           new TypeReference<List<AREXQueryMocker>>() {
           });
@@ -16,6 +16,7 @@ final class ResponseUtils {
   private static final String REQUESTED_REPLAY_RESULT_ID_EMPTY = "The replayResultId of requested is empty";
   private static final String REQUESTED_TYPE_INVALID = "The requested type is invalid";
   private static final String SUCCESS = "success";
+  private static final String TOO_MANY_REQUESTS = "too many requests, retry later";
 
   private ResponseUtils() {
 
@@ -63,6 +64,10 @@ final class ResponseUtils {
         ResponseCode.REQUESTED_RESOURCE_NOT_FOUND);
   }
 
+  static Response tooManyRequestsResponse() {
+    return errorResponse(TOO_MANY_REQUESTS, ResponseCode.REQUESTED_TOO_MANY);
+  }
+
   static Response parameterInvalidResponse(String remark) {
     return errorResponse(remark, ResponseCode.REQUESTED_PARAMETER_INVALID);
   }
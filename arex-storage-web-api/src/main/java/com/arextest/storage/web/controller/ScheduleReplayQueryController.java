@@ -8,6 +8,7 @@ import com.arextest.model.mock.AREXMocker;
 import com.arextest.model.replay.CompareRelationResult;
 import com.arextest.model.replay.CountOperationCaseRequestType;
 import com.arextest.model.replay.CountOperationCaseResponseType;
+import com.arextest.model.replay.ExportRecordRequestType;
 import com.arextest.model.replay.PagedRequestType;
 import com.arextest.model.replay.PagedResponseType;
 import com.arextest.model.replay.QueryCaseCountRequestType;
@@ -20,19 +21,29 @@ import com.arextest.model.replay.ViewRecordRequestType;
 import com.arextest.model.replay.ViewRecordResponseType;
 import com.arextest.model.replay.dto.ViewRecordDTO;
 import com.arextest.model.response.Response;
+import com.arextest.model.response.ResponseStatusType;
 import com.arextest.storage.cache.CacheKeyUtils;
 import com.arextest.storage.mock.MockerPostProcessor;
+import com.arextest.storage.model.BatchCacheLoadRequest;
 import com.arextest.storage.model.Constants;
 import com.arextest.storage.repository.ProviderNames;
+import com.arextest.storage.service.CachePreloadService;
 import com.arextest.storage.service.InvalidRecordService;
 import com.arextest.storage.service.PrepareMockResultService;
+import com.arextest.storage.service.RecordExportService;
 import com.arextest.storage.service.ScheduleReplayingService;
 import com.arextest.storage.service.handler.mocker.AgentWorkingHandler;
 import com.arextest.storage.trace.MDCTracer;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
 import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -57,12 +68,17 @@ import org.apache.maven.artifact.versioning.ComparableVersion;
 @AllArgsConstructor
 public class ScheduleReplayQueryController {
 
+  private static final String EXPORT_FORMAT_ZSTD = "zstd";
+  private static final String EXPORT_NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
   private final ScheduleReplayingService scheduleReplayingService;
   private final PrepareMockResultService prepareMockResultService;
   private final InvalidRecordService invalidRecordService;
   private final AgentWorkingHandler<CompareRelationResult> handleReplayResultService;
   private final CacheProvider redisCacheProvider;
   private final DefaultApplicationConfig applicationDefaultConfig;
+  private final CachePreloadService cachePreloadService;
+  private final RecordExportService recordExportService;
 
   /**
    * fetch the replay result for compare
@@ -141,6 +157,45 @@ public class ScheduleReplayQueryController {
     }
   }
 
+  /**
+   * stream the entry points of a range, with their dependencies if requested, from one cursor
+   *
+   * @param requestType range query, the page size limits the whole export if positive
+   * @param format      "zstd" for length prefixed zstd frames of json arrays, otherwise newline
+   *                    delimited json
+   */
+  @PostMapping(value = "/exportRecords", produces = {EXPORT_NDJSON_MEDIA_TYPE,
+      MediaType.APPLICATION_OCTET_STREAM_VALUE, MediaType.APPLICATION_JSON_VALUE})
+  public void exportRecords(@RequestBody ExportRecordRequestType requestType,
+      @RequestParam(required = false) String format, HttpServletResponse response)
+      throws IOException {
+    Response validateResult = rangeParameterValidate(requestType);
+    if (validateResult == null && requestType.getCategory() == null) {
+      validateResult = ResponseUtils.parameterInvalidResponse("The category of requested is empty");
+    }
+    if (validateResult != null) {
+      response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+      recordExportService.writeResponse(validateResult, response.getOutputStream());
+      return;
+    }
+
+    boolean zstdFramed = EXPORT_FORMAT_ZSTD.equalsIgnoreCase(format);
+    response.setContentType(zstdFramed ? MediaType.APPLICATION_OCTET_STREAM_VALUE
+        : EXPORT_NDJSON_MEDIA_TYPE);
+    long beginTime = System.currentTimeMillis();
+    OutputStream out = response.getOutputStream();
+    try {
+      long count = recordExportService.export(requestType, zstdFramed, out);
+      LOGGER.info("exportRecords timeUsed:{} ms, entry points:{}, request:{}",
+          System.currentTimeMillis() - beginTime, count, requestType);
+    } catch (IOException exception) {
+      LOGGER.warn("exportRecords aborted:{}, request:{}", exception.getMessage(), requestType);
+    } catch (RuntimeException exception) {
+      LOGGER.error("exportRecords error:{}, request:{}", exception.getMessage(), requestType,
+          exception);
+    }
+  }
+
   private Response rangeParameterValidate(PagedRequestType requestType) {
     if (requestType == null) {
       return ResponseUtils.requestBodyEmptyResponse();
@@ -315,8 +370,7 @@ public class ScheduleReplayQueryController {
         return ResponseUtils.successResponse(new QueryMockCacheResponseType());
       } else {
         LOGGER.info("preload cache for recordId:{}, agentVersion:{}", recordId, agentVersion);
-        return toResponse(
-            prepareMockResultService.preloadAll(requestType.getSourceProvider(), recordId));
+        return toResponse(cachePreloadService.preload(requestType.getSourceProvider(), recordId));
       }
     } catch (Throwable throwable) {
       LOGGER.error("QueryMockCache error:{},request:{}", throwable.getMessage(), requestType);
@@ -328,6 +382,55 @@ public class ScheduleReplayQueryController {
     }
   }
 
+  /**
+   * preload the cache of many records in parallel, and prefetch the next ones in the background
+   *
+   * @param requestType the records to load, and the records expected next
+   * @return the records loaded and the records not found
+   */
+  @PostMapping(value = "/batchCacheLoad")
+  @ResponseBody
+  public Response batchCacheLoad(@RequestBody BatchCacheLoadRequest requestType,
+      @RequestHeader(name = AREX_AGENT_VERSION, required = false) String agentVersion) {
+    if (requestType == null) {
+      return ResponseUtils.requestBodyEmptyResponse();
+    }
+    if (CollectionUtils.isEmpty(requestType.getRecordIds())
+        && CollectionUtils.isEmpty(requestType.getPrefetchRecordIds())) {
+      return ResponseUtils.emptyRecordIdResponse();
+    }
+    if (StringUtils.isEmpty(requestType.getSourceProvider())) {
+      requestType.setSourceProvider(ProviderNames.DEFAULT);
+    }
+
+    long beginTime = System.currentTimeMillis();
+    BatchCacheLoadResponseType responseType = new BatchCacheLoadResponseType();
+    try {
+      if (compareVersion(agentVersion)) {
+        LOGGER.info("skip batch preload cache, agentVersion:{}", agentVersion);
+        return ResponseUtils.successResponse(responseType);
+      }
+      String sourceProvider = requestType.getSourceProvider();
+      if (CollectionUtils.isNotEmpty(requestType.getRecordIds())) {
+        for (Map.Entry<String, Boolean> entry : cachePreloadService.preloadAll(sourceProvider,
+            requestType.getRecordIds()).entrySet()) {
+          (entry.getValue() ? responseType.getLoadedRecordIds()
+              : responseType.getNotFoundRecordIds()).add(entry.getKey());
+        }
+      }
+      responseType.setPrefetching(
+          cachePreloadService.prefetch(sourceProvider, requestType.getPrefetchRecordIds()));
+      return ResponseUtils.successResponse(responseType);
+    } catch (Throwable throwable) {
+      LOGGER.error("batchCacheLoad error:{},request:{}", throwable.getMessage(), requestType);
+      return ResponseUtils.exceptionResponse(throwable.getMessage());
+    } finally {
+      LOGGER.info("batchCacheLoad timeUsed:{} ms,loaded:{},not found:{},prefetching:{}",
+          System.currentTimeMillis() - beginTime, responseType.getLoadedRecordIds().size(),
+          responseType.getNotFoundRecordIds().size(), responseType.getPrefetching());
+    }
+  }
+
   /**
    * initiative clean the cache
    *
@@ -346,6 +449,8 @@ public class ScheduleReplayQueryController {
     }
     MDCTracer.addRecordId(recordId);
     try {
+      cachePreloadService.forget(StringUtils.defaultIfEmpty(requestType.getSourceProvider(),
+          ProviderNames.DEFAULT), recordId);
       return toResponse(prepareMockResultService.removeAllRecordCache(recordId, requestType.getSourceProvider()));
     } catch (Throwable throwable) {
       LOGGER.error("QueryMockCache error:{},request:{}", throwable.getMessage(), requestType);
@@ -380,4 +485,17 @@ public class ScheduleReplayQueryController {
         ResponseUtils.successResponse(new QueryMockCacheResponseType()) :
         ResponseUtils.resourceNotFoundResponse();
   }
+
+  @Getter
+  @Setter
+  protected static class BatchCacheLoadResponseType implements Response {
+
+    private ResponseStatusType responseStatusType;
+    private List<String> loadedRecordIds = new ArrayList<>();
+    private List<String> notFoundRecordIds = new ArrayList<>();
+    /**
+     * the count of the prefetched records still being preloaded
+     */
+    private int prefetching;
+  }
 }
@@ -0,0 +1,77 @@
+package com.arextest.storage.beans;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.beans.MockerIndexManager.IndexTask;
+import com.arextest.storage.repository.ProviderNames;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+class MockerIndexManagerTest {
+
+  private static final String MONGODB_URI = "arex.test.mongodb.uri";
+
+  @Test
+  void sameKeys() {
+    Document keys = new Document("appId", 1).append("creationTime", 1);
+    assertTrue(MockerIndexManager.sameKeys(
+        new Document("appId", 1.0).append("creationTime", 1L), keys));
+    assertFalse(MockerIndexManager.sameKeys(
+        new Document("creationTime", 1).append("appId", 1), keys));
+    assertFalse(MockerIndexManager.sameKeys(
+        new Document("appId", 1).append("creationTime", -1), keys));
+    assertFalse(MockerIndexManager.sameKeys(new Document("appId", 1), keys));
+  }
+
+  @Test
+  void hasStage() {
+    Document plan = new Document("stage", "FETCH")
+        .append("inputStage", new Document("stage", "IXSCAN"))
+        .append("rejectedPlans", Collections.singletonList(new Document("stage", "COLLSCAN")));
+    assertFalse(MockerIndexManager.hasStage(plan, "COLLSCAN"));
+    Document sharded = new Document("stage", "SHARD_MERGE").append("shards",
+        Arrays.asList(new Document("winningPlan", new Document("stage", "COLLSCAN"))));
+    assertTrue(MockerIndexManager.hasStage(sharded, "COLLSCAN"));
+  }
+
+  /**
+   * explains the built-in query shapes against a local mongo, e.g.
+   * -Darex.test.mongodb.uri=mongodb://localhost:27017
+   */
+  @Test
+  @EnabledIfSystemProperty(named = MONGODB_URI, matches = ".+")
+  void noCollectionScanOnceIndexed() {
+    MockerIndexManager manager = new MockerIndexManager(null, Collections.emptyList());
+    try (MongoClient client = MongoClients.create(System.getProperty(MONGODB_URI))) {
+      MongoDatabase database = client.getDatabase("arex_index_test_" + System.currentTimeMillis());
+      try {
+        for (MockCategoryType category : MockCategoryType.DEFAULTS) {
+          database.getCollection(ProviderNames.DEFAULT + category.getName() + "Mocker")
+              .insertOne(new Document("recordId", "r").append("appId", "a")
+                  .append("operationName", "o").append("creationTime", new Date()));
+        }
+        assertFalse(manager.findCollectionScans(database).isEmpty());
+
+        List<IndexTask> tasks = manager.missingIndexes(database);
+        for (IndexTask task : tasks) {
+          manager.createIndex(database, task);
+        }
+        assertEquals(Collections.emptyList(), manager.missingIndexes(database));
+        assertEquals(Collections.emptyList(), manager.findCollectionScans(database));
+      } finally {
+        database.drop();
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.arextest.storage.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.model.MockResultType;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class CacheKeyUtilsTest {
+
+  private static final String RECORD_ID = "record-1";
+  private static final byte[] RECORD_ID_BYTES = CacheKeyUtils.toUtf8Bytes(RECORD_ID);
+  private static final byte[] REPLAY_ID_BYTES = CacheKeyUtils.toUtf8Bytes("replay-1");
+  private static final byte[] MOCK_KEY = CacheKeyUtils.toUtf8Bytes("mock-key");
+  private static final MockCategoryType CATEGORY = MockCategoryType.HTTP_CLIENT;
+
+  @AfterEach
+  void tearDown() {
+    CacheKeyUtils.setRecordHashTagEnabled(false);
+  }
+
+  @Test
+  void keepPlainLayoutByDefault() {
+    assertArrayEquals(CacheKeyUtils.toUtf8Bytes(RECORD_ID + CATEGORY.getName()
+            + MockResultType.RECORD_RESULT.getCodeValue()),
+        CacheKeyUtils.buildRecordKey(CATEGORY, RECORD_ID));
+    assertArrayEquals(CacheKeyUtils.toUtf8Bytes("operation" + RECORD_ID + CATEGORY.getName()
+            + MockResultType.RECORD_WITH_OPERATION.getCodeValue()),
+        CacheKeyUtils.buildRecordOperationKey(CATEGORY, RECORD_ID,
+            CacheKeyUtils.toUtf8Bytes("operation")));
+    byte[] instanceId = CacheKeyUtils.toUtf8Bytes("instance-1");
+    assertArrayEquals(CacheKeyUtils.merge(instanceId, 1),
+        CacheKeyUtils.buildInstanceMockKey(RECORD_ID_BYTES, instanceId, 1));
+  }
+
+  @Test
+  void hashAllRecordKeysToOneSlot() {
+    CacheKeyUtils.setRecordHashTagEnabled(true);
+    List<byte[]> keys = Arrays.asList(
+        CacheKeyUtils.buildRecordKey(CATEGORY, RECORD_ID),
+        CacheKeyUtils.buildRecordKey(CATEGORY, RECORD_ID_BYTES, MOCK_KEY),
+        CacheKeyUtils.buildRecordBundleKey(CATEGORY, RECORD_ID),
+        CacheKeyUtils.buildRecordBundleGenerationKey(CATEGORY, RECORD_ID),
+        CacheKeyUtils.buildRecordOperationKey(CATEGORY, RECORD_ID,
+            CacheKeyUtils.toUtf8Bytes("operation")),
+        CacheKeyUtils.buildConsumeKey(CATEGORY, RECORD_ID_BYTES, REPLAY_ID_BYTES, MOCK_KEY),
+        CacheKeyUtils.buildMatchedRecordInstanceIdsKey(CATEGORY, RECORD_ID_BYTES,
+            REPLAY_ID_BYTES, MOCK_KEY),
+        CacheKeyUtils.buildInstanceMockKey(RECORD_ID_BYTES,
+            CacheKeyUtils.toUtf8Bytes("instance-1"), 0));
+    for (byte[] key : keys) {
+      assertEquals(RECORD_ID, hashTag(key));
+    }
+  }
+
+  @Test
+  void tagOnlyTheRecordId() {
+    CacheKeyUtils.setRecordHashTagEnabled(true);
+    // a replay id holding braces must not move the consume key to another slot
+    byte[] key = CacheKeyUtils.buildConsumeKey(CATEGORY, RECORD_ID_BYTES,
+        CacheKeyUtils.toUtf8Bytes("{replay}"), MOCK_KEY);
+    assertEquals(RECORD_ID, hashTag(key));
+    assertTrue(CacheKeyUtils.fromUtf8Bytes(key).startsWith("{" + RECORD_ID + "}"));
+  }
+
+  /**
+   * The part of the key redis cluster hashes: the content of the first {...} if not empty.
+   */
+  private static String hashTag(byte[] key) {
+    String value = CacheKeyUtils.fromUtf8Bytes(key);
+    int start = value.indexOf('{');
+    int end = start < 0 ? -1 : value.indexOf('}', start + 1);
+    if (end <= start + 1) {
+      return value;
+    }
+    return value.substring(start + 1, end);
+  }
+}
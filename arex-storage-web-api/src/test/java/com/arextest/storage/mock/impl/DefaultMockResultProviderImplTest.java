@@ -0,0 +1,142 @@
+package com.arextest.storage.mock.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.cache.CacheProvider;
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.cache.CacheKeyUtils;
+import com.arextest.storage.mock.MatchKeyFactory;
+import com.arextest.storage.mock.MockerResultConverter;
+import com.arextest.storage.model.ByteHashKey;
+import com.arextest.storage.serialization.ZstdJacksonSerializer;
+import com.arextest.storage.service.DatabaseParseService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class DefaultMockResultProviderImplTest {
+
+  private static final String RECORD_ID = "record-1";
+  private static final MockCategoryType CATEGORY = MockCategoryType.SERVLET;
+  private static final byte[] INDEX_KEY = CacheKeyUtils.buildRecordKeyIndexKey(CATEGORY,
+      RECORD_ID);
+
+  @InjectMocks
+  private DefaultMockResultProviderImpl provider;
+  @Mock
+  private CacheProvider redisCacheProvider;
+  @Spy
+  private ZstdJacksonSerializer serializer = new ZstdJacksonSerializer(new ObjectMapper());
+  @Mock
+  private MatchKeyFactory matchKeyFactory;
+  @Mock
+  private MockerResultConverter mockerResultConverter;
+  @Mock
+  private DatabaseParseService databaseParseService;
+  @Mock
+  private RecordBundleProvider recordBundleProvider;
+  @Mock
+  private PreloadedRecordLedger preloadedRecordLedger;
+
+  /**
+   * the values held by redis
+   */
+  private final Map<ByteHashKey, byte[]> redis = new HashMap<>();
+
+  @BeforeEach
+  void setUp() {
+    when(redisCacheProvider.put(any(byte[].class), anyLong(), any(byte[].class)))
+        .thenAnswer(invocation -> {
+          redis.put(new ByteHashKey(invocation.getArgument(0)), invocation.getArgument(2));
+          return true;
+        });
+    when(redisCacheProvider.get(any(byte[].class)))
+        .thenAnswer(invocation -> redis.get(new ByteHashKey(invocation.getArgument(0))));
+    when(redisCacheProvider.remove(any(byte[].class)))
+        .thenAnswer(invocation -> redis.remove(new ByteHashKey(invocation.getArgument(0))) != null);
+    when(mockerResultConverter.convert(any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    // the ledger hands the preload lock out held
+    when(preloadedRecordLedger.lockPreload(RECORD_ID)).thenAnswer(invocation -> {
+      ReentrantLock lock = new ReentrantLock();
+      lock.lock();
+      return lock;
+    });
+  }
+
+  @Test
+  void indexKeysWrittenByPreload() {
+    when(matchKeyFactory.build(any())).thenReturn(Collections.singletonList(key("mock-key")));
+    assertTrue(provider.putRecordResult(CATEGORY, RECORD_ID,
+        Collections.singletonList(mocker())));
+
+    byte[] indexValue = redis.get(new ByteHashKey(INDEX_KEY));
+    assertNotNull(indexValue);
+    List<byte[]> indexed = serializer.deserialize(indexValue, new TypeReference<List<byte[]>>() {
+    });
+    // every key of the preload except the index itself
+    assertEquals(redis.size() - 1, indexed.size());
+    for (byte[] key : indexed) {
+      assertTrue(redis.containsKey(new ByteHashKey(key)));
+    }
+  }
+
+  @Test
+  void removeIndexedKeysWithoutMockers() {
+    byte[] first = key("sequence-1");
+    byte[] second = key("sequence-2");
+    redis.put(new ByteHashKey(first), key("value"));
+    redis.put(new ByteHashKey(second), key("value"));
+    redis.put(new ByteHashKey(INDEX_KEY), serializer.serialize(Arrays.asList(first, second)));
+
+    assertTrue(provider.removeIndexedRecordResult(CATEGORY, RECORD_ID));
+    assertTrue(redis.isEmpty());
+    verify(preloadedRecordLedger).release(CATEGORY, RECORD_ID);
+  }
+
+  @Test
+  void fallBackWithoutIndex() {
+    assertFalse(provider.removeIndexedRecordResult(CATEGORY, RECORD_ID));
+    verify(redisCacheProvider, never()).remove(any(byte[].class));
+    verify(preloadedRecordLedger, never()).release(any(), any());
+  }
+
+  private static AREXMocker mocker() {
+    AREXMocker mocker = new AREXMocker(CATEGORY);
+    mocker.setId("mocker-1");
+    mocker.setRecordId(RECORD_ID);
+    mocker.setOperationName("operation");
+    mocker.setCreationTime(1L);
+    return mocker;
+  }
+
+  private static byte[] key(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
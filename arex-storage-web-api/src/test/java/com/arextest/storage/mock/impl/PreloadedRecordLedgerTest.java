@@ -0,0 +1,100 @@
+package com.arextest.storage.mock.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.cache.CacheProvider;
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.MockCategoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PreloadedRecordLedgerTest {
+
+  private static final byte[] SERVLET_KEY = key("servlet");
+  private static final byte[] FIRST_SEQUENCE_KEY = key("sequence-1");
+  private static final byte[] SECOND_SEQUENCE_KEY = key("sequence-2");
+
+  private final CacheProvider cacheProvider = mock(CacheProvider.class);
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  private final ExecutorService evictionExecutor = Executors.newSingleThreadExecutor();
+  private PreloadedRecordLedger ledger;
+
+  @BeforeEach
+  void setUp() {
+    when(config.getConfigAsLong(eq("mock.record.cache.budget.bytes"), anyLong()))
+        .thenReturn(1024L);
+    when(cacheProvider.remove(any(byte[].class))).thenReturn(true);
+    ledger = new PreloadedRecordLedger(cacheProvider, config, Collections.emptyList(), 60L,
+        evictionExecutor);
+  }
+
+  @AfterEach
+  void tearDown() {
+    evictionExecutor.shutdownNow();
+  }
+
+  @Test
+  void evictAllKeysOfRecord() {
+    PreloadedRecordLedger.Journal journal = journal(FIRST_SEQUENCE_KEY, SECOND_SEQUENCE_KEY);
+    assertEquals(2, ledger.evict("record-1",
+        Collections.singletonMap(MockCategoryType.SERVLET.getName(), journal)));
+    verify(cacheProvider).remove(FIRST_SEQUENCE_KEY);
+    verify(cacheProvider).remove(SECOND_SEQUENCE_KEY);
+  }
+
+  @Test
+  void keepKeysRewrittenByNewerPreload() {
+    PreloadedRecordLedger.Journal evicted = journal(FIRST_SEQUENCE_KEY, SECOND_SEQUENCE_KEY);
+    ledger.account(MockCategoryType.SERVLET, "record-1", journal(FIRST_SEQUENCE_KEY));
+
+    assertEquals(1, ledger.evict("record-1",
+        Collections.singletonMap(MockCategoryType.SERVLET.getName(), evicted)));
+    verify(cacheProvider, never()).remove(FIRST_SEQUENCE_KEY);
+    verify(cacheProvider).remove(SECOND_SEQUENCE_KEY);
+  }
+
+  @Test
+  void waitForPreloadOfRecord() throws Exception {
+    Lock preloadLock = ledger.lockPreload("record-1");
+    Future<Integer> eviction = evictionExecutor.submit(() -> ledger.evict("record-1",
+        Collections.singletonMap(MockCategoryType.SERVLET.getName(), journal(SERVLET_KEY))));
+    try {
+      Thread.sleep(100L);
+      assertFalse(eviction.isDone());
+      // the preload rewrites the key before the eviction gets to it
+      ledger.account(MockCategoryType.SERVLET, "record-1", journal(SERVLET_KEY));
+    } finally {
+      preloadLock.unlock();
+    }
+    assertEquals(0, eviction.get(5, TimeUnit.SECONDS));
+    verify(cacheProvider, never()).remove(SERVLET_KEY);
+  }
+
+  private static PreloadedRecordLedger.Journal journal(byte[]... keys) {
+    PreloadedRecordLedger.Journal journal = new PreloadedRecordLedger.Journal();
+    for (byte[] key : keys) {
+      journal.add(key, new byte[8]);
+    }
+    return journal;
+  }
+
+  private static byte[] key(String name) {
+    return name.getBytes(StandardCharsets.UTF_8);
+  }
+}
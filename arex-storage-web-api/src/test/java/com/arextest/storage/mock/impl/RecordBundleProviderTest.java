@@ -0,0 +1,181 @@
+package com.arextest.storage.mock.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.cache.CacheProvider;
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.cache.CacheKeyUtils;
+import com.arextest.storage.metric.MatchStrategyMetricService;
+import com.arextest.storage.mock.MockResultContext;
+import com.arextest.storage.mock.MockResultMatchStrategy;
+import com.arextest.storage.model.ByteHashKey;
+import com.arextest.storage.model.RecordBundle;
+import com.arextest.storage.serialization.ZstdJacksonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RecordBundleProviderTest {
+
+  private static final String RECORD_ID = "record-1";
+  private static final MockCategoryType CATEGORY = MockCategoryType.HTTP_CLIENT;
+  private static final byte[] FUZZY_KEY = key("fuzzy");
+
+  private final CacheProvider cacheProvider = mock(CacheProvider.class);
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  /**
+   * the values held by redis
+   */
+  private final Map<ByteHashKey, byte[]> redis = new HashMap<>();
+  private RecordBundleProvider provider;
+
+  @BeforeEach
+  void setUp() {
+    when(config.getConfigAsLong(any(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(cacheProvider.put(any(byte[].class), anyLong(), any(byte[].class)))
+        .thenAnswer(invocation -> {
+          redis.put(new ByteHashKey(invocation.getArgument(0)), invocation.getArgument(2));
+          return true;
+        });
+    when(cacheProvider.get(any(byte[].class)))
+        .thenAnswer(invocation -> redis.get(new ByteHashKey(invocation.getArgument(0))));
+    when(cacheProvider.remove(any(byte[].class)))
+        .thenAnswer(invocation -> redis.remove(new ByteHashKey(invocation.getArgument(0))) != null);
+    when(cacheProvider.incrValue(any(byte[].class))).thenAnswer(invocation -> {
+      ByteHashKey key = new ByteHashKey(invocation.getArgument(0));
+      byte[] value = redis.get(key);
+      long next = value == null ? 1L : Long.parseLong(new String(value, StandardCharsets.UTF_8)) + 1;
+      redis.put(key, String.valueOf(next).getBytes(StandardCharsets.UTF_8));
+      return next;
+    });
+    provider = new RecordBundleProvider(cacheProvider,
+        new ZstdJacksonSerializer(new ObjectMapper()), mock(MatchStrategyMetricService.class),
+        config);
+  }
+
+  @Test
+  void removeStaleBundleWhenTooLarge() {
+    assertTrue(provider.put(CATEGORY, RECORD_ID, bundle(entry("a", 1L)), journal()));
+    assertEquals(1, provider.get(CATEGORY, RECORD_ID).size());
+
+    when(config.getConfigAsLong(eq("mock.record.bundle.max.bytes"), anyLong())).thenReturn(1L);
+    assertFalse(provider.put(CATEGORY, RECORD_ID, bundle(entry("a", 1L)), journal()));
+    verify(cacheProvider).remove(CacheKeyUtils.buildRecordBundleKey(CATEGORY, RECORD_ID));
+    // the local copy of the earlier bundle is left behind by the new generation
+    assertNull(provider.get(CATEGORY, RECORD_ID));
+  }
+
+  @Test
+  void reloadBundleOfNewGeneration() {
+    assertNull(provider.get(CATEGORY, RECORD_ID));
+    provider.put(CATEGORY, RECORD_ID, bundle(entry("a", 1L)), journal());
+    assertEquals(1, provider.get(CATEGORY, RECORD_ID).size());
+
+    provider.put(CATEGORY, RECORD_ID, bundle(entry("a", 1L), entry("b", 2L)), journal());
+    assertEquals(2, provider.get(CATEGORY, RECORD_ID).size());
+
+    provider.remove(CATEGORY, RECORD_ID);
+    assertNull(provider.get(CATEGORY, RECORD_ID));
+  }
+
+  @Test
+  void rankFuzzyCandidatesByEigenAndClaimEachOnce() {
+    provider.put(CATEGORY, RECORD_ID, bundle(entry("a", 1L), entry("b", 2L)), journal());
+    RecordBundleProvider.LoadedBundle bundle = provider.get(CATEGORY, RECORD_ID);
+
+    MockResultContext context = new MockResultContext(MockResultMatchStrategy.BREAK_RECORDED_COUNT);
+    AREXMocker query = query(2L);
+    assertArrayEquals(value("b"), provider.match(bundle, query, keys(), context));
+    assertEquals("b", query.getId());
+    assertArrayEquals(value("a"), provider.match(bundle, query(2L), keys(), context));
+    assertFalse(context.isLastOfResult());
+
+    assertNull(provider.match(bundle, query(2L), keys(), context));
+    assertTrue(context.isLastOfResult());
+  }
+
+  @Test
+  void tryFindLastValueWhenExhausted() {
+    provider.put(CATEGORY, RECORD_ID, bundle(entry("a", 1L), entry("b", 2L)), journal());
+    RecordBundleProvider.LoadedBundle bundle = provider.get(CATEGORY, RECORD_ID);
+    MockResultContext context = new MockResultContext(MockResultMatchStrategy.TRY_FIND_LAST_VALUE);
+    provider.match(bundle, query(1L), keys(), context);
+    provider.match(bundle, query(1L), keys(), context);
+
+    assertArrayEquals(value("b"), provider.match(bundle, query(1L), keys(), context));
+    assertTrue(context.isLastOfResult());
+  }
+
+  @Test
+  void skipMockerClaimedByAnotherInstance() {
+    provider.put(CATEGORY, RECORD_ID, bundle(entry("a", 1L)), journal());
+    redis.put(new ByteHashKey(CacheKeyUtils.buildMatchedRecordInstanceIdsKey(CATEGORY,
+        key(RECORD_ID), key("replay-1"), key("a"))), key("1"));
+
+    MockResultContext context = new MockResultContext(MockResultMatchStrategy.BREAK_RECORDED_COUNT);
+    assertNull(provider.match(provider.get(CATEGORY, RECORD_ID), query(1L), keys(), context));
+    assertTrue(context.isLastOfResult());
+  }
+
+  private static RecordBundle bundle(RecordBundle.Entry... entries) {
+    RecordBundle bundle = new RecordBundle();
+    bundle.setEntries(Arrays.asList(entries));
+    return bundle;
+  }
+
+  /**
+   * a mocker only matching the query by its fuzzy key, with the eigen value telling it apart
+   */
+  private static RecordBundle.Entry entry(String id, long eigen) {
+    RecordBundle.Entry entry = new RecordBundle.Entry();
+    entry.setId(id);
+    entry.setMockKeys(Arrays.asList(key("strict-" + id), FUZZY_KEY));
+    entry.setEigenMap(Collections.singletonMap(1, eigen));
+    entry.setValue(value(id));
+    return entry;
+  }
+
+  private static AREXMocker query(long eigen) {
+    AREXMocker mocker = new AREXMocker(CATEGORY);
+    mocker.setRecordId(RECORD_ID);
+    mocker.setReplayId("replay-1");
+    mocker.setOperationName("operation");
+    mocker.setEigenMap(Collections.singletonMap(1, eigen));
+    return mocker;
+  }
+
+  private static List<byte[]> keys() {
+    return Arrays.asList(key("strict-query"), FUZZY_KEY);
+  }
+
+  private static PreloadedRecordLedger.Journal journal() {
+    return new PreloadedRecordLedger.Journal();
+  }
+
+  private static byte[] value(String id) {
+    return key("value-" + id);
+  }
+
+  private static byte[] key(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
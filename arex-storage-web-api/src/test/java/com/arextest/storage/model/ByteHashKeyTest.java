@@ -0,0 +1,35 @@
+package com.arextest.storage.model;
+
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.cache.CacheKeyUtils;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ByteHashKeyTest {
+
+  @Test
+  void testRecordKeysHashApart() {
+    byte[] recordIdBytes = CacheKeyUtils.toUtf8Bytes("AREX-10-118-1-12-9876543210123");
+    Set<Integer> hashes = new HashSet<>();
+    int size = 1000;
+    for (int i = 0; i < size; i++) {
+      byte[] key = CacheKeyUtils.buildRecordKey(MockCategoryType.DATABASE, recordIdBytes,
+          CacheKeyUtils.toUtf8Bytes("operation" + i));
+      hashes.add(new ByteHashKey(key).hashCode());
+    }
+    // the keys share their leading bytes, the hash must not
+    Assertions.assertTrue(hashes.size() > size * 0.99);
+  }
+
+  @Test
+  void testEquals() {
+    byte[] key = CacheKeyUtils.merge(CacheKeyUtils.toUtf8Bytes("record"), 1);
+    ByteHashKey hashKey = new ByteHashKey(key);
+    Assertions.assertEquals(hashKey, new ByteHashKey(key.clone()));
+    Assertions.assertEquals(hashKey.hashCode(), new ByteHashKey(key.clone()).hashCode());
+    Assertions.assertNotEquals(hashKey,
+        new ByteHashKey(CacheKeyUtils.merge(CacheKeyUtils.toUtf8Bytes("record"), 2)));
+  }
+}
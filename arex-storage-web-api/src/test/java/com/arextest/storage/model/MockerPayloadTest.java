@@ -0,0 +1,57 @@
+package com.arextest.storage.model;
+
+import com.arextest.model.mock.Mocker.Target;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class MockerPayloadTest {
+
+  @Test
+  void testEqualTargetsHashEqual() {
+    Target target = target("body", "java.lang.String");
+    target.setAttribute("b", 1);
+    target.setAttribute("a", "x");
+    Target same = target("body", "java.lang.String");
+    same.setAttribute("a", "x");
+    same.setAttribute("b", 1);
+    Assertions.assertEquals(MockerPayload.hash(target), MockerPayload.hash(same));
+  }
+
+  @Test
+  void testAmbiguousTargetsHashApart() {
+    Assertions.assertNotEquals(MockerPayload.hash(target(null, "t")),
+        MockerPayload.hash(target("null", "t")));
+    Assertions.assertNotEquals(MockerPayload.hash(target("ab", "c")),
+        MockerPayload.hash(target("a", "bc")));
+
+    Target number = target("body", "t");
+    number.setAttribute("key", 1);
+    Target string = target("body", "t");
+    string.setAttribute("key", "1");
+    Assertions.assertNotEquals(MockerPayload.hash(number), MockerPayload.hash(string));
+
+    // keys and values holding the separators of Map.toString
+    Target joined = target("body", "t");
+    joined.setAttribute("a", "1, b=2");
+    Target split = target("body", "t");
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("a", "1");
+    attributes.put("b", "2");
+    split.setAttributes(attributes);
+    Assertions.assertNotEquals(MockerPayload.hash(joined), MockerPayload.hash(split));
+
+    Target list = target("body", "t");
+    list.setAttribute("key", Collections.singletonList("1"));
+    Assertions.assertNotEquals(MockerPayload.hash(list), MockerPayload.hash(string));
+  }
+
+  private static Target target(String body, String type) {
+    Target target = new Target();
+    target.setBody(body);
+    target.setType(type);
+    return target;
+  }
+}
@@ -0,0 +1,127 @@
+package com.arextest.storage.repository.impl.mongo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.model.replay.PagedRequestType;
+import com.arextest.storage.beans.StorageConfigurationProperties;
+import com.arextest.storage.repository.ProviderNames;
+import com.arextest.storage.repository.RecordManifestRepository;
+import com.mongodb.client.MongoCollection;
+import java.util.Collections;
+import java.util.Date;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class AREXMockerMongoRepositoryProviderTest {
+
+  private final MongoTemplate primaryTemplate = mock(MongoTemplate.class);
+  private final MongoTemplate replayReadTemplate = mock(MongoTemplate.class);
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  private final RecordManifestRepository manifestRepository = mock(RecordManifestRepository.class);
+  private AREXMockerMongoRepositoryProvider provider;
+
+  @BeforeEach
+  void setUp() {
+    provider = new AREXMockerMongoRepositoryProvider(ProviderNames.AUTO_PINNED, primaryTemplate,
+        new StorageConfigurationProperties(), Collections.singleton(MockCategoryType.SERVLET),
+        config);
+    ReflectionTestUtils.setField(provider, "replayReadTemplate", replayReadTemplate);
+    ReflectionTestUtils.setField(provider, "recordManifestRepository", manifestRepository);
+    // the manifest switch is off by default
+    when(config.getConfigAsBoolean(anyString(), anyBoolean()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+  }
+
+  @Test
+  void readRecordFromPrimary() {
+    when(primaryTemplate.find(any(Query.class), eq(AREXMocker.class), anyString()))
+        .thenReturn(Collections.emptyList());
+    provider.queryRecordList(MockCategoryType.SERVLET, "record-1");
+
+    verify(primaryTemplate).find(any(Query.class), eq(AREXMocker.class), anyString());
+    verify(replayReadTemplate, never()).find(any(Query.class), eq(AREXMocker.class), anyString());
+  }
+
+  @Test
+  void countRangeOnReplayReadTemplate() {
+    when(replayReadTemplate.count(any(Query.class), eq(AREXMocker.class), anyString()))
+        .thenReturn(3L);
+    PagedRequestType request = new PagedRequestType();
+    request.setAppId("app");
+    request.setCategory(MockCategoryType.SERVLET);
+    request.setBeginTime(0L);
+    request.setEndTime(System.currentTimeMillis());
+
+    assertEquals(3L, provider.countByRange(request));
+    verify(primaryTemplate, never()).count(any(Query.class), eq(AREXMocker.class), anyString());
+  }
+
+  @Test
+  void readPartitionsOfRecordDayWithManifestDisabled() {
+    provider.setPartitions(new MockerPartitions(primaryTemplate, 14));
+    when(manifestRepository.queryRecordDay("record-1"))
+        .thenReturn(MockerPartitions.dayOf(System.currentTimeMillis()));
+    when(primaryTemplate.find(any(Query.class), eq(AREXMocker.class), anyString()))
+        .thenReturn(Collections.emptyList());
+    provider.queryRecordList(MockCategoryType.SERVLET, "record-1");
+
+    // the day of the record and the day before, instead of every retained partition
+    verify(primaryTemplate, times(2)).find(any(Query.class), eq(AREXMocker.class), anyString());
+  }
+
+  @Test
+  void extendNothingOfPartitionedRecord() {
+    provider.setPartitions(new MockerPartitions(primaryTemplate, 14));
+    assertEquals(0L, provider.extendExpirationTo(MockCategoryType.SERVLET, "record-1",
+        new Date()));
+    verify(primaryTemplate, never()).updateMulti(any(Query.class), any(Update.class),
+        eq(AREXMocker.class), anyString());
+  }
+
+  @Test
+  void fallBackToReadAndSaveInsideOneCollection() {
+    assertEquals(-1L, provider.copyTo(MockCategoryType.HTTP_CLIENT, "record-1", provider,
+        "record-2"));
+    verify(primaryTemplate, never()).getCollection(anyString());
+  }
+
+  @Test
+  void removePartialCopyWhenPipelineFails() {
+    AREXMockerMongoRepositoryProvider source = new AREXMockerMongoRepositoryProvider(
+        ProviderNames.DEFAULT, primaryTemplate, new StorageConfigurationProperties(),
+        Collections.singleton(MockCategoryType.SERVLET), config);
+    @SuppressWarnings("unchecked")
+    MongoCollection<Document> collection = mock(MongoCollection.class);
+    when(primaryTemplate.getCollection(anyString())).thenReturn(collection);
+    when(collection.aggregate(anyList())).thenThrow(new IllegalStateException("merge failed"));
+    doReturn(Collections.singletonList("mocker-1")).when(primaryTemplate)
+        .findDistinct(any(Query.class), eq("_id"), anyString(), eq(Object.class));
+    when(collection.countDocuments(any(Bson.class))).thenReturn(0L);
+
+    assertEquals(-1L, source.copyTo(MockCategoryType.HTTP_CLIENT, "record-1", provider,
+        "record-2"));
+    // only the copies this copy added are removed from the target
+    verify(primaryTemplate).remove(any(Query.class),
+        eq(ProviderNames.AUTO_PINNED + MockCategoryType.HTTP_CLIENT.getName() + "Mocker"));
+  }
+}
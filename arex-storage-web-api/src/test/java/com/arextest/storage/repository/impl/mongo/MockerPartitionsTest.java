@@ -0,0 +1,72 @@
+package com.arextest.storage.repository.impl.mongo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.arextest.storage.utils.TimeUtils;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class MockerPartitionsTest {
+
+  private static final String COLLECTION = "RollingHttpClientMocker";
+
+  @Test
+  void partitionDayOf() {
+    long day = LocalDate.of(2024, 1, 31).toEpochDay();
+    String partition = MockerPartitions.partitionName(COLLECTION, day);
+    assertEquals("RollingHttpClientMocker_20240131", partition);
+    assertEquals(day, MockerPartitions.partitionDayOf(partition));
+    assertNull(MockerPartitions.partitionDayOf(COLLECTION));
+    assertNull(MockerPartitions.partitionDayOf("PinnedHttpClientMocker_20240131"));
+    assertNull(MockerPartitions.partitionDayOf("RollingHttpClientMocker_2024013x"));
+  }
+
+  @Test
+  void rangePartitions() {
+    MockerPartitions partitions = new MockerPartitions(null, 14);
+    long today = MockerPartitions.dayOf(System.currentTimeMillis());
+    long beginTime = (today - 2) * TimeUtils.ONE_DAY + TimeUtils.ONE_HOUR;
+    assertEquals(Arrays.asList(MockerPartitions.partitionName(COLLECTION, today - 2),
+            MockerPartitions.partitionName(COLLECTION, today - 1)),
+        partitions.rangePartitions(COLLECTION, beginTime, (today - 1) * TimeUtils.ONE_DAY + 1));
+    // the end is exclusive
+    assertEquals(1, partitions.rangePartitions(COLLECTION, beginTime,
+        (today - 1) * TimeUtils.ONE_DAY).size());
+    // bounded by the retention and the clock
+    assertEquals(16, partitions.rangePartitions(COLLECTION, 0L, Long.MAX_VALUE).size());
+  }
+
+  @Test
+  void findRecordSpanningTwoDays() {
+    MockerPartitions partitions = new MockerPartitions(null, 14);
+    long today = MockerPartitions.dayOf(System.currentTimeMillis());
+    String todayPartition = MockerPartitions.partitionName(COLLECTION, today);
+    String yesterdayPartition = MockerPartitions.partitionName(COLLECTION, today - 1);
+    List<String> read = new ArrayList<>();
+    Function<String, List<String>> finder = partition -> {
+      read.add(partition);
+      if (partition.equals(todayPartition) || partition.equals(yesterdayPartition)) {
+        return Collections.singletonList(partition);
+      }
+      return Collections.emptyList();
+    };
+    // the day of the record not known, the retained partitions are read the newest first
+    List<String> found = partitions.findRecord(COLLECTION, null, false, finder);
+    assertEquals(Arrays.asList(yesterdayPartition, todayPartition), found);
+    assertEquals(Arrays.asList(MockerPartitions.partitionName(COLLECTION, today + 1),
+        todayPartition, yesterdayPartition), read);
+
+    // the day of the record known, only its partitions are read
+    read.clear();
+    assertEquals(found, partitions.findRecord(COLLECTION, today, false, finder));
+    assertEquals(Arrays.asList(todayPartition, yesterdayPartition), read);
+    assertEquals(Arrays.asList(todayPartition, yesterdayPartition),
+        partitions.recordPartitions(COLLECTION, today));
+  }
+}
@@ -0,0 +1,56 @@
+package com.arextest.storage.repository.impl.mongo.converters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.arextest.model.mock.Mocker.Target;
+import org.junit.jupiter.api.Test;
+
+class ArexMockerCompressionConverterTest {
+
+  private final ArexMockerCompressionConverter.Read read =
+      new ArexMockerCompressionConverter.Read();
+  private final ArexMockerCompressionConverter.Write write =
+      new ArexMockerCompressionConverter.Write();
+
+  @Test
+  void decodeOnFirstAccess() {
+    Target target = read.convert(write.convert(target()));
+    LazyTarget lazy = (LazyTarget) target;
+    assertTrue(lazy.encodedLength() > 0);
+
+    assertEquals("body", target.getBody());
+    assertEquals(-1, lazy.encodedLength());
+    assertEquals("java.lang.String", target.getType());
+    assertEquals("value", target.getAttribute("key"));
+  }
+
+  @Test
+  void writeUntouchedTargetAsStored() {
+    String stored = write.convert(target());
+    assertEquals(stored, write.convert(read.convert(stored)));
+  }
+
+  @Test
+  void keepUntouchedFieldsOfEditedTarget() {
+    String stored = write.convert(target());
+    Target edited = read.convert(stored);
+    edited.setBody("edited");
+
+    String rewritten = write.convert(edited);
+    assertNotEquals(stored, rewritten);
+    Target reread = read.convert(rewritten);
+    assertEquals("edited", reread.getBody());
+    assertEquals("java.lang.String", reread.getType());
+    assertEquals("value", reread.getAttribute("key"));
+  }
+
+  private static Target target() {
+    Target target = new Target();
+    target.setBody("body");
+    target.setType("java.lang.String");
+    target.setAttribute("key", "value");
+    return target;
+  }
+}
@@ -0,0 +1,86 @@
+package com.arextest.storage.repository.scenepool;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.scenepool.Scene;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class ScenePoolProviderImplTest {
+
+  private final MongoTemplate template = mock(MongoTemplate.class);
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  private final ScenePoolProviderImpl provider = new ScenePoolProviderImpl("Rolling");
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setUp() {
+    when(config.getConfigAsBoolean(anyString(), anyBoolean()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsLong(anyString(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsString(anyString(), anyString()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    // the pool holds no scene of the app when the filter loads
+    when(template.stream(any(Query.class), eq(Scene.class), anyString()))
+        .thenReturn(mock(CloseableIterator.class));
+    provider.setMongoDataBase(template);
+    ReflectionTestUtils.setField(provider, "sceneKeyFilter", new SceneKeyFilter(config));
+  }
+
+  @Test
+  void answerFilterNegativeWithoutQuery() {
+    assertFalse(provider.checkSceneExist("app", "scene"));
+    verify(template, never()).findOne(any(Query.class), eq(Scene.class), anyString());
+  }
+
+  @Test
+  void confirmFilterNegativeByInsert() {
+    // another node inserted the scene, the upsert matches it
+    when(template.upsert(any(Query.class), any(Update.class), eq(Scene.class), anyString()))
+        .thenReturn(UpdateResult.acknowledged(1L, 0L, null));
+    assertFalse(provider.insertIfAbsent(scene()));
+
+    when(template.upsert(any(Query.class), any(Update.class), eq(Scene.class), anyString()))
+        .thenReturn(UpdateResult.acknowledged(0L, 0L, new BsonObjectId()));
+    assertTrue(provider.insertIfAbsent(scene()));
+  }
+
+  @Test
+  void confirmFilterPositiveByQuery() {
+    when(template.upsert(any(Query.class), any(Update.class), eq(Scene.class), anyString()))
+        .thenReturn(UpdateResult.acknowledged(0L, 0L, new BsonObjectId()));
+    assertFalse(provider.checkSceneExist("app", "scene"));
+    provider.insertIfAbsent(scene());
+
+    // the scene expired from the pool since
+    assertFalse(provider.checkSceneExist("app", "scene"));
+    verify(template).findOne(any(Query.class), eq(Scene.class), anyString());
+  }
+
+  private static Scene scene() {
+    Scene scene = new Scene();
+    scene.setAppId("app");
+    scene.setSceneKey("scene");
+    scene.setRecordId("record-1");
+    return scene;
+  }
+}
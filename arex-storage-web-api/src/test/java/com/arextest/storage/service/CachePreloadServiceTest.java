@@ -0,0 +1,93 @@
+package com.arextest.storage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.storage.repository.ProviderNames;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CachePreloadServiceTest {
+
+  private static final String PROVIDER = ProviderNames.DEFAULT;
+
+  private final PrepareMockResultService prepareMockResultService =
+      mock(PrepareMockResultService.class);
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+
+  @BeforeEach
+  void setUp() {
+    when(config.getConfigAsLong(anyString(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(prepareMockResultService.preloadAll(PROVIDER, "record-1")).thenReturn(true);
+    when(prepareMockResultService.preloadAll(PROVIDER, "record-2")).thenReturn(false);
+  }
+
+  @Test
+  void preloadEachRecordOnce() {
+    CachePreloadService service = service(MoreExecutors.newDirectExecutorService());
+    Map<String, Boolean> results = service.preloadAll(PROVIDER,
+        Arrays.asList("record-1", "record-2", "record-1", ""));
+
+    assertEquals(2, results.size());
+    assertTrue(results.get("record-1"));
+    assertFalse(results.get("record-2"));
+    verify(prepareMockResultService, times(1)).preloadAll(PROVIDER, "record-1");
+  }
+
+  @Test
+  void skipPrefetchOnSaturatedExecutor() {
+    ExecutorService executor = mock(ExecutorService.class);
+    doThrow(new RejectedExecutionException()).when(executor).execute(any());
+    CachePreloadService service = service(executor);
+
+    assertEquals(0, service.prefetch(PROVIDER, Collections.singletonList("record-1")));
+    verify(prepareMockResultService, never()).preloadAll(any(), any());
+    // a batch load runs the preload in its own thread instead
+    assertTrue(service.preloadAll(PROVIDER, Collections.singletonList("record-1"))
+        .get("record-1"));
+  }
+
+  @Test
+  void removeCacheWrittenAfterRemoval() {
+    CachePreloadService service = service(MoreExecutors.newDirectExecutorService());
+    when(prepareMockResultService.preloadAll(PROVIDER, "record-1")).thenAnswer(invocation -> {
+      // the cache is removed while the preload is writing it
+      service.forget(PROVIDER, "record-1");
+      return true;
+    });
+
+    assertFalse(service.preload(PROVIDER, "record-1"));
+    verify(prepareMockResultService).removeAllRecordCache("record-1", PROVIDER);
+  }
+
+  @Test
+  void keepCacheOfPreloadNotForgotten() {
+    CachePreloadService service = service(MoreExecutors.newDirectExecutorService());
+    assertTrue(service.preload(PROVIDER, "record-1"));
+    // forgetting a finished preload leaves the removal to the caller
+    service.forget(PROVIDER, "record-1");
+    verify(prepareMockResultService, never()).removeAllRecordCache(any(), any());
+  }
+
+  private CachePreloadService service(ExecutorService executor) {
+    return new CachePreloadService(prepareMockResultService, executor, config);
+  }
+}
@@ -0,0 +1,103 @@
+package com.arextest.storage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.model.mock.Mocker;
+import com.arextest.storage.mock.MockResultProvider;
+import com.arextest.storage.repository.RepositoryProvider;
+import com.arextest.storage.repository.RepositoryProviderFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EigenEnrichmentServiceTest {
+
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  private final MockResultProvider mockResultProvider = mock(MockResultProvider.class);
+  private final RepositoryProviderFactory factory = mock(RepositoryProviderFactory.class);
+  @SuppressWarnings("unchecked")
+  private final RepositoryProvider<Mocker> provider = mock(RepositoryProvider.class);
+  private final AtomicInteger updated = new AtomicInteger();
+  private final AtomicBoolean updatedInterrupted = new AtomicBoolean();
+  private final CountDownLatch firstUpdate = new CountDownLatch(1);
+  private final CountDownLatch releaseFirstUpdate = new CountDownLatch(1);
+  private EigenEnrichmentService service;
+
+  @BeforeEach
+  void setUp() {
+    when(config.getConfigAsBoolean(anyString(), anyBoolean()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsInt(anyString(), anyInt()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsLong(anyString(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsInt(eq("record.eigen.deferred.batch.size"), anyInt())).thenReturn(1);
+    when(config.getConfigAsLong(eq("record.eigen.deferred.flush.interval.millis"), anyLong()))
+        .thenReturn(50L);
+    doAnswer(invocation -> {
+      invocation.<Mocker>getArgument(0).setEigenMap(Collections.singletonMap(1, 1L));
+      return null;
+    }).when(mockResultProvider).calculateEigen(any(), anyBoolean());
+    when(factory.defaultProvider()).thenReturn(provider);
+    when(provider.updateEigenMap(any(), any())).thenAnswer(invocation -> {
+      firstUpdate.countDown();
+      releaseFirstUpdate.await();
+      if (Thread.currentThread().isInterrupted()) {
+        updatedInterrupted.set(true);
+      }
+      return (long) updated.addAndGet(invocation.<List<Mocker>>getArgument(1).size());
+    });
+    service = new EigenEnrichmentService(config, mockResultProvider, factory,
+        Collections.emptyList());
+  }
+
+  @Test
+  void drainPendingMockersOnStop() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      assertTrue(service.submit(mocker(String.valueOf(i))));
+    }
+    assertTrue(firstUpdate.await(5, TimeUnit.SECONDS));
+
+    Thread stopping = new Thread(service::stop);
+    stopping.start();
+    Thread.sleep(100L);
+    releaseFirstUpdate.countDown();
+    stopping.join(TimeUnit.SECONDS.toMillis(5));
+
+    assertFalse(stopping.isAlive());
+    assertEquals(3, updated.get());
+    assertFalse(updatedInterrupted.get());
+  }
+
+  @Test
+  void leaveMockersSubmittedAfterStopToPreload() {
+    service.stop();
+    assertFalse(service.submit(mocker("1")));
+  }
+
+  private static Mocker mocker(String id) {
+    AREXMocker mocker = new AREXMocker(MockCategoryType.DATABASE);
+    mocker.setId(id);
+    mocker.setRecordId("record-1");
+    return mocker;
+  }
+}
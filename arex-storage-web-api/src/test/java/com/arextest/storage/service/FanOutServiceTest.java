@@ -0,0 +1,86 @@
+package com.arextest.storage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+class FanOutServiceTest {
+
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  private final ExecutorService executor = Executors.newFixedThreadPool(3);
+  private final FanOutService service = new FanOutService(executor, config);
+
+  @BeforeEach
+  void setUp() {
+    when(config.getConfigAsBoolean(anyString(), anyBoolean()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsLong(anyString(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+    MDC.clear();
+  }
+
+  @Test
+  void keepOrderOfKeysAndContext() {
+    MDC.put("recordId", "record-1");
+    List<String> results = service.invokeAll(Arrays.asList(30L, 0L, 10L), delay -> {
+      sleep(delay);
+      return delay + ":" + MDC.get("recordId");
+    });
+    assertEquals(Arrays.asList("30:record-1", "0:record-1", "10:record-1"), results);
+    assertEquals(6L, service.sum(Arrays.asList(1L, 2L, 3L), count -> count));
+  }
+
+  @Test
+  void failAtDeadline() {
+    long start = System.currentTimeMillis();
+    assertThrows(IllegalStateException.class,
+        () -> service.invokeAll(Arrays.asList(0L, TimeUnit.SECONDS.toMillis(10)), delay -> {
+          sleep(delay);
+          return delay;
+        }, 50L));
+    assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(5));
+  }
+
+  @Test
+  void rethrowFailureOfSubOperation() {
+    IllegalArgumentException failure = new IllegalArgumentException("bad category");
+    IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class,
+        () -> service.invokeAll(Arrays.asList(1, 2), key -> {
+          if (key == 2) {
+            throw failure;
+          }
+          return key;
+        }));
+    assertSame(failure, thrown);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.arextest.storage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.storage.metric.MetricListener;
+import com.arextest.storage.service.MockQueryStageGuard.Stage;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MockQueryStageGuardTest {
+
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  private final MetricListener metricListener = mock(MetricListener.class);
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private final MockQueryStageGuard guard = new MockQueryStageGuard(config, executor,
+      Collections.singletonList(metricListener));
+
+  @BeforeEach
+  void setUp() {
+    when(config.getConfigAsLong(anyString(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void leaveStageUnboundedWithoutDeadline() {
+    assertTrue(guard.withinDeadline(Stage.CACHE_READ, Long.MAX_VALUE));
+    Thread caller = Thread.currentThread();
+    assertTrue(guard.callHedged(Stage.PRELOAD, () -> Thread.currentThread() == caller));
+  }
+
+  @Test
+  void countStageOverDeadline() {
+    when(config.getConfigAsLong(eq(Stage.CACHE_READ.getDeadlineConfig()), anyLong()))
+        .thenReturn(100L);
+    assertTrue(guard.withinDeadline(Stage.CACHE_READ, 100L));
+    assertFalse(guard.withinDeadline(Stage.CACHE_READ, 101L));
+    verify(metricListener).recordSize(eq("mock.query.stage.timeout"), anyMap(), anyInt());
+  }
+
+  @Test
+  void answerMissPastDeadline() {
+    when(config.getConfigAsLong(eq(Stage.PRELOAD.getDeadlineConfig()), anyLong()))
+        .thenReturn(50L);
+    assertFalse(guard.callHedged(Stage.PRELOAD, () -> {
+      sleep(TimeUnit.SECONDS.toMillis(2));
+      return true;
+    }));
+    verify(metricListener).recordSize(eq("mock.query.stage.timeout"), anyMap(), anyInt());
+    verify(metricListener, never()).recordSize(eq("mock.query.stage.hedge"), anyMap(), anyInt());
+  }
+
+  @Test
+  void hedgeSlowCall() {
+    when(config.getConfigAsLong(eq(Stage.PRELOAD.getDeadlineConfig()), anyLong()))
+        .thenReturn(TimeUnit.SECONDS.toMillis(1));
+    when(config.getConfigAsLong(eq("mock.query.preload.hedge.delay.millis"), anyLong()))
+        .thenReturn(50L);
+    AtomicInteger calls = new AtomicInteger();
+    assertTrue(guard.callHedged(Stage.PRELOAD, () -> {
+      if (calls.incrementAndGet() == 1) {
+        sleep(TimeUnit.SECONDS.toMillis(5));
+      }
+      return true;
+    }));
+    assertEquals(2, calls.get());
+    verify(metricListener).recordSize(eq("mock.query.stage.hedge"), anyMap(), anyInt());
+  }
+
+  @Test
+  void answerByHedgeWhenSlowCallFails() {
+    when(config.getConfigAsLong(eq(Stage.PRELOAD.getDeadlineConfig()), anyLong()))
+        .thenReturn(TimeUnit.SECONDS.toMillis(2));
+    when(config.getConfigAsLong(eq("mock.query.preload.hedge.delay.millis"), anyLong()))
+        .thenReturn(50L);
+    AtomicInteger calls = new AtomicInteger();
+    assertTrue(guard.callHedged(Stage.PRELOAD, () -> {
+      if (calls.incrementAndGet() == 1) {
+        // fails after the hedge started, before the hedge is done
+        sleep(100L);
+        throw new IllegalStateException("mongo unavailable");
+      }
+      sleep(300L);
+      return true;
+    }));
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.arextest.storage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.model.mock.Mocker;
+import com.arextest.storage.repository.ProviderNames;
+import com.arextest.storage.repository.RepositoryProvider;
+import com.arextest.storage.repository.RepositoryProviderFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MockSourceEditionServiceTest {
+
+  private static final String RECORD_ID = "record-1";
+
+  private final RepositoryProviderFactory factory = mock(RepositoryProviderFactory.class);
+  private final ScheduleReplayingService replayingService = mock(ScheduleReplayingService.class);
+  @SuppressWarnings("unchecked")
+  private final RepositoryProvider<Mocker> source = mock(RepositoryProvider.class);
+  @SuppressWarnings("unchecked")
+  private final RepositoryProvider<Mocker> target = mock(RepositoryProvider.class);
+  private final MockSourceEditionService service = new MockSourceEditionService(factory,
+      replayingService, Collections.emptySet(), mock(FanOutService.class));
+
+  @BeforeEach
+  void setUp() {
+    when(factory.<Mocker>findProvider(ProviderNames.DEFAULT)).thenReturn(source);
+    when(factory.<Mocker>findProvider(ProviderNames.PINNED)).thenReturn(target);
+    when(factory.getCategoryTypes()).thenReturn(new LinkedHashSet<>(
+        Arrays.asList(MockCategoryType.SERVLET, MockCategoryType.HTTP_CLIENT)));
+  }
+
+  @Test
+  void fallBackToReadAndSavePerCategory() {
+    when(source.copyTo(MockCategoryType.SERVLET, RECORD_ID, target, RECORD_ID)).thenReturn(1L);
+    when(source.copyTo(MockCategoryType.HTTP_CLIENT, RECORD_ID, target, RECORD_ID))
+        .thenReturn(-1L);
+    when(replayingService.queryRecordListForEdition(source, MockCategoryType.HTTP_CLIENT,
+        RECORD_ID)).thenReturn(Arrays.asList(mocker("a"), mocker("b")));
+    when(target.saveList(anyList())).thenReturn(true);
+
+    assertEquals(3, service.copyTo(ProviderNames.DEFAULT, RECORD_ID, ProviderNames.PINNED,
+        RECORD_ID));
+    verify(replayingService, never()).queryRecordListForEdition(any(),
+        eq(MockCategoryType.SERVLET), any());
+  }
+
+  @Test
+  void keepSourceOfCategoryNotCopied() {
+    when(source.copyTo(MockCategoryType.SERVLET, RECORD_ID, target, RECORD_ID)).thenReturn(1L);
+    when(source.copyTo(MockCategoryType.HTTP_CLIENT, RECORD_ID, target, RECORD_ID))
+        .thenReturn(-1L);
+    when(replayingService.queryRecordListForEdition(source, MockCategoryType.HTTP_CLIENT,
+        RECORD_ID)).thenReturn(Collections.singletonList(mocker("a")));
+    // the fallback save fails
+    when(target.saveList(anyList())).thenReturn(false);
+
+    assertEquals(1, service.moveTo(ProviderNames.DEFAULT, RECORD_ID, ProviderNames.PINNED));
+    verify(source).removeBy(MockCategoryType.SERVLET, RECORD_ID);
+    verify(source, never()).removeBy(MockCategoryType.HTTP_CLIENT, RECORD_ID);
+  }
+
+  private static AREXMocker mocker(String id) {
+    AREXMocker mocker = new AREXMocker(MockCategoryType.HTTP_CLIENT);
+    mocker.setId(id);
+    mocker.setRecordId(RECORD_ID);
+    return mocker;
+  }
+}
@@ -0,0 +1,114 @@
+package com.arextest.storage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.config.model.dto.ComparisonExclusionsConfiguration;
+import com.arextest.config.model.dto.application.AppContract;
+import com.arextest.config.model.vo.CompareConfiguration;
+import com.arextest.config.model.vo.ConfigComparisonExclusion;
+import com.arextest.config.repository.SystemConfigurationRepository;
+import com.arextest.config.repository.impl.ComparisonExclusionsConfigurationRepositoryImpl;
+import com.arextest.storage.repository.AppContractRepository;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class QueryConfigServiceTest {
+
+  private static final String APP_ID = "app";
+
+  @InjectMocks
+  private QueryConfigService service;
+  @Mock
+  private ComparisonExclusionsConfigurationRepositoryImpl comparisonExclusionsConfigurationRepository;
+  @Mock
+  private SystemConfigurationRepository systemConfigurationRepository;
+  @Mock
+  private AppContractRepository appContractRepository;
+
+  @BeforeEach
+  void setUp() {
+    when(appContractRepository.queryContractOperations(eq(APP_ID), any()))
+        .thenAnswer(invocation -> {
+          List<AppContract> contracts = new ArrayList<>();
+          for (String id : invocation.<Collection<String>>getArgument(1)) {
+            // an unknown contract is not found
+            if (!id.startsWith("unknown")) {
+              contracts.add(contract(id));
+            }
+          }
+          return contracts;
+        });
+  }
+
+  @Test
+  void fillDependencyOperationsFromContracts() {
+    exclusionsOf("contract-1", "contract-2");
+    CompareConfiguration configuration = service.queryCompareConfiguration(APP_ID);
+
+    assertEquals(new HashSet<>(Arrays.asList("operation-contract-1", "operation-contract-2")),
+        configuration.getComparisonExclusions().stream()
+            .map(ConfigComparisonExclusion::getOperationName).collect(Collectors.toSet()));
+  }
+
+  @Test
+  void queryOnlyContractsNotCachedYet() {
+    exclusionsOf("contract-1", "unknown-1");
+    service.queryCompareConfiguration(APP_ID);
+    exclusionsOf("contract-1", "contract-2", "unknown-1");
+    service.queryCompareConfiguration(APP_ID);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<String>> ids = ArgumentCaptor.forClass(Collection.class);
+    verify(appContractRepository, times(2))
+        .queryContractOperations(eq(APP_ID), ids.capture());
+    assertEquals(new HashSet<>(Arrays.asList("contract-1", "unknown-1")),
+        new HashSet<>(ids.getAllValues().get(0)));
+    // a contract not found is asked again, it may have been created since
+    assertEquals(new HashSet<>(Arrays.asList("contract-2", "unknown-1")),
+        new HashSet<>(ids.getAllValues().get(1)));
+  }
+
+  private void exclusionsOf(String... dependencyIds) {
+    List<ComparisonExclusionsConfiguration> configs = new ArrayList<>();
+    for (String dependencyId : dependencyIds) {
+      ComparisonExclusionsConfiguration config = new ComparisonExclusionsConfiguration();
+      config.setAppId(APP_ID);
+      config.setDependencyId(dependencyId);
+      config.setExclusions(Collections.singletonList("node"));
+      configs.add(config);
+    }
+    when(comparisonExclusionsConfigurationRepository.listBy(eq(APP_ID), anyInt()))
+        .thenReturn(configs);
+  }
+
+  private static AppContract contract(String id) {
+    AppContract contract = new AppContract();
+    contract.setId(id);
+    contract.setAppId(APP_ID);
+    contract.setOperationType("HttpClient");
+    contract.setOperationName("operation-" + id);
+    return contract;
+  }
+}
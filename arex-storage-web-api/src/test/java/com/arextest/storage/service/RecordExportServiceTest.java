@@ -0,0 +1,104 @@
+package com.arextest.storage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.model.replay.ExportRecordRequestType;
+import com.arextest.storage.repository.RepositoryProvider;
+import com.arextest.storage.repository.RepositoryProviderFactory;
+import com.arextest.storage.serialization.ZstdJacksonSerializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RecordExportServiceTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final RepositoryProviderFactory factory = mock(RepositoryProviderFactory.class);
+  private final RecordManifestService manifestService = mock(RecordManifestService.class);
+  private final ScheduleReplayingService replayingService = mock(ScheduleReplayingService.class);
+  @SuppressWarnings("unchecked")
+  private final RepositoryProvider<AREXMocker> provider = mock(RepositoryProvider.class);
+  private final RecordExportService service = new RecordExportService(factory, manifestService,
+      replayingService, objectMapper, new ZstdJacksonSerializer(objectMapper));
+
+  @BeforeEach
+  void setUp() {
+    when(factory.<AREXMocker>findProvider(any())).thenReturn(provider);
+    when(factory.getCategoryTypes()).thenReturn(new LinkedHashSet<>(
+        Arrays.asList(MockCategoryType.SERVLET, MockCategoryType.HTTP_CLIENT)));
+    when(manifestService.filterCategories(any(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+  }
+
+  @Test
+  void exportFullRecordsWithTrailer() throws IOException {
+    ExportRecordRequestType request = request();
+    request.setIncludeDependencies(true);
+    when(provider.streamEntryPointByRange(request, true))
+        .thenReturn(Stream.of(mocker(MockCategoryType.SERVLET)));
+    when(replayingService.queryRecordsWithoutRenewal(eq("record-1"), any(), eq(provider)))
+        .thenReturn(Collections.singletonList(mocker(MockCategoryType.HTTP_CLIENT)));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(1L, service.export(request, false, out));
+
+    verify(provider).streamEntryPointByRange(request, true);
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(3, lines.length);
+    JsonNode trailer = objectMapper.readTree(lines[2]).get("exportTrailer");
+    assertTrue(trailer.get("complete").asBoolean());
+    assertEquals(2L, trailer.get("mockers").asLong());
+  }
+
+  @Test
+  void endFailedExportWithErrorTrailer() throws IOException {
+    ExportRecordRequestType request = request();
+    when(provider.streamEntryPointByRange(request, false)).thenReturn(
+        Stream.of(mocker(MockCategoryType.SERVLET), null).map(mocker -> {
+          if (mocker == null) {
+            throw new IllegalStateException("cursor lost");
+          }
+          return mocker;
+        }));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThrows(IllegalStateException.class, () -> service.export(request, false, out));
+
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    JsonNode trailer = objectMapper.readTree(lines[lines.length - 1]).get("exportTrailer");
+    assertTrue(!trailer.get("complete").asBoolean());
+    assertEquals(1L, trailer.get("entryPoints").asLong());
+    assertEquals("cursor lost", trailer.get("error").asText());
+  }
+
+  private static ExportRecordRequestType request() {
+    ExportRecordRequestType request = new ExportRecordRequestType();
+    request.setAppId("app");
+    request.setCategory(MockCategoryType.SERVLET);
+    return request;
+  }
+
+  private static AREXMocker mocker(MockCategoryType category) {
+    AREXMocker mocker = new AREXMocker(category);
+    mocker.setRecordId("record-1");
+    mocker.setAppId("app");
+    return mocker;
+  }
+}
@@ -0,0 +1,97 @@
+package com.arextest.storage.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.model.Constants;
+import com.arextest.storage.model.RecordManifest;
+import com.arextest.storage.repository.ProviderNames;
+import com.arextest.storage.repository.RecordManifestRepository;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RecordManifestServiceTest {
+
+  private static final String RECORD_ID = "record-1";
+
+  private final RecordManifestRepository repository = mock(RecordManifestRepository.class);
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  private final RecordManifestService service = new RecordManifestService(repository, config);
+
+  @BeforeEach
+  void enable() {
+    when(config.getConfigAsBoolean(eq(Constants.RECORD_MANIFEST_ENABLED), anyBoolean()))
+        .thenReturn(true);
+    when(config.getConfigAsLong(eq(Constants.RECORD_MANIFEST_TRUSTED_SINCE_MILLIS), anyLong()))
+        .thenReturn(Constants.RECORD_MANIFEST_TRUSTED_SINCE_MILLIS_DEFAULT);
+  }
+
+  @Test
+  void trustCompleteManifest() {
+    RecordManifest manifest = manifest();
+    when(repository.queryByRecordId(RECORD_ID)).thenReturn(manifest);
+    assertSame(manifest, service.find(RECORD_ID));
+    assertEquals(Collections.singleton(MockCategoryType.SERVLET),
+        service.filterCategories(manifest, ProviderNames.DEFAULT,
+            Arrays.asList(MockCategoryType.SERVLET, MockCategoryType.DATABASE)));
+  }
+
+  @Test
+  void distrustIncompleteOrUntrustedManifest() {
+    RecordManifest incomplete = manifest();
+    incomplete.setComplete(null);
+    when(repository.queryByRecordId(RECORD_ID)).thenReturn(incomplete);
+    assertNull(service.find(RECORD_ID));
+
+    RecordManifest untrusted = manifest();
+    untrusted.setUntrusted(true);
+    when(repository.queryByRecordId(RECORD_ID)).thenReturn(untrusted);
+    assertNull(service.find(RECORD_ID));
+
+    // an unknown manifest keeps every category requested
+    assertEquals(2, service.filterCategories(null, ProviderNames.DEFAULT,
+        Arrays.asList(MockCategoryType.SERVLET, MockCategoryType.DATABASE)).size());
+  }
+
+  @Test
+  void distrustManifestBeforeTrustedSince() {
+    when(config.getConfigAsLong(eq(Constants.RECORD_MANIFEST_TRUSTED_SINCE_MILLIS), anyLong()))
+        .thenReturn(System.currentTimeMillis() + 1000L);
+    when(repository.queryByRecordId(RECORD_ID)).thenReturn(manifest());
+    assertNull(service.find(RECORD_ID));
+  }
+
+  @Test
+  void disabledByDefault() {
+    when(config.getConfigAsBoolean(eq(Constants.RECORD_MANIFEST_ENABLED), anyBoolean()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(repository.queryByRecordId(RECORD_ID)).thenReturn(manifest());
+    assertNull(service.find(RECORD_ID));
+  }
+
+  private static RecordManifest manifest() {
+    Map<String, Long> counts = new HashMap<>();
+    counts.put(RecordManifest.toCategoryKey(MockCategoryType.SERVLET.getName()), 1L);
+    Map<String, Map<String, Long>> providers = new HashMap<>();
+    providers.put(ProviderNames.DEFAULT, counts);
+    RecordManifest manifest = new RecordManifest();
+    manifest.setId(RECORD_ID);
+    manifest.setProviders(providers);
+    manifest.setCreationTime(new Date());
+    manifest.setComplete(true);
+    return manifest;
+  }
+}
@@ -0,0 +1,79 @@
+package com.arextest.storage.service.ingest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AppIngestSchedulerTest {
+
+  private static final int LIMIT = 10;
+
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+  private SaveConcurrencyLimiter limiter;
+  private AppIngestScheduler scheduler;
+
+  @BeforeEach
+  void setUp() {
+    when(config.getConfigAsBoolean(anyString(), anyBoolean()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsLong(anyString(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsString(anyString(), anyString()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsInt(anyString(), anyInt()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsInt(eq("record.save.limit.min"), anyInt())).thenReturn(LIMIT);
+    when(config.getConfigAsInt(eq("record.save.limit.max"), anyInt())).thenReturn(LIMIT);
+    limiter = new SaveConcurrencyLimiter(config, Collections.emptyList());
+    scheduler = new AppIngestScheduler(config, limiter, Collections.emptyList());
+  }
+
+  @Test
+  void borrowIdleCapacityBeyondShare() {
+    // app-b takes its share of one slot, app-a borrows the idle slots up to the borrow ratio
+    assertTrue(scheduler.tryAcquire("app-b"));
+    for (int i = 0; i < 7; i++) {
+      assertTrue(scheduler.tryAcquire("app-a"));
+    }
+    assertFalse(scheduler.tryAcquire("app-a"));
+    assertEquals(8, limiter.getInFlight());
+
+    // the slots left under contention are kept for app-b within its share
+    assertTrue(scheduler.tryAcquire("app-b"));
+    assertTrue(scheduler.tryAcquire("app-b"));
+    // within its share, an app is still bounded by the limit
+    assertFalse(scheduler.tryAcquire("app-c"));
+    assertEquals(LIMIT, limiter.getInFlight());
+  }
+
+  @Test
+  void evictIdleApps() {
+    assertTrue(scheduler.tryAcquire("app-a"));
+    assertTrue(scheduler.tryAcquire("app-a"));
+    assertTrue(scheduler.tryAcquire("app-b"));
+    assertEquals(2, scheduler.getActiveApps());
+
+    scheduler.release("app-a", 1L, false);
+    scheduler.release("app-b", 1L, false);
+    assertEquals(1, scheduler.getActiveApps());
+    scheduler.release("app-a", 1L, false);
+    assertEquals(0, scheduler.getActiveApps());
+    assertEquals(0, limiter.getInFlight());
+
+    // an evicted app takes its share again
+    assertTrue(scheduler.tryAcquire("app-a"));
+    assertEquals(1, scheduler.getActiveApps());
+  }
+}
@@ -0,0 +1,97 @@
+package com.arextest.storage.service.ingest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SaveConcurrencyLimiterTest {
+
+  private static final long LATENCY_MILLIS = 500L;
+
+  private final DefaultApplicationConfig config = mock(DefaultApplicationConfig.class);
+
+  @BeforeEach
+  void setUp() {
+    when(config.getConfigAsBoolean(anyString(), anyBoolean()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsLong(anyString(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsString(anyString(), anyString()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsInt(anyString(), anyInt()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(config.getConfigAsInt(eq("record.save.limit.min"), anyInt())).thenReturn(2);
+    when(config.getConfigAsInt(eq("record.save.limit.max"), anyInt())).thenReturn(6);
+    when(config.getConfigAsInt(eq("record.save.limit.initial"), anyInt())).thenReturn(4);
+  }
+
+  @Test
+  void shedSavesBeyondLimit() {
+    SaveConcurrencyLimiter limiter = new SaveConcurrencyLimiter(config, Collections.emptyList());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+    assertFalse(limiter.tryAcquire());
+    assertEquals(1L, limiter.getShedCount());
+    assertEquals(4, limiter.getInFlight());
+  }
+
+  @Test
+  void growOnFastSavesUpToMax() {
+    SaveConcurrencyLimiter limiter = new SaveConcurrencyLimiter(config, Collections.emptyList());
+    // two saves in flight use half of the limit, it grows by one for each
+    assertTrue(limiter.tryAcquire());
+    assertTrue(limiter.tryAcquire());
+    limiter.release(1L, false);
+    assertEquals(5, limiter.getLimit());
+    // one save in flight is below half of the limit
+    limiter.release(1L, false);
+    assertEquals(5, limiter.getLimit());
+
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 3; j++) {
+        assertTrue(limiter.tryAcquire());
+      }
+      for (int j = 0; j < 3; j++) {
+        limiter.release(1L, false);
+      }
+    }
+    assertEquals(6, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  void shrinkOnceOnSlowOrDroppedSavesDownToMin() {
+    SaveConcurrencyLimiter limiter = new SaveConcurrencyLimiter(config, Collections.emptyList());
+    limiter.tryAcquire();
+    limiter.tryAcquire();
+    limiter.release(LATENCY_MILLIS + 1, false);
+    assertEquals(3, limiter.getLimit());
+    // the saves started under the old limit do not shrink it again within the latency threshold
+    limiter.release(0L, true);
+    assertEquals(3, limiter.getLimit());
+  }
+
+  @Test
+  void neverShedWhenDisabled() {
+    when(config.getConfigAsBoolean(eq("record.save.limit.enabled"), anyBoolean()))
+        .thenReturn(false);
+    SaveConcurrencyLimiter limiter = new SaveConcurrencyLimiter(config, Collections.emptyList());
+    for (int i = 0; i < 10; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+    assertEquals(0L, limiter.getShedCount());
+  }
+}
@@ -0,0 +1,194 @@
+package com.arextest.storage.service.spool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.arextest.common.config.DefaultApplicationConfig;
+import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.storage.serialization.ZstdJacksonSerializer;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MockerSpoolTest {
+
+  private static final long WAIT_MILLIS = 10_000L;
+  private static final int MAX_ATTEMPTS = 4;
+
+  @TempDir
+  Path dir;
+
+  private final ZstdJacksonSerializer serializer = new ZstdJacksonSerializer(
+      new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false));
+  private final List<ExecutorService> executors = new ArrayList<>();
+
+  @AfterEach
+  void shutdown() {
+    executors.forEach(ExecutorService::shutdownNow);
+  }
+
+  @Test
+  void replayUnsavedFramesWithTheirIds() throws InterruptedException {
+    AtomicInteger failedSaves = new AtomicInteger();
+    MockerSpool crashed = startSpool(mocker -> {
+      failedSaves.incrementAndGet();
+      return false;
+    });
+    List<AREXMocker> mockers = Arrays.asList(mocker(MockCategoryType.SERVLET),
+        mocker(MockCategoryType.HTTP_CLIENT), mocker(MockCategoryType.DATABASE));
+    assertTrue(crashed.append(mockers));
+    await(() -> failedSaves.get() >= mockers.size());
+    stop(crashed);
+
+    List<AREXMocker> saved = new CopyOnWriteArrayList<>();
+    MockerSpool restarted = startSpool(saved::add);
+    await(() -> restarted.getPendingCount() == 0);
+    stop(restarted);
+
+    assertEquals(mockers.size(), saved.size());
+    for (AREXMocker mocker : mockers) {
+      AREXMocker replayed = saved.stream()
+          .filter(item -> item.getCategoryType().getName()
+              .equals(mocker.getCategoryType().getName()))
+          .findFirst().orElse(null);
+      assertNotNull(replayed);
+      assertEquals(mocker.getRecordId(), replayed.getRecordId());
+      // the dependencies are saved again under the same ids
+      assertEquals(mocker.getId(), replayed.getId());
+    }
+    assertNull(mockers.get(0).getId());
+    assertNotNull(mockers.get(1).getId());
+
+    // drained frames are not replayed again
+    List<AREXMocker> savedAgain = new CopyOnWriteArrayList<>();
+    MockerSpool drained = startSpool(savedAgain::add);
+    assertEquals(0, drained.getPendingCount());
+    stop(drained);
+    assertTrue(savedAgain.isEmpty());
+  }
+
+  @Test
+  void retryFailedSave() throws InterruptedException {
+    List<String> recordIds = new CopyOnWriteArrayList<>();
+    MockerSpool spool = startSpool(mocker -> {
+      recordIds.add(mocker.getRecordId());
+      // a failed save may leave the mocker changed, as the repository does for an entry point
+      mocker.setRecordId(null);
+      return recordIds.size() > 2;
+    });
+    assertTrue(spool.append(Collections.singletonList(mocker(MockCategoryType.SERVLET))));
+    await(() -> spool.getPendingCount() == 0);
+    stop(spool);
+    assertEquals(Arrays.asList("record-1", "record-1", "record-1"), recordIds);
+
+    List<AREXMocker> saved = new CopyOnWriteArrayList<>();
+    stop(startSpool(saved::add));
+    assertTrue(saved.isEmpty());
+  }
+
+  @Test
+  void deadLetterFrameOutOfAttempts() throws InterruptedException, IOException {
+    AtomicInteger attempts = new AtomicInteger();
+    MockerSpool spool = startSpool(mocker -> {
+      attempts.incrementAndGet();
+      return false;
+    });
+    assertTrue(spool.append(Collections.singletonList(mocker(MockCategoryType.HTTP_CLIENT))));
+    await(() -> spool.getPendingCount() == 0);
+    stop(spool);
+    assertEquals(MAX_ATTEMPTS, attempts.get());
+    assertTrue(Files.size(dir.resolve("dead-letter.log")) > 0);
+
+    // the checkpoint passed the frame
+    List<AREXMocker> saved = new CopyOnWriteArrayList<>();
+    stop(startSpool(saved::add));
+    assertTrue(saved.isEmpty());
+  }
+
+  @Test
+  void saveFramesOfRecordInOrder() throws InterruptedException {
+    List<String> saved = new CopyOnWriteArrayList<>();
+    MockerSpool spool = startSpool(mocker -> {
+      if (saved.isEmpty()) {
+        // the first dependency is slow, the entry point still waits for it
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200L));
+      }
+      saved.add(mocker.getCategoryType().getName());
+      return true;
+    });
+    assertTrue(spool.append(Arrays.asList(mocker(MockCategoryType.HTTP_CLIENT),
+        mocker(MockCategoryType.DATABASE), mocker(MockCategoryType.SERVLET))));
+    await(() -> spool.getPendingCount() == 0);
+    stop(spool);
+    assertEquals(Arrays.asList(MockCategoryType.HTTP_CLIENT.getName(),
+        MockCategoryType.DATABASE.getName(), MockCategoryType.SERVLET.getName()), saved);
+  }
+
+  private MockerSpool startSpool(Predicate<AREXMocker> handler) {
+    DefaultApplicationConfig config = mock(DefaultApplicationConfig.class, invocation -> {
+      String key = invocation.getArgument(0);
+      switch (key) {
+        case "record.spool.enabled":
+          return true;
+        case "record.spool.fsync":
+          return false;
+        case "record.spool.dir":
+          return dir.toString();
+        case "record.spool.max.attempts":
+          return MAX_ATTEMPTS;
+        default:
+          return invocation.getArgument(1);
+      }
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    executors.add(executor);
+    MockerSpool spool = new MockerSpool(config, serializer, executor, Collections.emptyList());
+    spool.start(handler);
+    assertTrue(spool.isRunning());
+    return spool;
+  }
+
+  private void stop(MockerSpool spool) throws InterruptedException {
+    spool.stop();
+    ExecutorService executor = executors.get(executors.size() - 1);
+    executor.shutdownNow();
+    assertTrue(executor.awaitTermination(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+  }
+
+  private static AREXMocker mocker(MockCategoryType category) {
+    AREXMocker mocker = new AREXMocker(category);
+    mocker.setRecordId("record-1");
+    mocker.setAppId("app");
+    mocker.setOperationName("operation-" + category.getName());
+    return mocker;
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.currentTimeMillis() < deadline, "timed out");
+      Thread.sleep(10L);
+    }
+  }
+}
@@ -1,15 +1,51 @@
 package com.arextest.storage.web.controller;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.arextest.common.config.DefaultApplicationConfig;
 import com.arextest.model.mock.AREXMocker;
+import com.arextest.model.mock.MockCategoryType;
+import com.arextest.model.response.Response;
 import com.arextest.storage.metric.AgentWorkingMetricService;
+import com.arextest.storage.mock.MockResultMatchStrategy;
 import com.arextest.storage.service.AgentWorkingService;
+import com.arextest.storage.service.InvalidRecordService;
+import com.arextest.storage.service.ingest.AppIngestScheduler;
+import com.arextest.storage.service.spool.MockerSpool;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
 
 @ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
 public class AgentRecordingControllerTest {
   @InjectMocks
   AgentRecordingController service;
@@ -18,10 +54,137 @@ public class AgentRecordingControllerTest {
   private AgentWorkingService agentWorkingService;
   @Mock
   private AgentWorkingMetricService agentWorkingMetricService;
+  @Mock
+  private Executor agentIoExecutor;
+  @Mock
+  private ScheduledExecutorService agentDeadlineScheduler;
+  @Mock
+  private DefaultApplicationConfig defaultApplicationConfig;
+  @Mock
+  private AppIngestScheduler appIngestScheduler;
+  @Mock
+  private MockerSpool mockerSpool;
+  @Mock
+  private InvalidRecordService invalidRecordService;
 
+  private final List<Runnable> deadlines = new ArrayList<>();
+
+  @BeforeEach
+  void captureDeadlines() {
+    when(defaultApplicationConfig.getConfigAsLong(any(), anyLong()))
+        .thenAnswer(invocation -> invocation.getArgument(1));
+    when(appIngestScheduler.tryAcquireRate(any(), anyInt())).thenReturn(true);
+    when(appIngestScheduler.tryAcquire(any())).thenReturn(true);
+    when(agentDeadlineScheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+        .thenAnswer(invocation -> {
+          deadlines.add(invocation.getArgument(0));
+          return mock(ScheduledFuture.class);
+        });
+  }
 
   @Test
   public void test() {
-    service.save(new AREXMocker());
+    doAnswer(invocation -> {
+      invocation.<Runnable>getArgument(0).run();
+      return null;
+    }).when(agentIoExecutor).execute(any());
+    assertTrue(service.save(new AREXMocker()).hasResult());
+  }
+
+  @Test
+  public void skipHandlingQueuedAtDeadline() {
+    List<Runnable> queued = new ArrayList<>();
+    doAnswer(invocation -> queued.add(invocation.getArgument(0))).when(agentIoExecutor)
+        .execute(any());
+    DeferredResult<ResponseEntity<Response>> result = service.save(mocker());
+
+    deadlines.forEach(Runnable::run);
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, responseOf(result).getStatusCode());
+    queued.forEach(Runnable::run);
+    verify(agentWorkingMetricService, never()).saveRecord(any());
+  }
+
+  @Test
+  public void answerStartedHandlingByItsResult() {
+    List<Runnable> queued = new ArrayList<>();
+    doAnswer(invocation -> queued.add(invocation.getArgument(0))).when(agentIoExecutor)
+        .execute(any());
+    when(agentWorkingMetricService.saveRecord(any())).thenAnswer(invocation -> {
+      // the deadline passes while the save runs
+      deadlines.forEach(Runnable::run);
+      return true;
+    });
+    DeferredResult<ResponseEntity<Response>> result = service.save(mocker());
+
+    queued.forEach(Runnable::run);
+    verify(agentWorkingMetricService).saveRecord(any());
+    assertEquals(HttpStatus.OK, responseOf(result).getStatusCode());
+  }
+
+  @Test
+  public void answerBatchQueryInFrames() {
+    runInline();
+    byte[] first = new byte[]{1, 2};
+    byte[] second = new byte[]{3};
+    when(agentWorkingMetricService.batchQueryMockResult(any(), any()))
+        .thenReturn(Arrays.asList(first, second));
+
+    ByteBuffer frames = ByteBuffer.wrap(
+        (byte[]) service.batchQuery(Arrays.asList(mocker(), mocker()), 0).getResult());
+    assertEquals(2, frames.getInt());
+    assertArrayEquals(first, frame(frames));
+    assertArrayEquals(second, frame(frames));
+    assertEquals(0, frames.remaining());
+  }
+
+  @Test
+  public void rejectInvalidBatchQuery() {
+    runInline();
+    AREXMocker otherReplay = mocker();
+    otherReplay.setReplayId("replay-2");
+    assertEmptyFrames(service.batchQuery(Arrays.asList(mocker(), otherReplay), 0));
+    assertEmptyFrames(service.batchQuery(Collections.emptyList(), 0));
+    assertEmptyFrames(service.batchQuery(Collections.nCopies(201, mocker()), 0));
+    verify(agentWorkingMetricService, never()).batchQueryMockResult(any(), any());
+  }
+
+  @Test
+  public void answerFailedBatchQueryWithEmptyFrames() {
+    runInline();
+    doThrow(new IllegalStateException("redis down")).when(agentWorkingMetricService)
+        .batchQueryMockResult(any(), any(MockResultMatchStrategy.class));
+    assertEmptyFrames(service.batchQuery(Collections.singletonList(mocker()), 0));
+  }
+
+  private void runInline() {
+    doAnswer(invocation -> {
+      invocation.<Runnable>getArgument(0).run();
+      return null;
+    }).when(agentIoExecutor).execute(any());
+  }
+
+  private static byte[] frame(ByteBuffer frames) {
+    byte[] frame = new byte[frames.getInt()];
+    frames.get(frame);
+    return frame;
+  }
+
+  private static void assertEmptyFrames(DeferredResult<byte[]> result) {
+    assertArrayEquals(new byte[Integer.BYTES], (byte[]) result.getResult());
+  }
+
+  private static AREXMocker mocker() {
+    AREXMocker mocker = new AREXMocker(MockCategoryType.HTTP_CLIENT);
+    mocker.setRecordId("record-1");
+    mocker.setReplayId("replay-1");
+    mocker.setAppId("app");
+    return mocker;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ResponseEntity<Response> responseOf(
+      DeferredResult<ResponseEntity<Response>> result) {
+    assertTrue(result.hasResult());
+    return (ResponseEntity<Response>) result.getResult();
   }
-}
\ No newline at end of file
+}